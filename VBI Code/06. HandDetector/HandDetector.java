@@ -57,6 +57,7 @@ public class HandDetector
   private Font msgFont;
 
   // hand details
+  private boolean isHandFound = false;   // was a hand contour found by the last update()?
   private Point cogPt;           // center of gravity (COG) of contour
   private int contourAxisAngle;      
              // contour's main axis angle relative to the horizontal (in degrees)
@@ -154,6 +155,7 @@ public class HandDetector
         // do erosion followed by dilation on the image to remove specks of white & retain size
 
     CvSeq bigContour = findBiggestContour(imgThreshed);
+    isHandFound = (bigContour != null);
     if (bigContour == null)
       return;
 
@@ -547,6 +549,27 @@ public class HandDetector
   }  // end of usedName()
 
 
+  // --------------------------- results ----------------------------------
+  /* The results of the last update(); if no hand was found then the
+     other results are left over from an earlier update */
+
+  public boolean isHandFound()
+  {  return isHandFound;  }
+
+  public Point getCOG()
+  {  return cogPt;  }
+
+  public int getContourAxisAngle()
+  {  return contourAxisAngle;  }
+
+  public ArrayList<Point> getFingerTips()
+  {  return fingerTips;  }
+
+  public ArrayList<FingerName> getNamedFingers()
+  {  return namedFingers;  }
+
+
+
   // --------------------------- drawing ----------------------------------
 
   public void draw(Graphics2D g2d)
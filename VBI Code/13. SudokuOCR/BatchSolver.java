@@ -0,0 +1,259 @@
+// BatchSolver.java
+
+/* A headless batch version of the Sudoku solver, for checking large
+   collections of puzzles.
+
+   The input file holds one puzzle per line in the common 81-character
+   format: the cells are listed row by row, with blanks written as '0'
+   or '.'. Blank lines and lines starting with '#' are skipped.
+
+   The puzzles are split between a pool of threads (one per core by
+   default), each with its own BitSolver. The output file is CSV with
+   one line per puzzle:
+       puzzle number, solution (or "unsolved"/"invalid"), time (us), guesses
+
+   When all the puzzles are solved, the throughput (puzzles/sec) and
+   the 50th, 90th, 99th percentile and maximum solve times are printed.
+
+   Usage:
+     > java BatchSolver puzzles.txt solutions.csv
+     > java BatchSolver puzzles.txt solutions.csv 4     // use 4 threads
+*/
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+
+public class BatchSolver
+{
+  private static final int TABLE_SIZE = 9;
+  private static final int NUM_CELLS = TABLE_SIZE*TABLE_SIZE;
+
+  private static final int CHUNK_SIZE = 256;   // number of puzzles given to a thread at once
+
+
+  private String[] puzzles;
+  private String[] results;   // CSV line for each puzzle
+  private long[] times;       // solve time for each puzzle (in ns); -1 if invalid
+  private int numSolved = 0;
+
+
+
+  public BatchSolver(String inFnm, String outFnm, int numThreads)
+  {
+    puzzles = readPuzzles(inFnm);
+    if (puzzles.length == 0) {
+      System.out.println("No puzzles found in " + inFnm);
+      return;
+    }
+    System.out.println("Solving " + puzzles.length + " puzzles using " +
+                                            numThreads + " threads...");
+    results = new String[puzzles.length];
+    times = new long[puzzles.length];
+
+    long startTime = System.nanoTime();
+    solveAll(numThreads);
+    long totalTime = System.nanoTime() - startTime;
+
+    writeResults(outFnm);
+    reportStats(totalTime);
+  }  // end of BatchSolver()
+
+
+
+  private String[] readPuzzles(String fnm)
+  {
+    ArrayList<String> lines = new ArrayList<String>();
+    BufferedReader in = null;
+    try {
+      in = new BufferedReader( new FileReader(fnm));
+      String line;
+      int lineNo = 0;
+      while ((line = in.readLine()) != null) {
+        lineNo++;
+        line = line.trim();
+        if ((line.length() == 0) || line.startsWith("#"))
+          continue;
+        if (line.length() < NUM_CELLS)
+          System.out.println("Skipping short line " + lineNo + ": " + line);
+        else
+          lines.add(line.substring(0, NUM_CELLS));
+      }
+    }
+    catch (IOException e)
+    {  System.out.println("Could not read puzzles from " + fnm);
+       System.exit(1);
+    }
+    finally {
+      try {
+        if (in != null)
+          in.close();
+      }
+      catch (IOException e) {}
+    }
+    return lines.toArray(new String[lines.size()]);
+  }  // end of readPuzzles()
+
+
+
+  private void solveAll(int numThreads)
+  // give chunks of puzzles to the threads, and wait for them all to finish
+  {
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    ArrayList<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+
+    final ThreadLocal<BitSolver> solvers = new ThreadLocal<BitSolver>() {
+      protected BitSolver initialValue()
+      {  return new BitSolver();  }
+    };
+
+    for (int start = 0; start < puzzles.length; start += CHUNK_SIZE) {
+      final int first = start;
+      final int last = Math.min(start + CHUNK_SIZE, puzzles.length);
+      futures.add( executor.submit( new Callable<Integer>() {
+        public Integer call()
+        {  return solveChunk(solvers.get(), first, last);  }
+      }));
+    }
+
+    try {
+      for (Future<Integer> f : futures)
+        numSolved += f.get();
+    }
+    catch (Exception e)
+    {  System.out.println("Solving interrupted: " + e);  }
+
+    executor.shutdown();
+  }  // end of solveAll()
+
+
+
+  private int solveChunk(BitSolver solver, int first, int last)
+  // solve puzzles[first] to puzzles[last-1]; return number solved
+  {
+    int[][] table = new int[TABLE_SIZE][TABLE_SIZE];
+    StringBuilder sb = new StringBuilder(NUM_CELLS + 32);
+    int numSolved = 0;
+
+    for (int i = first; i < last; i++) {
+      sb.setLength(0);
+      sb.append(i+1).append(',');
+      if (!parsePuzzle(puzzles[i], table)) {
+        sb.append("invalid,0,0");
+        results[i] = sb.toString();
+        times[i] = -1;    // not included in the timing stats
+        continue;
+      }
+
+      boolean isSolved = solver.solve(table);
+      times[i] = solver.getSolveTime();
+      if (isSolved) {
+        numSolved++;
+        for (int row = 0; row < TABLE_SIZE; row++)
+          for (int col = 0; col < TABLE_SIZE; col++)
+            sb.append((char)('0' + table[row][col]));
+      }
+      else
+        sb.append("unsolved");
+      sb.append(',').append(times[i]/1000).append(',').append(solver.getNumGuesses());
+      results[i] = sb.toString();
+    }
+    return numSolved;
+  }  // end of solveChunk()
+
+
+
+  private boolean parsePuzzle(String puzzle, int[][] table)
+  // '1'-'9' are digits, '0' and '.' are blanks; anything else is invalid
+  {
+    for (int i = 0; i < NUM_CELLS; i++) {
+      char ch = puzzle.charAt(i);
+      int val;
+      if ((ch >= '1') && (ch <= '9'))
+        val = ch - '0';
+      else if ((ch == '0') || (ch == '.'))
+        val = 0;
+      else
+        return false;
+      table[i/TABLE_SIZE][i%TABLE_SIZE] = val;
+    }
+    return true;
+  }  // end of parsePuzzle()
+
+
+
+  private void writeResults(String fnm)
+  {
+    PrintWriter out = null;
+    try {
+      out = new PrintWriter( new BufferedWriter( new FileWriter(fnm)));
+      out.println("puzzle,solution,time_us,guesses");
+      for (String line : results)
+        out.println(line);
+      System.out.println("Results written to " + fnm);
+    }
+    catch (IOException e)
+    {  System.out.println("Could not write results to " + fnm);  }
+    finally {
+      if (out != null)
+        out.close();
+    }
+  }  // end of writeResults()
+
+
+
+  private void reportStats(long totalTime)
+  {
+    long[] sorted = times.clone();
+    Arrays.sort(sorted);
+    int numInvalid = 0;
+    while ((numInvalid < sorted.length) && (sorted[numInvalid] < 0))
+      numInvalid++;
+    sorted = Arrays.copyOfRange(sorted, numInvalid, sorted.length);
+
+    double secs = totalTime/1000000000.0;
+    System.out.printf("Solved %d of %d puzzles in %.3f secs: %.1f puzzles/sec\n",
+                          numSolved, puzzles.length, secs, puzzles.length/secs);
+    if (numInvalid > 0)
+      System.out.println(numInvalid + " puzzles were invalid");
+    if (sorted.length == 0)
+      return;
+    System.out.printf("Solve times (us): p50 %.1f; p90 %.1f; p99 %.1f; max %.1f\n",
+                          percentile(sorted, 50), percentile(sorted, 90),
+                          percentile(sorted, 99), sorted[sorted.length-1]/1000.0);
+  }  // end of reportStats()
+
+
+  private double percentile(long[] sorted, int perc)
+  // nearest-rank percentile of the sorted times, in microseconds
+  {
+    int idx = (int) Math.ceil(perc/100.0 * sorted.length) - 1;
+    idx = Math.max(0, Math.min(idx, sorted.length-1));
+    return sorted[idx]/1000.0;
+  }
+
+
+
+  // ------------------------------------------------
+
+  public static void main(String args[])
+  {
+    if ((args.length < 2) || (args.length > 3)) {
+      System.out.println("Usage: java BatchSolver <puzzles file> <output CSV> [<numThreads>]");
+      return;
+    }
+
+    int numThreads = Runtime.getRuntime().availableProcessors();
+    if (args.length == 3) {
+      try {
+        numThreads = Math.max(1, Integer.parseInt(args[2]));
+      }
+      catch (NumberFormatException e)
+      {  System.out.println("Number of threads must be an integer; using " + numThreads);  }
+    }
+    new BatchSolver(args[0], args[1], numThreads);
+  }  // end of main()
+
+}  // end of BatchSolver class
@@ -0,0 +1,286 @@
+// BitSolver.java
+
+/*  A fast Sudoku solver that keeps a bitmask of the digits used in each
+    row, column and box. Bit (d-1) is set when digit d is used, so the
+    candidates for a cell are the bits not used by its row, column, or box.
+
+    The search:
+      * fills in naked singles (cells with only one candidate) and
+        hidden singles (digits with only one possible cell in a row,
+        column, or box) until nothing more can be deduced;
+      * then guesses a value for the most constrained empty cell (the one
+        with the fewest candidates), and recurses.
+
+    Assignments are recorded on a trail, so backtracking only undoes the
+    cells filled since the guess.
+
+    The table uses the same format as Solver: a 9x9 array of ints with 0's
+    for blanks. After solve(), the statistics for the search can be read
+    with the get methods.
+*/
+
+
+
+public class BitSolver
+{
+  private static final int TABLE_SIZE = 9;
+  private static final int NUM_CELLS = TABLE_SIZE*TABLE_SIZE;
+  private static final int NUM_UNITS = 3*TABLE_SIZE;   // rows, columns, and boxes
+  private static final int ALL_DIGITS = 0x1FF;   // bits for the digits 1-9
+
+  // the row, column, and box of each cell, and the cells in each unit
+  private static final int[] ROW_OF = new int[NUM_CELLS];
+  private static final int[] COL_OF = new int[NUM_CELLS];
+  private static final int[] BOX_OF = new int[NUM_CELLS];
+  private static final int[][] UNITS = new int[NUM_UNITS][TABLE_SIZE];
+
+  static {
+    for (int cell = 0; cell < NUM_CELLS; cell++) {
+      int row = cell/TABLE_SIZE;
+      int col = cell%TABLE_SIZE;
+      int box = (row/3)*3 + col/3;
+      ROW_OF[cell] = row;
+      COL_OF[cell] = col;
+      BOX_OF[cell] = box;
+      UNITS[row][col] = cell;
+      UNITS[TABLE_SIZE + col][row] = cell;
+      UNITS[2*TABLE_SIZE + box][(row%3)*3 + col%3] = cell;
+    }
+  }
+
+
+  private int[] cells = new int[NUM_CELLS];    // digit in each cell, 0 if blank
+  private int[] rowUsed = new int[TABLE_SIZE];
+  private int[] colUsed = new int[TABLE_SIZE];
+  private int[] boxUsed = new int[TABLE_SIZE];
+
+  private int[] trail = new int[NUM_CELLS];    // cells in the order they were filled
+  private int trailLen = 0;
+
+  // search statistics
+  private long numGuesses, numBacktracks, numPropagated;
+  private int maxDepth;
+  private long solveTime;    // in nanoseconds
+
+
+
+  public boolean solve(int[][] table)
+  /* try to fill in the blanks in table; table[][] is only changed if
+     a solution is found */
+  {
+    long startTime = System.nanoTime();
+    numGuesses = 0;  numBacktracks = 0;  numPropagated = 0;
+    maxDepth = 0;
+
+    boolean isSolved = false;
+    if (load(table) && search(0)) {
+      for (int cell = 0; cell < NUM_CELLS; cell++)
+        table[ROW_OF[cell]][COL_OF[cell]] = cells[cell];
+      isSolved = true;
+    }
+    solveTime = System.nanoTime() - startTime;
+    return isSolved;
+  }  // end of solve()
+
+
+
+  public boolean isValid(int[][] table)
+  // does the table have no duplicate digits in any row, column, or box?
+  {  return load(table);  }
+
+
+
+  private boolean load(int[][] table)
+  // store the table's digits, returning false if it is invalid
+  {
+    for (int i = 0; i < TABLE_SIZE; i++) {
+      rowUsed[i] = 0;  colUsed[i] = 0;  boxUsed[i] = 0;
+    }
+    trailLen = 0;
+
+    for (int cell = 0; cell < NUM_CELLS; cell++) {
+      int val = table[ROW_OF[cell]][COL_OF[cell]];
+      cells[cell] = 0;
+      if (val == 0)
+        continue;
+      if ((val < 0) || (val > TABLE_SIZE))
+        return false;
+      int bit = 1 << (val-1);
+      if (((rowUsed[ROW_OF[cell]] | colUsed[COL_OF[cell]] | boxUsed[BOX_OF[cell]]) & bit) != 0)
+        return false;    // a duplicate
+      place(cell, val);
+    }
+    trailLen = 0;    // the given digits are never undone
+    return true;
+  }  // end of load()
+
+
+
+  private boolean search(int depth)
+  // recursive search, with single propagation at every level
+  {
+    if (depth > maxDepth)
+      maxDepth = depth;
+
+    int mark = trailLen;
+    if (!propagate()) {
+      undo(mark);
+      return false;
+    }
+
+    // find the most constrained empty cell
+    int bestCell = -1;
+    int bestCount = TABLE_SIZE+1;
+    for (int cell = 0; cell < NUM_CELLS; cell++) {
+      if (cells[cell] != 0)
+        continue;
+      int count = Integer.bitCount( candidates(cell));
+      if (count < bestCount) {
+        bestCell = cell;
+        bestCount = count;
+        if (count == 2)    // can't do better, since singles have been filled
+          break;
+      }
+    }
+    if (bestCell == -1)    // no empty cells, so solved
+      return true;
+
+    int cands = candidates(bestCell);
+    while (cands != 0) {
+      int bit = cands & -cands;    // lowest candidate
+      cands ^= bit;
+      numGuesses++;
+      int guessMark = trailLen;
+      place(bestCell, Integer.numberOfTrailingZeros(bit) + 1);
+      if (search(depth+1))
+        return true;
+      undo(guessMark);
+      numBacktracks++;
+    }
+
+    undo(mark);
+    return false;
+  }  // end of search()
+
+
+
+  private boolean propagate()
+  /* fill in naked and hidden singles until no more can be found;
+     return false if a contradiction is found */
+  {
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+
+      // naked singles: an empty cell with only one candidate
+      for (int cell = 0; cell < NUM_CELLS; cell++) {
+        if (cells[cell] != 0)
+          continue;
+        int cands = candidates(cell);
+        if (cands == 0)
+          return false;     // no value fits
+        if ((cands & (cands-1)) == 0) {   // only one bit set
+          place(cell, Integer.numberOfTrailingZeros(cands) + 1);
+          numPropagated++;
+          changed = true;
+        }
+      }
+
+      // hidden singles: a digit which fits in only one cell of a unit
+      for (int u = 0; u < NUM_UNITS; u++) {
+        int[] unit = UNITS[u];
+        int seenOnce = 0, seenTwice = 0, placed = 0;
+        for (int i = 0; i < TABLE_SIZE; i++) {
+          int cell = unit[i];
+          if (cells[cell] != 0) {
+            placed |= 1 << (cells[cell]-1);
+            continue;
+          }
+          int cands = candidates(cell);
+          seenTwice |= seenOnce & cands;
+          seenOnce |= cands;
+        }
+        if ((seenOnce | placed) != ALL_DIGITS)
+          return false;    // some digit can't be placed in this unit
+
+        int singles = seenOnce & ~seenTwice & ~placed;
+        while (singles != 0) {
+          int bit = singles & -singles;
+          singles ^= bit;
+          for (int i = 0; i < TABLE_SIZE; i++) {
+            int cell = unit[i];
+            if ((cells[cell] == 0) && ((candidates(cell) & bit) != 0)) {
+              place(cell, Integer.numberOfTrailingZeros(bit) + 1);
+              numPropagated++;
+              changed = true;
+              break;
+            }
+          }
+        }
+      }
+    }
+    return true;
+  }  // end of propagate()
+
+
+
+  private int candidates(int cell)
+  {  return ~(rowUsed[ROW_OF[cell]] | colUsed[COL_OF[cell]] | boxUsed[BOX_OF[cell]]) & ALL_DIGITS;  }
+
+
+
+  private void place(int cell, int val)
+  {
+    int bit = 1 << (val-1);
+    cells[cell] = val;
+    rowUsed[ROW_OF[cell]] |= bit;
+    colUsed[COL_OF[cell]] |= bit;
+    boxUsed[BOX_OF[cell]] |= bit;
+    trail[trailLen++] = cell;
+  }  // end of place()
+
+
+
+  private void undo(int mark)
+  // empty the cells filled since the trail was at mark
+  {
+    while (trailLen > mark) {
+      int cell = trail[--trailLen];
+      int bit = ~(1 << (cells[cell]-1));
+      cells[cell] = 0;
+      rowUsed[ROW_OF[cell]] &= bit;
+      colUsed[COL_OF[cell]] &= bit;
+      boxUsed[BOX_OF[cell]] &= bit;
+    }
+  }  // end of undo()
+
+
+
+  // ------------------ search statistics ----------------------
+
+  public long getNumGuesses()
+  // number of values tried in cells with more than one candidate
+  {  return numGuesses;  }
+
+  public long getNumBacktracks()
+  {  return numBacktracks;  }
+
+  public long getNumPropagated()
+  // number of cells filled in by naked or hidden singles
+  {  return numPropagated;  }
+
+  public int getMaxDepth()
+  {  return maxDepth;  }
+
+  public long getSolveTime()
+  // in nanoseconds
+  {  return solveTime;  }
+
+
+  public String getStats()
+  {
+    return String.format("%.3f ms; %d guesses, %d backtracks, %d propagated, depth %d",
+                 solveTime/1000000.0, numGuesses, numBacktracks, numPropagated, maxDepth);
+  }
+
+}  // end of BitSolver class
@@ -0,0 +1,403 @@
+// DigitRecognizer.java
+
+/* A pure Java digit recognizer for the Sudoku grid image, which replaces
+   the calls to the external gocr tool.
+
+   The grid image is the IM_SIZE*IM_SIZE square produced by GridVisualizer,
+   with white digits on a black background. It is cut into GRID_SIZE*GRID_SIZE
+   cells, and the biggest digit-shaped white blob is found in each one. If
+   there is no such blob then the cell is blank (0).
+
+   The blob is scaled (keeping its aspect ratio) into a SAMPLE_SIZE*SAMPLE_SIZE
+   bitmap, and compared against a set of templates of the digits 1-9. The
+   nearest template (smallest sum of squared differences) gives the digit,
+   unless it is further away than MAX_DIST.
+
+   The templates are built by drawing the digits in several fonts and
+   styles, and are passed through the same blob extraction and scaling
+   as the cells. Extra training images are read from the TRAIN_DIR
+   directory; each image holds one digit and its filename must start
+   with that digit (e.g. "7-a.png"). They are added to the templates.
+   The bundled images are the digit cells cut from the extracted grids
+   in sudoGrid.pnm and example.pnm.
+
+   Recognition takes a few milliseconds, so it can be applied to every frame.
+*/
+
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.util.*;
+import javax.imageio.*;
+
+
+
+public class DigitRecognizer
+{
+  private static final int IM_SIZE = 600;   // size of grid image
+  private static final int GRID_SIZE = 9;
+
+  private static final int SAMPLE_SIZE = 16;     // size of the normalized digit bitmaps
+  private static final int SAMPLE_LEN = SAMPLE_SIZE*SAMPLE_SIZE;
+
+  private static final int THRESHOLD = 128;      // gray level separating white from black
+  private static final double CELL_INSET = 0.06;   // fraction of the cell ignored at its edges
+
+  // limits on a digit's blob, as fractions of the cell size
+  private static final double MIN_HEIGHT = 0.3;
+  private static final double MAX_HEIGHT = 0.8;
+  private static final double MAX_WIDTH = 0.8;
+  private static final double MIN_FILL = 0.02;   // fraction of the cell's pixels
+  private static final double MIN_PART = 0.003;  // smallest part of a broken digit
+  private static final double MAX_GAP = 0.1;     // biggest gap between the parts of a digit
+
+  private static final int MAX_BLOBS = 64;   // max number of blobs examined in a cell
+
+  private static final double MAX_DIST = 0.3*SAMPLE_LEN;
+         // templates further away than this are not matches
+
+  private static final String TRAIN_DIR = "digits/";
+
+  private static final String[] FONT_NAMES = {Font.SANS_SERIF, Font.SERIF,
+                                              Font.MONOSPACED, Font.DIALOG};
+  private static final int[] FONT_STYLES = {Font.PLAIN, Font.BOLD};
+
+
+  // digit templates
+  private ArrayList<float[]> templates = new ArrayList<float[]>();
+  private ArrayList<Integer> templateDigits = new ArrayList<Integer>();
+
+  // reused for each image
+  private int[] pixels = null;    // gray levels of the grid image
+  private int imWidth, imHeight;
+  private int[] blobStack;        // for the flood fill
+  private int[] blobMark;         // blob ID of each pixel in the current cell
+  private int numBlobs;
+  private int[] blobCounts = new int[MAX_BLOBS+1];        // blob IDs start at 1
+  private int[][] blobBoxes = new int[MAX_BLOBS+1][4];    // x0, y0, x1, y1
+  private boolean[] isChosen = new boolean[MAX_BLOBS+1];  // blobs that make up the digit
+  private float[] sample = new float[SAMPLE_LEN];
+
+
+
+  public DigitRecognizer()
+  {
+    long startTime = System.currentTimeMillis();
+    addFontTemplates();
+    addTrainingTemplates(TRAIN_DIR);
+    System.out.println("Built " + templates.size() + " digit templates in " +
+                          (System.currentTimeMillis() - startTime) + "ms");
+  }  // end of DigitRecognizer()
+
+
+
+  // --------------------- build templates ------------------------
+
+
+  private void addFontTemplates()
+  // draw each digit in a cell-sized image using several fonts and styles
+  {
+    int cellSize = IM_SIZE/GRID_SIZE;
+    BufferedImage im = new BufferedImage(cellSize, cellSize, BufferedImage.TYPE_BYTE_GRAY);
+    Graphics2D g2 = im.createGraphics();
+
+    for (String fontName : FONT_NAMES) {
+      for (int style : FONT_STYLES) {
+        g2.setFont( new Font(fontName, style, (int)(cellSize*0.7)));
+        FontMetrics fm = g2.getFontMetrics();
+        for (int digit = 1; digit <= 9; digit++) {
+          g2.setColor(Color.BLACK);
+          g2.fillRect(0, 0, cellSize, cellSize);
+          g2.setColor(Color.WHITE);
+          String s = "" + digit;
+          int x = (cellSize - fm.stringWidth(s))/2;
+          int y = (cellSize + fm.getAscent() - fm.getDescent())/2;
+          g2.drawString(s, x, y);
+          addTemplate(im, digit);
+        }
+      }
+    }
+    g2.dispose();
+  }  // end of addFontTemplates()
+
+
+
+  private void addTrainingTemplates(String dirName)
+  // add a template for each image file in dirName whose name starts with a digit
+  {
+    File[] files = new File(dirName).listFiles();
+    if (files == null)    // no training directory
+      return;
+
+    for (File file : files) {
+      char ch = file.getName().charAt(0);
+      if ((ch < '1') || (ch > '9'))
+        continue;
+      try {
+        BufferedImage im = ImageIO.read(file);
+        if (im != null)
+          addTemplate(im, ch - '0');
+      }
+      catch (IOException e)
+      {  System.out.println("Could not read training image " + file);  }
+    }
+  }  // end of addTrainingTemplates()
+
+
+
+  private void addTemplate(BufferedImage im, int digit)
+  {
+    loadPixels(im);
+    if (extractSample(0, 0, imWidth, imHeight)) {
+      templates.add( sample.clone());
+      templateDigits.add(digit);
+    }
+    else
+      System.out.println("No template found for " + digit);
+  }  // end of addTemplate()
+
+
+
+  // --------------------- recognition ------------------------
+
+
+  public void recognize(BufferedImage gridIm, int[][] table, boolean printTime)
+  /* store the digit in each cell of the grid image in table[][]
+     (0 for a blank or unrecognized cell). The time is only printed if
+     printTime is true, since in live mode this is called for every frame. */
+  {
+    long startTime = System.currentTimeMillis();
+    loadPixels(gridIm);
+
+    double cellWidth = ((double)imWidth)/GRID_SIZE;
+    double cellHeight = ((double)imHeight)/GRID_SIZE;
+    int numDigits = 0;
+
+    for (int row = 0; row < GRID_SIZE; row++) {
+      for (int col = 0; col < GRID_SIZE; col++) {
+        int x0 = (int) Math.round(col*cellWidth);
+        int y0 = (int) Math.round(row*cellHeight);
+        int x1 = (int) Math.round((col+1)*cellWidth);
+        int y1 = (int) Math.round((row+1)*cellHeight);
+
+        table[row][col] = 0;
+        if (extractSample(x0, y0, x1, y1)) {
+          table[row][col] = nearestDigit(sample);
+          if (table[row][col] != 0)
+            numDigits++;
+        }
+      }
+    }
+    if (printTime)
+      System.out.println("Recognized " + numDigits + " digits in " +
+                            (System.currentTimeMillis() - startTime) + "ms");
+  }  // end of recognize()
+
+
+
+  private int nearestDigit(float[] sample)
+  // return the digit of the nearest template, or 0 if none is near enough
+  {
+    double minDist = MAX_DIST;
+    int digit = 0;
+    for (int i = 0; i < templates.size(); i++) {
+      float[] templ = templates.get(i);
+      double dist = 0;
+      for (int j = 0; (j < SAMPLE_LEN) && (dist < minDist); j++) {
+        double diff = templ[j] - sample[j];
+        dist += diff*diff;
+      }
+      if (dist < minDist) {
+        minDist = dist;
+        digit = templateDigits.get(i);
+      }
+    }
+    return digit;
+  }  // end of nearestDigit()
+
+
+
+  // --------------------- image processing ------------------------
+
+
+  private void loadPixels(BufferedImage im)
+  // store the image's gray levels in pixels[]
+  {
+    imWidth = im.getWidth();
+    imHeight = im.getHeight();
+    int len = imWidth*imHeight;
+    if ((pixels == null) || (pixels.length < len)) {
+      pixels = new int[len];
+      blobStack = new int[len];
+      blobMark = new int[len];
+    }
+
+    if (im.getType() == BufferedImage.TYPE_BYTE_GRAY)
+      im.getRaster().getPixels(0, 0, imWidth, imHeight, pixels);
+    else {   // use the average of the RGB components
+      int[] rgbs = im.getRGB(0, 0, imWidth, imHeight, null, 0, imWidth);
+      for (int i = 0; i < len; i++) {
+        int rgb = rgbs[i];
+        pixels[i] = (((rgb >> 16) & 0xFF) + ((rgb >> 8) & 0xFF) + (rgb & 0xFF))/3;
+      }
+    }
+  }  // end of loadPixels()
+
+
+
+  private boolean extractSample(int x0, int y0, int x1, int y1)
+  /* find the biggest digit-shaped blob inside the cell (x0,y0)-(x1,y1),
+     join it to any smaller blobs above or below it (parts of a broken digit),
+     and scale the result into sample[]; return false if there's no digit */
+  {
+    int cellW = x1 - x0;
+    int cellH = y1 - y0;
+    int insetX = (int)(cellW*CELL_INSET);
+    int insetY = (int)(cellH*CELL_INSET);
+    int cx0 = x0 + insetX;   int cx1 = x1 - insetX;
+    int cy0 = y0 + insetY;   int cy1 = y1 - insetY;
+
+    findBlobs(cx0, cy0, cx1, cy1);
+
+    // find the biggest tall blob which isn't part of a grid line
+    int bestId = 0;
+    for (int id = 1; id <= numBlobs; id++) {
+      if (isPossibleDigit(id, cx0, cy0, cx1, cy1, cellW, cellH) &&
+          (blobBoxes[id][3] - blobBoxes[id][1] >= MIN_HEIGHT*cellH) &&
+          ((bestId == 0) || (blobCounts[id] > blobCounts[bestId])))
+        bestId = id;
+    }
+    if (bestId == 0)
+      return false;
+    int[] bestBox = blobBoxes[bestId];
+
+    /* add smaller blobs just above or below it, which overlap it horizontally;
+       blobs touching the edges of the cell are assumed to be bits of grid lines */
+    int minPart = (int)(MIN_PART*cellW*cellH);
+    int maxGap = (int)(MAX_GAP*cellH);
+    int bx0 = bestBox[0];  int by0 = bestBox[1];
+    int bx1 = bestBox[2];  int by1 = bestBox[3];
+    int count = 0;
+    for (int id = 1; id <= numBlobs; id++) {
+      int[] box = blobBoxes[id];
+      isChosen[id] = (id == bestId) ||
+                     (isPossibleDigit(id, cx0, cy0, cx1, cy1, cellW, cellH) &&
+                      (blobCounts[id] >= minPart) &&
+                      (box[0] > cx0) && (box[1] > cy0) && (box[2] < cx1) && (box[3] < cy1) &&
+                      (box[0] < bestBox[2]) && (box[2] > bestBox[0]) &&
+                      (box[1] <= bestBox[3] + maxGap) && (box[3] >= bestBox[1] - maxGap));
+      if (isChosen[id]) {
+        count += blobCounts[id];
+        bx0 = Math.min(bx0, box[0]);  by0 = Math.min(by0, box[1]);
+        bx1 = Math.max(bx1, box[2]);  by1 = Math.max(by1, box[3]);
+      }
+    }
+
+    // is the result digit-shaped?
+    int h = by1 - by0;
+    if ((count < MIN_FILL*cellW*cellH) || (h < MIN_HEIGHT*cellH) ||
+        (h > MAX_HEIGHT*cellH) || (bx1 - bx0 > MAX_WIDTH*cellW))
+      return false;
+
+    scaleBlobs(bx0, by0, bx1, by1);
+    return true;
+  }  // end of extractSample()
+
+
+
+  private void findBlobs(int cx0, int cy0, int cx1, int cy1)
+  /* label the 8-connected white blobs inside (cx0,cy0)-(cx1,cy1), recording
+     each blob's size and bounding box; if there are more than MAX_BLOBS
+     then the extra ones are ignored */
+  {
+    for (int y = cy0; y < cy1; y++)
+      for (int x = cx0; x < cx1; x++)
+        blobMark[y*imWidth + x] = 0;
+    numBlobs = 0;
+
+    for (int y = cy0; y < cy1; y++) {
+      for (int x = cx0; x < cx1; x++) {
+        int idx = y*imWidth + x;
+        if ((pixels[idx] < THRESHOLD) || (blobMark[idx] != 0))
+          continue;
+        if (numBlobs == MAX_BLOBS)
+          return;
+
+        // flood fill a new blob, recording its bounding box
+        int blobId = ++numBlobs;
+        int count = 0;
+        int minX = x, maxX = x, minY = y, maxY = y;
+        int top = 0;
+        blobStack[top++] = idx;
+        blobMark[idx] = blobId;
+        while (top > 0) {
+          int p = blobStack[--top];
+          int px = p%imWidth;
+          int py = p/imWidth;
+          count++;
+          if (px < minX) minX = px;
+          if (px > maxX) maxX = px;
+          if (py < minY) minY = py;
+          if (py > maxY) maxY = py;
+
+          for (int ny = Math.max(py-1, cy0); ny <= Math.min(py+1, cy1-1); ny++)
+            for (int nx = Math.max(px-1, cx0); nx <= Math.min(px+1, cx1-1); nx++) {
+              int n = ny*imWidth + nx;
+              if ((pixels[n] >= THRESHOLD) && (blobMark[n] == 0)) {
+                blobMark[n] = blobId;
+                blobStack[top++] = n;
+              }
+            }
+        }
+        blobCounts[blobId] = count;
+        int[] box = blobBoxes[blobId];
+        box[0] = minX;  box[1] = minY;  box[2] = maxX+1;  box[3] = maxY+1;
+      }
+    }
+  }  // end of findBlobs()
+
+
+
+  private boolean isPossibleDigit(int id, int cx0, int cy0, int cx1, int cy1,
+                                          int cellW, int cellH)
+  // a blob that is not too big, and is not part of a grid line running across the cell
+  {
+    int[] box = blobBoxes[id];
+    if (((box[1] == cy0) && (box[3] == cy1)) || ((box[0] == cx0) && (box[2] == cx1)))
+      return false;
+    return ((box[3] - box[1] <= MAX_HEIGHT*cellH) && (box[2] - box[0] <= MAX_WIDTH*cellW));
+  }  // end of isPossibleDigit()
+
+
+
+  private void scaleBlobs(int x0, int y0, int x1, int y1)
+  /* scale the chosen blobs inside the bounding box into the center of sample[],
+     keeping their aspect ratio; each sample element is the fraction of its area
+     covered by the blobs */
+  {
+    Arrays.fill(sample, 0);
+    int w = x1 - x0;
+    int h = y1 - y0;
+    int size = Math.max(w, h);
+    double scale = ((double) SAMPLE_SIZE)/size;
+    double offX = (size - w)/2.0;    // center the blobs in the square
+    double offY = (size - h)/2.0;
+    float weight = (float)(scale*scale);
+
+    for (int y = y0; y < y1; y++) {
+      int sy = Math.min(SAMPLE_SIZE-1, (int)((y - y0 + offY)*scale));
+      for (int x = x0; x < x1; x++) {
+        int id = blobMark[y*imWidth + x];
+        if ((id != 0) && isChosen[id]) {
+          int sx = Math.min(SAMPLE_SIZE-1, (int)((x - x0 + offX)*scale));
+          sample[sy*SAMPLE_SIZE + sx] += weight;
+        }
+      }
+    }
+
+    for (int i = 0; i < SAMPLE_LEN; i++)
+      if (sample[i] > 1)
+        sample[i] = 1;
+  }  // end of scaleBlobs()
+
+}  // end of DigitRecognizer class
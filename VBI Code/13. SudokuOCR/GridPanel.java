@@ -33,12 +33,13 @@
    Blank squares are represented by 0's in the array.
 
    
-   When build() is called (due to the user pressing "Extract Grid"),
-   OCR recognition is applied to the Sudoku grid
-   image, using the command tool, gocr (http://jocr.sourceforge.net/). The
-   command is called using my SaferExec class, and the results are stored in
-   an XML file. That data is read in and used to update table[][] and the
-   spinners grid.
+   When build() is called (due to the user pressing "Extract Grid", or
+   on every frame in live mode), OCR recognition is applied to the Sudoku grid
+   image by DigitRecognizer, which compares each cell against digit templates.
+   The results are used to update table[][] and the spinners grid.
+
+   (Earlier versions called the command tool gocr (http://jocr.sourceforge.net/)
+   using my SaferExec class, and read its results from an XML file.)
 
    Usually the OCR has missed numbers or incorrectly read numbers, and so
    the user will need to manually adjust the spinner values. This will cause
@@ -54,14 +55,7 @@ import javax.swing.*;
 import javax.swing.event.*;
 
 import java.awt.*;
-import java.util.*;
-import java.io.*;
-
-import org.w3c.dom.*;
-import org.xml.sax.SAXException;
-
-import javax.xml.parsers.*;
-import javax.xml.xpath.*;
+import java.awt.image.*;
 
 import info.clearthought.layout.TableLayout;
     // I assume the TableLayout JAR is in Java's classpath
@@ -78,15 +72,14 @@ public class GridPanel extends JPanel implements ChangeListener
                          new String[] { " ", "1", "2", "3", "4", "5", "6", "7", "8", "9" };
        // possible values for each JSpinner
 
-  // for reading in the gocr XML results 
-  private static final String XML_FNM = "gocrOut.xml";
-  private static final String XPATH_EXPR = "//box";
 
 
   private JSpinner[][] spinners;   // each spinner represents one Sudoku number square
   private int[][] table;    // each box contains a Sudoku number (or 0 meaning no value)
   private boolean drawingGrid = false;
 
+  private DigitRecognizer recognizer;
+
 
 
   public GridPanel() 
@@ -114,6 +107,7 @@ public class GridPanel extends JPanel implements ChangeListener
     this.add( makeGrid(spinners), "2, 2");
 
     table = new int[GRID_SIZE][GRID_SIZE];
+    recognizer = new DigitRecognizer();
   }  // end of GridPanel()
 
 
@@ -207,102 +201,17 @@ public class GridPanel extends JPanel implements ChangeListener
   // ------------- load OCR data -----------------------------
 
 
-  public void build(String fnm)
-  /* apply OCR to the image stored in fnm, and then read in the results
-     from an XML file (XML_FNM). Create a list of NumberPos objects from the XML,
-     convert them into integers in table[][], and then update the 
-     spinners grid.
+  public void build(BufferedImage gridIm, boolean isLive)
+  /* apply OCR to the grid image, storing the digits in table[][], and then
+     update the spinners grid. The OCR time isn't printed in live mode.
   */
   {
-    applyOCR(fnm, XML_FNM);
-    ArrayList<NumberPos> sudoNumbers = readNumbersXML(XML_FNM);
-    fillTable(sudoNumbers);
+    recognizer.recognize(gridIm, table, !isLive);
     redrawGrid(table);
   }  // end of build()
 
 
 
-  private void applyOCR(String inFnm, String xmlFnm)
-  /* call gocr (http://jocr.sourceforge.net/)
-     via a batch file "xmlGocr.bat" in the local directory.
-     It reads in the sudoku grid image (stored in inFnm), and stores
-     the results in XML format in xmlFnm */
-  {
-    System.out.println("Applying OCR to " + inFnm + " using gocr...");
-    System.out.println("Saving XML results to " + xmlFnm);
-
-    long startTime = System.currentTimeMillis();
-
-    SaferExec se = new SaferExec(10);   // timeout is 10 secs
-    se.exec("xmlGocr.bat", inFnm, xmlFnm);
-       /* gocr is a command line tool, and is executed via a batch file
-          which is called using my SaferExec class. If the call doesn't finish
-          within 10 seconds then it is aborted. */
-
-    long duration = System.currentTimeMillis() - startTime;
-    System.out.println("OCR processing took " + Math.round(duration) + "ms");
-    System.out.println();
-  }  // end of applyOCR()
-
-
-
-  private ArrayList<NumberPos> readNumbersXML(String xmlFnm)
-  /* Read in the gocr XML results from xmlFnm, and create a list
-     of NumberPos objects based on the XML's box values. 
-     A typical box looks like:
-         <box x="219" y="79" dx="24" dy="40" value="6" numac="1" weights="97" />
-     A box shows the location of an OCR result in the image.
-  */
-  {
-    System.out.println("Reading in XML results from " + xmlFnm);
-
-    ArrayList<NumberPos> sudoNumbers = new ArrayList<NumberPos>();
-
-    try {
-      DocumentBuilderFactory domFactory = DocumentBuilderFactory.newInstance();
-      domFactory.setNamespaceAware(true); 
-      DocumentBuilder builder = domFactory.newDocumentBuilder();
-      Document doc = builder.parse(xmlFnm);
-    
-      XPathFactory factory = XPathFactory.newInstance();
-      XPath xpath = factory.newXPath();
-      XPathExpression expr  = xpath.compile(XPATH_EXPR);
-             /* all the "box" nodes in the XML are collected, since each one
-                represents an OCR result */
-    
-      Object result = expr.evaluate(doc, XPathConstants.NODESET);
-      NodeList nodes = (NodeList) result;
-      NumberPos np;
-      for (int i = 0; i < nodes.getLength(); i++) {
-        np = new NumberPos( nodes.item(i).getAttributes() );
-                // each NumberPos object is built from a box node's attributes
-        if (np.isValid())
-          sudoNumbers.add(np);
-      }
-    }
-    catch(Exception e)
-    {  System.out.println(e);  }
-
-    return sudoNumbers;
-  }  // end of readNumbersXML()
-
-
-
-  private void fillTable(ArrayList<NumberPos> sudoNumbers)
-  /* Each NumberPos obejct is used to update a table[][] entry based
-     on the NumberPos (x,y) indicies and its value. */
-  {
-    for (int row = 0; row < GRID_SIZE; row++)
-      for (int col = 0; col < GRID_SIZE; col++)
-        table[row][col] = 0;      // reset table[][]
-
-    // System.out.println("No. of Sudoku values found: " + sudoNumbers.size());
-    for(NumberPos np : sudoNumbers)
-      table[np.getYIndex()][np.getXIndex()] = np.getValue();
-  }  // end of fillTable()
-
-
-
 
   private void redrawGrid(int[][] table)
   /* Each table[][] value is used to update the corresponding spinner
@@ -9,7 +9,9 @@
    findOutline() and extractGrid()
 
    findOutline() locates the outline of the sudoku grid, while extractGrid()
-   saves a cleaned-up inverted binary image of the grid in a local file.
+   returns a cleaned-up inverted binary image of the grid.
+
+   The grid image is read by DigitRecognizer, so it isn't saved to a file.
 
   Some ideas borrowed from:
     http://www.aishack.in/2010/08/detecting-a-sudoku-puzzle-in-an-image-part-1/
@@ -58,7 +60,19 @@ public class GridVisualizer
 
 
   public GridVisualizer()
+  {  this(true);  }
+
+
+
+  public GridVisualizer(boolean showProgress)
+  /* If showProgress is false then no processing canvas is shown, and
+     the timings aren't printed, so the visualizer can be used without
+     a display (e.g. by a batch program). */
   {
+    if (!showProgress) {
+      procCanvas = null;
+      return;
+    }
     System.out.print("Starting OpenCV...");
 
     procCanvas = new CanvasFrame("Processing Canvas");
@@ -70,19 +84,29 @@ public class GridVisualizer
 
   public void close()
   {  
-    procCanvas.setVisible(false);
+    if (procCanvas != null)
+      procCanvas.setVisible(false);
     // procCanvas.dispose();   causes a hang sometimes
   } 
 
 
 
+  private void showImage(IplImage im)
+  // show im in the processing canvas, if there is one
+  {
+    if (procCanvas != null)
+      procCanvas.showImage(im);
+  }
+
+
+
   public Point[] findOutline(IplImage img)
   // find grid outline points inside the image
   {
     long startTime = System.currentTimeMillis();
 
     IplImage im = enhance(img);
-    procCanvas.showImage(im);  
+    showImage(im);  
 
     binaryImg = cvCloneImage(im);    // save for later
 
@@ -94,9 +118,11 @@ public class GridVisualizer
 
     pts = clockSort(quad);
 
-    long duration = System.currentTimeMillis() - startTime;
-    System.out.println("Grid outline found in " + Math.round(duration) + "ms");
-    System.out.println();
+    if (procCanvas != null) {
+      long duration = System.currentTimeMillis() - startTime;
+      System.out.println("Grid outline found in " + Math.round(duration) + "ms");
+      System.out.println();
+    }
 
     return pts;
   }  // end of findOutline()
@@ -219,30 +245,30 @@ public class GridVisualizer
   //--------------------------- 2nd stage -----------------------------------
 
 
-  public boolean extractGrid(String outFnm)
-  // extract grid from image, clean it, and save to outFnm
+  public BufferedImage extractGrid()
+  // extract grid from image, clean it, and return it (or null)
   {
     long startTime = System.currentTimeMillis();
 
     if (pts == null) {
       System.out.println("No grid found");
-      return false;
+      return null;
     }
 
     IplImage squareIm = warp(binaryImg, pts);   // warp grid into a square
-    procCanvas.showImage(squareIm);  
+    showImage(squareIm);  
 
     IplImage gridIm = cleanGrid(squareIm);
 
-    long duration = System.currentTimeMillis() - startTime;
-    System.out.println("Grid extracted in " + Math.round(duration) + "ms");
-    System.out.println();
+    if (procCanvas != null) {
+      long duration = System.currentTimeMillis() - startTime;
+      System.out.println("Grid extracted in " + Math.round(duration) + "ms");
+      System.out.println();
+    }
 
-    procCanvas.showImage(gridIm);  
+    showImage(gridIm);  
 
-    System.out.println("Saving grid image to " + outFnm);
-    cvSaveImage(outFnm, gridIm);
-    return true;
+    return gridIm.getBufferedImage();
   }  // end of extractGrid()
 
 
@@ -280,8 +306,6 @@ public class GridVisualizer
     IplImage warpImg = IplImage.create(IM_SIZE, IM_SIZE, IPL_DEPTH_8U, 1);
     cvWarpPerspective(im, warpImg, totalWarp);
 
-    cvSaveImage("warp.png", warpImg);
-
     return warpImg;
   }  // end of warp()
 
@@ -295,7 +319,7 @@ public class GridVisualizer
   {
     cvDilate(im, im, null, 2);   
             // make white stuff larger (e.g. letters, lines)
-    procCanvas.showImage(im);  
+    showImage(im);  
 
     highlightVerticals(im);
        // make the vertical grid lines continuous and thicker
@@ -10,6 +10,11 @@
    scan() retrieves the outline of the Sudoku grid, which is drawn as a 
    yellow polygon on top of the image. Only if an outline has been found
    will extractGrid() continue the processing.
+
+   In live mode, the outline and grid are found for every snap, and
+   the grid image is passed to the GridPanel for OCR. This uses a second,
+   quiet GridVisualizer, which doesn't print timings or update the
+   processing canvas on every frame.
 */
 
 import java.awt.*;
@@ -43,10 +48,13 @@ public class ScanPanel extends JPanel implements Runnable
   private volatile boolean isFinished;
   
   private GridVisualizer gridVis;   // image processing class
+  private GridVisualizer liveVis;   // quiet version used in live mode
 
   private Polygon gridPoly;     // holds the current sudoku outline polygon
   private boolean foundOutline = false;   // has an poutline been found?
 
+  private volatile GridPanel liveGridPanel = null;   // non-null when in live mode
+
 
 
   public ScanPanel()
@@ -55,6 +63,7 @@ public class ScanPanel extends JPanel implements Runnable
 
     gridPoly = new Polygon(); 
     gridVis = new GridVisualizer();
+    liveVis = new GridVisualizer(false);
 
     new Thread(this).start();   // start updating the panel's image
   } // end of ScanPanel()
@@ -85,6 +94,8 @@ public class ScanPanel extends JPanel implements Runnable
      long startTime = System.currentTimeMillis();
 
       snapIm = picGrab(grabber, CAMERA_ID); 
+      if (liveGridPanel != null)
+        liveOCR(liveGridPanel);
       repaint();
 
       duration = System.currentTimeMillis() - startTime;
@@ -192,14 +203,19 @@ public class ScanPanel extends JPanel implements Runnable
   // ------------------------- Sudoku grid processing ----------------------------
 
 
-  public void scan()
+  public synchronized void scan()
   // look for a Sudoku grid outline in the current image
+  {  scan(gridVis);  }
+
+
+
+  private void scan(GridVisualizer vis)
   {  
     if (snapIm == null)
       return;
 
     foundOutline = false;
-    Point[] pts = gridVis.findOutline(snapIm);
+    Point[] pts = vis.findOutline(snapIm);
     if (pts != null) {    // update polygon
       synchronized(gridPoly) {
         gridPoly.reset();
@@ -213,16 +229,56 @@ public class ScanPanel extends JPanel implements Runnable
 
 
 
-  public boolean extractGrid(String fnm)
+  public synchronized BufferedImage extractGrid()
   /* If there's an outline then try to extract a sudoku grid from it,
-     saving the resulting image in fnm */
+     returning the resulting image (or null) */
   {  
     if (foundOutline)
-      return gridVis.extractGrid(fnm);
+      return gridVis.extractGrid();
     else
-      return false;
+      return null;
   }  // end of extractGrid()
 
 
+
+  private synchronized BufferedImage liveExtract()
+  // scan and extract the grid with the quiet visualizer
+  {  
+    if (liveGridPanel == null)   // live mode has just been stopped
+      return null;
+    scan(liveVis);
+    if (foundOutline)
+      return liveVis.extractGrid();
+    else
+      return null;
+  }  // end of liveExtract()
+
+
+
+  public synchronized void setLiveMode(GridPanel gridPanel)
+  /* start live mode with gridPanel, or stop it if gridPanel is null.
+     The live outline belongs to the quiet visualizer, so it's dropped
+     and the grid must be scanned again before extracting it */
+  {  
+    liveGridPanel = gridPanel;
+    foundOutline = false;
+  }  // end of setLiveMode()
+
+
+
+  private void liveOCR(final GridPanel gridPanel)
+  /* look for a grid in the current snap, and pass its image to gridPanel;
+     the OCR and spinner updates are carried out in the GUI thread */
+  {
+    final BufferedImage gridIm = liveExtract();
+    if (gridIm != null) {
+      SwingUtilities.invokeLater( new Runnable() {
+        public void run()
+        {  gridPanel.build(gridIm, true);  }
+      });
+    }
+  }  // end of liveOCR()
+
+
 } // end of ScanPanel class
 
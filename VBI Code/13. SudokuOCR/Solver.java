@@ -2,11 +2,12 @@
 // Solver.java
 // Andrew Davison, ad@fivedots.coe.psu.ac.th, Jan 2013
 
-/*  Use a brute-force search to fill in the gaps in a supplied Sudoku table.
-    The core method is solve() which utilizes a
-    backtracking recursive search over the board.
+/*  Fill in the gaps in a supplied Sudoku table.
+    The search is carried out by BitSolver, which uses bitmasks of the
+    candidates for each row, column, and box, fills in forced cells,
+    and guesses in the most constrained cell first.
 
-   This code is closely based on the Java Sudoku Solver by Bob Carpenter,
+   This code was originally based on the Java Sudoku Solver by Bob Carpenter,
    available at http://www.colloquial.com/games/sudoku/java_sudoku.html
 
    The table is stored as an array of integers called table[][], as indicated:
@@ -53,7 +54,8 @@ public class Solver
       for(int j=0; j < TABLE_SIZE; j++)
         table[i][j] = t[i][j];
 
-    if (!isTableValid(table)) {    
+    BitSolver solver = new BitSolver();
+    if (!solver.isValid(table)) {    
       // check the initial table's validity before trying to solve it
       System.out.println("Table is invalid");
       JOptionPane.showMessageDialog(null, "Table is invalid", 
@@ -62,8 +64,7 @@ public class Solver
       return false;
     }
 
-    long startTime = System.currentTimeMillis();
-    if (!solve(0, 0, table)) {   // fill in the blanks (0's) in the table
+    if (!solver.solve(table)) {   // fill in the blanks (0's) in the table
       System.out.println("No solution");
       JOptionPane.showMessageDialog(null, "No solution", 
                          "Solver Error", JOptionPane.ERROR_MESSAGE);
@@ -77,98 +78,13 @@ public class Solver
       for(int j=0; j < TABLE_SIZE; j++)
         t[i][j] = table[i][j];
     
-    System.out.println("Found a solution in " + 
-                        (System.currentTimeMillis() - startTime) + "ms");
+    System.out.println("Found a solution in " + solver.getStats());
 
     return true;
   }  // end of isSolvable()
 
 
 
-  private static boolean isTableValid(int[][] table)
-  // check every non-blank element by calling isLegal()
-  {
-    for (int row = 0; row < TABLE_SIZE; row++) { // check all elements
-      for (int col = 0; col < TABLE_SIZE; col++) { 
-        int value = table[row][col];
-        if (value != 0) {    // if has a value
-          table[row][col] = 0;   // temporarily erase
-          if (!isLegal(row, col, value, table)) {
-            // System.out.println("Invalid at [" + row + "][" + col + 
-            //                                  "]; cannot be " + value);
-            return false;
-          }
-          table[row][col] = value;   // put value back (if ok)
-        }
-      }
-    }
-    return true;
-  }  // end of isTableValid()
-
-
-
-  private static boolean solve(int row, int col, int[][] table)
-  /* fill in the blanks using a recursive backtracking search;
-     process a column at a time */
-  {
-    if (row == TABLE_SIZE) {
-      row = 0;  col++;    // move to top of next column
-      if (col == TABLE_SIZE)
-        return true;
-    }
-
-    if (table[row][col] != 0)   // skip table element that is filled
-      return solve(row+1, col, table);
-
-    for (int val = 1; val <= 9; val++) {     // try all data values 1-9
-      if (isLegal(row, col, val, table)) {
-        table[row][col] = val;
-        if (solve(row+1, col, table))
-          return true;
-      }
-    }
-    table[row][col] = 0; // reset value when backtracking
-    return false;
-  }  // end of solve()
-
-
-
-
-  private static boolean isLegal(int i, int j, int val, int[][] table)
-  /* is val in table[i][j] allowed? There are three cases to check: 
-      no duplicate val anywhere in the jth column, no duplicate val 
-      anywhere in the ith row, and no duplicate val in the box containing
-      this (i,j) element.
-  */
-  {
-    if (val == 0)
-      return true;
-
-    for (int row = 0; row < TABLE_SIZE; row++) { // check elements in jth column
-      if (val == table[row][j])
-        return false;
-    }
-
-    for (int col = 0; col < TABLE_SIZE; col++) { // check elements in ith row
-      if (val == table[i][col])
-        return false;
-    }
-
-    // check box containing (i,j) element
-    int boxRowOffset = (i/3)*3;
-    int boxColOffset = (j/3)*3;
-    for (int x = 0; x < NUM_BOXES; x++) {   // check elements in the box
-      for (int y = 0; y < NUM_BOXES; y++) {
-        if (val == table[boxRowOffset + y][boxColOffset + x])
-          return false;
-      }
-    }
-
-    return true; // no violations, so it's allowed
-  }  // end of isLegal()
-
-
-
   private static void printTable(int[][] table)
   /* useful for debugging, and for creating a simple textual version
      of the finished Sudoku, which appears on the command line. */
@@ -7,7 +7,7 @@
    regenerate the grid or modify individual values before getting Java
    to complete the Sudoku.
 
-   The GUI consists of two main panels and three buttons.
+   The GUI consists of two main panels, three buttons, and a checkbox.
    The left-hand panel (ScanPanel) shows the webcam image and an
    outline of the detected Sudoku grid. The right-hand panel (GridPanel)
    shows a grid of spinner GUI components, each one representing a 
@@ -19,9 +19,12 @@
    to fill in the grid of spinners with numbers extracted from the Sudoku image.
    After further adjustment, "Solve" causes the grid to be completed.
 
-   The processing stages require that the Sudoku image be saved in a file before
-   OCR is carried out by the command line gocr tool (http://jocr.sourceforge.net/). 
-   The name of the file is SUD_FNM.
+   When "Live OCR" is checked, the scanning and extraction are carried out
+   on every webcam image, and the grid of spinners is continuously updated.
+
+   OCR is carried out in memory by DigitRecognizer; earlier versions saved
+   the Sudoku image to a file and called the command line gocr tool
+   (http://jocr.sourceforge.net/). 
 
    See http://en.wikipedia.org/wiki/Sudoku for more information on Sudoku.
 
@@ -31,6 +34,7 @@
 
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.image.*;
 import javax.swing.*;
 import java.io.*;
 
@@ -42,14 +46,13 @@ import com.googlecode.javacpp.Loader;
 public class SudokuOCR extends JFrame 
                        implements ActionListener
 {
-  private static final String SUD_FNM = "sudoGrid.pnm";  // sudoku numbers image filename
-
   // GUI components
   private ScanPanel scanPanel;    // to display the webcam image and Sudoku outline
   private GridPanel gridPanel;    /* to display the grid of spinner components representing
                                      the Sudoku grid */
 
   private JButton scanBut, extractBut, solveBut;
+  private JCheckBox liveCB;    // for continuous scanning and OCR
 
 
 
@@ -85,6 +88,10 @@ public class SudokuOCR extends JFrame
     solveBut.addActionListener(this);
     p.add(solveBut);
 
+    liveCB = new JCheckBox("Live OCR");
+    liveCB.addActionListener(this);
+    p.add(liveCB);
+
     c.add(p, BorderLayout.SOUTH);
 
 
@@ -111,9 +118,15 @@ public class SudokuOCR extends JFrame
       scanPanel.scan(); 
     }
     else if (e.getSource() == extractBut) {
-      boolean isExtracted = scanPanel.extractGrid(SUD_FNM);  
-      if (isExtracted)
-        gridPanel.build(SUD_FNM);
+      BufferedImage gridIm = scanPanel.extractGrid();  
+      if (gridIm != null)
+        gridPanel.build(gridIm, false);
+    }
+    else if (e.getSource() == liveCB) {
+      boolean isLive = liveCB.isSelected();
+      scanBut.setEnabled(!isLive);
+      extractBut.setEnabled(!isLive);
+      scanPanel.setLiveMode(isLive ? gridPanel : null);
     }
     else if (e.getSource() == solveBut)
       gridPanel.solve();
@@ -0,0 +1,83 @@
+// FrameLuminanceSource.java
+
+/* A ZXing LuminanceSource which is a view onto a region of a greyscale
+   frame buffer, so no pixels are copied when the source is created.
+
+   The frame buffer (one byte per pixel, row by row) is owned and refilled
+   by QRScanner. The region is copied out only when ZXing asks for it, into
+   the scratch array supplied by the scanner, so the same arrays are used
+   for every frame.
+*/
+
+import com.google.zxing.*;
+
+
+
+public class FrameLuminanceSource extends LuminanceSource
+{
+  private byte[] lums;      // greyscale frame buffer
+  private int frameWidth;   // width of a row in the frame buffer
+  private int left, top;    // top-left of the region in the frame
+  private byte[] scratch;   // holds the region when it's smaller than the frame
+
+
+  public FrameLuminanceSource(byte[] lums, int frameWidth, int frameHeight,
+                              int left, int top, int width, int height, byte[] scratch)
+  {
+    super(width, height);
+    if ((left < 0) || (top < 0) ||
+        (left+width > frameWidth) || (top+height > frameHeight))
+      throw new IllegalArgumentException("Region does not fit inside the frame");
+    this.lums = lums;
+    this.frameWidth = frameWidth;
+    this.left = left;
+    this.top = top;
+    this.scratch = scratch;
+  }  // end of FrameLuminanceSource()
+
+
+
+  public byte[] getRow(int y, byte[] row)
+  {
+    if ((y < 0) || (y >= getHeight()))
+      throw new IllegalArgumentException("Requested row is outside the image: " + y);
+    int width = getWidth();
+    if ((row == null) || (row.length < width))
+      row = new byte[width];
+    System.arraycopy(lums, (y+top)*frameWidth + left, row, 0, width);
+    return row;
+  }  // end of getRow()
+
+
+
+  public byte[] getMatrix()
+  /* return the region's pixels; the frame buffer itself is returned
+     when the region is the whole frame */
+  {
+    int width = getWidth();
+    int height = getHeight();
+    if ((left == 0) && (top == 0) && (width == frameWidth) && (lums.length == width*height))
+      return lums;
+
+    byte[] matrix = scratch;
+    if ((matrix == null) || (matrix.length < width*height))
+      matrix = new byte[width*height];
+    for (int y = 0; y < height; y++)
+      System.arraycopy(lums, (y+top)*frameWidth + left, matrix, y*width, width);
+    return matrix;
+  }  // end of getMatrix()
+
+
+
+  public boolean isCropSupported()
+  {  return true;  }
+
+
+  public LuminanceSource crop(int x, int y, int width, int height)
+  // a crop is just a smaller view onto the same frame buffer
+  {
+    return new FrameLuminanceSource(lums, frameWidth, lums.length/frameWidth,
+                                    left+x, top+y, width, height, null);
+  }
+
+}  // end of FrameLuminanceSource class
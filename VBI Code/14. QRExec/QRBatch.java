@@ -0,0 +1,270 @@
+// QRBatch.java
+
+/* A headless batch decoder for directories of captured images.
+
+   Every image (.png, .jpg, .jpeg, .gif, .bmp) in the directory tree is
+   decoded with QRCodex. Each image is first decoded quickly, without
+   TRY_HARDER, and only decoded again with TRY_HARDER if that fails.
+
+   The images are shared between a pool of threads (one per core by
+   default), each with its own QRCodeReader and hints. The output file
+   is CSV with one line per image:
+       file, pass ("fast", "hard", "none", or "unreadable"),
+       read time (ms), decode time (ms), message
+
+   When all the images are done, the throughput (images/sec), the number
+   found by each pass, and the 50th, 90th, 99th percentile and maximum
+   decode times are printed.
+
+   Usage:
+     > java QRBatch frames/ results.csv
+     > java QRBatch frames/ results.csv 4     // use 4 threads
+*/
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.awt.image.*;
+import javax.imageio.*;
+
+import com.google.zxing.*;
+import com.google.zxing.qrcode.*;
+
+
+
+public class QRBatch
+{
+  private static final String[] IMAGE_EXTS = {".png", ".jpg", ".jpeg", ".gif", ".bmp"};
+
+  // the decoding pass that found the QRCode
+  private static final int UNREADABLE = 0;  // the image file couldn't be read
+  private static final int NONE = 1;        // no QRCode found
+  private static final int FAST = 2;
+  private static final int HARD = 3;
+  private static final String[] PASS_NAMES = {"unreadable", "none", "fast", "hard"};
+
+
+  private ArrayList<File> files = new ArrayList<File>();
+  private String[] results;    // CSV line for each image
+  private int[] passes;        // which pass found the code
+  private long[] decodeTimes;  // in ns; -1 if the image couldn't be read
+
+
+
+  public QRBatch(String dirName, String outFnm, int numThreads)
+  {
+    File dir = new File(dirName);
+    if (!dir.isDirectory()) {
+      System.out.println(dirName + " is not a directory");
+      return;
+    }
+    findImages(dir);
+    if (files.size() == 0) {
+      System.out.println("No images found in " + dirName);
+      return;
+    }
+    Collections.sort(files);
+    System.out.println("Decoding " + files.size() + " images using " +
+                                            numThreads + " threads...");
+    results = new String[files.size()];
+    passes = new int[files.size()];
+    decodeTimes = new long[files.size()];
+
+    long startTime = System.nanoTime();
+    decodeAll(numThreads);
+    long totalTime = System.nanoTime() - startTime;
+
+    writeResults(outFnm);
+    reportStats(totalTime);
+  }  // end of QRBatch()
+
+
+
+  private void findImages(File dir)
+  // add all the image files in the directory tree to files
+  {
+    File[] entries = dir.listFiles();
+    if (entries == null)
+      return;
+    for (File f : entries) {
+      if (f.isDirectory())
+        findImages(f);
+      else if (isImage(f.getName()))
+        files.add(f);
+    }
+  }  // end of findImages()
+
+
+  private boolean isImage(String fnm)
+  {
+    String name = fnm.toLowerCase();
+    for (String ext : IMAGE_EXTS)
+      if (name.endsWith(ext))
+        return true;
+    return false;
+  }  // end of isImage()
+
+
+
+  private void decodeAll(int numThreads)
+  // give the images to the threads, and wait for them all to finish
+  {
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+
+    // each thread has its own reader, which isn't thread-safe
+    final ThreadLocal<QRCodeReader> readers = new ThreadLocal<QRCodeReader>() {
+      protected QRCodeReader initialValue()
+      {  return new QRCodeReader();  }
+    };
+    // the hints are only read, so can be shared
+    final Hashtable<DecodeHintType, Object> fastHints = QRCodex.makeHints(false);
+    final Hashtable<DecodeHintType, Object> hardHints = QRCodex.makeHints(true);
+
+    for (int i = 0; i < files.size(); i++) {
+      final int idx = i;
+      futures.add( executor.submit( new Runnable() {
+        public void run()
+        {  decodeImage(idx, readers.get(), fastHints, hardHints);  }
+      }));
+    }
+
+    try {
+      for (Future<?> f : futures)
+        f.get();
+    }
+    catch (Exception e)
+    {  System.out.println("Decoding interrupted: " + e);  }
+
+    executor.shutdown();
+  }  // end of decodeAll()
+
+
+
+  private void decodeImage(int idx, QRCodeReader reader,
+                           Hashtable<DecodeHintType, Object> fastHints,
+                           Hashtable<DecodeHintType, Object> hardHints)
+  // decode files[idx], with a fast pass, then a TRY_HARDER pass if necessary
+  {
+    File f = files.get(idx);
+    long startTime = System.nanoTime();
+    BufferedImage im = null;
+    try {
+      im = ImageIO.read(f);
+    }
+    catch (IOException e) {}
+    long readTime = System.nanoTime() - startTime;
+
+    Result res = null;
+    int pass = UNREADABLE;
+    long decodeTime = -1;    // not included in the timing stats
+    if (im != null) {
+      startTime = System.nanoTime();
+      res = QRCodex.decode(im, reader, fastHints);
+      pass = FAST;
+      if (res == null) {
+        res = QRCodex.decode(im, reader, hardHints);
+        pass = (res == null) ? NONE : HARD;
+      }
+      decodeTime = System.nanoTime() - startTime;
+    }
+
+    passes[idx] = pass;
+    decodeTimes[idx] = decodeTime;
+    results[idx] = String.format(Locale.ROOT, "%s,%s,%.3f,%.3f,%s",
+                         csvField(f.getPath()), PASS_NAMES[pass], readTime/1000000.0,
+                         Math.max(decodeTime, 0)/1000000.0,
+                         (res == null) ? "" : csvField(res.getText()));
+  }  // end of decodeImage()
+
+
+
+  private String csvField(String s)
+  // quote the string if it contains a comma, quote, or line break
+  {
+    if ((s.indexOf(',') == -1) && (s.indexOf('"') == -1) &&
+        (s.indexOf('\n') == -1) && (s.indexOf('\r') == -1))
+      return s;
+    return "\"" + s.replace("\"", "\"\"") + "\"";
+  }  // end of csvField()
+
+
+
+  private void writeResults(String fnm)
+  {
+    PrintWriter out = null;
+    try {
+      out = new PrintWriter( new BufferedWriter( new FileWriter(fnm)));
+      out.println("file,pass,read_ms,decode_ms,message");
+      for (String line : results)
+        out.println(line);
+      System.out.println("Results written to " + fnm);
+    }
+    catch (IOException e)
+    {  System.out.println("Could not write results to " + fnm);  }
+    finally {
+      if (out != null)
+        out.close();
+    }
+  }  // end of writeResults()
+
+
+
+  private void reportStats(long totalTime)
+  {
+    int[] passCounts = new int[PASS_NAMES.length];
+    for (int pass : passes)
+      passCounts[pass]++;
+
+    double secs = totalTime/1000000000.0;
+    System.out.printf("Processed %d images in %.3f secs: %.1f images/sec\n",
+                          files.size(), secs, files.size()/secs);
+    System.out.printf("Decoded %d (fast pass %d, TRY_HARDER pass %d); not found %d; unreadable %d\n",
+                          passCounts[FAST] + passCounts[HARD], passCounts[FAST],
+                          passCounts[HARD], passCounts[NONE], passCounts[UNREADABLE]);
+
+    long[] sorted = decodeTimes.clone();
+    Arrays.sort(sorted);
+    int numSkipped = 0;
+    while ((numSkipped < sorted.length) && (sorted[numSkipped] < 0))
+      numSkipped++;
+    sorted = Arrays.copyOfRange(sorted, numSkipped, sorted.length);
+    if (sorted.length == 0)
+      return;
+    System.out.printf("Decode times (ms): p50 %.2f; p90 %.2f; p99 %.2f; max %.2f\n",
+                          percentile(sorted, 50), percentile(sorted, 90),
+                          percentile(sorted, 99), sorted[sorted.length-1]/1000000.0);
+  }  // end of reportStats()
+
+
+  private double percentile(long[] sorted, int perc)
+  // nearest-rank percentile of the sorted times, in milliseconds
+  {
+    int idx = (int) Math.ceil(perc/100.0 * sorted.length) - 1;
+    idx = Math.max(0, Math.min(idx, sorted.length-1));
+    return sorted[idx]/1000000.0;
+  }
+
+
+
+  // ------------------------------------------------
+
+  public static void main(String args[])
+  {
+    if ((args.length < 2) || (args.length > 3)) {
+      System.out.println("Usage: java QRBatch <image dir> <output CSV> [<numThreads>]");
+      return;
+    }
+
+    int numThreads = Runtime.getRuntime().availableProcessors();
+    if (args.length == 3) {
+      try {
+        numThreads = Math.max(1, Integer.parseInt(args[2]));
+      }
+      catch (NumberFormatException e)
+      {  System.out.println("Number of threads must be an integer; using " + numThreads);  }
+    }
+    new QRBatch(args[0], args[1], numThreads);
+  }  // end of main()
+
+}  // end of QRBatch class
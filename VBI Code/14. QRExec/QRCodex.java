@@ -8,6 +8,7 @@
 /*  Methods for encoding and decoding QRCodes
        encode() :  string --> BufferedImage / image file
        decode() :  image file / BufferedImage / QRCODE_FNM --> QRCode result
+       decode() :  BufferedImage + reader + hints --> QRCode result  (for reuse)
     and
        examineResult() for printing details inside a Result object
 */
@@ -144,13 +145,10 @@ public class QRCodex
     LuminanceSource lumSource = new BufferedImageLuminanceSource(image);
     BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(lumSource));
  
-    Hashtable<DecodeHintType, Object> hints = new Hashtable<DecodeHintType, Object>();
-    hints.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);  // try for accuracy, not speed
-
     Reader reader = new QRCodeReader();
     Result result = null;
     try {
-      result = reader.decode(bitmap, hints);
+      result = reader.decode(bitmap, makeHints(true));   // try for accuracy, not speed
     }
     catch (ReaderException e) {
       System.out.println("Could not decode image: " + e);
@@ -159,6 +157,41 @@ public class QRCodex
   }  // end of decode() of an image
 
 
+
+  public static Hashtable<DecodeHintType, Object> makeHints(boolean tryHarder)
+  /* hints for QRCode decoding; TRY_HARDER is slower, but finds
+     more codes in poor images */
+  {
+    Hashtable<DecodeHintType, Object> hints = new Hashtable<DecodeHintType, Object>();
+    hints.put(DecodeHintType.POSSIBLE_FORMATS,
+                           new Vector<BarcodeFormat>(Arrays.asList(BarcodeFormat.QR_CODE)));
+    if (tryHarder)
+      hints.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);
+    return hints;
+  }  // end of makeHints()
+
+
+
+  public static Result decode(BufferedImage image, Reader reader,
+                              Hashtable<DecodeHintType, Object> hints)
+  /* decode the QRCode image using an existing reader and hints, 
+     so they can be reused for many images. Returns null without
+     printing anything if there's no QRCode. */
+  {
+    LuminanceSource lumSource = new BufferedImageLuminanceSource(image);
+    BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(lumSource));
+    try {
+      return reader.decode(bitmap, hints);
+    }
+    catch (ReaderException e) {
+      return null;
+    }
+    finally {
+      reader.reset();
+    }
+  }  // end of decode() with a reader
+
+
   // --------------------------- examine QRCode result ---------------------
 
   public static void examineResult(Result res)
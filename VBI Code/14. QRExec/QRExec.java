@@ -5,6 +5,8 @@
 /* Show a sequence of images snapped from a webcam in a picture panel (QRPanel). 
    When the "Decode" button is pressed, a QRCode is extracted from
    the current image if possible, and displayed in a message textfield.
+   When the "Scan" box is ticked, every image is checked for a QRCode, and
+   each new code is displayed as it is found.
    The "Launch" button treats the message as a URL or e-mail, and loads it into
    a browser or e-mail client
 
@@ -27,6 +29,7 @@ public class QRExec extends JFrame
   // GUI components
   private QRPanel qrPanel;
   private JButton decoderJB, launchJB;
+  private JCheckBox scanJCB;
   private Color butColor;
   private JTextField messageJTF;
 
@@ -63,6 +66,7 @@ public class QRExec extends JFrame
 
      The decode button starts the QRcode decoding of the current image shown
      in the picture panel.
+     The scan checkbox switches continuous decoding on and off.
      The load button passes any text in the message text field over to the
      Desktop API to launch a browser or e-mail client.
   */
@@ -87,6 +91,16 @@ public class QRExec extends JFrame
     });
     p1.add(decoderJB);
 
+    scanJCB = new JCheckBox("Scan");
+    scanJCB.addItemListener( new ItemListener() {
+      public void itemStateChanged(ItemEvent e)
+      { boolean isScanning = scanJCB.isSelected();
+        qrPanel.setScanning(isScanning);
+        decoderJB.setEnabled(!isScanning);
+      }
+    });
+    p1.add(scanJCB);
+
     p1.add( new JLabel("Msg: "));
 
     messageJTF = new JTextField(30);
@@ -112,12 +126,23 @@ public class QRExec extends JFrame
       public void run() {
         messageJTF.setText(msg);
         decoderJB.setBackground(butColor);
-        decoderJB.setEnabled(true);
+        decoderJB.setEnabled(!scanJCB.isSelected());
       }
     });
   }  // end of showMessage();
 
 
+
+  public void showScanned(final String msg)
+  // called from QRPanel when scanning finds a new QRCode
+  {
+    SwingUtilities.invokeLater(new Runnable() {
+      public void run() 
+      {  messageJTF.setText(msg);  }
+    });
+  }  // end of showScanned();
+
+
   // -------------------------------------------------------
 
 
@@ -13,6 +13,11 @@
    If the decoding is successful then the message is written into a 
    textfield in the top-level JFrame and a polygon is drawn around the coordinates 
    of the QRCode in the image.
+
+   When scanning is switched on (by a "Scan" checkbox in the JFrame), every
+   image is passed to a QRScanner. A new code is reported once with a
+   success sound, but its polygon is redrawn for as long as it stays in view.
+   Failures are silent in this mode.
 */
 
 import java.awt.*;
@@ -59,6 +64,8 @@ class QRPanel extends JPanel implements Runnable
   private Font msgFont;
 
   private volatile boolean tryDecoding = false;
+  private volatile boolean isScanning = false;
+  private QRScanner scanner;    // for continuous scanning
   private ResultSounder sounder;   // for playing success/fail clips
 
   // for drawing a polygon around the QRCode in the image
@@ -76,6 +83,7 @@ class QRPanel extends JPanel implements Runnable
 
     msgFont = new Font("SansSerif", Font.BOLD, 18);
     sounder = new ResultSounder();
+    scanner = new QRScanner();
 
     qrPolygon =  new GeneralPath(GeneralPath.WIND_EVEN_ODD, 4);   
                // for holding the polygon coords (assuming it's a quadrilateral)
@@ -94,6 +102,11 @@ class QRPanel extends JPanel implements Runnable
   {  tryDecoding = true;  }
 
 
+  public void setScanning(boolean b)
+  // called from GUI in QRExec
+  {  isScanning = b;  }
+
+
   public void run()
   /* take a picture every DELAY ms, and perhaps decode the QRCode
      in the image, if tryDecoding has been set to true
@@ -116,6 +129,8 @@ class QRPanel extends JPanel implements Runnable
         decodeImage(snapIm);
         tryDecoding = false;
       }
+      else if (isScanning)
+        scanImage(snapIm);
       imageCount++;
       repaint();
 
@@ -192,7 +207,7 @@ class QRPanel extends JPanel implements Runnable
       String msg = res.getText();
       System.out.println("Message: " + msg);
       sounder.playSuccess();
-      storePolygonCoords(res);
+      storePolygonCoords(res.getResultPoints());
       top.showMessage(msg);
     }
     else {  // no QR Code found
@@ -202,12 +217,31 @@ class QRPanel extends JPanel implements Runnable
   }  // end of decodeImage()
 
 
-  private void storePolygonCoords(Result res)
+  private void scanImage(BufferedImage im)
+  /* look for a QR Code with the scanner; only a new code is 
+     reported, but the polygon follows the code while it's in view */
+  {
+    Result res = scanner.scan(im);
+    if (res == null)
+      return;
+    storePolygonCoords(scanner.getPoints());
+    polyCounter = 0;    // keep showing the polygon
+    if (scanner.isNew(res)) {
+      String msg = res.getText();
+      System.out.println("Scanned: " + msg);
+      sounder.playSuccess();
+      top.showScanned(msg);
+    }
+  }  // end of scanImage()
+
+
+
+  private void storePolygonCoords(ResultPoint[] resultPts)
   /* convert the result points into a drawable polygon, which will
      be drawn over the image at rendering time */
   {
-    ResultPoint[] resultPts = res.getResultPoints(); 
-
+    if (resultPts.length == 0)
+      return;
     qrPolygon.reset();
     qrPolygon.moveTo( resultPts[0].getX(), resultPts[0].getY() );
     for(int i=1; i < resultPts.length; i++)
@@ -268,6 +302,9 @@ class QRPanel extends JPanel implements Runnable
       g2.setColor(Color.YELLOW);
       String statsMsg = String.format("Snap Avg. Time:  %.1f ms",
                                         ((double) totalTime / imageCount));
+      if (scanner.getNumScans() > 0)
+        statsMsg += String.format(";  Scan Avg. Time:  %.1f ms",
+                                        scanner.getAvgScanTime());
       g2.drawString(statsMsg, 5, HEIGHT-10);  
                         // write statistics in bottom-left corner
     }
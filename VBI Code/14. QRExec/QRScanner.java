@@ -0,0 +1,239 @@
+// QRScanner.java
+
+/* Decodes QRCodes from a continuous sequence of webcam frames.
+
+   Unlike QRCodex.decode(), which builds a new reader, hints table, and
+   luminance copy of the image for every call, QRScanner creates its
+   QRCodeReader and hints once, and converts each frame into a reused
+   greyscale buffer. TRY_HARDER isn't used, since a frame that fails will
+   soon be followed by another one.
+
+   After a code is found, the next frames are only searched in a region
+   of interest (ROI) around it, which is much smaller than the full frame.
+   When the code isn't found in the ROI, the scanner goes back to
+   searching the whole frame.
+
+   A code that stays in view is only reported once by isNew(); it can be
+   reported again after it has been out of view for FORGET_TIME ms.
+*/
+
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+
+import com.google.zxing.*;
+import com.google.zxing.common.*;
+import com.google.zxing.qrcode.*;
+
+
+
+public class QRScanner
+{
+  private static final double ROI_MARGIN = 0.6;
+       // ROI border around the code's points, as a fraction of the code's size
+  private static final int MIN_ROI_SIZE = 120;   // smallest ROI width/height
+
+  private static final long FORGET_TIME = 2000;   // ms
+
+
+  private QRCodeReader reader;
+  private Hashtable<DecodeHintType, Object> hints;
+
+  private int width, height;   // of the frames
+  private byte[] lums;         // greyscale version of the current frame
+  private byte[] scratch;      // for copying the ROI out of lums
+  private int[] rgbRow;        // used when the frame isn't in BGR bytes format
+
+  private Rectangle roi;       // region searched in the next frame
+  private ResultPoint[] points;   // result points in frame coordinates
+
+  private String lastText = null;   // text of the last reported code
+  private long lastSeenTime = 0;    // when it was last decoded
+
+  // statistics
+  private int numScans = 0;
+  private long totalScanTime = 0;   // in ns
+  private int numRoiHits = 0;
+
+
+
+  public QRScanner()
+  {
+    reader = new QRCodeReader();
+    hints = new Hashtable<DecodeHintType, Object>();
+    hints.put(DecodeHintType.POSSIBLE_FORMATS,
+                           new Vector<BarcodeFormat>(Arrays.asList(BarcodeFormat.QR_CODE)));
+  }  // end of QRScanner()
+
+
+
+  public Result scan(BufferedImage im)
+  /* look for a QRCode in the image, in the ROI if there is one; the
+     result points are in image coordinates */
+  {
+    if (im == null)
+      return null;
+    long startTime = System.nanoTime();
+    fillLums(im);
+
+    boolean usedRoi = (roi != null);
+    Rectangle r = usedRoi ? roi : new Rectangle(0, 0, width, height);
+    Result res = decode(r);
+    if (res != null) {
+      storePoints(res, r);
+      roi = calcRoi(points);
+      if (usedRoi)
+        numRoiHits++;
+    }
+    else
+      roi = null;    // search the full frame next time
+
+    numScans++;
+    totalScanTime += System.nanoTime() - startTime;
+    return res;
+  }  // end of scan()
+
+
+
+  private void fillLums(BufferedImage im)
+  // convert the image into greyscale bytes in lums[]
+  {
+    if ((lums == null) || (im.getWidth() != width) || (im.getHeight() != height)) {
+      width = im.getWidth();
+      height = im.getHeight();
+      lums = new byte[width*height];
+      scratch = new byte[width*height];
+      rgbRow = new int[width];
+      roi = null;
+    }
+
+    WritableRaster raster = im.getRaster();
+    if ((raster.getDataBuffer() instanceof DataBufferByte) &&
+        (raster.getSampleModel() instanceof PixelInterleavedSampleModel) &&
+        (raster.getNumBands() >= 3) &&
+        (raster.getSampleModelTranslateX() == 0) && (raster.getSampleModelTranslateY() == 0)) {
+      // read the bytes directly (e.g. a TYPE_3BYTE_BGR image from the grabber)
+      PixelInterleavedSampleModel sm = (PixelInterleavedSampleModel) raster.getSampleModel();
+      byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+      int[] offsets = sm.getBandOffsets();    // offsets of red, green, and blue
+      int pixStride = sm.getPixelStride();
+      int lineStride = sm.getScanlineStride();
+      int i = 0;
+      for (int y = 0; y < height; y++) {
+        int pos = y*lineStride;
+        for (int x = 0; x < width; x++) {
+          int red = data[pos+offsets[0]] & 0xff;
+          int green = data[pos+offsets[1]] & 0xff;
+          int blue = data[pos+offsets[2]] & 0xff;
+          lums[i++] = (byte)((red + 2*green + blue) >> 2);
+          pos += pixStride;
+        }
+      }
+    }
+    else {   // slower, but works for any image type
+      int i = 0;
+      for (int y = 0; y < height; y++) {
+        im.getRGB(0, y, width, 1, rgbRow, 0, width);
+        for (int x = 0; x < width; x++) {
+          int pixel = rgbRow[x];
+          int red = (pixel >> 16) & 0xff;
+          int green = (pixel >> 8) & 0xff;
+          int blue = pixel & 0xff;
+          lums[i++] = (byte)((red + 2*green + blue) >> 2);
+        }
+      }
+    }
+  }  // end of fillLums()
+
+
+
+  private Result decode(Rectangle r)
+  {
+    LuminanceSource source = new FrameLuminanceSource(lums, width, height,
+                                               r.x, r.y, r.width, r.height, scratch);
+    BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(source));
+    try {
+      return reader.decode(bitmap, hints);
+    }
+    catch (ReaderException e) {
+      return null;
+    }
+    finally {
+      reader.reset();
+    }
+  }  // end of decode()
+
+
+
+  private void storePoints(Result res, Rectangle r)
+  // convert the result points from ROI to frame coordinates
+  {
+    ResultPoint[] pts = res.getResultPoints();
+    points = new ResultPoint[pts.length];
+    for (int i = 0; i < pts.length; i++)
+      points[i] = new ResultPoint(pts[i].getX() + r.x, pts[i].getY() + r.y);
+  }  // end of storePoints()
+
+
+
+  private Rectangle calcRoi(ResultPoint[] pts)
+  /* a rectangle around the result points, enlarged by ROI_MARGIN
+     so the code can move a little between frames */
+  {
+    if (pts.length == 0)
+      return null;
+    float minX = width, minY = height, maxX = 0, maxY = 0;
+    for (ResultPoint pt : pts) {
+      minX = Math.min(minX, pt.getX());
+      minY = Math.min(minY, pt.getY());
+      maxX = Math.max(maxX, pt.getX());
+      maxY = Math.max(maxY, pt.getY());
+    }
+    // the points are finder pattern centers, so the code is a bit bigger
+    int size = (int) Math.max(maxX-minX, maxY-minY);
+    int margin = Math.max((int)(size*ROI_MARGIN), (MIN_ROI_SIZE-size)/2);
+
+    int x1 = Math.max(0, (int)minX - margin);
+    int y1 = Math.max(0, (int)minY - margin);
+    int x2 = Math.min(width, (int)maxX + margin);
+    int y2 = Math.min(height, (int)maxY + margin);
+    if ((x2-x1)*(y2-y1) >= width*height*3/4)
+      return null;   // not much smaller than the frame, so not worth it
+    return new Rectangle(x1, y1, x2-x1, y2-y1);
+  }  // end of calcRoi()
+
+
+
+  public boolean isNew(Result res)
+  /* is this a different code from the last one reported, or the same
+     one after it's been out of view for FORGET_TIME ms? */
+  {
+    long now = System.currentTimeMillis();
+    String text = res.getText();
+    boolean isNew = !text.equals(lastText) || (now - lastSeenTime > FORGET_TIME);
+    lastText = text;
+    lastSeenTime = now;
+    return isNew;
+  }  // end of isNew()
+
+
+
+  public ResultPoint[] getPoints()
+  // result points of the last decoded code, in frame coordinates
+  {  return points;  }
+
+  public Rectangle getRoi()
+  {  return roi;  }
+
+
+  public double getAvgScanTime()
+  // in ms
+  {  return (numScans == 0) ? 0 : (totalScanTime/1000000.0)/numScans;  }
+
+  public int getNumScans()
+  {  return numScans;  }
+
+  public int getNumRoiHits()
+  {  return numRoiHits;  }
+
+}  // end of QRScanner class
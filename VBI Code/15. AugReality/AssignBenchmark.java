@@ -0,0 +1,104 @@
+// AssignBenchmark.java
+
+/* Times the assignment of detections to markers using synthetic
+   detection lists, comparing the old approach (scan every detection
+   for each marker) with MarkerAssigner's single pass.
+
+   Each run uses numMarkers markers and 2*numMarkers detections, so the
+   old approach grows quadratically while MarkerAssigner grows linearly.
+
+   Usage:
+     > java AssignBenchmark
+*/
+
+import java.util.*;
+
+
+
+public class AssignBenchmark
+{
+  private static final double MIN_CONF = 0.3;
+  private static final int NUM_REPEATS = 20000;
+
+  private static final int[] MARKER_COUNTS = {10, 25, 50, 100, 200};
+
+
+  public static void main(String args[])
+  {
+    Random rand = new Random(42);
+    System.out.println("markers  detections   scan (us)   one-pass (us)");
+
+    for (int numMarkers : MARKER_COUNTS) {
+      int numDetections = 2*numMarkers;
+      int[] codeIdxs = new int[numDetections];
+      double[] confs = new double[numDetections];
+      for (int i = 0; i < numDetections; i++) {
+        codeIdxs[i] = rand.nextInt(numMarkers);
+        confs[i] = rand.nextDouble();
+      }
+
+      MarkerAssigner assigner = new MarkerAssigner(numMarkers, MIN_CONF);
+      assigner.ensureCapacity(numDetections);
+      for (int i = 0; i < numDetections; i++)
+        assigner.setDetection(i, codeIdxs[i], confs[i]);
+
+      // warm up both versions, and check they agree
+      long checkSum = 0;
+      for (int r = 0; r < NUM_REPEATS; r++) {
+        checkSum += scanAssign(numMarkers, numDetections, codeIdxs, confs);
+        checkSum -= onePassAssign(assigner, numMarkers, numDetections);
+      }
+      if (checkSum != 0)
+        System.out.println("Assignments differ for " + numMarkers + " markers");
+
+      long startTime = System.nanoTime();
+      for (int r = 0; r < NUM_REPEATS; r++)
+        checkSum += scanAssign(numMarkers, numDetections, codeIdxs, confs);
+      double scanTime = (System.nanoTime() - startTime)/(1000.0*NUM_REPEATS);
+
+      startTime = System.nanoTime();
+      for (int r = 0; r < NUM_REPEATS; r++)
+        checkSum -= onePassAssign(assigner, numMarkers, numDetections);
+      double onePassTime = (System.nanoTime() - startTime)/(1000.0*NUM_REPEATS);
+
+      System.out.printf("%7d  %10d  %10.3f  %14.3f\n",
+                         numMarkers, numDetections, scanTime, onePassTime);
+    }
+  }  // end of main()
+
+
+
+  private static long scanAssign(int numMarkers, int numDetections,
+                                 int[] codeIdxs, double[] confs)
+  // the original approach: check all the detections for each marker
+  {
+    long sum = 0;
+    for (int mkIdx = 0; mkIdx < numMarkers; mkIdx++) {
+      int iBest = -1;
+      double confBest = -1;
+      for (int i = 0; i < numDetections; i++) {
+        if ((codeIdxs[i] == mkIdx) && (confs[i] > confBest)) {
+          iBest = i;
+          confBest = confs[i];
+        }
+      }
+      if ((iBest != -1) && (confBest >= MIN_CONF))
+        sum += iBest;
+    }
+    return sum;
+  }  // end of scanAssign()
+
+
+
+  private static long onePassAssign(MarkerAssigner assigner, int numMarkers, int numDetections)
+  {
+    assigner.assign(numDetections);
+    long sum = 0;
+    for (int mkIdx = 0; mkIdx < numMarkers; mkIdx++) {
+      if (assigner.isAccepted(mkIdx))
+        sum += assigner.getBestIdx(mkIdx);
+    }
+    return sum;
+  }  // end of onePassAssign()
+
+}  // end of AssignBenchmark class
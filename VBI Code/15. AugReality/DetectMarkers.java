@@ -5,6 +5,13 @@
 /* Collection of MarkerModel objects and a detector that finds
    markers in the camera's captured image. The new marker position
    is used to move its corresponding model
+
+   Detection (detect()) and moving the models (updateModels()) are
+   separate steps, so detection can be run in its own thread.
+
+   Detections are assigned to markers by a MarkerAssigner in a single
+   pass, and the status text is only rebuilt when a marker's details
+   change, so many markers can be registered.
 */
 
 
@@ -40,10 +47,14 @@ public class DetectMarkers
 
   private MultiNyAR top;    // for reporting status
   private NyARDetectMarker detector;
+  private MarkerAssigner assigner;   // chooses the best detection for each marker
 
-  private NyARDoubleMatrix44 transMat = new NyARDoubleMatrix44();   
-     // transformation matrix for a marker, which is used to move its model
-
+  // the last reported details for each marker, used to update the status only on change
+  private String[] markerStatus;
+  private double[] prevConfs;
+  private boolean[] prevVisibles;
+  private Point3d[] prevPoss, prevRots;
+  private StringBuilder statusInfo = new StringBuilder();
 
 
   public DetectMarkers(MultiNyAR top)
@@ -79,53 +90,82 @@ public class DetectMarkers
     try {
       detector = new NyARDetectMarker(params, markersInfo, widths, numMarkers);
       detector.setContinueMode(false);   // no history stored; use SmoothMatrix instead
+      assigner = new MarkerAssigner(numMarkers, MIN_CONF);
     }
     catch(NyARException e)
     {  System.out.println("Could not create markers detector");  
        System.exit(1);
     }
+
+    markerStatus = new String[numMarkers];
+    prevConfs = new double[numMarkers];
+    prevVisibles = new boolean[numMarkers];
+    prevPoss = new Point3d[numMarkers];
+    prevRots = new Point3d[numMarkers];
   }  // end of createDetector()
 
 
 
-  public void updateModels(NyARBufferedImageRaster raster)
-  // move marker models using the detected marker positions inside the raster
+  public int getNumMarkers()
+  {  return numMarkers;  }
+
+
+
+  public void detect(NyARBufferedImageRaster raster, DetectedFrame frame)
+  /* find the best detected match for each marker inside the raster, and
+     store the results in frame; called from the MarkersCapturer thread */
   {
+    frame.clear();
     int numDetections = getNumDetections(detector, raster);
     // System.out.println("numDetections: " + numDetections);
 
     try {
-      StringBuffer statusInfo = new StringBuffer();   // for holding status information
+      findBestDetections(detector, numDetections);
 
-      // find the best detected match for each marker
       for (int mkIdx = 0; mkIdx < numMarkers; mkIdx++) {
-        MarkerModel mm = markerModels.get(mkIdx);
-
-        int[] detectInfo = findBestDetectedIdx(detector, numDetections, mkIdx);   // look for mkIdx
-        int bestDetectedIdx = detectInfo[0];
-        double confidence = ((double)detectInfo[1])/CONF_SIZE;  // convert back to double
-
-        if (bestDetectedIdx == -1)   // marker not found so incr numTimesLost
-          mm.incrNumTimesLost();
-        else  {   // marker found
-          if (confidence >= MIN_CONF) {   // detected a marker for mkIdx with high confidence
-            mm.resetNumTimesLost();
-            // apply the transformation from the detected marker to the marker's model
-            detector.getTransmationMatrix(bestDetectedIdx, transMat);
-            mm.moveModel(transMat);
-          }
-        }
-
-        if (mm.getNumTimesLost() > MAX_NO_DETECTIONS)   // marker not detected too many times
-          mm.hideModel();    // make its model invisible
-
-        statusInfo.append(mkIdx + ". " + mm.getNameInfo() + " (" + confidence + ")\n");
-        addToStatusInfo(mm, statusInfo);
+        frame.setConfidence(mkIdx, assigner.getBestConfidence(mkIdx));
+        if (assigner.isAccepted(mkIdx))
+          // detected a marker for mkIdx with high confidence
+          detector.getTransmationMatrix(assigner.getBestIdx(mkIdx), frame.accept(mkIdx));
       }
-      top.setStatus( statusInfo.toString());   // display marker models status in the GUI
     }
     catch(NyARException e)
     {  System.out.println(e);  }
+  }  // end of detect()
+
+
+
+  public void updateModels(DetectedFrame frame)
+  /* move marker models using the detected marker positions stored in frame;
+     called from NyARMarkersBehavior */
+  {
+    boolean statusChanged = false;
+
+    for (int mkIdx = 0; mkIdx < numMarkers; mkIdx++) {
+      MarkerModel mm = markerModels.get(mkIdx);
+      double confidence = frame.getConfidence(mkIdx);
+
+      if (!frame.isDetected(mkIdx))   // marker not found so incr numTimesLost
+        mm.incrNumTimesLost();
+      else if (frame.isAccepted(mkIdx)) {   // marker found with high confidence
+        mm.resetNumTimesLost();
+        // apply the transformation from the detected marker to the marker's model
+        mm.moveModel(frame.getTransMat(mkIdx));
+      }
+
+      if (mm.getNumTimesLost() > MAX_NO_DETECTIONS)   // marker not detected too many times
+        mm.hideModel();    // make its model invisible
+
+      if (updateMarkerStatus(mkIdx, mm, confidence))
+        statusChanged = true;
+    }
+
+    if (statusChanged) {
+      statusInfo.setLength(0);
+      for (int mkIdx = 0; mkIdx < numMarkers; mkIdx++)
+        statusInfo.append(markerStatus[mkIdx]);
+      top.setStatus( statusInfo.toString());   // display marker models status in the GUI
+    }
   }  // end of updateModels()
 
 
@@ -147,26 +187,55 @@ public class DetectMarkers
 
 
 
-  private int[] findBestDetectedIdx(NyARDetectMarker detector, int numDetections, int markerIdx)
-  /* return best detected marker index for marker markerIdx from all detected markers,
-     along with its confidence value as an integer */
+  private void findBestDetections(NyARDetectMarker detector, int numDetections)
+  /* group all the detected markers by their marker index in one pass,
+     keeping the one with the highest confidence for each marker */
   {
-    int iBest = -1;
-    double confBest = -1;
-
-    // System.out.println("  Look at detections for marker " + markerIdx);
+    assigner.ensureCapacity(numDetections);
     for (int i = 0; i < numDetections; i++) {    // check all detected markers
       int codesIdx = detector.getARCodeIndex(i);
-      double conf = detector.getConfidence(i);
-      if ((codesIdx == markerIdx) && (conf > confBest)) {
-        iBest = i;  // detected marker index with highest confidence
-        confBest = conf;
-      }
+      double conf = ((double)((int)(detector.getConfidence(i)*CONF_SIZE)))/CONF_SIZE;
+                                 // round the confidence to 3 decimal places
+      assigner.setDetection(i, codesIdx, conf);
     }
+    assigner.assign(numDetections);
+  }  // end of findBestDetections()
+
+
+
+  private boolean updateMarkerStatus(int mkIdx, MarkerModel mm, double confidence)
+  /* rebuild the status info for a marker if its details have changed
+     since they were last reported; return true if they changed */
+  {
+    boolean isVisible = mm.isVisible();
+    Point3d pos = mm.getPos();
+    Point3d rots = mm.getRots();
+
+    if ((markerStatus[mkIdx] != null) && (confidence == prevConfs[mkIdx]) &&
+        (isVisible == prevVisibles[mkIdx]) &&
+        (!isVisible || (samePoint(pos, prevPoss[mkIdx]) && samePoint(rots, prevRots[mkIdx]))))
+      return false;
+
+    prevConfs[mkIdx] = confidence;
+    prevVisibles[mkIdx] = isVisible;
+    prevPoss[mkIdx] = pos;
+    prevRots[mkIdx] = rots;
+
+    StringBuffer mkInfo = new StringBuffer();
+    mkInfo.append(mkIdx + ". " + mm.getNameInfo() + " (" + confidence + ")\n");
+    addToStatusInfo(mm, mkInfo);
+    markerStatus[mkIdx] = mkInfo.toString();
+    return true;
+  }  // end of updateMarkerStatus()
 
-    int[] detectInfo = {iBest, (int)(confBest*CONF_SIZE)};
-    return detectInfo;
-  }  // end of findBestDetectedIdx()
+
+
+  private boolean samePoint(Point3d p1, Point3d p2)
+  {
+    if ((p1 == null) || (p2 == null))
+      return (p1 == p2);
+    return p1.equals(p2);
+  }
 
 
   private void addToStatusInfo(MarkerModel mm, StringBuffer statusInfo)
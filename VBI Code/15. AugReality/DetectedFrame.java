@@ -0,0 +1,87 @@
+// DetectedFrame.java
+
+/* The results of detecting markers in a single camera image:
+   the image itself, and the best confidence and transformation
+   matrix for each marker.
+
+   A DetectedFrame is filled by the MarkersCapturer thread and then
+   handed over to NyARMarkersBehavior, which uses it to move the
+   marker models. Frames are recycled, so the transformation matrices
+   are only allocated once.
+*/
+
+import java.awt.image.*;
+
+import jp.nyatla.nyartoolkit.core.types.matrix.*;
+
+
+
+public class DetectedFrame
+{
+  private BufferedImage im = null;
+
+  private int numMarkers;
+  private double[] confs;        // best confidence for each marker (-1 if not detected)
+  private boolean[] isAccepted;  // was the marker detected with enough confidence?
+  private NyARDoubleMatrix44[] transMats;   // only valid for accepted markers
+
+
+
+  public DetectedFrame(int numMarkers)
+  {
+    this.numMarkers = numMarkers;
+    confs = new double[numMarkers];
+    isAccepted = new boolean[numMarkers];
+    transMats = new NyARDoubleMatrix44[numMarkers];
+    for (int i = 0; i < numMarkers; i++)
+      transMats[i] = new NyARDoubleMatrix44();
+    clear();
+  }  // end of DetectedFrame()
+
+
+
+  public void clear()
+  {
+    for (int i = 0; i < numMarkers; i++) {
+      confs[i] = -1;
+      isAccepted[i] = false;
+    }
+  }  // end of clear()
+
+
+
+  public void setImage(BufferedImage im)
+  {  this.im = im;  }
+
+  public BufferedImage getImage()
+  {  return im;  }
+
+
+  public int getNumMarkers()
+  {  return numMarkers;  }
+
+
+  public void setConfidence(int mkIdx, double conf)
+  {  confs[mkIdx] = conf;  }
+
+  public double getConfidence(int mkIdx)
+  {  return confs[mkIdx];  }
+
+  public boolean isDetected(int mkIdx)
+  {  return (confs[mkIdx] >= 0);  }
+
+
+  public NyARDoubleMatrix44 accept(int mkIdx)
+  // mark the marker as accepted, and return its matrix for filling in
+  {
+    isAccepted[mkIdx] = true;
+    return transMats[mkIdx];
+  }
+
+  public boolean isAccepted(int mkIdx)
+  {  return isAccepted[mkIdx];  }
+
+  public NyARDoubleMatrix44 getTransMat(int mkIdx)
+  {  return transMats[mkIdx];  }
+
+}  // end of DetectedFrame class
@@ -0,0 +1,90 @@
+// MarkerAssigner.java
+
+/* Assigns detected squares to markers. Each detection has a marker
+   (pattern code) index and a confidence; the detection with the highest
+   confidence is chosen for each marker, and accepted only if that
+   confidence is at least minConf.
+
+   All the detections are grouped by marker index in a single pass, so
+   the cost is O(markers + detections) rather than checking every
+   detection for every marker. The arrays are reused between calls.
+*/
+
+
+
+public class MarkerAssigner
+{
+  private int numMarkers;
+  private double minConf;
+
+  private int[] bestIdxs;      // best detection index for each marker (-1 if none)
+  private double[] bestConfs;  // confidence of that detection (-1 if none)
+
+  // detection details, filled by the caller before assign()
+  private int[] codeIdxs;
+  private double[] confs;
+
+
+
+  public MarkerAssigner(int numMarkers, double minConf)
+  {
+    this.numMarkers = numMarkers;
+    this.minConf = minConf;
+    bestIdxs = new int[numMarkers];
+    bestConfs = new double[numMarkers];
+    ensureCapacity(16);
+  }  // end of MarkerAssigner()
+
+
+
+  public void ensureCapacity(int numDetections)
+  // make sure there's room for numDetections detections
+  {
+    if ((codeIdxs != null) && (codeIdxs.length >= numDetections))
+      return;
+    int size = (codeIdxs == null) ? numDetections : Math.max(numDetections, codeIdxs.length*2);
+    codeIdxs = new int[size];
+    confs = new double[size];
+  }  // end of ensureCapacity()
+
+
+  public void setDetection(int i, int codeIdx, double conf)
+  {
+    codeIdxs[i] = codeIdx;
+    confs[i] = conf;
+  }
+
+
+
+  public void assign(int numDetections)
+  // find the best detection for each marker, in one pass over the detections
+  {
+    for (int mkIdx = 0; mkIdx < numMarkers; mkIdx++) {
+      bestIdxs[mkIdx] = -1;
+      bestConfs[mkIdx] = -1;
+    }
+
+    for (int i = 0; i < numDetections; i++) {
+      int mkIdx = codeIdxs[i];
+      if ((mkIdx < 0) || (mkIdx >= numMarkers))
+        continue;
+      if (confs[i] > bestConfs[mkIdx]) {   // detected marker index with highest confidence
+        bestIdxs[mkIdx] = i;
+        bestConfs[mkIdx] = confs[i];
+      }
+    }
+  }  // end of assign()
+
+
+
+  public int getBestIdx(int mkIdx)
+  {  return bestIdxs[mkIdx];  }
+
+  public double getBestConfidence(int mkIdx)
+  {  return bestConfs[mkIdx];  }
+
+  public boolean isAccepted(int mkIdx)
+  // was the marker detected with high enough confidence?
+  {  return (bestIdxs[mkIdx] != -1) && (bestConfs[mkIdx] >= minConf);  }
+
+}  // end of MarkerAssigner class
@@ -25,6 +25,7 @@ public class MarkerModel
 {
   private final String MARKER_DIR = "Data/";
   private final double MARKER_SIZE = 0.095;    // 95 cm width and height in Java 3D world units
+  private final boolean SMOOTH_WITH_QUATS = true;   // average rotations using quaternions
 
 
   private String markerName, modelName;
@@ -36,6 +37,8 @@ public class MarkerModel
   private boolean isVisible;
 
   private SmoothMatrix sMat;          // for smoothing the transforms applied to the model
+  private Matrix4d smoothedMat = new Matrix4d();     // reused for each smoothed transform
+  private Transform3D smoothedT3d = new Transform3D();
 
   // details about a model's position and orientation (in degrees)
   private Point3d posInfo = null;
@@ -77,7 +80,7 @@ public class MarkerModel
        markerInfo = null;
     }
   
-    sMat = new SmoothMatrix();
+    sMat = new SmoothMatrix(SMOOTH_WITH_QUATS);
   }  // end of MarkerModel()
 
 
@@ -163,15 +166,17 @@ public class MarkerModel
 
     sMat.add(transMat);
 
-    Matrix4d mat = sMat.get();
-    Transform3D t3d = new Transform3D(mat);
+    Matrix4d mat = smoothedMat;
+    if (!sMat.get(mat))
+      return;
+    smoothedT3d.set(mat);
 
-    int flags = t3d.getType();
+    int flags = smoothedT3d.getType();
     if ((flags & Transform3D.AFFINE) == 0)
       System.out.println("Ignoring non-affine transformation");
     else {
       if (moveTg != null)
-        moveTg.setTransform(t3d);
+        moveTg.setTransform(smoothedT3d);
 
       // System.out.println("transformation matrix: " + mat);
       calcPosition(mat);
@@ -0,0 +1,222 @@
+// MarkersCapturer.java
+
+/* A thread which repeatedly grabs a camera image and looks for markers
+   in it. The latest results are published as a DetectedFrame through an
+   atomic swap, so NyARMarkersBehavior never waits for a slow grab or
+   detection; it only applies the most recent results.
+
+   Frames are passed back and forth: the behavior takes the latest
+   frame, uses it, and then recycles it so it can be refilled.
+
+   If a grab fails, the thread waits before trying again, starting at
+   MIN_RETRY_DELAY ms and doubling up to MAX_RETRY_DELAY ms, so a missing
+   or unplugged camera doesn't keep a core busy.
+
+   The average detection time and the detection rate are available
+   as metrics.
+*/
+
+import java.awt.image.*;
+import java.util.concurrent.atomic.*;
+
+import jp.nyatla.nyartoolkit.utils.j2se.*;
+import jp.nyatla.nyartoolkit.core.*;
+
+import com.googlecode.javacv.*;
+import com.googlecode.javacv.cpp.videoInputLib.*;
+
+import static com.googlecode.javacv.cpp.opencv_core.*;
+
+
+
+public class MarkersCapturer implements Runnable
+{
+  /* dimensions of each image */
+  private static final int WIDTH = 640;
+  private static final int HEIGHT = 480;
+
+  private static final int CAMERA_ID = 0;
+
+  private static final double SMOOTH_WEIGHT = 0.1;   // weight of a new value in the averages
+
+  private static final int MIN_RETRY_DELAY = 10;    // ms to wait after a failed grab
+  private static final int MAX_RETRY_DELAY = 500;
+
+
+  private FrameGrabber grabber;
+  private NyARBufferedImageRaster raster;
+  private BufferedImage firstIm;
+
+  private DetectMarkers detectMarkers;   // the detector for the markers
+
+  private AtomicReference<DetectedFrame> latestFrame = new AtomicReference<DetectedFrame>();
+  private AtomicReference<DetectedFrame> spareFrame = new AtomicReference<DetectedFrame>();
+
+  private volatile boolean isRunning;
+
+  // metrics
+  private volatile double avDetectTime = 0;   // in ms
+  private volatile double avDetectInterval = 0;    // in ms
+  private long prevDetectTime = -1;
+
+
+
+  public MarkersCapturer(DetectMarkers ms)
+  {
+    detectMarkers = ms;
+
+    grabber = initGrabber(CAMERA_ID);
+    firstIm = picGrab(grabber, CAMERA_ID);
+    if (firstIm == null) {
+      System.out.println("Could not grab a first image from camera " + CAMERA_ID);
+      System.exit(1);
+    }
+
+    try {
+      raster = new NyARBufferedImageRaster(firstIm);
+    }
+    catch(NyARException e)
+    {  System.out.println(e);
+       System.exit(1);
+    }
+  }  // end of MarkersCapturer()
+
+
+
+  private FrameGrabber initGrabber(int ID)
+  {
+    FrameGrabber grabber = null;
+    System.out.println("Initializing grabber for " + videoInput.getDeviceName(ID) + " ...");
+    try {
+      grabber = FrameGrabber.createDefault(ID);
+      grabber.setFormat("dshow");       // using DirectShow
+      grabber.setImageWidth(WIDTH);     // default is too small: 320x240
+      grabber.setImageHeight(HEIGHT);
+      grabber.start();
+    }
+    catch(Exception e)
+    {  System.out.println("Could not start grabber");
+       System.out.println(e);
+       System.exit(1);
+    }
+    return grabber;
+  }  // end of initGrabber()
+
+
+
+  private BufferedImage picGrab(FrameGrabber grabber, int ID)
+  {
+    BufferedImage im = null;
+    try {
+      IplImage img = grabber.grab();  // take a snap
+      if (img != null)
+        im = img.getBufferedImage();
+    }
+    catch(Exception e)
+    {  System.out.println("Problem grabbing image for camera " + ID);  }
+    return im;
+  }  // end of picGrab()
+
+
+
+  public BufferedImage getFirstImage()
+  // used by the behavior to initialize the background
+  {  return firstIm;  }
+
+
+
+  public void run()
+  /* grab an image, find the markers, and publish the results;
+     the grabber is only used by this thread */
+  {
+    isRunning = true;
+    int retryDelay = MIN_RETRY_DELAY;
+    while (isRunning) {
+      BufferedImage im = picGrab(grabber, CAMERA_ID);
+      if (im == null) {    // back off before trying again
+        try {
+          Thread.sleep(retryDelay);
+        }
+        catch (InterruptedException e) {}
+        retryDelay = Math.min(2*retryDelay, MAX_RETRY_DELAY);
+        continue;
+      }
+      retryDelay = MIN_RETRY_DELAY;
+
+      long startTime = System.nanoTime();
+      DetectedFrame frame = spareFrame.getAndSet(null);
+      if (frame == null)
+        frame = new DetectedFrame(detectMarkers.getNumMarkers());
+
+      raster.wrapImage(im);
+      detectMarkers.detect(raster, frame);
+      frame.setImage(im);
+
+      DetectedFrame oldFrame = latestFrame.getAndSet(frame);   // publish
+      if (oldFrame != null)    // the behavior never used it
+        spareFrame.compareAndSet(null, oldFrame);
+
+      updateMetrics(startTime);
+    }
+
+    try {
+      grabber.stop();
+      grabber.release();
+    }
+    catch(Exception e)
+    {  System.out.println("Problem stopping grabbing for camera " + CAMERA_ID);  }
+  }  // end of run()
+
+
+
+  private void updateMetrics(long startTime)
+  {
+    long now = System.nanoTime();
+    double detectTime = (now - startTime)/1000000.0;
+    avDetectTime = smooth(avDetectTime, detectTime);
+
+    if (prevDetectTime != -1)
+      avDetectInterval = smooth(avDetectInterval, (now - prevDetectTime)/1000000.0);
+    prevDetectTime = now;
+  }  // end of updateMetrics()
+
+
+  private double smooth(double av, double val)
+  {
+    if (av == 0)
+      return val;
+    return (1-SMOOTH_WEIGHT)*av + SMOOTH_WEIGHT*val;
+  }
+
+
+
+  public DetectedFrame takeLatest()
+  // return the most recent results, or null if there are none new
+  {  return latestFrame.getAndSet(null);  }
+
+
+  public void recycle(DetectedFrame frame)
+  // the behavior has finished with frame, so it can be refilled
+  {  spareFrame.compareAndSet(null, frame);  }
+
+
+
+  public void stop()
+  {  isRunning = false;  }
+
+
+
+  public double getDetectTime()
+  // average time to find the markers in an image (in ms)
+  {  return avDetectTime;  }
+
+
+  public double getDetectFPS()
+  // number of images searched for markers each second
+  {
+    if (avDetectInterval == 0)
+      return 0;
+    return 1000.0/avDetectInterval;
+  }
+
+}  // end of MarkersCapturer class
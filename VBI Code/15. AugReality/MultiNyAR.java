@@ -47,6 +47,8 @@ public class MultiNyAR extends JFrame
 
   private static final int BOUNDSIZE = 100;  // larger than world
 
+  private static final int METRICS_DELAY = 1000;  // ms between updates of the metrics in the title
+
   private J3dNyARParam cameraParams;
   private NyARMarkersBehavior nyaBeh;
   private JTextArea statusTA;
@@ -86,6 +88,15 @@ public class MultiNyAR extends JFrame
       }
     });
 
+    // report the update and detection rates in the title bar
+    new Timer(METRICS_DELAY, new ActionListener() {
+      public void actionPerformed(ActionEvent e)
+      { setTitle(String.format("Multiple markers NyARToolkit Example " +
+                  "(update: %.1f FPS; detect: %.1f FPS, %.1f ms)",
+                  nyaBeh.getUpdateFPS(), nyaBeh.getDetectFPS(), nyaBeh.getDetectTime()));
+      }
+    }).start();
+
     setResizable(false);
     pack();  
     setLocationRelativeTo(null);
@@ -5,9 +5,18 @@
 /* To reduce shaking of model due to slight variations in
    calculaed rotations and positions in the transformation
    matrix.
-*/
 
-import java.util.*;
+   The last MAX_SIZE matrices are stored in a ring buffer of
+   16-element arrays, and a running sum of their elements is
+   maintained, so adding a matrix and getting the average are
+   both O(1), and create no garbage.
+
+   In quaternion mode, the rotation part of each matrix is
+   stored as a quaternion, and the rotations are averaged by
+   summing the (sign-aligned) quaternions and normalizing. This
+   stops the averaged rotation being skewed or scaled, which can
+   happen when the 3x3 rotation elements are averaged directly.
+*/
 
 import javax.media.j3d.*;
 import javax.vecmath.*;
@@ -19,58 +28,167 @@ import jp.nyatla.nyartoolkit.core.types.matrix.*;
 public class SmoothMatrix
 {
   private final static int MAX_SIZE = 10;
+  private final static int MAT_LEN = 16;    // number of elements in a 4x4 matrix
+  private final static int QUAT_LEN = 4;
+
+  private boolean useQuats;     // average rotations using quaternions
+
+  private double[][] matsStore;    // ring buffer of matrices, stored row by row
+  private double[] matsSum;        // running sum of the stored matrices
+
+  private double[][] quatsStore;   // ring buffer of rotations (x, y, z, w)
+  private double[] quatsSum;       // running sum of the stored quaternions
 
-  private ArrayList<Matrix4d> matsStore;
   private int numMats = 0;
+  private int nextIdx = 0;     // where the next matrix will be stored in the ring buffer
+
+  // reused for each new matrix
+  private Matrix4d newMat = new Matrix4d();
+  private Transform3D t3d = new Transform3D();
+  private Quat4d quat = new Quat4d();
+  private Vector3d transVec = new Vector3d();
 
 
-  public SmoothMatrix() 
+
+  public SmoothMatrix()
+  {  this(false);  }
+
+
+  public SmoothMatrix(boolean useQuats)
   {
-    matsStore = new ArrayList<Matrix4d>();
+    this.useQuats = useQuats;
+
+    matsStore = new double[MAX_SIZE][MAT_LEN];
+    matsSum = new double[MAT_LEN];
 
+    if (useQuats) {
+      quatsStore = new double[MAX_SIZE][QUAT_LEN];
+      quatsSum = new double[QUAT_LEN];
+    }
   } // end of SmoothMatrix()
 
 
 
   public boolean add(NyARDoubleMatrix44 transMat)
   {
-
-    Matrix4d mat = new Matrix4d(-transMat.m00, -transMat.m01, -transMat.m02, -transMat.m03,
-                                -transMat.m10, -transMat.m11, -transMat.m12, -transMat.m13, 
-                                 transMat.m20,  transMat.m21,  transMat.m22,  transMat.m23,
-                                 0,             0,             0,             1             );
-    Transform3D t3d = new Transform3D(mat);
+    newMat.set(-transMat.m00, -transMat.m01, -transMat.m02, -transMat.m03,
+               -transMat.m10, -transMat.m11, -transMat.m12, -transMat.m13,
+                transMat.m20,  transMat.m21,  transMat.m22,  transMat.m23,
+                0,             0,             0,             1             );
+    t3d.set(newMat);
 
     int flags = t3d.getType();
     if ((flags & Transform3D.AFFINE) == 0) {
       System.out.println("Not adding a non-affine matrix");
       return false;
     }
-    else {
-      if (numMats == MAX_SIZE) {
-        matsStore.remove(0);   // remove oldest
-        numMats--;
-      }
-      matsStore.add(mat);  // add at end of list
+
+    // overwrite the oldest matrix (if the store is full)
+    double[] elems = matsStore[nextIdx];
+    for (int i = 0; i < MAT_LEN; i++) {
+      double val = newMat.getElement(i/4, i%4);
+      if (numMats == MAX_SIZE)
+        matsSum[i] -= elems[i];
+      elems[i] = val;
+      matsSum[i] += val;
+    }
+
+    if (useQuats)
+      addQuat(newMat);
+
+    if (numMats < MAX_SIZE)
       numMats++;
-      return true;
+
+    nextIdx++;
+    if (nextIdx == MAX_SIZE) {
+      nextIdx = 0;
+      resum();   // stop rounding errors building up in the running sums
     }
+    return true;
   }  // end of add()
 
 
+
+  private void addQuat(Matrix4d mat)
+  /* Store the rotation in mat as a quaternion. q and -q are the same
+     rotation, so the quaternion is flipped if necessary to lie in the
+     same hemisphere as the current sum, otherwise they would cancel out.
+  */
+  {
+    quat.set(mat);
+    double[] q = quatsStore[nextIdx];
+    if (numMats == MAX_SIZE) {
+      for (int i = 0; i < QUAT_LEN; i++)
+        quatsSum[i] -= q[i];
+    }
+
+    q[0] = quat.x;  q[1] = quat.y;  q[2] = quat.z;  q[3] = quat.w;
+
+    double dot = 0;
+    for (int i = 0; i < QUAT_LEN; i++)
+      dot += q[i]*quatsSum[i];
+    if (dot < 0) {
+      for (int i = 0; i < QUAT_LEN; i++)
+        q[i] = -q[i];
+    }
+
+    for (int i = 0; i < QUAT_LEN; i++)
+      quatsSum[i] += q[i];
+  }  // end of addQuat()
+
+
+
+  private void resum()
+  // recalculate the running sums from the stored values
+  {
+    for (int i = 0; i < MAT_LEN; i++) {
+      matsSum[i] = 0;
+      for (int j = 0; j < numMats; j++)
+        matsSum[i] += matsStore[j][i];
+    }
+
+    if (useQuats) {
+      for (int i = 0; i < QUAT_LEN; i++) {
+        quatsSum[i] = 0;
+        for (int j = 0; j < numMats; j++)
+          quatsSum[i] += quatsStore[j][i];
+      }
+    }
+  }  // end of resum()
+
+
+
   public Matrix4d get()
   // average matricies in store
   {
-    if (numMats == 0)
+    Matrix4d avMat = new Matrix4d();
+    if (!get(avMat))
       return null;
+    return avMat;
+  }  // end of get()
 
-    Matrix4d avMat = new Matrix4d();
-    for(Matrix4d mat : matsStore)
-      avMat.add(mat);
-    avMat.mul( 1.0/numMats );
 
-    return avMat;
+
+  public boolean get(Matrix4d avMat)
+  /* store the average of the matrices in avMat, without creating
+     any objects; return false if there are no matrices */
+  {
+    if (numMats == 0)
+      return false;
+
+    double scale = 1.0/numMats;
+    if (!useQuats) {
+      for (int i = 0; i < MAT_LEN; i++)
+        avMat.setElement(i/4, i%4, matsSum[i]*scale);
+    }
+    else {
+      // normalized quaternion sum for the rotation, averaged translation
+      quat.set(quatsSum[0], quatsSum[1], quatsSum[2], quatsSum[3]);
+      quat.normalize();
+      transVec.set(matsSum[3]*scale, matsSum[7]*scale, matsSum[11]*scale);
+      avMat.set(quat, transVec, 1.0);
+    }
+    return true;
   }  // end of get()
 
 }  // end of SmoothMatrix class
-
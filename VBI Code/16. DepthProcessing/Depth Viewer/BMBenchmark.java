@@ -0,0 +1,101 @@
+// BMBenchmark.java
+
+/* Times TiledBM against a single call to cvFindStereoCorrespondenceBM()
+   for 1, 2, 4, ... threads up to the number of cores, and checks that
+   the tiled disparity maps are identical to the single-threaded one.
+
+   The images should be a rectified grayscale pair, such as the
+   rectified images shown by DepthViewer. The BM settings are the
+   initial ones used by DepthViewer.
+
+   Usage:
+     > run BMBenchmark left.png right.png
+*/
+
+import java.nio.*;
+
+import com.googlecode.javacpp.Loader;
+import com.googlecode.javacv.cpp.*;
+
+import static com.googlecode.javacv.cpp.opencv_core.*;
+import static com.googlecode.javacv.cpp.opencv_calib3d.*;
+import static com.googlecode.javacv.cpp.opencv_highgui.*;
+
+
+
+public class BMBenchmark
+{
+  private static final int NUM_REPEATS = 10;
+
+
+  public static void main(String args[])
+  {
+    if (args.length != 2) {
+      System.out.println("Usage: run BMBenchmark <left image> <right image>");
+      return;
+    }
+    Loader.load(opencv_objdetect.class);
+
+    IplImage leftIm = cvLoadImage(args[0], 0);    // grayscale
+    IplImage rightIm = cvLoadImage(args[1], 0);
+    if ((leftIm == null) || (rightIm == null)) {
+      System.out.println("Could not load the images");
+      return;
+    }
+
+    // the initial settings from DepthViewer
+    CvStereoBMState bmState = cvCreateStereoBMState(CV_STEREO_BM_BASIC, 0);
+    bmState.preFilterSize(31);
+    bmState.preFilterCap(31);
+    bmState.SADWindowSize(15);
+    bmState.minDisparity(-100);
+    bmState.numberOfDisparities(128);
+    bmState.textureThreshold(10);
+    bmState.uniquenessRatio(15);
+    bmState.speckleWindowSize(100);
+    bmState.speckleRange(4);
+
+    CvSize imSize = cvGetSize(leftIm);
+    IplImage refMap = IplImage.create(imSize, IPL_DEPTH_16S, 1);
+    IplImage tiledMap = IplImage.create(imSize, IPL_DEPTH_16S, 1);
+
+    cvFindStereoCorrespondenceBM(leftIm, rightIm, refMap, bmState);   // warm-up
+    long startTime = System.nanoTime();
+    for (int r = 0; r < NUM_REPEATS; r++)
+      cvFindStereoCorrespondenceBM(leftIm, rightIm, refMap, bmState);
+    double refTime = (System.nanoTime() - startTime)/(1000000.0*NUM_REPEATS);
+    System.out.printf("Single call: %.1f ms\n", refTime);
+
+    int numCores = Runtime.getRuntime().availableProcessors();
+    System.out.println("threads   time (ms)   speedup   differing pixels");
+    for (int numThreads = 1; numThreads <= numCores; numThreads *= 2) {
+      TiledBM tiledBM = new TiledBM(numThreads);
+      tiledBM.compute(leftIm, rightIm, tiledMap, bmState);   // warm-up
+      startTime = System.nanoTime();
+      for (int r = 0; r < NUM_REPEATS; r++)
+        tiledBM.compute(leftIm, rightIm, tiledMap, bmState);
+      double time = (System.nanoTime() - startTime)/(1000000.0*NUM_REPEATS);
+
+      System.out.printf("%7d  %10.1f  %8.2f  %17d\n", numThreads, time, refTime/time,
+                                                countDifferences(refMap, tiledMap));
+      if ((numThreads < numCores) && (numThreads*2 > numCores))
+        numThreads = numCores/2;    // so the last test uses all the cores
+    }
+  }  // end of main()
+
+
+
+  private static int countDifferences(IplImage im1, IplImage im2)
+  {
+    ShortBuffer sb1 = im1.getShortBuffer();
+    ShortBuffer sb2 = im2.getShortBuffer();
+    int step = im1.widthStep()/2;
+    int count = 0;
+    for (int y = 0; y < im1.height(); y++)
+      for (int x = 0; x < im1.width(); x++)
+        if (sb1.get(y*step + x) != sb2.get(y*step + x))
+          count++;
+    return count;
+  }  // end of countDifferences()
+
+}  // end of BMBenchmark class
@@ -18,6 +18,11 @@
         lookup maps and a reprojection matrix Q (read from the stereoData/
         directory), and the pair is processed as above.
 
+      * live mode: image pairs are taken straight from two cameras, and
+        rectified and depth processed by a LiveDepth thread, using the
+        lookup maps loaded as above. The grayscale disparity image and
+        the depths are updated at the cameras' pair rate.
+
    The panel displaying the gray disparity image can be clicked upon, causing
    the depth to be displayed that corresponds to that (x, y) coordinate according
    to the normalized disparity map.
@@ -85,11 +90,19 @@ public class DepthCalc
        // **CHANGE** this to match the size of a square in your chessboard print-out
 
   private static final String STEREO_DIR = "stereoData/";
+  private static final String RECT_CACHE_FNM = STEREO_DIR + "rectify.bin";
+         // binary cache of the lookup maps and Q
+  private static final String[] CALIB_FNMS = { STEREO_DIR + "mx1.txt", STEREO_DIR + "my1.txt",
+                                               STEREO_DIR + "mx2.txt", STEREO_DIR + "my2.txt",
+                                               STEREO_DIR + "q.txt" };
+         // text versions of the lookup maps and Q
 
   // names of files used to store info at application termination time
   private static final String BS_FNM = "bsState.txt";   // the block-matching (BM) stereo state
   private static final String VDISP_MAP_FNM = "gDispMap.jpg";    // grayscale gray disparity image image
   private static final String PCL_FNM = "pointCloud.ply";        // points cloud
+  private static final boolean PLY_BINARY = true;
+         // binary PLY is smaller and faster to write; set to false for ASCII
   private static final String ANA_FNM = "anaglyph.jpg";          // anaglyph image
 
 
@@ -99,11 +112,17 @@ public class DepthCalc
   private CvMat Q;
   private double focalLength, baselineDist;      // parts of reprojection matrix, Q
 
+  private RectifyCache rectCache;
+  private double[][] calibMats = null;  // matrices used to make the lookup maps
+  private boolean mapsFromCache = false;
+
   private IplImage[] imagesRectified = null;     // rectified image pair being depth processed
   private CvStereoBMState bmState;       // the block-matching (BM) stereo state
+  private TiledBM tiledBM;               // runs BM on bands of the images in parallel
 
   private IplImage gDispMap;             // grayscale disparity image
   private CvMat normalizedDisp;          // disparity data used for depth calculations
+  private int[] depthsBuf = null;        // non-zero depths, for finding percentiles
   // private CvMat xyzMat;
 
   private CanvasFrame displayFrame;   
@@ -111,6 +130,8 @@ public class DepthCalc
 
   private boolean drawChessboards;
 
+  private LiveDepth liveDepth = null;    // only used in live mode
+
 
 
   public DepthCalc(int val, boolean isCalibrating, boolean isDrawing,
@@ -121,9 +142,49 @@ public class DepthCalc
     drawChessboards = isDrawing;
        // if true, then the identified chessboards are drawn at calibration time
 
+    initBM(preFilterSize, prefilterCap, sadSize, minDisp, numDisp,
+           uniqRatio, texThresh, specSize, specRange);
+
+    // decide whether calibrating or processing a given image pair
+    if (isCalibrating) {
+      calibrateCams(val);
+      depthProcessing(0);
+    }
+    else {   // processing the image pair with ID == val
+      loadCalibrationInfo();
+      depthProcessing(val);
+    }
+  }  // end of DepthCalc()
+
+
+
+  public DepthCalc(int leftID, int rightID,
+                              int preFilterSize, int prefilterCap, int sadSize,
+                              int minDisp, int numDisp, int uniqRatio,
+                              int texThresh, int specSize, int specRange)
+  // live mode: depth process the image pairs from two cameras
+  {
+    drawChessboards = false;
+    initBM(preFilterSize, prefilterCap, sadSize, minDisp, numDisp,
+           uniqRatio, texThresh, specSize, specRange);
+
+    loadCalibrationInfo();
+    liveDepth = new LiveDepth(leftID, rightID, IM_WIDTH, IM_HEIGHT,
+                              mx1, my1, mx2, my2, bmState, tiledBM);
+    new Thread(liveDepth, "Live Depth").start();
+  }  // end of DepthCalc() for live mode
+
+
+
+  private void initBM(int preFilterSize, int prefilterCap, int sadSize,
+                      int minDisp, int numDisp, int uniqRatio,
+                      int texThresh, int specSize, int specRange)
+  {
     // Preload the opencv_objdetect module to work around a known bug.
     Loader.load(opencv_objdetect.class);
 
+    rectCache = new RectifyCache(RECT_CACHE_FNM);
+
     // initialize the block-matching (BM) stereo state; see OpenCV book p.443-444
     bmState = cvCreateStereoBMState(CV_STEREO_BM_BASIC, 0);
     bmState.preFilterSize(preFilterSize);   // prefilters
@@ -139,16 +200,8 @@ public class DepthCalc
     bmState.speckleWindowSize(specSize);
     bmState.speckleRange(specRange);
 
-    // decide whether calibrating or processing a given image pair
-    if (isCalibrating) {
-      calibrateCams(val);
-      depthProcessing(0);
-    }
-    else {   // processing the image pair with ID == val
-      loadCalibrationInfo();
-      depthProcessing(val);
-    }
-  }  // end of DepthCalc()
+    tiledBM = new TiledBM( Runtime.getRuntime().availableProcessors());
+  }  // end of initBM()
 
 
 
@@ -402,6 +455,9 @@ public class DepthCalc
     calculateLookupMaps(M1, M2, D1, D2, H1, H2);
 
     calculateQ(M1, M2, D1, D2, imSize, R, T);
+
+    if (!mapsFromCache)
+      saveRectifyCache(calibMats);
   }  // end of calibrateWithPairs()
 
 
@@ -451,6 +507,19 @@ public class DepthCalc
     cvMatMul(H2, M2, Re2);
     cvMatMul(iM, Re2, Re2);   // Re2 =  iM2 * H2 * M2
 
+    /* the maps only depend on these matrices, so if the cache was made from 
+       the same ones then its maps can be used */
+    calibMats = new double[][] { matValues(M1), matValues(D1), matValues(Re1),
+                                 matValues(M2), matValues(D2), matValues(Re2) };
+    long key = RectifyCache.makeKey(IM_WIDTH, IM_HEIGHT, calibMats);
+    if (rectCache.hasKey(IM_WIDTH, IM_HEIGHT, key) && rectCache.load(IM_WIDTH, IM_HEIGHT)) {
+          // the key is checked first, so a cache that will be replaced is never mapped
+      System.out.println("Using the cached lookup maps");
+      loadCachedMaps();
+      mapsFromCache = true;
+      return;
+    }
+
     System.out.println("Calculating undistortion/rectification lookup maps...");
     /* calculates undistortion+rectification transformation that are
        stored as 'loopup maps' for the  left and right cameras; OpenCV p.437  
@@ -499,8 +568,10 @@ public class DepthCalc
     baselineDist = -1.0/Q.get(3,2);
     System.out.printf("Focal length: %.4f\n", focalLength);
     System.out.printf("Baseline distance: %.4f\n", baselineDist);
-    System.out.println("Saving reprojection matrix");
-    saveMatrix(STEREO_DIR + "q.txt", Q);
+    if (!mapsFromCache) {
+      System.out.println("Saving reprojection matrix");
+      saveMatrix(STEREO_DIR + "q.txt", Q);
+    }
 
     /* If our cameras have roughly the same parameters and are set up in an 
        approximately horizontally aligned frontal parallel configuration, 
@@ -521,16 +592,34 @@ public class DepthCalc
 
 
   private void loadCalibrationInfo()
+  /* Load the lookup maps and Q from the binary cache if it's up-to-date,
+     otherwise from the text files, and then build the cache. */
   {
-    System.out.println("Loading undistortion/rectification lookup maps");
-    mx1 = loadMatrix(STEREO_DIR + "mx1.txt", CV_32F);
-    my1 = loadMatrix(STEREO_DIR + "my1.txt", CV_32F);
-    mx2 = loadMatrix(STEREO_DIR + "mx2.txt", CV_32F);
-    my2 = loadMatrix(STEREO_DIR + "my2.txt", CV_32F);
-
-    System.out.println("Loading reprojection matrix");
-    Q = loadMatrix(STEREO_DIR + "q.txt", CV_64F);    
-                                  // reprojection matrix; see OpenCV p.435
+    long startTime = System.currentTimeMillis();
+    if (isCacheCurrent() && rectCache.load(IM_WIDTH, IM_HEIGHT)) {
+      loadCachedMaps();
+      Q = cvCreateMat(4, 4, CV_64F);
+      double[] qVals = rectCache.getQ();
+      for (int i=0; i < 4; i++)
+        for (int j=0; j < 4; j++)
+          Q.put(i, j, qVals[i*4 + j]);
+    }
+    else {
+      System.out.println("Loading undistortion/rectification lookup maps");
+      mx1 = loadMatrix(STEREO_DIR + "mx1.txt", CV_32F);
+      my1 = loadMatrix(STEREO_DIR + "my1.txt", CV_32F);
+      mx2 = loadMatrix(STEREO_DIR + "mx2.txt", CV_32F);
+      my2 = loadMatrix(STEREO_DIR + "my2.txt", CV_32F);
+
+      System.out.println("Loading reprojection matrix");
+      Q = loadMatrix(STEREO_DIR + "q.txt", CV_64F);    
+                                    // reprojection matrix; see OpenCV p.435
+
+      // the other calibration matrices aren't in the text files, so the key uses Q
+      saveRectifyCache(new double[][] { matValues(Q) });
+    }
+    System.out.println("Calibration info loaded in " + 
+                            (System.currentTimeMillis() - startTime) + " ms"); 
 
     printMatrix("Reprojection Matrix Q:", Q);
     focalLength = Q.get(2,3); 
@@ -681,8 +770,10 @@ public class DepthCalc
 
     // System.out.println("Creating a disparity map ...");
     IplImage disparityMap = IplImage.create(imSize, IPL_DEPTH_16S, 1);
-    cvFindStereoCorrespondenceBM(imagesRectified[LEFT], imagesRectified[RIGHT],
-                                                       disparityMap, bmState);
+    tiledBM.compute(imagesRectified[LEFT], imagesRectified[RIGHT], disparityMap, bmState);
+          // same result as cvFindStereoCorrespondenceBM(), but using all the cores
+    System.out.println("  Block matching took " + tiledBM.getLastTime() + " ms using " +
+                                     tiledBM.getNumThreads() + " threads");
 
     // for debugging 
     double[] minVal = new double[1];
@@ -717,8 +808,15 @@ public class DepthCalc
 
   public int getDepth(int x, int y)
   /* called from ImagePanel to get the depth at a given (x,y)
-     coordinate. Use the normalized disparity matrix. */
+     coordinate. Use the normalized disparity matrix, or the
+     latest disparities in live mode. */
   {
+    if (liveDepth != null) {
+      int depth = disparity2Depth( liveDepth.getDisparity(x, y));
+      System.out.println("Depth at (" + x + ", " + y + "): " + depth);
+      return depth;
+    }
+
     if (normalizedDisp == null)
       return 0;
 
@@ -752,6 +850,11 @@ public class DepthCalc
   */
   {
     System.out.println();
+    if (liveDepth != null) {   // stop the cameras, and save the last pair's results
+      liveDepth.stop();
+      normalizedDisp = liveDepth.getNormalizedDisp();
+      gDispMap = liveDepth.getGDispMap();
+    }
     saveBMAttributes(BS_FNM);
 
     if (gDispMap == null)
@@ -811,36 +914,39 @@ public class DepthCalc
     }
     int dataVerts = totalVerts - numZeros;   // ignore points with 0 depth
 
-    System.out.println("Saving point cloud coordinates to " + fnm);
-    try {
-      PrintWriter out = new PrintWriter(new FileWriter(fnm));
-
-      out.println("ply");
-      out.println("format ascii 1.0");
-      out.println("comment Point Cloud output from DepthCalc");
+    System.out.println("Saving point cloud coordinates to " + fnm +
+                           (PLY_BINARY ? " (binary)" : " (ASCII)"));
+    long startTime = System.currentTimeMillis();
 
-      // x, y, z coordinate for a point and colors
-      out.println("element vertex " + dataVerts);
-      out.println("property double x");    // vertex coordinates
-      out.println("property double y");
-      out.println("property double z");
-      out.println("property uchar red");   // vertex colors
-      out.println("property uchar green");
-      out.println("property uchar blue");
-      out.println("end_header");
+    // read the grayscale values straight from the matrix's data
+    ByteBuffer grayBuf = gDispMat.getByteBuffer();
+    int step = gDispMat.step();
 
+    PlyWriter ply = null;
+    try {
+      ply = new PlyWriter(fnm, dataVerts, PLY_BINARY);
       for (int x=0; x < cols; x++)
         for (int y=0; y < rows; y++) {
-          double d = (double)pclCoords[x][y];
-          int gray = (int) gDispMat.get((rows-1-y),x);   // grayscale value
-          if (d != 0)    // do not save depths == 0
-            out.printf("%d  %d  %.3f  %d  %d  %d\n", x, y, d, gray, gray, gray);    
+          double d = pclCoords[x][y];
+          if (d != 0) {   // do not save depths == 0
+            int gray = grayBuf.get((rows-1-y)*step + x) & 0xff;   // grayscale value
+            ply.addVertex(x, y, (float)d, gray, gray, gray);
+          }
         }
-      out.flush();
-      out.close();
     }
     catch(IOException ex) 
     {  System.out.println("Unable to save");  }
+    finally {
+      try {
+        if (ply != null) {
+          ply.close();
+          System.out.printf("Saved %d bytes in %d ms\n", ply.getFileSize(),
+                                     System.currentTimeMillis() - startTime);
+        }
+      }
+      catch (IOException e)
+      {  System.out.println("Unable to close " + fnm);  }
+    }
   }  // end of savePly()
 
 
@@ -855,34 +961,46 @@ public class DepthCalc
      The bottom left positioning of the origin is required by the PLY
      format used in MeshLab (http://meshlab.sourceforge.net/)
 
-     To accurately scale the depths, they have to be sorted so that
-     the 98th percentile can be assigned as the 'max depth' in the very skewed data
+     To accurately scale the depths, the 98th percentile is assigned as the 
+     'max depth' in the very skewed data. It's found by quickselect on
+     an int array, which is much faster than sorting all the depths.
   */
   {
     System.out.println("Converting normalized disparity map into a point cloud");
 
-    ArrayList<Integer> depths = new ArrayList<Integer>();
+    if ((depthsBuf == null) || (depthsBuf.length < rows*cols))
+      depthsBuf = new int[rows*cols];
+    int numDepths = 0;
+    int minDepth = Integer.MAX_VALUE;
+
+    // read the disparities straight from the matrix's data
+    FloatBuffer dispBuf = normalizedDisp.getFloatBuffer();
+    int step = normalizedDisp.step()/4;   // in floats
 
     // convert disparities to depths
     int numZeros = 0;
     int z;
     for (int i=0; i < rows; i++) {
       for (int j=0; j < cols; j++) {
-        z = disparity2Depth( normalizedDisp.get(i,j));
+        z = disparity2Depth( dispBuf.get(i*step + j));
         if (z == 0)
           numZeros++;
         else {
           pclCoords[j][rows-1-i] = z; 
                  // x-axis goes to the right, y-axis runs up screen
-          depths.add(z);
+          depthsBuf[numDepths++] = z;
+          if (z < minDepth)
+            minDepth = z;
         }
       }
     }
+    if (numDepths == 0) {
+      System.out.println("No non-zero depths found");
+      return numZeros;
+    }
 
     // calculate a scale factor 
-    Collections.sort(depths);
-    int minDepth = depths.get(0);
-    int maxDepth = findMaxDepth(depths);
+    int maxDepth = findMaxDepth(depthsBuf, numDepths, minDepth);
     System.out.println("min - max depth: " + minDepth + " - " + maxDepth);
 
     double scaleFactor = ((double)cols)/(maxDepth - minDepth);   
@@ -910,16 +1028,16 @@ public class DepthCalc
 
 
 
-  private int findMaxDepth(ArrayList<Integer> depths)
+  private int findMaxDepth(int[] depths, int numDepths, int minDepth)
   /* The maximum depth is the value at the 98th percentile of
-     the sorted depths. I use this since the data is skewed by
+     the depths. I use this since the data is skewed by
      one or two very large depths, so the mean is inaccurate.
   */
   {
-    int dVal = getPercentile(depths, 0.98);
+    int dVal = Percentile.select(depths, numDepths, 0.98);
     // System.out.println("98% value: " + dVal);
 
-    int maxMult =  10*depths.get(0);   // large multiple of the minimum depth
+    int maxMult =  10*minDepth;   // large multiple of the minimum depth
     int maxDepth = (maxMult < dVal) ? maxMult : dVal;   // use smaller of two
     // System.out.println("Max Depth: " + maxDepth);
 
@@ -928,22 +1046,100 @@ public class DepthCalc
 
 
 
-  private int getPercentile(ArrayList<Integer> list, double percent)
+
+  // ----------------------------- matrix IO ----------------------------
+
+
+  private boolean isCacheCurrent()
+  /* the cache is out-of-date if any of the text calibration files
+     are newer than it */
   {
-    if ((percent < 0) || (percent > 1.0)) {
-      System.out.println("percentage should be between 0 and 1; using 0.5");
-      percent = 0.5;
+    if (!rectCache.exists())
+      return false;
+    long cacheTime = rectCache.lastModified();
+    for (String fnm : CALIB_FNMS) {
+      if (new File(fnm).lastModified() > cacheTime) {
+        System.out.println(fnm + " is newer than " + RECT_CACHE_FNM + "; not using the cache");
+        return false;
+      }
     }
+    return true;
+  }  // end of isCacheCurrent()
 
-    int pcPosn = (int)Math.round(list.size()-1 * percent);
-    // System.out.println("percentage " + percent + " position = " + pcPosn);
-    return list.get(pcPosn);
-  }  // end of getPercentile()
 
 
+  private void loadCachedMaps()
+  // copy the memory-mapped lookup maps into CvMats
+  {
+    mx1 = mapToMatrix( rectCache.getMap(0));
+    my1 = mapToMatrix( rectCache.getMap(1));
+    mx2 = mapToMatrix( rectCache.getMap(2));
+    my2 = mapToMatrix( rectCache.getMap(3));
+  }  // end of loadCachedMaps()
 
 
-  // ----------------------------- matrix IO ----------------------------
+
+  private CvMat mapToMatrix(FloatBuffer map)
+  {
+    CvMat mat = cvCreateMat(IM_HEIGHT, IM_WIDTH, CV_32F);
+    FloatBuffer matBuf = mat.getFloatBuffer();
+    int step = mat.step()/4;    // in floats
+    if (step == IM_WIDTH)
+      matBuf.put(map);          // one bulk copy
+    else {
+      for (int i=0; i < IM_HEIGHT; i++) {
+        map.limit((i+1)*IM_WIDTH);
+        matBuf.position(i*step);
+        matBuf.put(map);
+      }
+    }
+    return mat;
+  }  // end of mapToMatrix()
+
+
+
+  private void saveRectifyCache(double[][] mats)
+  {
+    FloatBuffer[] maps = { matrixToMap(mx1), matrixToMap(my1),
+                           matrixToMap(mx2), matrixToMap(my2) };
+    rectCache.save(IM_WIDTH, IM_HEIGHT, mats, matValues(Q), maps);
+  }  // end of saveRectifyCache()
+
+
+
+  private FloatBuffer matrixToMap(CvMat mat)
+  // the map's floats without any row padding
+  {
+    FloatBuffer matBuf = mat.getFloatBuffer();
+    int step = mat.step()/4;
+    if (step == IM_WIDTH) {
+      matBuf.limit(IM_HEIGHT*IM_WIDTH);
+      return matBuf;
+    }
+    FloatBuffer map = FloatBuffer.allocate(IM_HEIGHT*IM_WIDTH);
+    for (int i=0; i < IM_HEIGHT; i++) {
+      matBuf.limit(i*step + IM_WIDTH);
+      matBuf.position(i*step);
+      map.put(matBuf);
+    }
+    map.flip();
+    return map;
+  }  // end of matrixToMap()
+
+
+
+  private double[] matValues(CvMat mat)
+  // the matrix's values in row order
+  {
+    int rows = mat.rows();
+    int cols = mat.cols();
+    double[] vals = new double[rows*cols];
+    for (int i=0; i < rows; i++)
+      for (int j=0; j < cols; j++)
+        vals[i*cols + j] = mat.get(i,j);
+    return vals;
+  }  // end of matValues()
+
 
 
   private void printMatrix(String label, CvMat matrix)
@@ -1121,7 +1317,9 @@ public class DepthCalc
       isChanged = false;
     }
 
-    if (isChanged && imagesRectified != null) {    // recalculate disparity maps
+    if (liveDepth != null)    // the next pair will use the new attributes
+      return getGDispMap();
+    else if (isChanged && imagesRectified != null) {    // recalculate disparity maps
       normalizedDisp = createDisparityMaps(imagesRectified);
       return gDispMap.getBufferedImage();
     }
@@ -1132,11 +1330,22 @@ public class DepthCalc
 
   public BufferedImage getGDispMap()
   {  
-    if (gDispMap == null)
+    if (liveDepth != null)
+      return liveDepth.getGDispImage();
+    else if (gDispMap == null)
       return null;
     else 
       return gDispMap.getBufferedImage(); 
   }  // end of getGDispMap()
 
 
+  public String getLiveStats()
+  // stage times and camera pair info, or null if not in live mode
+  {
+    if (liveDepth == null)
+      return null;
+    return liveDepth.getStageTimes() + ";  " + liveDepth.getGrabberStats();
+  }  // end of getLiveStats()
+
+
 }  // end of DepthCalc class
\ No newline at end of file
@@ -27,6 +27,12 @@
          - there must be saved calibration matricies in stereoData/:
               - 4 lookup matricies: mx1.txt, my1.txt, mx2.txt, my2.txt
               - the reprojection matrix: q.txt
+
+      > run DepthViewer -l <left camera ID> [ <right camera ID> ]
+         - runs DepthViewer in live mode, depth processing image pairs
+           taken straight from the two cameras
+         - the right camera ID defaults to the left ID + 1
+         - the calibration matricies must be in stereoData/ as for -p
 */
 
 import java.awt.*;
@@ -43,12 +49,25 @@ import static com.googlecode.javacv.cpp.opencv_highgui.*;
 
 public class DepthViewer extends JFrame implements SliderBoxWatcher
 {
+  private static final int REFRESH_DELAY = 40;   // ms between redraws in live mode
 
   private ImagePanel imPanel;   // where the grayscale disparity image is drawn
   private DepthCalc depthCalc;
+  private javax.swing.Timer refreshTimer = null;   // only used in live mode
 
 
   public DepthViewer(int val, boolean isCalibrating, boolean drawChessboards)
+  {  this(val, -1, isCalibrating, drawChessboards);  }
+
+
+  public DepthViewer(int leftID, int rightID)
+  // live mode, using the two cameras
+  {  this(leftID, rightID, false, false);  }
+
+
+
+  private DepthViewer(int val, int rightID, boolean isCalibrating, boolean drawChessboards)
+  // rightID is -1 unless in live mode, when val is the left camera ID
   {
     super("Depth Viewer");
 
@@ -72,7 +91,13 @@ public class DepthViewer extends JFrame implements SliderBoxWatcher
     int specSize = 100;
     int specRange = 4;
 
-    depthCalc = new DepthCalc(val, isCalibrating, drawChessboards,
+    if (rightID == -1)
+      depthCalc = new DepthCalc(val, isCalibrating, drawChessboards,
+                            preFilterSize, prefilterCap, sadSize,
+                            minDisp, numDisp, uniqRatio,
+                            texThresh, specSize, specRange);
+    else
+      depthCalc = new DepthCalc(val, rightID,
                             preFilterSize, prefilterCap, sadSize,
                             minDisp, numDisp, uniqRatio,
                             texThresh, specSize, specRange);
@@ -100,10 +125,14 @@ public class DepthViewer extends JFrame implements SliderBoxWatcher
     imPanel.setImage( depthCalc.getGDispMap() );
     c.add(imPanel, BorderLayout.CENTER);
 
+    if (rightID != -1)
+      startRefreshing(c);
 
     addWindowListener( new WindowAdapter() {
       public void windowClosing(WindowEvent e)
-      { try {
+      { if (refreshTimer != null)
+          refreshTimer.stop();
+        try {
           setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
           depthCalc.storeDepthInfo();
              /* stores the slider settings, the grayscale disparity image, a
@@ -125,6 +154,25 @@ public class DepthViewer extends JFrame implements SliderBoxWatcher
 
 
 
+  private void startRefreshing(Container c)
+  /* in live mode, regularly redraw the latest grayscale disparity image,
+     and report the pipeline's stage times in a label */
+  {
+    final JLabel statsLabel = new JLabel("Starting cameras...");
+    statsLabel.setFont(new Font("SansSerif", Font.PLAIN, 12));
+    c.add(statsLabel, BorderLayout.SOUTH);
+
+    refreshTimer = new javax.swing.Timer(REFRESH_DELAY, new ActionListener() {
+      public void actionPerformed(ActionEvent e)
+      { imPanel.setImage( depthCalc.getGDispMap() );
+        statsLabel.setText( depthCalc.getLiveStats() );
+      }
+    });
+    refreshTimer.start();
+  }  // end of startRefreshing()
+
+
+
   public void valChange(String title, int val)
   // callback from SliderBox class
   /* respond to slider changes by recalculating the grayscale disparity image
@@ -148,6 +196,7 @@ public class DepthViewer extends JFrame implements SliderBoxWatcher
     if ((args.length < 2) || (args.length > 3)) {
       System.out.println("Usage: run DepthViewer -n <no of image pairs; e.g. 14>  [draw] ");
       System.out.println("   or  run DepthViewer -p <image pair ID; e.g. 0> [draw]");
+      System.out.println("   or  run DepthViewer -l <left camera ID> [<right camera ID>]");
       return;
     }
 
@@ -174,6 +223,20 @@ public class DepthViewer extends JFrame implements SliderBoxWatcher
       System.out.println("Calculating disparities for the image pair with ID " + val);
       new DepthViewer(val, false, drawChessboards);
     }
+    else if (args[0].equals("-l")) {
+      int rightID = val+1;
+      if (args.length == 3) {
+        try {
+          rightID = Integer.parseInt(args[2]);
+        }
+        catch(NumberFormatException e)
+        { System.out.println("Cannot parse right camera ID");
+          return;
+        }
+      }
+      System.out.println("Live depth processing with cameras " + val + " and " + rightID);
+      new DepthViewer(val, rightID);
+    }
     else
       System.out.println("Did not recognise option string");
   }  // end of main()
@@ -0,0 +1,298 @@
+// LiveDepth.java
+
+/* A live depth pipeline, which takes image pairs straight from two
+   cameras (via a StereoGrabber) instead of loading them from files.
+
+   Each pair goes through these stages:
+      * wait      -- wait for the next synchronized pair
+      * gray      -- convert the colour images to grayscale
+      * rectify   -- undistort and rectify with the calibration lookup maps
+      * match     -- block matching with TiledBM
+      * normalize -- make the normalized disparity map (disparity/16, moved
+                     to be positive) and the grayscale disparity image
+      * publish   -- copy the results into Java arrays for other threads
+
+   All the native images are allocated once, at the start. The normalized
+   disparities and grayscale disparity image are triple-buffered, with
+   three copies of each:
+      * back   -- being filled by the pipeline
+      * ready  -- the latest results, not yet handed to the reader
+      * read   -- the results last returned by getGDispImage()
+   publish() swaps back and ready, and getGDispImage() swaps ready and
+   read when there are new results; both swaps are done under bufLock.
+   The pipeline never writes to the read copy, so the image returned by
+   getGDispImage() stays unchanged until the next call, even while it's
+   being painted. getGDispImage() should only be called from one thread
+   (DepthViewer calls it from the event dispatch thread, which also
+   paints the image). getDisparity() can be called from any thread.
+
+   The average time of each stage is kept as an exponential moving
+   average, and can be read with getStageTimes().
+*/
+
+import java.awt.image.*;
+import java.nio.*;
+
+import com.googlecode.javacv.cpp.*;
+
+import static com.googlecode.javacv.cpp.opencv_core.*;
+import static com.googlecode.javacv.cpp.opencv_imgproc.*;
+import static com.googlecode.javacv.cpp.opencv_calib3d.*;
+
+
+
+public class LiveDepth implements Runnable
+{
+  private static final int MAX_WAIT = 500;   // ms to wait for a pair
+  private static final double EMA_WEIGHT = 0.1;   // weight of the newest time
+
+  private static final String[] STAGE_NAMES = {"wait", "gray", "rectify",
+                                               "match", "normalize", "publish"};
+  private static final int WAIT = 0;
+  private static final int GRAY = 1;
+  private static final int RECTIFY = 2;
+  private static final int MATCH = 3;
+  private static final int NORMALIZE = 4;
+  private static final int PUBLISH = 5;
+
+  private int width, height;
+  private CvMat mx1, my1, mx2, my2;     // lookup maps
+  private CvStereoBMState bmState;
+  private TiledBM tiledBM;
+  private StereoGrabber stereoGrabber;
+
+  // native images, reused for every pair
+  private IplImage leftCol, rightCol;       // camera images
+  private IplImage leftGray, rightGray;
+  private IplImage leftRect, rightRect;     // rectified
+  private IplImage disparityMap;            // 16-bit BM output
+  private CvMat normDisp;                   // normalized disparities
+  private IplImage gDispMap;                // grayscale disparity image
+  private double[] minVal = new double[1];
+  private double[] maxVal = new double[1];
+
+  // published results; three copies of each, indexed by these
+  private final Object bufLock = new Object();
+  private float[][] disps = new float[3][];
+  private BufferedImage[] gDispIms = new BufferedImage[3];
+  private int backIdx = 0;      // the copy being filled by the pipeline
+  private int readyIdx = 1;     // the latest copy, not yet handed out
+  private int readIdx = 2;      // the copy last returned by getGDispImage()
+  private boolean hasNewResults = false;   // is the ready copy newer than the read one?
+  private boolean hasResults = false;
+
+  private double[] stageTimes = new double[STAGE_NAMES.length];   // ms
+  private volatile int numPairs = 0;
+
+  private volatile boolean isRunning = false;
+  private volatile boolean isFinished = false;
+
+
+
+  public LiveDepth(int leftID, int rightID, int width, int height,
+                   CvMat mx1, CvMat my1, CvMat mx2, CvMat my2,
+                   CvStereoBMState bmState, TiledBM tiledBM)
+  {
+    this.width = width;
+    this.height = height;
+    this.mx1 = mx1;  this.my1 = my1;
+    this.mx2 = mx2;  this.my2 = my2;
+    this.bmState = bmState;
+    this.tiledBM = tiledBM;
+
+    leftCol = IplImage.create(width, height, IPL_DEPTH_8U, 3);
+    rightCol = IplImage.create(width, height, IPL_DEPTH_8U, 3);
+    leftGray = IplImage.create(width, height, IPL_DEPTH_8U, 1);
+    rightGray = IplImage.create(width, height, IPL_DEPTH_8U, 1);
+    leftRect = IplImage.create(width, height, IPL_DEPTH_8U, 1);
+    rightRect = IplImage.create(width, height, IPL_DEPTH_8U, 1);
+    disparityMap = IplImage.create(width, height, IPL_DEPTH_16S, 1);
+    normDisp = cvCreateMat(height, width, CV_32F);
+    gDispMap = IplImage.create(width, height, IPL_DEPTH_8U, 1);
+
+    for (int i = 0; i < 3; i++) {
+      disps[i] = new float[width*height];
+      gDispIms[i] = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+    }
+
+    stereoGrabber = new StereoGrabber(leftID, rightID, width, height);
+  }  // end of LiveDepth()
+
+
+
+  public void run()
+  {
+    isRunning = true;
+    while (isRunning) {
+      long t0 = System.nanoTime();
+      if (stereoGrabber.waitForPair(leftCol, rightCol, MAX_WAIT) < 0)
+        continue;    // no pair yet
+      long t1 = System.nanoTime();
+
+      cvCvtColor(leftCol, leftGray, CV_BGR2GRAY);
+      cvCvtColor(rightCol, rightGray, CV_BGR2GRAY);
+      long t2 = System.nanoTime();
+
+      cvRemap(leftGray, leftRect, mx1, my1,
+                          CV_INTER_LINEAR | CV_WARP_FILL_OUTLIERS, CvScalar.ZERO);
+      cvRemap(rightGray, rightRect, mx2, my2,
+                          CV_INTER_LINEAR | CV_WARP_FILL_OUTLIERS, CvScalar.ZERO);
+      long t3 = System.nanoTime();
+
+      tiledBM.compute(leftRect, rightRect, disparityMap, bmState);
+      long t4 = System.nanoTime();
+
+      normalize();
+      long t5 = System.nanoTime();
+
+      publish();
+      long t6 = System.nanoTime();
+
+      updateTime(WAIT, t1-t0);
+      updateTime(GRAY, t2-t1);
+      updateTime(RECTIFY, t3-t2);
+      updateTime(MATCH, t4-t3);
+      updateTime(NORMALIZE, t5-t4);
+      updateTime(PUBLISH, t6-t5);
+      numPairs++;
+    }
+    stereoGrabber.stop();
+    isFinished = true;
+  }  // end of run()
+
+
+
+  private void normalize()
+  /* make the grayscale disparity image, and the normalized disparities
+     in the same way as DepthCalc.createDisparityMaps() */
+  {
+    cvNormalize(disparityMap, gDispMap, 0, 255, CV_MINMAX, null);
+
+    cvConvertScale(disparityMap, normDisp, 1.0/16, 0);
+    cvMinMaxLoc(normDisp, minVal, maxVal);
+    if (minVal[0]*maxVal[0] < 0)   // i.e. there's a sign change -ve to +ve
+      cvConvertScale(normDisp, normDisp, 1, -minVal[0]);    // move to be all positive
+  }  // end of normalize()
+
+
+
+  private void publish()
+  /* copy the results into the back buffers, then swap them with the
+     ready ones; the read buffers are left alone */
+  {
+    float[] disp = disps[backIdx];
+    FloatBuffer fb = normDisp.getFloatBuffer();
+    int fStep = normDisp.step()/4;
+    for (int y = 0; y < height; y++) {
+      fb.position(y*fStep);
+      fb.get(disp, y*width, width);
+    }
+
+    byte[] pixels = ((DataBufferByte) gDispIms[backIdx].getRaster().getDataBuffer()).getData();
+    ByteBuffer bb = gDispMap.getByteBuffer();
+    int bStep = gDispMap.widthStep();
+    for (int y = 0; y < height; y++) {
+      bb.position(y*bStep);
+      bb.get(pixels, y*width, width);
+    }
+
+    synchronized (bufLock) {
+      int idx = readyIdx;
+      readyIdx = backIdx;
+      backIdx = idx;
+      hasNewResults = true;
+      hasResults = true;
+    }
+  }  // end of publish()
+
+
+
+  private synchronized void updateTime(int stage, long ns)
+  {
+    double ms = ns/1000000.0;
+    if (numPairs == 0)
+      stageTimes[stage] = ms;
+    else
+      stageTimes[stage] = EMA_WEIGHT*ms + (1-EMA_WEIGHT)*stageTimes[stage];
+  }  // end of updateTime()
+
+
+
+  // ----------------- called from other threads ---------------------
+
+
+  public double getDisparity(int x, int y)
+  // the latest normalized disparity at (x,y), or 0 if there isn't one yet
+  {
+    if ((x < 0) || (x >= width) || (y < 0) || (y >= height))
+      return 0;
+    synchronized (bufLock) {
+      if (!hasResults)
+        return 0;
+      int idx = hasNewResults ? readyIdx : readIdx;
+      return disps[idx][y*width + x];
+    }
+  }  // end of getDisparity()
+
+
+  public BufferedImage getGDispImage()
+  /* the latest grayscale disparity image (null at the start). It isn't
+     changed by the pipeline until getGDispImage() is called again. */
+  {
+    synchronized (bufLock) {
+      if (!hasResults)
+        return null;
+      if (hasNewResults) {    // hand over the ready copy; the old read copy can be reused
+        int idx = readIdx;
+        readIdx = readyIdx;
+        readyIdx = idx;
+        hasNewResults = false;
+      }
+      return gDispIms[readIdx];
+    }
+  }  // end of getGDispImage()
+
+
+  public synchronized String getStageTimes()
+  {
+    StringBuilder sb = new StringBuilder();
+    double total = 0;
+    for (int i = 0; i < STAGE_NAMES.length; i++) {
+      sb.append(String.format("%s %.1f  ", STAGE_NAMES[i], stageTimes[i]));
+      total += stageTimes[i];
+    }
+    sb.append(String.format("(total %.1f ms)", total));
+    return sb.toString();
+  }  // end of getStageTimes()
+
+
+  public int getNumPairs()
+  {  return numPairs;  }
+
+  public String getGrabberStats()
+  {  return stereoGrabber.getStats();  }
+
+
+  // the native results for the last pair; only safe to use after stop()
+
+  public CvMat getNormalizedDisp()
+  {  return (numPairs == 0) ? null : normDisp;  }
+
+  public IplImage getGDispMap()
+  {  return (numPairs == 0) ? null : gDispMap;  }
+
+
+
+  public void stop()
+  // stop the pipeline, and wait for the cameras to be closed
+  {
+    isRunning = false;
+    while (!isFinished) {
+      try {
+        Thread.sleep(50);
+      }
+      catch (Exception ex) {}
+    }
+  }  // end of stop()
+
+}  // end of LiveDepth class
@@ -0,0 +1,84 @@
+// Percentile.java
+
+/* Finds a percentile of an int array in linear (average) time by
+   quickselect, instead of boxing the values into a list and sorting
+   them all.
+
+   The percentile is given as a fraction between 0 and 1, and the
+   value at index round((n-1)*percent) of the sorted values is returned,
+   so 0 gives the minimum, and 1 the maximum.
+
+   The first n values of the array are reordered, but no other memory
+   is used.
+*/
+
+
+
+public class Percentile
+{
+
+  public static int select(int[] vals, int n, double percent)
+  {
+    if ((n <= 0) || (n > vals.length))
+      throw new IllegalArgumentException("Bad number of values: " + n);
+    if ((percent < 0) || (percent > 1.0)) {
+      System.out.println("percentage should be between 0 and 1; using 0.5");
+      percent = 0.5;
+    }
+    int k = (int) Math.round((n-1) * percent);
+    return selectKth(vals, n, k);
+  }  // end of select()
+
+
+
+  public static int selectKth(int[] vals, int n, int k)
+  /* return the k-th smallest of the first n values (k starts at 0),
+     using Hoare partitioning around a median-of-three pivot */
+  {
+    int lo = 0;
+    int hi = n-1;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      // order vals[lo], vals[mid], vals[hi], and use the middle as the pivot
+      if (vals[mid] < vals[lo])
+        swap(vals, mid, lo);
+      if (vals[hi] < vals[lo])
+        swap(vals, hi, lo);
+      if (vals[hi] < vals[mid])
+        swap(vals, hi, mid);
+      int pivot = vals[mid];
+
+      int i = lo;
+      int j = hi;
+      while (i <= j) {
+        while (vals[i] < pivot)
+          i++;
+        while (vals[j] > pivot)
+          j--;
+        if (i <= j) {
+          swap(vals, i, j);
+          i++;
+          j--;
+        }
+      }
+      // now vals[lo..j] <= pivot <= vals[i..hi]
+      if (k <= j)
+        hi = j;
+      else if (k >= i)
+        lo = i;
+      else
+        return vals[k];    // between j and i, so equal to the pivot
+    }
+    return vals[k];
+  }  // end of selectKth()
+
+
+
+  private static void swap(int[] vals, int i, int j)
+  {
+    int temp = vals[i];
+    vals[i] = vals[j];
+    vals[j] = temp;
+  }
+
+}  // end of Percentile class
@@ -0,0 +1,129 @@
+// PercentileBenchmark.java
+
+/* Checks Percentile.select() against the value found by sorting, and
+   times the two approaches for depth-map sized arrays.
+
+   The old approach used by DepthCalc.convertDisparities() boxed every
+   depth into an ArrayList<Integer> and sorted it; the new one uses
+   quickselect on an int[].
+
+   The check data includes random, sorted, reversed, and constant
+   arrays, and skewed depths like those from a disparity map (mostly
+   small values, with a few very large ones).
+
+   Usage:
+     > java PercentileBenchmark
+*/
+
+import java.util.*;
+
+
+
+public class PercentileBenchmark
+{
+  private static final int NUM_CHECKS = 2000;
+  private static final double[] PERCENTS = {0, 0.02, 0.5, 0.98, 1.0};
+
+  private static final int MAP_SIZE = 640*480;   // one depth per pixel
+  private static final int NUM_REPEATS = 10;
+
+
+  public static void main(String args[])
+  {
+    Random rand = new Random(42);
+    if (!checkAgainstSort(rand))
+      System.exit(1);
+    timeMaps(rand);
+  }  // end of main()
+
+
+
+  private static boolean checkAgainstSort(Random rand)
+  {
+    int numFailed = 0;
+    for (int c = 0; c < NUM_CHECKS; c++) {
+      int n = 1 + rand.nextInt(500);
+      int[] vals = makeData(rand, n, c%5);
+      int[] sorted = vals.clone();
+      Arrays.sort(sorted);
+
+      for (double percent : PERCENTS) {
+        int expected = sorted[(int) Math.round((n-1) * percent)];
+        int found = Percentile.select(vals.clone(), n, percent);
+        if (found != expected) {
+          System.out.println("Mismatch for n = " + n + ", percent = " + percent +
+                                   ": expected " + expected + ", found " + found);
+          numFailed++;
+        }
+      }
+    }
+    System.out.println("Checked " + (NUM_CHECKS*PERCENTS.length) + " percentiles; " +
+                                                     numFailed + " mismatches");
+    return (numFailed == 0);
+  }  // end of checkAgainstSort()
+
+
+
+  private static int[] makeData(Random rand, int n, int kind)
+  {
+    int[] vals = new int[n];
+    for (int i = 0; i < n; i++) {
+      switch (kind) {
+        case 0: vals[i] = rand.nextInt(1000) - 500; break;   // random
+        case 1: vals[i] = i/3; break;                         // sorted, with duplicates
+        case 2: vals[i] = n-i; break;                         // reversed
+        case 3: vals[i] = 7; break;                           // constant
+        default: vals[i] = skewedDepth(rand); break;
+      }
+    }
+    return vals;
+  }  // end of makeData()
+
+
+  private static int skewedDepth(Random rand)
+  // mostly depths between 400 and 3000 mm, with a few huge ones
+  {
+    if (rand.nextInt(100) == 0)
+      return 10000 + rand.nextInt(1000000);
+    return 400 + rand.nextInt(2600);
+  }
+
+
+
+  private static void timeMaps(Random rand)
+  {
+    int[] depths = new int[MAP_SIZE];
+    for (int i = 0; i < MAP_SIZE; i++)
+      depths[i] = skewedDepth(rand);
+
+    long sortTime = 0, selectTime = 0;
+    int checkSum = 0;
+    for (int r = 0; r < NUM_REPEATS+1; r++) {   // the first run is a warm-up
+      long startTime = System.nanoTime();
+      ArrayList<Integer> list = new ArrayList<Integer>();
+      for (int i = 0; i < MAP_SIZE; i++)
+        list.add(depths[i]);
+      Collections.sort(list);
+      int sortVal = list.get((int) Math.round((list.size()-1) * 0.98));
+      long t1 = System.nanoTime() - startTime;
+
+      startTime = System.nanoTime();
+      int[] work = depths.clone();     // DepthCalc fills a reused array instead
+      int selectVal = Percentile.select(work, MAP_SIZE, 0.98);
+      long t2 = System.nanoTime() - startTime;
+
+      if (r > 0) {
+        sortTime += t1;
+        selectTime += t2;
+      }
+      checkSum += sortVal - selectVal;
+    }
+    if (checkSum != 0)
+      System.out.println("Sort and select results differ");
+
+    System.out.printf("98th percentile of %d depths:  box+sort %.2f ms;  select %.2f ms\n",
+                    MAP_SIZE, sortTime/(1000000.0*NUM_REPEATS),
+                    selectTime/(1000000.0*NUM_REPEATS));
+  }  // end of timeMaps()
+
+}  // end of PercentileBenchmark class
@@ -0,0 +1,174 @@
+// PlyWriter.java
+
+/* Writes a coloured point cloud to a PLY file
+   (http://en.wikipedia.org/wiki/PLY_(file_format)), one vertex at a time.
+
+   The default format is binary little-endian: each vertex is 3 floats
+   (x, y, z) followed by 3 unsigned bytes (red, green, blue), so 15 bytes
+   per point. The vertices are packed into a reused direct ByteBuffer
+   which is written out through a FileChannel whenever it fills up, so
+   no per-point objects or formatting are needed.
+
+   ASCII PLY is also supported for programs that can't read the binary
+   format. Its lines are built with a reused StringBuilder rather than
+   printf().
+
+   The number of vertices must be known in advance, since it's part of
+   the header. close() reports a problem if a different number was added.
+*/
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+
+
+public class PlyWriter
+{
+  private static final int BUF_SIZE = 64*1024;    // bytes
+  private static final int VERTEX_SIZE = 3*4 + 3;   // 3 floats + 3 bytes
+
+  private String fnm;
+  private boolean isBinary;
+  private int numVerts;
+  private int vertCount = 0;
+
+  // binary output
+  private FileOutputStream fos = null;
+  private FileChannel channel = null;
+  private ByteBuffer buf = null;
+
+  // ASCII output
+  private Writer out = null;
+  private StringBuilder sb = null;
+
+
+
+  public PlyWriter(String fnm, int numVerts, boolean isBinary) throws IOException
+  // open the file and write the header
+  {
+    this.fnm = fnm;
+    this.numVerts = numVerts;
+    this.isBinary = isBinary;
+
+    String header = makeHeader();
+    if (isBinary) {
+      fos = new FileOutputStream(fnm);
+      channel = fos.getChannel();
+      buf = ByteBuffer.allocateDirect(BUF_SIZE);
+      buf.order(ByteOrder.LITTLE_ENDIAN);
+      buf.put(header.getBytes("US-ASCII"));
+    }
+    else {
+      out = new BufferedWriter( new FileWriter(fnm), BUF_SIZE);
+      out.write(header);
+      sb = new StringBuilder(64);
+    }
+  }  // end of PlyWriter()
+
+
+
+  private String makeHeader()
+  {
+    StringBuilder hd = new StringBuilder();
+    hd.append("ply\n");
+    hd.append(isBinary ? "format binary_little_endian 1.0\n" : "format ascii 1.0\n");
+    hd.append("comment Point Cloud output from DepthCalc\n");
+
+    // x, y, z coordinate for a point and colors
+    hd.append("element vertex ").append(numVerts).append('\n');
+    hd.append("property float x\n");    // vertex coordinates
+    hd.append("property float y\n");
+    hd.append("property float z\n");
+    hd.append("property uchar red\n");   // vertex colors
+    hd.append("property uchar green\n");
+    hd.append("property uchar blue\n");
+    hd.append("end_header\n");
+    return hd.toString();
+  }  // end of makeHeader()
+
+
+
+  public void addVertex(float x, float y, float z, int red, int green, int blue)
+                                                           throws IOException
+  {
+    vertCount++;
+    if (isBinary) {
+      if (buf.remaining() < VERTEX_SIZE)
+        flushBuffer();
+      buf.putFloat(x).putFloat(y).putFloat(z);
+      buf.put((byte)red).put((byte)green).put((byte)blue);
+    }
+    else {
+      sb.setLength(0);
+      appendNumber(x);
+      sb.append("  ");
+      appendNumber(y);
+      sb.append("  ");
+      appendNumber(z);
+      sb.append("  ").append(red).append("  ").append(green).append("  ").append(blue).append('\n');
+      out.append(sb);
+    }
+  }  // end of addVertex()
+
+
+
+  private void appendNumber(float val)
+  /* append the value to sb with up to 3 decimal places; whole numbers
+     (e.g. pixel coordinates) are written without a decimal point */
+  {
+    long thousandths = Math.round(val*1000.0);
+    if (thousandths % 1000 == 0) {
+      sb.append(thousandths/1000);
+      return;
+    }
+    if (thousandths < 0) {
+      sb.append('-');
+      thousandths = -thousandths;
+    }
+    sb.append(thousandths/1000).append('.');
+    int frac = (int)(thousandths % 1000);
+    if (frac < 100)
+      sb.append('0');
+    if (frac < 10)
+      sb.append('0');
+    sb.append(frac);
+  }  // end of appendNumber()
+
+
+
+  private void flushBuffer() throws IOException
+  // write the buffer's contents to the channel, and empty it
+  {
+    buf.flip();
+    while (buf.hasRemaining())
+      channel.write(buf);
+    buf.clear();
+  }  // end of flushBuffer()
+
+
+
+  public void close() throws IOException
+  {
+    try {
+      if (isBinary) {
+        flushBuffer();
+        channel.close();
+      }
+      else
+        out.close();
+    }
+    finally {
+      if (fos != null)
+        fos.close();
+    }
+    if (vertCount != numVerts)
+      System.out.println("Warning: " + fnm + " header says " + numVerts +
+                              " vertices, but " + vertCount + " were written");
+  }  // end of close()
+
+
+  public long getFileSize()
+  {  return new File(fnm).length();  }
+
+}  // end of PlyWriter class
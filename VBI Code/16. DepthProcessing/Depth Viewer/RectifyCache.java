@@ -0,0 +1,336 @@
+// RectifyCache.java
+
+/* A binary cache for the stereo rectification results: the calibration
+   matrices used to build the lookup maps, the reprojection matrix Q,
+   and the four undistortion/rectification lookup maps.
+
+   Loading the text files saved by DepthCalc means parsing over a million
+   numbers, so the cache stores everything as little-endian binary, and
+   loading memory-maps the file; the maps are returned as FloatBuffer
+   views onto the mapped file, which can be bulk-copied into CvMats.
+
+   The header is read and checked before anything is mapped, so a cache
+   which is rejected is never left mapped. save() writes to a temporary
+   file and renames it over the old cache, so the old cache is never
+   truncated while it may still be mapped, and a failed save leaves it
+   unchanged.
+
+   The file layout (version 1) is:
+      magic "RMAP", version, map width, map height, key,
+      no. of calibration matrices, then each one as (length, doubles...),
+      16 doubles for Q,
+      4 maps of width*height floats each (mx1, my1, mx2, my2)
+
+   The key is a hash of the calibration matrices and the map size, so a
+   cache built from different calibration inputs is never used. load()
+   also rejects files with the wrong magic, version, size, or length.
+*/
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.security.*;
+
+
+
+public class RectifyCache
+{
+  private static final int MAGIC = 0x524d4150;   // "RMAP"
+  private static final int VERSION = 1;
+  public static final int NUM_MAPS = 4;   // mx1, my1, mx2, my2
+  private static final int Q_SIZE = 16;   // 4x4 matrix
+  private static final int KEY_END = 4*4 + 8;   // magic, version, width, height, key
+
+  private String fnm;
+
+  // loaded data
+  private long key;
+  private double[][] calibMats;
+  private double[] q;
+  private FloatBuffer[] maps;
+
+
+
+  public RectifyCache(String fnm)
+  {  this.fnm = fnm;  }
+
+
+  public boolean exists()
+  {  return new File(fnm).exists();  }
+
+
+  public long lastModified()
+  {  return new File(fnm).lastModified();  }
+
+
+
+  public static long makeKey(int width, int height, double[][] calibMats)
+  // hash the map size and calibration matrices into a long
+  {
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-1");
+      ByteBuffer bb = ByteBuffer.allocate(8);
+      bb.putInt(width).putInt(height);
+      md.update(bb.array());
+      for (double[] mat : calibMats) {
+        bb.clear();
+        bb.putInt(mat.length);
+        md.update(bb.array(), 0, 4);
+        for (double val : mat) {
+          bb.clear();
+          bb.putLong(Double.doubleToLongBits(val));
+          md.update(bb.array());
+        }
+      }
+      return ByteBuffer.wrap(md.digest()).getLong();   // first 8 bytes of the digest
+    }
+    catch (NoSuchAlgorithmException e) {
+      System.out.println("SHA-1 not available: " + e);
+      return 0;
+    }
+  }  // end of makeKey()
+
+
+
+  public boolean save(int width, int height, double[][] calibMats, double[] q,
+                      FloatBuffer[] maps)
+  {
+    if ((q.length != Q_SIZE) || (maps.length != NUM_MAPS)) {
+      System.out.println("Wrong number of matrices for the rectification cache");
+      return false;
+    }
+    long startTime = System.currentTimeMillis();
+
+    int headerSize = 4*4 + 8 + 4;    // magic, version, width, height, key, no. of matrices
+    for (double[] mat : calibMats)
+      headerSize += 4 + 8*mat.length;
+    headerSize += 8*Q_SIZE;
+
+    ByteBuffer header = ByteBuffer.allocate(headerSize);
+    header.order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height);
+    header.putLong( makeKey(width, height, calibMats));
+    header.putInt(calibMats.length);
+    for (double[] mat : calibMats) {
+      header.putInt(mat.length);
+      for (double val : mat)
+        header.putDouble(val);
+    }
+    for (double val : q)
+      header.putDouble(val);
+    header.flip();
+
+    ByteBuffer mapBuf = ByteBuffer.allocateDirect(width*height*4);
+    mapBuf.order(ByteOrder.LITTLE_ENDIAN);
+
+    for (FloatBuffer map : maps) {
+      if (map.remaining() != width*height) {
+        System.out.println("Map has the wrong size for the rectification cache");
+        return false;
+      }
+    }
+
+    File tmpFile = new File(fnm + ".tmp");
+    FileOutputStream fos = null;
+    try {
+      fos = new FileOutputStream(tmpFile);
+      FileChannel channel = fos.getChannel();
+      writeFully(channel, header);
+      for (FloatBuffer map : maps) {
+        mapBuf.clear();
+        mapBuf.asFloatBuffer().put(map.duplicate());
+        mapBuf.limit(width*height*4);
+        writeFully(channel, mapBuf);
+      }
+      fos.close();
+      fos = null;
+
+      if (!replaceWith(tmpFile)) {
+        System.out.println("Could not replace " + fnm + " with " + tmpFile);
+        tmpFile.delete();
+        return false;
+      }
+      System.out.println("Saved rectification cache to " + fnm + " in " +
+                            (System.currentTimeMillis() - startTime) + " ms");
+      return true;
+    }
+    catch (IOException e) {
+      System.out.println("Could not save rectification cache to " + fnm);
+      try {
+        if (fos != null)
+          fos.close();
+      }
+      catch (IOException ex) {}
+      tmpFile.delete();
+      return false;
+    }
+  }  // end of save()
+
+
+
+  private boolean replaceWith(File tmpFile)
+  /* rename the temporary file to the cache's name. On Windows renameTo()
+     won't replace an existing file, so the old cache is deleted first;
+     that fails if the old cache is still mapped, and then it's kept. */
+  {
+    File cacheFile = new File(fnm);
+    if (tmpFile.renameTo(cacheFile))
+      return true;
+    return cacheFile.delete() && tmpFile.renameTo(cacheFile);
+  }  // end of replaceWith()
+
+
+
+  private void writeFully(FileChannel channel, ByteBuffer bb) throws IOException
+  {
+    while (bb.hasRemaining())
+      channel.write(bb);
+  }
+
+
+  private ByteBuffer readFully(FileChannel channel, int numBytes) throws IOException
+  // read the next numBytes of the file, without mapping it
+  {
+    ByteBuffer bb = ByteBuffer.allocate(numBytes);
+    bb.order(ByteOrder.LITTLE_ENDIAN);
+    while (bb.hasRemaining()) {
+      if (channel.read(bb) < 0)
+        throw new EOFException("the file is too short");
+    }
+    bb.flip();
+    return bb;
+  }  // end of readFully()
+
+
+
+  public boolean hasKey(int width, int height, long expectedKey)
+  /* read just the start of the cache file, and check that it holds maps
+     of the right size, made from calibration matrices with the expected
+     key. Nothing is mapped, so the file can then be replaced by save(). */
+  {
+    if (!exists())
+      return false;
+
+    RandomAccessFile raf = null;
+    try {
+      raf = new RandomAccessFile(fnm, "r");
+      ByteBuffer bb = readFully(raf.getChannel(), KEY_END);
+      return (bb.getInt() == MAGIC) && (bb.getInt() == VERSION) &&
+             (bb.getInt() == width) && (bb.getInt() == height) &&
+             (bb.getLong() == expectedKey);
+    }
+    catch (IOException e) {
+      System.out.println("Could not read rectification cache " + fnm + ": " + e);
+      return false;
+    }
+    finally {
+      try {
+        if (raf != null)
+          raf.close();
+      }
+      catch (IOException e) {}
+    }
+  }  // end of hasKey()
+
+
+
+  public boolean load(int width, int height)
+  /* read the cache file's header and check it, then memory-map the
+     rest of the file. The maps are only read when they're copied from
+     the FloatBuffers. */
+  {
+    if (!exists())
+      return false;
+    long startTime = System.currentTimeMillis();
+
+    RandomAccessFile raf = null;
+    try {
+      raf = new RandomAccessFile(fnm, "r");
+      FileChannel channel = raf.getChannel();
+
+      ByteBuffer bb = readFully(channel, KEY_END + 4);
+      if ((bb.getInt() != MAGIC) || (bb.getInt() != VERSION)) {
+        System.out.println(fnm + " is not a version " + VERSION + " rectification cache");
+        return false;
+      }
+      if ((bb.getInt() != width) || (bb.getInt() != height)) {
+        System.out.println(fnm + " holds maps of the wrong size");
+        return false;
+      }
+      long fileKey = bb.getLong();
+
+      int numMats = bb.getInt();
+      double[][] mats = new double[numMats][];
+      for (int i = 0; i < numMats; i++) {
+        mats[i] = new double[ readFully(channel, 4).getInt() ];
+        bb = readFully(channel, 8*mats[i].length);
+        for (int j = 0; j < mats[i].length; j++)
+          mats[i][j] = bb.getDouble();
+      }
+      if (makeKey(width, height, mats) != fileKey) {
+        System.out.println(fnm + " has the wrong key; ignoring it");
+        return false;
+      }
+
+      bb = readFully(channel, 8*Q_SIZE);
+      double[] qVals = new double[Q_SIZE];
+      for (int i = 0; i < Q_SIZE; i++)
+        qVals[i] = bb.getDouble();
+
+      int mapBytes = width*height*4;
+      long mapsStart = channel.position();
+      if (channel.size() - mapsStart != NUM_MAPS*mapBytes) {
+        System.out.println(fnm + " is the wrong length");
+        return false;
+      }
+
+      // only the maps are mapped, once the header has been accepted
+      MappedByteBuffer mbb = channel.map(FileChannel.MapMode.READ_ONLY,
+                                         mapsStart, NUM_MAPS*mapBytes);
+          // the mapping stays valid after the channel is closed
+      FloatBuffer[] fbs = new FloatBuffer[NUM_MAPS];
+      for (int i = 0; i < NUM_MAPS; i++) {
+        ByteBuffer slice = mbb.slice().order(ByteOrder.LITTLE_ENDIAN);
+        slice.limit(mapBytes);
+        fbs[i] = slice.asFloatBuffer();
+        mbb.position(mbb.position() + mapBytes);
+      }
+
+      key = fileKey;
+      calibMats = mats;
+      q = qVals;
+      maps = fbs;
+      System.out.println("Mapped rectification cache " + fnm + " in " +
+                            (System.currentTimeMillis() - startTime) + " ms");
+      return true;
+    }
+    catch (Exception e) {    // IO errors, or a corrupt matrix length
+      System.out.println("Could not load rectification cache " + fnm + ": " + e);
+      return false;
+    }
+    finally {
+      try {
+        if (raf != null)
+          raf.close();
+      }
+      catch (IOException e) {}
+    }
+  }  // end of load()
+
+
+
+  public long getKey()
+  {  return key;  }
+
+  public double[][] getCalibMats()
+  {  return calibMats;  }
+
+  public double[] getQ()
+  // Q in row order
+  {  return q;  }
+
+  public FloatBuffer getMap(int i)
+  // a new view of map i (0 = mx1, 1 = my1, 2 = mx2, 3 = my2)
+  {  return maps[i].duplicate();  }
+
+}  // end of RectifyCache class
@@ -0,0 +1,98 @@
+// SpeckleFilter.java
+
+/* Removes small blobs ("speckles") from a 16-bit disparity map, in the
+   same way as OpenCV's filterSpeckles(), which cvFindStereoCorrespondenceBM()
+   calls at the end of block matching.
+
+   Neighbouring pixels (4-connected) belong to the same blob if their
+   disparities differ by at most maxDiff. Every blob with maxSize pixels
+   or fewer is set to newVal, the 'invalid disparity' value. Pixels
+   that already hold newVal are ignored.
+
+   TiledBM needs this as a separate step, since a blob can cross the
+   boundary between two bands, and so must be measured in the whole map.
+   The label and stack arrays are reused between calls.
+*/
+
+import java.util.*;
+
+
+public class SpeckleFilter
+{
+  private int[] labels = null;   // blob label for each pixel (0 == unlabelled)
+  private int[] stack = null;    // pixel indices waiting to be examined
+  private boolean[] isSpeckle = new boolean[1024];   // indexed by label
+
+
+
+  public int filter(short[] disp, int width, int height,
+                    short newVal, int maxSize, int maxDiff)
+  // returns the number of pixels set to newVal
+  {
+    int numPixels = width*height;
+    if ((labels == null) || (labels.length < numPixels)) {
+      labels = new int[numPixels];
+      stack = new int[numPixels];
+    }
+    else
+      Arrays.fill(labels, 0, numPixels, 0);
+
+    int numLabels = 0;
+    int numChanged = 0;
+    for (int i = 0; i < numPixels; i++) {
+      if (disp[i] == newVal)
+        continue;
+      if (labels[i] != 0) {   // already part of a blob
+        if (isSpeckle[labels[i]]) {
+          disp[i] = newVal;
+          numChanged++;
+        }
+        continue;
+      }
+
+      // flood fill a new blob starting from pixel i
+      int label = ++numLabels;
+      if (label >= isSpeckle.length)
+        isSpeckle = Arrays.copyOf(isSpeckle, isSpeckle.length*2);
+      int count = 0;
+      int top = 0;
+      stack[top++] = i;
+      labels[i] = label;
+      while (top > 0) {
+        int p = stack[--top];
+        count++;
+        int x = p % width;
+        int val = disp[p];
+        if (x > 0)
+          top = visit(disp, p-1, val, label, newVal, maxDiff, top);
+        if (x < width-1)
+          top = visit(disp, p+1, val, label, newVal, maxDiff, top);
+        if (p >= width)
+          top = visit(disp, p-width, val, label, newVal, maxDiff, top);
+        if (p < numPixels-width)
+          top = visit(disp, p+width, val, label, newVal, maxDiff, top);
+      }
+
+      isSpeckle[label] = (count <= maxSize);
+      if (isSpeckle[label]) {
+        disp[i] = newVal;
+        numChanged++;
+      }
+    }
+    return numChanged;
+  }  // end of filter()
+
+
+
+  private int visit(short[] disp, int q, int val, int label,
+                    short newVal, int maxDiff, int top)
+  // add pixel q to the blob if it's similar to val and not yet labelled
+  {
+    if ((labels[q] == 0) && (disp[q] != newVal) && (Math.abs(val - disp[q]) <= maxDiff)) {
+      labels[q] = label;
+      stack[top++] = q;
+    }
+    return top;
+  }  // end of visit()
+
+}  // end of SpeckleFilter class
@@ -0,0 +1,204 @@
+// TiledBM.java
+
+/* Runs cvFindStereoCorrespondenceBM() on horizontal bands of a rectified
+   image pair in parallel, and stitches the bands into one disparity map.
+
+   Block matching only compares pixels along the same rows, so the
+   disparity search range never crosses a band boundary. But the
+   prefilter and SAD windows look above and below each pixel, so each
+   band is extended by an overlap of (preFilterSize + SADWindowSize)/2 + 1
+   rows on both sides; only its core rows are copied into the result.
+
+   Speckle filtering is the one global step, since a speckle can cross
+   a band boundary. So the bands are matched with speckle filtering
+   switched off, and SpeckleFilter is applied to the stitched map with
+   the same settings that cvFindStereoCorrespondenceBM() would use.
+   This makes the result identical to the single-threaded version.
+
+   A CvStereoBMState holds the work buffers for a call, so every band has
+   its own state, whose settings are copied from the caller's state.
+   The band images are headers onto the input and output images, so only
+   the band outputs are allocated, and they are reused while the image
+   size stays the same.
+*/
+
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.googlecode.javacv.cpp.*;
+
+import static com.googlecode.javacv.cpp.opencv_core.*;
+import static com.googlecode.javacv.cpp.opencv_calib3d.*;
+
+
+
+public class TiledBM
+{
+  private static final int DISPARITY_SHIFT = 4;   // BM disparities are 16x the pixel shift
+
+  private int numThreads;
+  private ExecutorService executor;
+  private SpeckleFilter speckleFilter = new SpeckleFilter();
+
+  // per-band data, allocated for the current image size
+  private int imWidth = -1, imHeight = -1;
+  private CvStereoBMState[] states;
+  private CvMat[] bandDisps;
+
+  private short[] dispData = null;   // the stitched map, for speckle filtering
+
+  private long lastTime = 0;   // ms for the last compute()
+
+
+
+  public TiledBM(int numThreads)
+  {
+    this.numThreads = Math.max(1, numThreads);
+    executor = Executors.newFixedThreadPool(this.numThreads, new ThreadFactory() {
+      public Thread newThread(Runnable r)
+      { Thread t = new Thread(r, "TiledBM");
+        t.setDaemon(true);     // don't stop the application from exiting
+        return t;
+      }
+    });
+  }  // end of TiledBM()
+
+
+
+  public void compute(IplImage leftIm, IplImage rightIm, IplImage disparityMap,
+                      CvStereoBMState bmState)
+  /* calculate the 16-bit disparity map for the rectified grayscale pair,
+     using the settings in bmState */
+  {
+    long startTime = System.currentTimeMillis();
+    int width = leftIm.width();
+    int height = leftIm.height();
+    if ((width != imWidth) || (height != imHeight))
+      allocateBands(width, height);
+
+    int overlap = (bmState.preFilterSize() + bmState.SADWindowSize())/2 + 1;
+    int numBands = Math.max(1, Math.min(numThreads, height/bmState.SADWindowSize()));
+          // a band must be at least as tall as the SAD window
+    int bandHeight = (height + numBands - 1)/numBands;
+
+    ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+    for (int b = 0; b < numBands; b++) {
+      final int y0 = b*bandHeight;    // core rows of the band
+      final int y1 = Math.min(height, y0 + bandHeight);
+      if (y0 >= y1)
+        break;
+      final int ey0 = Math.max(0, y0 - overlap);   // extended rows
+      final int ey1 = Math.min(height, y1 + overlap);
+      final int band = b;
+      copySettings(bmState, states[b]);
+
+      final IplImage left = leftIm;
+      final IplImage right = rightIm;
+      final IplImage disp = disparityMap;
+      futures.add( executor.submit( new Runnable() {
+        public void run()
+        {  matchBand(band, left, right, disp, y0, y1, ey0, ey1);  }
+      }));
+    }
+
+    try {
+      for (Future<?> f : futures)
+        f.get();
+    }
+    catch (Exception e)
+    {  System.out.println("Band matching failed: " + e);  }
+
+    if ((bmState.speckleRange() >= 0) && (bmState.speckleWindowSize() > 0))
+      filterSpeckles(disparityMap, bmState);
+
+    lastTime = System.currentTimeMillis() - startTime;
+  }  // end of compute()
+
+
+
+  private void allocateBands(int width, int height)
+  {
+    imWidth = width;
+    imHeight = height;
+    states = new CvStereoBMState[numThreads];
+    bandDisps = new CvMat[numThreads];
+    for (int b = 0; b < numThreads; b++) {
+      states[b] = cvCreateStereoBMState(CV_STEREO_BM_BASIC, 0);
+      bandDisps[b] = cvCreateMat(height, width, CV_16SC1);
+           // big enough for a band with the largest possible overlap
+    }
+    dispData = new short[width*height];
+  }  // end of allocateBands()
+
+
+
+  private void copySettings(CvStereoBMState from, CvStereoBMState to)
+  // the settings changed by DepthCalc; speckle filtering is done after stitching
+  {
+    to.preFilterSize( from.preFilterSize());
+    to.preFilterCap( from.preFilterCap());
+    to.SADWindowSize( from.SADWindowSize());
+    to.minDisparity( from.minDisparity());
+    to.numberOfDisparities( from.numberOfDisparities());
+    to.textureThreshold( from.textureThreshold());
+    to.uniquenessRatio( from.uniquenessRatio());
+    to.speckleWindowSize(0);
+    to.speckleRange( from.speckleRange());
+  }  // end of copySettings()
+
+
+
+  private void matchBand(int band, IplImage leftIm, IplImage rightIm, IplImage disparityMap,
+                         int y0, int y1, int ey0, int ey1)
+  /* match rows ey0 to ey1-1 of the images, and copy the core rows
+     y0 to y1-1 into the disparity map */
+  {
+    int width = leftIm.width();
+    CvRect extRect = cvRect(0, ey0, width, ey1-ey0);
+    CvMat left = cvGetSubRect(leftIm, new CvMat(), extRect);
+    CvMat right = cvGetSubRect(rightIm, new CvMat(), extRect);
+    CvMat bandOut = cvGetSubRect(bandDisps[band], new CvMat(), cvRect(0, 0, width, ey1-ey0));
+
+    cvFindStereoCorrespondenceBM(left, right, bandOut, states[band]);
+
+    CvMat core = cvGetSubRect(bandOut, new CvMat(), cvRect(0, y0-ey0, width, y1-y0));
+    CvMat dest = cvGetSubRect(disparityMap, new CvMat(), cvRect(0, y0, width, y1-y0));
+    cvCopy(core, dest);
+  }  // end of matchBand()
+
+
+
+  private void filterSpeckles(IplImage disparityMap, CvStereoBMState bmState)
+  // remove speckles from the whole map, as cvFindStereoCorrespondenceBM() does
+  {
+    int width = disparityMap.width();
+    int height = disparityMap.height();
+    ShortBuffer sb = disparityMap.getShortBuffer();
+    int step = disparityMap.widthStep()/2;    // in shorts
+
+    for (int y = 0; y < height; y++) {
+      sb.position(y*step);
+      sb.get(dispData, y*width, width);
+    }
+
+    short invalid = (short)((bmState.minDisparity() - 1) << DISPARITY_SHIFT);
+    speckleFilter.filter(dispData, width, height, invalid,
+                         bmState.speckleWindowSize(), bmState.speckleRange());
+
+    for (int y = 0; y < height; y++) {
+      sb.position(y*step);
+      sb.put(dispData, y*width, width);
+    }
+  }  // end of filterSpeckles()
+
+
+
+  public long getLastTime()
+  // ms taken by the last compute()
+  {  return lastTime;  }
+
+  public int getNumThreads()
+  {  return numThreads;  }
+
+}  // end of TiledBM class
@@ -1,6 +1,7 @@
 @echo off
 echo Compiling %* with JavaCV, OpenCV...
 
-javac -cp "d:\javacv-bin\javacv.jar;d:\javacv-bin\javacpp.jar;d:\javacv-bin\javacv-windows-x86.jar;." %*
+rem StereoGrabber and CameraCapturer are compiled from ../DoubleGrabber into this directory
+javac -cp "d:\javacv-bin\javacv.jar;d:\javacv-bin\javacpp.jar;d:\javacv-bin\javacv-windows-x86.jar;." -sourcepath ".;../DoubleGrabber" -d . %*
 
 echo Finished.
@@ -0,0 +1,217 @@
+// CameraCapturer.java
+
+/* Grabs images from a single camera as fast as it can supply them,
+   in its own thread.
+
+   Each image is copied into a small ring of preallocated images, and
+   stamped with the System.nanoTime() at which the grab returned, and a
+   sequence number. The ring lets StereoGrabber look back a few frames
+   to find the one taken closest in time to an image from the other
+   camera.
+
+   The grabber is created, used, and closed in the capture thread, which
+   some camera drivers require.
+
+   If a grab fails, the thread waits before trying again, starting at
+   MIN_RETRY_DELAY ms and doubling up to MAX_RETRY_DELAY ms, so a missing
+   or unplugged camera doesn't keep a core busy.
+*/
+
+import com.googlecode.javacv.*;
+import com.googlecode.javacv.cpp.videoInputLib.*;
+
+import static com.googlecode.javacv.cpp.opencv_core.*;
+import static com.googlecode.javacv.cpp.opencv_imgproc.*;
+
+
+
+public class CameraCapturer implements Runnable
+{
+  private static final int RING_SIZE = 4;
+
+  private static final int MIN_RETRY_DELAY = 10;    // ms to wait after a failed grab
+  private static final int MAX_RETRY_DELAY = 500;
+
+  private int camID;
+  private int width, height;
+  private StereoGrabber watcher;    // told about each new frame
+
+  // the ring of recent frames
+  private IplImage[] frames = new IplImage[RING_SIZE];
+  private long[] times = new long[RING_SIZE];   // ns
+  private long[] seqs = new long[RING_SIZE];    // -1 if the slot is empty
+  private int next = 0;        // slot for the next frame
+  private long seqCount = 0;
+
+  private volatile boolean isRunning = false;
+  private volatile boolean isFinished = false;
+
+  // for the frames per second info
+  private long firstTime = -1;
+  private volatile double fps = 0;
+
+
+
+  public CameraCapturer(int camID, int width, int height, StereoGrabber watcher)
+  {
+    this.camID = camID;
+    this.width = width;
+    this.height = height;
+    this.watcher = watcher;
+    for (int i = 0; i < RING_SIZE; i++) {
+      frames[i] = IplImage.create(width, height, IPL_DEPTH_8U, 3);
+      seqs[i] = -1;
+    }
+  }  // end of CameraCapturer()
+
+
+
+  public void run()
+  {
+    FrameGrabber grabber = initGrabber();
+    isRunning = true;
+    int retryDelay = MIN_RETRY_DELAY;
+    while (isRunning) {
+      IplImage im = null;
+      try {
+        im = grabber.grab();    // blocks until the camera has a new frame
+      }
+      catch(Exception e)
+      {  System.out.println("Problem grabbing image for camera " + camID);  }
+      long grabTime = System.nanoTime();
+      if (im == null) {    // back off before trying again
+        try {
+          Thread.sleep(retryDelay);
+        }
+        catch (InterruptedException e) {}
+        retryDelay = Math.min(2*retryDelay, MAX_RETRY_DELAY);
+        continue;
+      }
+      retryDelay = MIN_RETRY_DELAY;
+
+      store(im, grabTime);
+      watcher.frameArrived();
+    }
+    closeGrabber(grabber);
+    isFinished = true;
+  }  // end of run()
+
+
+
+  private FrameGrabber initGrabber()
+  {
+    FrameGrabber grabber = null;
+    System.out.println("Initializing grabber for " + videoInput.getDeviceName(camID) + " ...");
+    try {
+      grabber = FrameGrabber.createDefault(camID);
+      grabber.setFormat("dshow");       // using DirectShow
+      grabber.setImageWidth(width);     // default is too small: 320x240
+      grabber.setImageHeight(height);
+      grabber.start();
+    }
+    catch(Exception e)
+    {  System.out.println("Could not start grabber");
+       System.out.println(e);
+       System.exit(1);
+    }
+    return grabber;
+  }  // end of initGrabber()
+
+
+
+  private void closeGrabber(FrameGrabber grabber)
+  {
+    try {
+      grabber.stop();
+      grabber.release();
+    }
+    catch(Exception e)
+    {  System.out.println("Problem stopping grabbing for camera " + camID);  }
+  }  // end of closeGrabber()
+
+
+
+  private synchronized void store(IplImage im, long grabTime)
+  // copy the grabbed image into the ring, since the grabber reuses its image
+  {
+    if ((im.width() == width) && (im.height() == height))
+      cvCopy(im, frames[next]);
+    else     // the camera ignored the requested size
+      cvResize(im, frames[next]);
+    times[next] = grabTime;
+    seqs[next] = seqCount++;
+    next = (next+1) % RING_SIZE;
+
+    if (firstTime == -1)
+      firstTime = grabTime;
+    else
+      fps = (seqCount-1) / ((grabTime - firstTime)/1000000000.0);
+  }  // end of store()
+
+
+
+  public synchronized int latestSlot()
+  // the slot holding the newest frame, or -1 if there isn't one yet
+  {
+    int slot = (next + RING_SIZE - 1) % RING_SIZE;
+    return (seqs[slot] == -1) ? -1 : slot;
+  }
+
+
+  public synchronized int nearestSlot(long time)
+  // the slot whose frame time is closest to time, or -1 if the ring is empty
+  {
+    int best = -1;
+    long bestDiff = Long.MAX_VALUE;
+    for (int i = 0; i < RING_SIZE; i++) {
+      if (seqs[i] == -1)
+        continue;
+      long diff = Math.abs(times[i] - time);
+      if (diff < bestDiff) {
+        best = i;
+        bestDiff = diff;
+      }
+    }
+    return best;
+  }  // end of nearestSlot()
+
+
+  public synchronized long getTime(int slot)
+  {  return times[slot];  }
+
+  public synchronized long getSeq(int slot)
+  {  return seqs[slot];  }
+
+
+  public synchronized boolean copyFrame(int slot, long seq, IplImage dest)
+  /* copy the frame in the slot into dest, unless it has been overwritten
+     by a frame other than seq */
+  {
+    if (seqs[slot] != seq)
+      return false;
+    cvCopy(frames[slot], dest);
+    return true;
+  }  // end of copyFrame()
+
+
+
+  public double getFPS()
+  {  return fps;  }
+
+  public int getID()
+  {  return camID;  }
+
+
+  public void stop()
+  // stop capturing, and wait for the grabber to be closed
+  {
+    isRunning = false;
+    while (!isFinished) {
+      try {
+        Thread.sleep(20);
+      }
+      catch (Exception ex) {}
+    }
+  }  // end of stop()
+
+}  // end of CameraCapturer class
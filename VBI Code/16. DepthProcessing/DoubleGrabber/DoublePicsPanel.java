@@ -2,19 +2,25 @@
 // DoublePicsPanel.java
 // Andrew Davison, June 2013, ad@fivedots.psu.ac.th
 
-/* Snap pictures from two cameras every DELAY ms, and show in the panel.
-   A good DELAY value can be obtained by looking at the 
-   average ms time for obtaining a snap, which is written at
-   the bottom of the panel.
+/* Snap pictures from two cameras, and show them in the panel.
+
+   The cameras are grabbed at the same time by a StereoGrabber, which
+   has a capture thread for each camera, and pairs the images whose
+   timestamps are closest. A new pair is shown as soon as both cameras
+   have supplied a frame, so the pair rate is limited only by the cameras.
+   The pair rate and the time difference (skew) between the images in 
+   the pairs are written at the bottom of the panel.
+
+   Each pair is copied into back images, which are then swapped with the
+   front images under imageLock. paintComponent() only draws the front
+   images, under the same lock, so it never sees a half-copied image or
+   the left image of one pair with the right image of another.
 
    Uses JavaCV to grab webcam snaps
 
    If the user presses <enter>, <space> or '5' then the current images
    are saved in the SAVE_DIR directory as numbered images files with
    the names LEFT_FNM and RIGHT_FNM
-
-   For Windows 7, the average time starts at 100ms but eventually
-   drops to around 20.
 */
 
 import java.awt.*;
@@ -41,7 +47,7 @@ public class DoublePicsPanel extends JPanel implements Runnable
   private static final int WIDTH = 640;  
   private static final int HEIGHT = 480;
 
-  private static final int DELAY = 150;  // ms 
+  private static final int DELAY = 150;  // ms; the longest wait for a new pair
 
   // directory and filenames used to save images
   private static final String SAVE_DIR = "pics/"; 
@@ -52,14 +58,15 @@ public class DoublePicsPanel extends JPanel implements Runnable
   private volatile boolean isRunning;
   private volatile boolean isFinished;
 
-  // used for the average ms snap time info
-  private long totalTime = 0;
-  private int imageCount = 0;
   private Font msgFont;
 
+  // the pair being shown; only swapped or drawn while holding imageLock
   private IplImage leftImage = null;
   private IplImage rightImage = null;
+  private final Object imageLock = new Object();
   private int leftID, rightID;    // IDs of the FrameGrabber objects
+  private StereoGrabber stereoGrabber;
+  private volatile String statsMsg = null;   // pair rate and skew info
 
   private volatile boolean takeSnaps = false;
 
@@ -117,23 +124,30 @@ public class DoublePicsPanel extends JPanel implements Runnable
 
 
   public void run()
-  /* take pictures every DELAY ms */
+  /* show each new pair of pictures as soon as it's available */
   {
-    FrameGrabber leftGrabber = initGrabber(leftID);
-    FrameGrabber rightGrabber = initGrabber(rightID);
-    if ((leftGrabber == null) || (rightGrabber == null))
-      return;
+    stereoGrabber = new StereoGrabber(leftID, rightID, WIDTH, HEIGHT);
+    // the back images, filled by the stereo grabber
+    IplImage leftIm = IplImage.create(WIDTH, HEIGHT, IPL_DEPTH_8U, 3);
+    IplImage rightIm = IplImage.create(WIDTH, HEIGHT, IPL_DEPTH_8U, 3);
 
-    long duration;
     int snapCount = 0;
     isRunning = true;
     isFinished = false;
 
     while (isRunning) {
-      long startTime = System.currentTimeMillis();
+      if (stereoGrabber.waitForPair(leftIm, rightIm, DELAY) < 0)
+        continue;    // no new pair yet
 
-      leftImage = picGrab(leftGrabber, leftID); 
-      rightImage = picGrab(rightGrabber, rightID); 
+      synchronized(imageLock) {   // swap the new pair to the front
+        IplImage im = leftImage;
+        leftImage = leftIm;
+        leftIm = (im != null) ? im : IplImage.create(WIDTH, HEIGHT, IPL_DEPTH_8U, 3);
+
+        im = rightImage;
+        rightImage = rightIm;
+        rightIm = (im != null) ? im : IplImage.create(WIDTH, HEIGHT, IPL_DEPTH_8U, 3);
+      }
 
       if (takeSnaps) {   // save the current images
         saveImage(leftImage, LEFT_FNM, snapCount);
@@ -142,72 +156,16 @@ public class DoublePicsPanel extends JPanel implements Runnable
         takeSnaps = false;
       }
 
-      imageCount++;
+      statsMsg = stereoGrabber.getStats();
       repaint();
-
-      duration = System.currentTimeMillis() - startTime;
-      totalTime += duration;
-      if (duration < DELAY) {
-        try {
-          Thread.sleep(DELAY-duration);  // wait until DELAY time has passed
-        } 
-        catch (Exception ex) {}
-      }
     }
-    closeGrabber(leftGrabber, leftID);
-    closeGrabber(rightGrabber, rightID);
+    stereoGrabber.stop();
     System.out.println("Execution End");
     isFinished = true;
   }  // end of run()
 
 
 
-  private FrameGrabber initGrabber(int ID)
-  {
-    FrameGrabber grabber = null;
-    System.out.println("Initializing grabber for " + videoInput.getDeviceName(ID) + " ...");
-    try {
-      grabber = FrameGrabber.createDefault(ID);
-      grabber.setFormat("dshow");       // using DirectShow
-      grabber.setImageWidth(WIDTH);     // default is too small: 320x240
-      grabber.setImageHeight(HEIGHT);
-      grabber.start();
-    }
-    catch(Exception e) 
-    {  System.out.println("Could not start grabber");  
-       System.out.println(e);
-       System.exit(1);
-    }
-    return grabber;
-  }  // end of initGrabber()
-
-
-
-  private IplImage picGrab(FrameGrabber grabber, int ID)
-  {
-    IplImage im = null;
-    try {
-      im = grabber.grab();  // take a snap
-    }
-    catch(Exception e) 
-    {  System.out.println("Problem grabbing image for camera " + ID);  }
-    return im;
-  }  // end of picGrab()
-
-
-
-  private void closeGrabber(FrameGrabber grabber, int ID)
-  {
-    try {
-      grabber.stop();
-      grabber.release();
-    }
-    catch(Exception e) 
-    {  System.out.println("Problem stopping grabbing for camera " + ID);  }
-  }  // end of closeGrabber()
-
-
-
   private void saveImage(IplImage im, String saveFnm, int snapCount)
   /* save a grayscale version of the image as a JPG file in SAVE_DIR.
      The file is called saveFnm, followed by a 2-digit number.
@@ -239,22 +197,23 @@ public class DoublePicsPanel extends JPanel implements Runnable
     g.setColor(Color.BLUE);
     g.setFont(msgFont);
 
-    // draw the left image on the left of the panel
-    if (leftImage != null) {
-      g.drawImage(leftImage.getBufferedImage(), 0, 0, WIDTH, HEIGHT, this);   // draw the snap
-      String statsMsg = String.format("Snap Avg. Time:  %.1f ms",
-                                        ((double) totalTime / imageCount));
-      g.drawString(statsMsg, 5, HEIGHT-10);  
-                        // write statistics in bottom-left corner
+    synchronized(imageLock) {
+      // draw the left image on the left of the panel
+      if (leftImage != null) {
+        g.drawImage(leftImage.getBufferedImage(), 0, 0, WIDTH, HEIGHT, this);   // draw the snap
+        if (statsMsg != null)
+          g.drawString(statsMsg, 5, HEIGHT-10);  
+                          // write statistics in bottom-left corner
+      }
+      else // no image yet
+        g.drawString("Loading from camera " + leftID + "...", 5, HEIGHT-10);
+
+      // draw the right-hand-side image
+      if (rightImage != null)
+        g.drawImage(rightImage.getBufferedImage(), WIDTH, 0, WIDTH, HEIGHT, this);   // draw the snap
+      else // no image yet
+        g.drawString("Loading from camera " + rightID + "...", WIDTH + 5, HEIGHT-10);
     }
-    else // no image yet
-      g.drawString("Loading from camera " + leftID + "...", 5, HEIGHT-10);
-
-    // draw the right-hand-side image
-    if (rightImage != null)
-      g.drawImage(rightImage.getBufferedImage(), WIDTH, 0, WIDTH, HEIGHT, this);   // draw the snap
-    else // no image yet
-      g.drawString("Loading from camera " + rightID + "...", WIDTH + 5, HEIGHT-10);
 
     // draw a line separating the two images
     g.drawLine(WIDTH, 0, WIDTH, HEIGHT);
@@ -0,0 +1,165 @@
+// StereoGrabber.java
+
+/* Captures from two cameras at once, using a CameraCapturer thread for
+   each, and pairs their frames by timestamp.
+
+   waitForPair() waits until a new pair is available. The anchor of the
+   pair is the older of the two cameras' newest frames; it is matched with
+   the frame from the other camera whose time is nearest to it. The pair is
+   accepted only if the two times are within MAX_SKEW ms, and neither
+   frame has been used in an earlier pair. So the pair rate is limited
+   only by the slower camera.
+
+   The skew (time difference) of each accepted pair is recorded, and the
+   pair rate, mean skew, and maximum skew can be read for display.
+*/
+
+import static com.googlecode.javacv.cpp.opencv_core.*;
+
+
+
+public class StereoGrabber
+{
+  private static final long MAX_SKEW = 20;   // ms
+
+  private CameraCapturer leftCap, rightCap;
+  private long lastLeftSeq = -1, lastRightSeq = -1;   // frames used in the last pair
+
+  // pair statistics
+  private int numPairs = 0;
+  private int numRejected = 0;    // pairs too far apart in time
+  private double totalSkew = 0;   // ms
+  private double maxSkew = 0;
+  private long firstPairTime = -1;
+  private double pairRate = 0;    // pairs per sec
+
+
+
+  public StereoGrabber(int leftID, int rightID, int width, int height)
+  {
+    leftCap = new CameraCapturer(leftID, width, height, this);
+    rightCap = new CameraCapturer(rightID, width, height, this);
+    new Thread(leftCap, "Camera " + leftID).start();
+    new Thread(rightCap, "Camera " + rightID).start();
+  }  // end of StereoGrabber()
+
+
+
+  public synchronized void frameArrived()
+  // called by a CameraCapturer when it has stored a new frame
+  {  notifyAll();  }
+
+
+
+  public synchronized double waitForPair(IplImage leftIm, IplImage rightIm, long maxWait)
+  /* copy the next new pair into leftIm and rightIm, waiting for up to
+     maxWait ms. Returns the pair's skew in ms, or -1 if there
+     wasn't a new pair in time. */
+  {
+    long endTime = System.currentTimeMillis() + maxWait;
+    while (true) {
+      double skew = tryPair(leftIm, rightIm);
+      if (skew >= 0)
+        return skew;
+      long waitTime = endTime - System.currentTimeMillis();
+      if (waitTime <= 0)
+        return -1;
+      try {
+        wait(waitTime);    // until a new frame arrives
+      }
+      catch (InterruptedException e)
+      {  return -1;  }
+    }
+  }  // end of waitForPair()
+
+
+
+  private double tryPair(IplImage leftIm, IplImage rightIm)
+  {
+    int leftSlot = leftCap.latestSlot();
+    int rightSlot = rightCap.latestSlot();
+    if ((leftSlot == -1) || (rightSlot == -1))
+      return -1;
+
+    // the older of the newest frames is the anchor
+    boolean leftIsAnchor = (leftCap.getTime(leftSlot) <= rightCap.getTime(rightSlot));
+    if (leftIsAnchor)
+      rightSlot = rightCap.nearestSlot( leftCap.getTime(leftSlot));
+    else
+      leftSlot = leftCap.nearestSlot( rightCap.getTime(rightSlot));
+
+    long leftSeq = leftCap.getSeq(leftSlot);
+    long rightSeq = rightCap.getSeq(rightSlot);
+    if ((leftSeq <= lastLeftSeq) || (rightSeq <= lastRightSeq))
+      return -1;    // one of the frames has been used already
+
+    double skew = Math.abs(leftCap.getTime(leftSlot) - rightCap.getTime(rightSlot))/1000000.0;
+    if (skew > MAX_SKEW) {
+      /* the other camera's later frames will be even further from the
+         anchor, so drop it, and wait for that camera's next frame */
+      if (leftIsAnchor)
+        lastLeftSeq = leftSeq;
+      else
+        lastRightSeq = rightSeq;
+      numRejected++;
+      return -1;
+    }
+
+    if (!leftCap.copyFrame(leftSlot, leftSeq, leftIm) ||
+        !rightCap.copyFrame(rightSlot, rightSeq, rightIm))
+      return -1;    // overwritten before it could be copied; try again
+    lastLeftSeq = leftSeq;
+    lastRightSeq = rightSeq;
+
+    recordPair(skew);
+    return skew;
+  }  // end of tryPair()
+
+
+
+  private void recordPair(double skew)
+  {
+    long now = System.nanoTime();
+    numPairs++;
+    totalSkew += skew;
+    if (skew > maxSkew)
+      maxSkew = skew;
+    if (firstPairTime == -1)
+      firstPairTime = now;
+    else
+      pairRate = (numPairs-1) / ((now - firstPairTime)/1000000000.0);
+  }  // end of recordPair()
+
+
+
+  // -------------------- statistics ------------------------
+
+  public synchronized String getStats()
+  {
+    if (numPairs == 0)
+      return "No pairs yet";
+    return String.format("%.1f pairs/s (cams %.1f, %.1f fps);  skew avg %.1f, max %.1f ms;  %d rejected",
+                  pairRate, leftCap.getFPS(), rightCap.getFPS(),
+                  totalSkew/numPairs, maxSkew, numRejected);
+  }  // end of getStats()
+
+
+  public synchronized double getPairRate()
+  {  return pairRate;  }
+
+  public synchronized double getMeanSkew()
+  {  return (numPairs == 0) ? 0 : totalSkew/numPairs;  }
+
+  public synchronized double getMaxSkew()
+  {  return maxSkew;  }
+
+
+
+  public void stop()
+  // stop both capture threads, closing their grabbers
+  {
+    leftCap.stop();
+    rightCap.stop();
+  }
+
+}  // end of StereoGrabber class
@@ -0,0 +1,745 @@
+
+// CamLoadGen.java
+
+/* A load generator for CamsViewer, which pretends to be many CamReader
+   clients, so the viewer's scaling limit can be found on one machine
+   without any webcams.
+
+   Each simulated client connects to PORT and speaks the same protocol
+   as CamReaderPanel: a series of updates, each made of
+         <part index> <byte array length>  <image data bytes ...>
+   messages followed by END_UPDATE, and END_TRANS when it finishes.
+
+   The part data are real JPEGs, so the viewer decodes and draws them as
+   usual. They are made once at the start by a TileEncoder, from
+   NUM_FRAMES synthetic width x height images, and shared by all the
+   clients. If a part size (in bytes) is given, any JPEG smaller than
+   that is padded after its end-of-image marker, which the decoder ignores.
+
+   A client sends fps updates a second. The first update, and every
+   KEY_FRAME_PERIOD-th one, has all the parts; the others have each part
+   with probability changeRate.
+
+   The clients are run by a small pool of threads (a client never needs
+   a thread of its own, since it only wakes up to send an update). They
+   can be started all at once, or a few per second (the ramp rate) to find
+   the point where the viewer stops keeping up. The connections are made
+   by a separate pool, so a slow connect never delays the updates of the
+   clients that are already connected. A client's updates start as soon
+   as it has connected.
+
+   An update's latency is the time from when it should have been sent
+   until its bytes have all been written to the socket. Once the viewer
+   stops reading fast enough, the socket's buffers fill and the writes
+   block, so the latency grows. A client which falls more than one update
+   period behind skips (drops) updates to catch up, as a real CamReader
+   would drop snaps.
+
+   CamsViewer refuses a client over its limit by accepting the connection,
+   sending it a REFUSED message, and closing it. That is the only thing the
+   viewer ever sends, so a single monitor thread watches the input of all
+   the connected clients, at any point while they run. Any input means the
+   client was refused, however many updates it had already sent; the
+   connection being closed (the end of the stream or a reset) without it
+   means a served client was disconnected. A client which is closed before
+   its first update is sent, or which can't connect at all, is also counted
+   as refused.
+
+   Every REPORT_PERIOD ms the number of connected clients, the updates and
+   MB sent per second, the 95th percentile latency, and the dropped updates
+   are printed. At the end, the acceptance of the clients (how many
+   connected, how many were refused or disconnected by the viewer, and
+   how long connecting took), the latency percentiles, and the served
+   clients with the worst latencies are printed. The viewer's own report
+   gives the updates it had to drop before drawing them.
+
+   Usage:
+      > java CamLoadGen [-h <host>] [-n <clients>] [-s <width>x<height>]
+                        [-f <fps>] [-c <change rate>] [-q <quality>] [-b <part bytes>]
+                        [-t <secs>] [-r <clients per sec>] [-p <threads>]
+        e.g.
+      > java CamLoadGen -n 400 -r 20 -t 60
+*/
+
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+
+public class CamLoadGen
+{
+  private static final int PORT = 4444;   // port where CamsViewer is listening
+  private static final int NUM_SEPS = 4;    // separations per row and column
+  private static final int NUM_PARTS = NUM_SEPS*NUM_SEPS;
+
+  // special message IDs
+  private static final int END_UPDATE = -98;
+  private static final int END_TRANS = -99;
+
+  private static final int MAX_PART_LEN = 65536;   // the most that CamReceiver accepts
+  private static final int NUM_FRAMES = 8;      // different synthetic images
+  private static final int KEY_FRAME_PERIOD = 50;   // updates between sending all the parts
+  private static final int REPORT_PERIOD = 5000;    // ms between progress reports
+  private static final int NUM_WORST = 5;     // clients listed at the end
+  private static final int MONITOR_WAIT = 1;      // ms the monitor waits for input from each client
+  private static final int MONITOR_PERIOD = 10;    // ms between the monitor's checks of the clients
+  private static final int BUF_SIZE = 65536;
+
+
+  // settings
+  private String host = "localhost";
+  private int numClients = 10;
+  private int width = 320, height = 240;
+  private double fps = 10;
+  private double changeRate = 0.25;
+  private float quality = 0.75f;
+  private int partBytes = 0;      // 0 means use the JPEGs' own sizes
+  private int duration = 30;      // secs
+  private double rampRate = 0;    // clients started per sec; 0 means all at once
+  private int numThreads = Math.max(2, 2*Runtime.getRuntime().availableProcessors());
+
+  private byte[][][] frameParts;   // [frame][part] JPEG data
+  private int[][] frameLens;
+
+  private ScheduledExecutorService pool;        // sends the updates
+  private ScheduledExecutorService connector;   // makes the connections
+  private SimClient[] clients;
+
+  private Thread monitor;     // watches for the viewer closing the clients
+  private volatile boolean isMonitoring = false;
+
+  private LatencyStats intervalStats = new LatencyStats();    // since the last report
+  private LatencyStats totalStats = new LatencyStats();
+
+
+
+  public CamLoadGen(String[] args)
+  {
+    if (!parseArgs(args)) {
+      System.out.println("Usage: java CamLoadGen [-h <host>] [-n <clients>] [-s <width>x<height>]");
+      System.out.println("                       [-f <fps>] [-c <change rate>] [-q <quality>] [-b <part bytes>]");
+      System.out.println("                       [-t <secs>] [-r <clients per sec>] [-p <threads>]");
+      return;
+    }
+    System.out.printf("%d clients sending %dx%d images to %s:%d at %.1f fps for %d s\n",
+                      numClients, width, height, host, PORT, fps, duration);
+    System.out.printf("Change rate %.2f, quality %.2f, %s, %d threads\n",
+                      changeRate, quality,
+                      ((rampRate > 0) ? "starting " + rampRate + " clients/s" : "all starting at once"),
+                      numThreads);
+    makeParts();
+
+    pool = Executors.newScheduledThreadPool(numThreads, new ThreadFactory() {
+      public Thread newThread(Runnable r)
+      { Thread t = new Thread(r, "Sim client");
+        t.setDaemon(true);     // don't stop the application from exiting
+        return t;
+      }
+    });
+    connector = Executors.newScheduledThreadPool(numThreads, new ThreadFactory() {
+      public Thread newThread(Runnable r)
+      { Thread t = new Thread(r, "Sim connector");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+
+    long period = (long)(1000000000L/fps);    // ns
+    clients = new SimClient[numClients];
+
+    isMonitoring = true;
+    monitor = new Thread("Close monitor") {
+      public void run()
+      {  monitorClients();  }
+    };
+    monitor.setDaemon(true);
+    monitor.start();
+
+    for (int i = 0; i < numClients; i++) {
+      long delay = (rampRate > 0) ? (long)(i*1000000000L/rampRate) : 0;
+      clients[i] = new SimClient(i, period);
+      clients[i].start(delay);
+    }
+
+    runReports();
+    stopClients();
+    printResults();
+  }  // end of CamLoadGen()
+
+
+
+  private boolean parseArgs(String[] args)
+  {
+    try {
+      for (int i = 0; i < args.length; i++) {
+        String opt = args[i];
+        String val = args[++i];
+        if (opt.equals("-h"))
+          host = val;
+        else if (opt.equals("-n"))
+          numClients = Integer.parseInt(val);
+        else if (opt.equals("-s")) {
+          String[] dims = val.split("x");
+          width = Integer.parseInt(dims[0]);
+          height = Integer.parseInt(dims[1]);
+        }
+        else if (opt.equals("-f"))
+          fps = Double.parseDouble(val);
+        else if (opt.equals("-c"))
+          changeRate = Double.parseDouble(val);
+        else if (opt.equals("-q"))
+          quality = Float.parseFloat(val);
+        else if (opt.equals("-b"))
+          partBytes = Integer.parseInt(val);
+        else if (opt.equals("-t"))
+          duration = Integer.parseInt(val);
+        else if (opt.equals("-r"))
+          rampRate = Double.parseDouble(val);
+        else if (opt.equals("-p"))
+          numThreads = Integer.parseInt(val);
+        else
+          return false;
+      }
+    }
+    catch(Exception e)
+    {  return false;  }
+
+    if ((numClients < 1) || (fps <= 0) || (duration < 1) || (numThreads < 1))
+      return false;
+    if ((width < NUM_SEPS) || (height < NUM_SEPS) ||
+        (width % NUM_SEPS != 0) || (height % NUM_SEPS != 0)) {
+      System.out.println("The width and height must be multiples of " + NUM_SEPS);
+      return false;
+    }
+    if (partBytes > MAX_PART_LEN) {
+      System.out.println("Parts can be at most " + MAX_PART_LEN + " bytes");
+      return false;
+    }
+    return true;
+  }  // end of parseArgs()
+
+
+
+  private void makeParts()
+  /* encode the parts of NUM_FRAMES synthetic images, padding them to
+     partBytes if necessary */
+  {
+    TileEncoder encoder = new TileEncoder(NUM_PARTS, 1, quality);
+    boolean[] allParts = new boolean[NUM_PARTS];
+    Arrays.fill(allParts, true);
+    frameParts = new byte[NUM_FRAMES][NUM_PARTS][];
+    frameLens = new int[NUM_FRAMES][NUM_PARTS];
+
+    long totalLen = 0;
+    int numTooBig = 0;
+    for (int f = 0; f < NUM_FRAMES; f++) {
+      BufferedImage[] parts = ImageUtils.split(makeFrame(f), NUM_SEPS);
+      encoder.encode(parts, allParts);
+      for (int i = 0; i < NUM_PARTS; i++) {
+        int len = encoder.getLength(i);
+        if (len == 0) {
+          System.out.println("Could not encode the synthetic images");
+          System.exit(1);
+        }
+        if (len > MAX_PART_LEN) {
+          System.out.println("A " + len + " byte part is too big for CamsViewer; use a lower quality");
+          System.exit(1);
+        }
+        if (partBytes > 0) {
+          if (len > partBytes)
+            numTooBig++;
+          else
+            len = partBytes;
+        }
+        frameParts[f][i] = Arrays.copyOf(encoder.getBytes(i), len);   // padded with 0s
+        frameLens[f][i] = len;
+        totalLen += len;
+      }
+    }
+    System.out.printf("Parts are %d x %d, %.0f bytes on average\n",
+                      width/NUM_SEPS, height/NUM_SEPS, ((double)totalLen)/(NUM_FRAMES*NUM_PARTS));
+    if (numTooBig > 0)
+      System.out.println(numTooBig + " parts are bigger than " + partBytes + " bytes; use a lower quality");
+  }  // end of makeParts()
+
+
+
+  private BufferedImage makeFrame(int f)
+  /* a colour gradient with a moving circle and some noise, so the JPEGs
+     are about as big as ones from a webcam */
+  {
+    BufferedImage im = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+    Graphics2D g2d = im.createGraphics();
+    g2d.setPaint( new GradientPaint(0, 0, new Color(40, 70, 140),
+                                    width, height, new Color(200, 160, 90)));
+    g2d.fillRect(0, 0, width, height);
+    int r = Math.min(width, height)/4;
+    int cx = width*(f+1)/(NUM_FRAMES+1);
+    g2d.setColor(Color.WHITE);
+    g2d.fillOval(cx - r, height/2 - r, 2*r, 2*r);
+    g2d.setColor(Color.BLACK);
+    g2d.drawString("frame " + f, 5, height - 5);
+    g2d.dispose();
+
+    Random rand = new Random(f);
+    for (int y = 0; y < height; y++)
+      for (int x = 0; x < width; x++) {
+        int p = im.getRGB(x, y);
+        int n = rand.nextInt(17) - 8;
+        int red = clamp(((p >> 16) & 0xff) + n);
+        int green = clamp(((p >> 8) & 0xff) + n);
+        int blue = clamp((p & 0xff) + n);
+        im.setRGB(x, y, (red << 16) | (green << 8) | blue);
+      }
+    return im;
+  }  // end of makeFrame()
+
+
+  private int clamp(int v)
+  {  return Math.max(0, Math.min(255, v));  }
+
+
+
+  private void runReports()
+  // print progress every REPORT_PERIOD ms until the duration is over
+  {
+    long startTime = System.currentTimeMillis();
+    long endTime = startTime + duration*1000L;
+    int prevUpdates = 0, prevDropped = 0;
+    long prevBytes = 0;
+    long prevTime = startTime;
+
+    while (true) {
+      long now = System.currentTimeMillis();
+      if (now >= endTime)
+        break;
+      try {
+        Thread.sleep( Math.min(REPORT_PERIOD, endTime - now));
+      }
+      catch(InterruptedException e) {}
+
+      now = System.currentTimeMillis();
+      int numConnected = 0, numUpdates = 0, numDropped = 0;
+      long numBytes = 0;
+      for (SimClient c : clients) {
+        if (c.isConnected())
+          numConnected++;
+        numUpdates += c.getNumUpdates();
+        numDropped += c.getNumDropped();
+        numBytes += c.getNumBytes();
+      }
+      LatencyStats stats = intervalStats;
+      intervalStats = new LatencyStats();
+      double secs = (now - prevTime)/1000.0;
+      System.out.printf("%4.0f s: %d connected; %.1f updates/s, %.2f MB/s; latency p95 %.1f ms; %d dropped\n",
+                        (now - startTime)/1000.0, numConnected,
+                        (numUpdates - prevUpdates)/secs,
+                        (numBytes - prevBytes)/(1024.0*1024*secs),
+                        stats.getPercentile(0.95), numDropped - prevDropped);
+      prevUpdates = numUpdates;
+      prevDropped = numDropped;
+      prevBytes = numBytes;
+      prevTime = now;
+    }
+  }  // end of runReports()
+
+
+
+  private void monitorClients()
+  /* check the connected clients for the viewer closing them, until
+     monitoring is stopped, and then check them all once more */
+  {
+    boolean isLastCheck = false;
+    while (!isLastCheck) {
+      isLastCheck = !isMonitoring;
+      for (SimClient c : clients) {
+        if (c != null)
+          c.checkClosed();
+      }
+      try {
+        Thread.sleep(MONITOR_PERIOD);
+      }
+      catch(InterruptedException e) {}
+    }
+  }  // end of monitorClients()
+
+
+
+  private void stopClients()
+  // stop the updates, and tell CamsViewer that the clients are finishing
+  {
+    for (SimClient c : clients)
+      c.cancel();
+    connector.shutdownNow();    // drop the connections that haven't started
+    pool.shutdown();
+    try {
+      connector.awaitTermination(5, TimeUnit.SECONDS);
+      pool.awaitTermination(5, TimeUnit.SECONDS);
+    }
+    catch(InterruptedException e) {}
+
+    isMonitoring = false;    // catch any closes not seen yet
+    try {
+      monitor.join();
+    }
+    catch(InterruptedException e) {}
+
+    for (SimClient c : clients)
+      c.close();
+  }  // end of stopClients()
+
+
+
+  private void printResults()
+  {
+    int numConnected = 0, numRefused = 0, numLost = 0;
+    int numUpdates = 0, numDropped = 0;
+    long numBytes = 0;
+    double totalConnectTime = 0, maxConnectTime = 0;
+    for (SimClient c : clients) {
+      if ((c.getConnectTime() >= 0) && !c.wasRefused()) {
+        numConnected++;
+        totalConnectTime += c.getConnectTime();
+        maxConnectTime = Math.max(maxConnectTime, c.getConnectTime());
+      }
+      if (c.wasRefused())
+        numRefused++;
+      if (c.wasLost())
+        numLost++;
+      numUpdates += c.getNumUpdates();
+      numDropped += c.getNumDropped();
+      numBytes += c.getNumBytes();
+    }
+
+    System.out.println();
+    int numServed = numConnected - numLost;
+    System.out.printf("Acceptance: %d of %d clients served to the end (%.1f%%); %d refused, %d disconnected by the viewer\n",
+                      numServed, numClients, 100.0*numServed/numClients, numRefused, numLost);
+    if (numConnected > 0)
+      System.out.printf("Connect time: mean %.1f ms, max %.1f ms\n",
+                        totalConnectTime/numConnected, maxConnectTime);
+    System.out.printf("Sent %d updates, %.2f MB; %d updates dropped (%.1f%%)\n",
+                      numUpdates, numBytes/(1024.0*1024), numDropped,
+                      100.0*numDropped/Math.max(1, numUpdates + numDropped));
+    System.out.printf("Latency: p50 %.1f ms, p95 %.1f ms, p99 %.1f ms, max %.1f ms\n",
+                      totalStats.getPercentile(0.5), totalStats.getPercentile(0.95),
+                      totalStats.getPercentile(0.99), totalStats.getMax());
+
+    // list the served clients with the worst latencies
+    ArrayList<SimClient> served = new ArrayList<SimClient>();
+    for (SimClient c : clients) {
+      if (!c.wasRefused() && (c.getNumUpdates() > 0))
+        served.add(c);
+    }
+    SimClient[] sorted = served.toArray(new SimClient[served.size()]);
+    Arrays.sort(sorted, new Comparator<SimClient>() {
+      public int compare(SimClient c1, SimClient c2)
+      {  return Double.compare(c2.getStats().getPercentile(0.95),
+                               c1.getStats().getPercentile(0.95));  }
+    });
+    System.out.println("Worst clients:");
+    for (int i = 0; i < Math.min(NUM_WORST, sorted.length); i++) {
+      SimClient c = sorted[i];
+      System.out.printf("  client %d: %d updates, %d dropped; latency p50 %.1f ms, p95 %.1f ms, max %.1f ms\n",
+                        c.getID(), c.getNumUpdates(), c.getNumDropped(),
+                        c.getStats().getPercentile(0.5), c.getStats().getPercentile(0.95),
+                        c.getStats().getMax());
+    }
+  }  // end of printResults()
+
+
+
+  // ------------------------------------------------------------
+
+  private class SimClient implements Runnable
+  /* one simulated CamReader client, connected by the connector pool, and
+     then run every period ns by the update pool; the runs of one client
+     never overlap */
+  {
+    private int id;
+    private long period;    // ns
+    private Random rand;
+    private ScheduledFuture<?> connectFuture = null;
+    private ScheduledFuture<?> future = null;    // for the updates
+    private boolean isCancelled = false;
+
+    private Socket sock = null;
+    private DataOutputStream dos;
+    private long startTime;     // ns, when the first update is due
+    private int updateNum = 0;
+    private volatile boolean isClosed = false;
+
+    private volatile boolean isConnected = false;
+    private volatile double connectTime = -1;    // ms
+    private volatile boolean wasRefused = false;
+    private volatile boolean wasLost = false;
+    private volatile int numUpdates = 0;
+    private volatile int numDropped = 0;
+    private volatile long numBytes = 0;
+    private LatencyStats stats = new LatencyStats();
+
+
+    public SimClient(int id, long period)
+    {
+      this.id = id;
+      this.period = period;
+      rand = new Random(id);
+    }
+
+
+    public synchronized void start(long delay)
+    // connect after delay ns
+    {
+      connectFuture = connector.schedule( new Runnable() {
+        public void run()
+        {  connect();  }
+      }, delay, TimeUnit.NANOSECONDS);
+    }  // end of start()
+
+
+    public void run()
+    {
+      if (isClosed)
+        return;
+
+      long dueTime = startTime + updateNum*period;
+      int num = updateNum++;
+      if ((num > 0) && (System.nanoTime() - dueTime > period)) {
+        numDropped++;     // too far behind; skip this update
+        return;
+      }
+
+      try {
+        int bytes = sendUpdate(num);
+        double latency = (System.nanoTime() - dueTime)/1000000.0;
+        stats.add(latency);
+        intervalStats.add(latency);
+        totalStats.add(latency);
+        numUpdates++;
+        numBytes += bytes;
+      }
+      catch(IOException e)
+      { /* the viewer has closed the connection; stop sending, and leave
+           the monitor to find out how it was closed */
+        stopUpdates();
+      }
+    }  // end of run()
+
+
+    private void connect()
+    // connect to the viewer, and start the updates
+    {
+      long t0 = System.nanoTime();
+      try {
+        sock = new Socket(host, PORT);
+        sock.setTcpNoDelay(true);
+        sock.setSoTimeout(MONITOR_WAIT);    // only used by the monitor's reads
+        dos = new DataOutputStream( new BufferedOutputStream(sock.getOutputStream(), BUF_SIZE));
+      }
+      catch(IOException e)
+      { wasRefused = true;
+        shutdown();
+        return;
+      }
+      connectTime = (System.nanoTime() - t0)/1000000.0;
+
+      synchronized(this) {
+        if (isCancelled) {   // the test finished while connecting
+          shutdown();
+          return;
+        }
+        isConnected = true;
+        startTime = System.nanoTime();
+        future = pool.scheduleAtFixedRate(this, 0, period, TimeUnit.NANOSECONDS);
+      }
+    }  // end of connect()
+
+
+    public void checkClosed()
+    /* called by the monitor thread. Wait up to MONITOR_WAIT ms for input
+       from the viewer. It only sends a REFUSED message, so any input means
+       this client was refused, and the end of the stream or a reset means
+       the viewer has closed the connection; a timeout means it's still open */
+    {
+      if (!isConnected)
+        return;
+      try {
+        closedByViewer( sock.getInputStream().read() != -1);
+      }
+      catch(SocketTimeoutException e) {}    // still open
+      catch(IOException e)
+      {  if (!isClosed)   // not closed by this side
+           closedByViewer(false);
+      }
+    }  // end of checkClosed()
+
+
+    private void closedByViewer(boolean isRefusal)
+    /* the client was refused if the viewer said so, or if it was closed
+       before it sent anything; otherwise a served client was lost */
+    {
+      if (isRefusal || (numUpdates == 0))
+        wasRefused = true;
+      else
+        wasLost = true;
+      shutdown();
+    }  // end of closedByViewer()
+
+
+    private int sendUpdate(int num) throws IOException
+    // send one update, returning the number of bytes written
+    {
+      int frame = num % NUM_FRAMES;
+      boolean isKeyFrame = (num % KEY_FRAME_PERIOD == 0);
+      int bytes = 0;
+      for (int i = 0; i < NUM_PARTS; i++) {
+        if (isKeyFrame || (rand.nextDouble() < changeRate)) {
+          int len = frameLens[frame][i];
+          dos.writeInt(i);
+          dos.writeInt(len);
+          dos.write(frameParts[frame][i], 0, len);
+          bytes += 8 + len;
+        }
+      }
+      dos.writeInt(END_UPDATE);
+      dos.flush();
+      return bytes + 4;
+    }  // end of sendUpdate()
+
+
+    private void shutdown()
+    // stop this client after a failure
+    {
+      isClosed = true;
+      isConnected = false;
+      stopUpdates();
+      try {
+        if (sock != null)
+          sock.close();
+      }
+      catch(IOException e) {}
+    }  // end of shutdown()
+
+
+    private synchronized void stopUpdates()
+    {
+      if (future != null)
+        future.cancel(false);
+    }
+
+
+    public synchronized void cancel()
+    // stop connecting or sending
+    {
+      isCancelled = true;
+      if (connectFuture != null)
+        connectFuture.cancel(false);
+      if (future != null)
+        future.cancel(false);
+    }  // end of cancel()
+
+
+    public void close()
+    // called once the pools have finished; tell the viewer this client is leaving
+    {
+      if (isClosed || (sock == null))
+        return;
+      isClosed = true;
+      isConnected = false;
+      try {
+        dos.writeInt(END_TRANS);
+        dos.flush();
+        sock.close();
+      }
+      catch(IOException e) {}
+    }  // end of close()
+
+
+    public int getID()
+    {  return id;  }
+
+    public boolean isConnected()
+    {  return isConnected;  }
+
+    public double getConnectTime()
+    {  return connectTime;  }
+
+    public boolean wasRefused()
+    {  return wasRefused;  }
+
+    public boolean wasLost()
+    {  return wasLost;  }
+
+    public int getNumUpdates()
+    {  return numUpdates;  }
+
+    public int getNumDropped()
+    {  return numDropped;  }
+
+    public long getNumBytes()
+    {  return numBytes;  }
+
+    public LatencyStats getStats()
+    {  return stats;  }
+
+  }  // end of SimClient class
+
+
+
+  // ------------------------------------------------------------
+
+  private static class LatencyStats
+  /* a histogram of latencies, in BUCKET_SIZE ms buckets up to MAX_LATENCY
+     ms (longer latencies go in the last bucket), shared by several threads */
+  {
+    private static final double BUCKET_SIZE = 0.5;   // ms
+    private static final int MAX_LATENCY = 5000;     // ms
+
+    private int[] counts = new int[(int)(MAX_LATENCY/BUCKET_SIZE) + 1];
+    private int total = 0;
+    private double max = 0;
+
+
+    public synchronized void add(double latency)
+    {
+      int b = (int) Math.max(0, Math.min(counts.length-1, latency/BUCKET_SIZE));
+      counts[b]++;
+      total++;
+      if (latency > max)
+        max = latency;
+    }  // end of add()
+
+
+    public synchronized double getPercentile(double p)
+    // the latency (in ms) which p of the latencies are no more than
+    {
+      if (total == 0)
+        return 0;
+      int target = (int) Math.ceil(p*total);
+      int sum = 0;
+      for (int b = 0; b < counts.length; b++) {
+        sum += counts[b];
+        if (sum >= target)
+          return Math.min(max, (b+1)*BUCKET_SIZE);
+      }
+      return max;
+    }  // end of getPercentile()
+
+
+    public synchronized double getMax()
+    {  return max;  }
+
+  }  // end of LatencyStats class
+
+
+
+  // ------------------------------------------------------------
+
+  public static void main(String[] args)
+  {  new CamLoadGen(args);  }
+
+}  // end of CamLoadGen class
@@ -6,8 +6,11 @@
    and pass those images over to CamsViewer for display. The input
    images are also shown in a panel here.
 
+   The images are sent at no more than a target number of KB/s, if
+   one is given (see RateController).
+
    Usage:
-      > java CamReader <IP address of CamsViewer machine>
+      > java CamReader <IP address of CamsViewer machine> [ <target KB/s> ]
    or > java CamReader
            -- this will assume that CamsViewer is on the same machine
 */
@@ -22,13 +25,13 @@ public class CamReader extends JFrame
   private CamReaderPanel crp;   // displays images and sends thems to CamsViewer
 
 
-  public CamReader(String ipAddr)
+  public CamReader(String ipAddr, int targetKB)
   {
     super( "Local Cam Reader" );
     Container c = getContentPane();
     c.setLayout( new BorderLayout() );   
 
-    crp = new CamReaderPanel(ipAddr); // the sequence of snaps appear here
+    crp = new CamReaderPanel(ipAddr, targetKB); // the sequence of snaps appear here
     c.add( crp, "Center");
 
     addWindowListener( new WindowAdapter() {
@@ -50,10 +53,17 @@ public class CamReader extends JFrame
   {  
     if (args.length == 0) {
       System.out.println("Assumming viewer is on same machine");
-      new CamReader("localHost");  
+      new CamReader("localHost", 0);  
+    }
+    else if (args.length == 1)
+      new CamReader(args[0], 0);  
+    else {
+      try {
+        new CamReader(args[0], Integer.parseInt(args[1]));
+      }
+      catch(NumberFormatException e)
+      {  System.out.println("Usage: java CamReader <IP address of CamsViewer machine> [ <target KB/s> ]");  }
     }
-    else
-      new CamReader(args[0]);  
   }  // end of main()
 
 } // end of CamReader class
@@ -13,16 +13,37 @@
    which glues them back together. The parts have IDs
    going from 0 up to (NUM_SEPS*NUM_SEPS)-1, with the parts created row-by-row.
 
-   To reduce network load, this object compares the brightness of each part
-   with the brightness of the corresponding last part that was sent. If
-   the brightness difference is less than BRIGHT_THRESHOLD then the part's 
+   To reduce network load, a TileChangeDetector compares a sampled version
+   of each part with the same part when it was last sent. If the mean
+   difference is no more than CHANGE_THRESHOLD gray levels then the part's
    data is not sent. In that case, the receiver uses 
    the previously received part to reconstruct the large image at its end.
+   Every KEY_FRAME_PERIOD snaps all the parts are sent anyway.
    At the end of a parts update the special message END_UPDATE is sent.
 
+   The changed parts are encoded as JPEGs in parallel by a TileEncoder,
+   with JPEG_QUALITY quality.
+
+   The parts are written through a buffer, which is flushed at the end
+   of each update. The time spent writing (which grows when the link to
+   CamsViewer can't keep up) and the bytes sent are passed to a
+   RateController, which lowers or raises the JPEG quality, the change
+   threshold, and the capture scale to keep to a target number of KB/s,
+   and to back off when the writes stall.
+
+   Every STATS_PERIOD snaps, the average number of parts and bytes sent
+   per snap, the time spent detecting changes, encoding the parts,
+   and sending them, and the rate controller's settings, are printed.
+
    Another optimization is the scaling of the input image to be the
    same size as PANEL_WIDTH * PANEL_HEIGHT.
 
+   The scaled width and height are rounded down to multiples of NUM_SEPS,
+   since ImageUtils.split() only accepts those, so every rate controller
+   level works for any camera shape (e.g. a 16:9 camera gives 320x180,
+   whose 0.75 and 0.5 levels would be 240x135 and 160x90 without the
+   rounding). The sizes of all the levels are checked before connecting.
+
    If this object sends the ID value END_TRANS to the receiver, it means that this 
    client is about to finish.
 */
@@ -64,7 +85,17 @@ public class CamReaderPanel extends JPanel implements Runnable
 
   private static final int MAX_WRITE_FAILS = 50;
 
-  private static final int BRIGHT_THRESHOLD = 150;   // to judge if two brightnesses are different
+  // change detection settings; see TileChangeDetector
+  private static final int CHANGE_THRESHOLD = 8;    // mean gray level difference (0-255)
+  private static final int SAMPLE_STEP = 2;         // sample every 2nd pixel on every 2nd row
+  private static final int KEY_FRAME_PERIOD = 50;   // snaps between sending all the parts
+
+  private static final float JPEG_QUALITY = 0.75f;   // 0 (low) to 1 (high)
+  private static final int NUM_ENCODERS = 4;   // max threads encoding parts
+
+  private static final int STATS_PERIOD = 100;   // snaps between statistics reports
+
+  private static final int BUF_SIZE = 65536;    // socket output buffer
 
   
   private String ipAddr;    // IP address of CamsViewer
@@ -76,20 +107,30 @@ public class CamReaderPanel extends JPanel implements Runnable
   private volatile boolean isFinished;
 
   private int numWriteFails = 0;
-  private int[] brightness;   // brightness data for each subimage part
+  private TileChangeDetector changeDetector;
+  private TileEncoder tileEncoder;
+  private RateController rateController;
+
+  // statistics since the last report
+  private int numSnaps = 0;
+  private int numPartsSent = 0;
+  private long numBytesSent = 0;
+  private long detectTime = 0, encodeTime = 0, sendTime = 0;   // ns
 
 
-  public CamReaderPanel(String addr)
+  public CamReaderPanel(String addr, int targetKB)
+  // a targetKB of 0 means there's no KB/s target
   {
     ipAddr = addr;
 
     setBackground(Color.white);
     msgFont = new Font("SansSerif", Font.BOLD, 18);
 
-    // initialize brightness data
-    brightness = new int[NUM_SEPS*NUM_SEPS];
-    for (int i=0; i < brightness.length; i++)
-       brightness[i] = 0;
+    changeDetector = new TileChangeDetector(NUM_SEPS, CHANGE_THRESHOLD,
+                                            SAMPLE_STEP, KEY_FRAME_PERIOD);
+    int numThreads = Math.min(NUM_ENCODERS, Runtime.getRuntime().availableProcessors());
+    tileEncoder = new TileEncoder(NUM_SEPS*NUM_SEPS, numThreads, JPEG_QUALITY);
+    rateController = new RateController(targetKB*1024.0, JPEG_QUALITY, CHANGE_THRESHOLD);
 
     new Thread(this).start();   // start updating the panel's image
   } // end of CamReaderPanel()
@@ -103,8 +144,7 @@ public class CamReaderPanel extends JPanel implements Runnable
 
   public void run()
   /* Connect to CamsViewer using a socket, then enter a loop that reads a snap 
-     and sends the parts which have sufficiently changed brightness
-     levels over to CamsViewer
+     and sends the parts which have sufficiently changed over to CamsViewer
   */
   {
     FrameGrabber grabber = initGrabber(CAMERA_ID);
@@ -116,6 +156,8 @@ public class CamReaderPanel extends JPanel implements Runnable
       return;
     double scaleFactor = calcScale(snapIm.width(), snapIm.height());
     // System.out.printf("Scaling factor for input image: %.3f\n", scaleFactor);
+    if (!checkLevelSizes(snapIm.width(), snapIm.height(), scaleFactor))
+      return;
 
     long duration;
     isRunning = true;
@@ -126,15 +168,19 @@ public class CamReaderPanel extends JPanel implements Runnable
       // connect to CamsViewer via a socket
       System.out.println("Connecting to " + ipAddr + ", port: " + PORT + "...");
       Socket sock = new Socket(ipAddr, PORT);
-      DataOutputStream dos = new DataOutputStream(sock.getOutputStream());
+      DataOutputStream dos = new DataOutputStream(
+                        new BufferedOutputStream(sock.getOutputStream(), BUF_SIZE));
 
       while (isRunning) {
 	    long startTime = System.currentTimeMillis();
 
         snapIm = picGrab(grabber, CAMERA_ID); 
-        image = ImageUtils.scale(snapIm.getBufferedImage(), scaleFactor);     // scale the input image
+        Dimension size = scaledSize(snapIm.width(), snapIm.height(),
+                                    scaleFactor*rateController.getScale());
+        image = ImageUtils.scale(snapIm.getBufferedImage(),
+                                 size.width, size.height);     // scale the input image
         imParts = ImageUtils.split(image, NUM_SEPS);   // split into parts
-        updateParts(dos, imParts);                       // send the parts that have changed
+        updateParts(dos, image, imParts);               // send the parts that have changed
 
         repaint();
 
@@ -148,7 +194,7 @@ public class CamReaderPanel extends JPanel implements Runnable
       }
 
       closeGrabber(grabber, CAMERA_ID);
-      sendMessage(dos, END_TRANS, null);   // tell CamsViewer that this client is finishing
+      sendMessage(dos, END_TRANS, null, 0);   // tell CamsViewer that this client is finishing
       sock.close();
     }
     catch(IOException e)
@@ -220,6 +266,34 @@ public class CamReaderPanel extends JPanel implements Runnable
 
 
 
+  private Dimension scaledSize(int imWidth, int imHeight, double scale)
+  /* the size of the scaled image, rounded down to multiples of NUM_SEPS
+     (but at least NUM_SEPS) so it can be split into parts */
+  {
+    int width = ((int)(imWidth*scale) / NUM_SEPS) * NUM_SEPS;
+    int height = ((int)(imHeight*scale) / NUM_SEPS) * NUM_SEPS;
+    return new Dimension( Math.max(NUM_SEPS, width), Math.max(NUM_SEPS, height));
+  }  // end of scaledSize()
+
+
+
+  private boolean checkLevelSizes(int imWidth, int imHeight, double scaleFactor)
+  /* check that the scaled image at every rate controller level can be
+     split by ImageUtils.split(), which exits if it can't */
+  {
+    for (double levelScale : RateController.getScales()) {
+      Dimension size = scaledSize(imWidth, imHeight, scaleFactor*levelScale);
+      if ((size.width % NUM_SEPS != 0) || (size.height % NUM_SEPS != 0)) {
+        System.out.println("A scale of " + levelScale + " gives a " + size.width + "x" +
+                   size.height + " image, which can't be split into " + NUM_SEPS + "x" + NUM_SEPS + " parts");
+        return false;
+      }
+    }
+    return true;
+  }  // end of checkLevelSizes()
+
+
+
   public void paintComponent(Graphics g)
   // draw the image
   { 
@@ -257,27 +331,71 @@ public class CamReaderPanel extends JPanel implements Runnable
 
 
 
-  private void updateParts(DataOutputStream dos, BufferedImage[] imParts)
-  /* send all subimage parts whose brightness levels are different enough from the 
+  private void updateParts(DataOutputStream dos, BufferedImage im, BufferedImage[] imParts)
+  /* send all subimage parts which are different enough from the 
      corresponding parts sent previously. Finish this parts update with an
      END_UPDATE message.
  */
   {
-    byte[] imPartBytes;
+    boolean[] isChanged = changeDetector.findChanged(im);
+    detectTime += changeDetector.getLastTime();
+
+    long startTime = System.nanoTime();
+    tileEncoder.encode(imParts, isChanged);
+    long encodedTime = System.nanoTime();
+    encodeTime += encodedTime - startTime;
+
+    int numBytes = 0;
     for(int i=0; i < imParts.length; i++) {
-      int currBright = ImageUtils.getAvgBrightness(imParts[i]);
-      if (Math.abs(currBright - brightness[i]) >= BRIGHT_THRESHOLD) {   // levels are different
-        imPartBytes = ImageUtils.imToBytes(i, imParts[i]);
-        sendMessage(dos, i, imPartBytes);    // send message containing the image bytes
-        brightness[i] = currBright;        // store this data's brightness level
+      int len = tileEncoder.getLength(i);
+      if (len > 0) {    // the part changed, and was encoded
+        sendMessage(dos, i, tileEncoder.getBytes(i), len);   // send message containing the image bytes
+        numPartsSent++;
+        numBytes += 8 + len;
       }
     }
-    sendMessage(dos, END_UPDATE, null);   // tell server that this parts update has finished
+    sendMessage(dos, END_UPDATE, null, 0);   // tell server that this parts update has finished
+    numBytes += 4;
+    long writeTime = System.nanoTime() - encodedTime;
+    numBytesSent += numBytes;
+    sendTime += writeTime;
+
+    if (rateController.update(numBytes, writeTime)) {   // use the new settings
+      tileEncoder.setQuality( rateController.getQuality());
+      changeDetector.setThreshold( rateController.getThreshold());
+    }
+
+    numSnaps++;
+    if (numSnaps == STATS_PERIOD)
+      reportStats();
   }  // end of updateParts()
 
 
 
-  private void sendMessage(DataOutputStream dos, int idx, byte[] bytes)
+  private void reportStats()
+  {
+    System.out.printf("Per snap: %.1f parts, %.1f KB sent; %.2f ms detecting changes, %.1f ms encoding (%d threads), %.1f ms sending\n",
+                  ((double)numPartsSent)/numSnaps, numBytesSent/(1024.0*numSnaps),
+                  detectTime/(1000000.0*numSnaps), encodeTime/(1000000.0*numSnaps),
+                  tileEncoder.getNumThreads(), sendTime/(1000000.0*numSnaps));
+    System.out.printf("Rate control: level %d (quality %.2f, threshold %d, scale %.2f); %.1f KB/s%s, %.0f%% of the time writing\n",
+                  rateController.getLevel(), tileEncoder.getQuality(),
+                  changeDetector.getThreshold(), rateController.getScale(),
+                  rateController.getRate()/1024,
+                  (rateController.getTargetRate() > 0) ?
+                       String.format(" (target %.0f KB/s)", rateController.getTargetRate()/1024) : "",
+                  100*rateController.getStallFraction());
+    numSnaps = 0;
+    numPartsSent = 0;
+    numBytesSent = 0;
+    detectTime = 0;
+    encodeTime = 0;
+    sendTime = 0;
+  }  // end of reportStats()
+
+
+
+  private void sendMessage(DataOutputStream dos, int idx, byte[] bytes, int len)
   /*  The message format is:
              <part index> <byte array length>  <image data bytes ...>
         or    END_UPDATE
@@ -289,15 +407,17 @@ public class CamReaderPanel extends JPanel implements Runnable
     try {
       if (idx == END_UPDATE) {
         dos.writeInt(idx);
+        dos.flush();    // send the whole update
       }
       else if (idx == END_TRANS) {
         System.out.println("Sending client END message");
         dos.writeInt(idx);
+        dos.flush();
       }
       else {   // send part as a message
         dos.writeInt(idx);
-        dos.writeInt(bytes.length);
-        dos.write(bytes, 0, bytes.length);
+        dos.writeInt(len);
+        dos.write(bytes, 0, len);
       }
     }
     catch(IOException e)
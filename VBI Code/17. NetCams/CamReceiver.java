@@ -2,184 +2,457 @@
 // CamReceiver.java
 // Andrew Davison, September 2012, ad@fivedots.coe.psu.ac.th
 
-/* Each CamReceiver is associated with a CamReader client which sends image
-   parts to it over a Socket link, and a CamViewerPanel for displaying the 
-   combined image.
-   
+/* Each CamReceiver holds the connection state for a CamReader client which
+   sends image parts to it over a non-blocking SocketChannel. It may also
+   have a CamViewerPanel for displaying the combined image.
+
    CamReceiver receives a series of NUM_SEPS*NUM_SEPS subimages (or less)
    and reconstructs them into an image. An image update may send less than
-   NUM_SEPS*NUM_SEPS subimages, in which case the reconstruction uses the 
+   NUM_SEPS*NUM_SEPS subimages, in which case the reconstruction uses the
    old subimage delivered in an earlier update. An update is finished when
    the receiver is sent the END_UPDATE message.
 
-   The END_TRANS message means that this client is about to finish, and the receiver
-   also terminates.
+   The END_TRANS message means that this client is about to finish, and the
+   receiver is closed.
+
+   The CamsViewer server thread calls read() whenever the client's bytes
+   arrive. They are parsed incrementally, so a message can be split across
+   any number of reads: the parser remembers whether it is waiting for a
+   part index, a length, or part data. The latest data for each part is
+   kept, so a receiver which is given a panel later can show the whole image.
+
+   At the end of an update, the changed parts are handed to a decoder
+   thread, which decodes each one straight into its place in this
+   receiver's canvas image, and asks the panel to redraw only those
+   areas. If the decoder hasn't finished with the previous update, the
+   new parts replace any that haven't been decoded yet, so at most one
+   update's worth of parts is waiting for each receiver.
+
+   If CamsViewer is recording, every message is also written to this
+   receiver's StreamRecorder as it is parsed.
+
+   The part data is read into buffers that are reused: a part may have
+   its latest data, data waiting to be decoded, and data being decoded
+   (often the same buffer), and a buffer which is none of these goes back
+   into the receiver's pool of free buffers. So a receiver soon stops
+   allocating memory for the parts.
 */
 
 
 import java.awt.*;
 import java.awt.image.*;
 import java.io.*;
-import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
 
 
 
-public class CamReceiver implements Runnable
-{   
+public class CamReceiver
+{
   private static final int NUM_SEPS = 4;    // separations per row and column
+  private static final int NUM_PARTS = NUM_SEPS*NUM_SEPS;
 
-  private static final int DELAY = 100;  // ms, time waiting for finish
+  private static final int BUF_SIZE = 16384;   // bytes read from the socket at a time
+  private static final int MAX_PART_LEN = 65536;
+       // larger parts are treated as an error, to bound the memory per client
+  private static final int BUF_ROUNDING = 4096;   // part buffer sizes are multiples of this
 
   // special message IDs
   private static final int END_UPDATE = -98;
   private static final int END_TRANS = -99;
 
-  private Socket sock;
+  // parser states
+  private static final int READ_IDX = 0;    // waiting for a part index or END message
+  private static final int READ_LEN = 1;    // waiting for a part's length
+  private static final int READ_DATA = 2;   // reading a part's data
+
+
+  private SocketChannel chan;
   private int recID;    // ID for this receiver
-  private CamViewerPanel camPanel;   // the display panel for this receiver
   private CamsViewer camsViewer;    // the top-level server
-
+  private ExecutorService decoders;
+  private StreamRecorder recorder;    // null if not recording
+
+  // parsing state, only used by the server thread
+  private ByteBuffer readBuf = ByteBuffer.allocate(BUF_SIZE);
+  private int state = READ_IDX;
+  private int partIdx, partLen, partPos;
+  private byte[] partBytes;        // the buffer for the part being read
+  private int changedMask = 0;       // bit i set if part i has changed in this update
   private int numPartsUpdated = 0;
+  private int updateBytes = 0;
+  private long lastReadTime;
+  private int panelIdx = -1;
+
+  // shared with the decoder thread, guarded by this object's lock
+  private CamViewerPanel camPanel = null;   // the display panel for this receiver
+  private boolean isCanvasShown = false;    // has the panel been given the canvas?
+  private int pendingMask = 0;
+  private int pendingNumUpdated = 0;
+  private boolean isDecoding = false;
+
+  // part buffers and their data lengths, guarded by this object's lock
+  private byte[][] latestParts = new byte[NUM_PARTS][];   // latest data for each part
+  private int[] latestLens = new int[NUM_PARTS];
+  private byte[][] pendingParts = new byte[NUM_PARTS][];  // parts waiting to be decoded
+  private int[] pendingLens = new int[NUM_PARTS];
+  private byte[][] decodeParts = new byte[NUM_PARTS][];   // parts being decoded
+  private int[] decodeLens = new int[NUM_PARTS];
+  private ArrayList<byte[]> freeBufs = new ArrayList<byte[]>();
+
+  // only used by the decoder thread
+  private BufferedImage canvas = null;    // the reconstructed image
+  private int partWidth, partHeight;
+
+  private static ThreadLocal<TileDecoder> tileDecoders = new ThreadLocal<TileDecoder>() {
+    protected TileDecoder initialValue()
+    {  return new TileDecoder();  }
+  };
+       // one for each decoder thread
+
+  private Runnable decodeTask = new Runnable() {
+    public void run()
+    {  decodeUpdates();  }
+  };
+
+
+
+  public CamReceiver(SocketChannel chan, int id, CamsViewer cv, ExecutorService decoders,
+                     StreamRecorder recorder)
+  {
+    this.chan = chan;
+    recID = id;
+    camsViewer = cv;
+    this.decoders = decoders;
+    this.recorder = recorder;
+    lastReadTime = System.currentTimeMillis();
+  }  // end of CamReceiver()
 
-  private volatile boolean isRunning;
-  private volatile boolean isFinished;
 
 
-  public CamReceiver(Socket s, int idx, CamViewerPanel cp, CamsViewer cv) 
-  { 
-    sock = s; 
-    recID = idx;
-    camPanel = cp;
-    camsViewer = cv;
+  public boolean read()
+  /* Read the bytes that have arrived, and parse as many messages as they
+     contain. Returns false if the client has finished, or the connection
+     has failed, or the client has sent something that isn't a message.
+  */
+  {
+    int numRead;
     try {
-      sock.setSoTimeout(5000);    // 5 secs
+      numRead = chan.read(readBuf);
     }
-    catch(SocketException e) {}
+    catch(IOException e)
+    { System.out.println("Cam " + recID + " socket read error");
+      return false;
+    }
+    if (numRead == -1) {
+      System.out.println("Cam " + recID + " has disconnected");
+      return false;
+    }
+    lastReadTime = System.currentTimeMillis();
 
-    new Thread(this).start();   // start receiving client data
-  }  // end of CamReceiver()
+    readBuf.flip();
+    boolean isOpen = parse();
+    readBuf.compact();    // keep any bytes of an unfinished int
+    return isOpen;
+  }  // end of read()
 
 
 
-  public void run()
-  /* Update the image parts, join them together as a single image, and
-     pass it to the CamViewerPanel. This is done repeatedly until updateParts()
-     returns false or isRunning is set to false by a call to closeDown().
+  private boolean parse()
+  /*  The message format is:
+             <part index> <byte array length>  <image data bytes ...>
+        or    END_UPDATE
+        or    END_TRANS
+      If the ID is END_UPDATE then it means that this round of updates is finished.
+      If the ID is END_TRANS then it means that this client is closing down.
+
+      Parse messages until the buffer runs out, leaving any partial
+      int in the buffer. Returns false if the connection should be closed.
   */
   {
-    BufferedImage[] imParts = new BufferedImage[NUM_SEPS*NUM_SEPS];
-    try {
-      DataInputStream dis = new DataInputStream(sock.getInputStream());
-      isRunning = true;
-      isFinished = false;
-      while (isRunning) {
-        if (!updateParts(dis, imParts))
-          break;
-
-        BufferedImage im = ImageUtils.join(imParts, NUM_SEPS);   // join parts together
-        if (im == null)
-          System.out.println("No image received");
-        else
-          camPanel.setImage(im, numPartsUpdated);   // only update image if im contains something
+    while (true) {
+      if (state == READ_DATA) {
+        int len = Math.min(readBuf.remaining(), partLen - partPos);
+        readBuf.get(partBytes, partPos, len);
+        partPos += len;
+        if (partPos < partLen)
+          return true;    // wait for the rest of the data
+        storePart();
+        state = READ_IDX;
+        continue;
+      }
+
+      if (readBuf.remaining() < 4)
+        return true;     // wait for a complete int
+      int val = readBuf.getInt();
+
+      if (state == READ_IDX) {
+        if (val == END_UPDATE) {
+          if (recorder != null)
+            recorder.recordMarker(END_UPDATE);
+          endUpdate();     // no more parts to update on this round
+        }
+        else if (val == END_TRANS) {
+          if (recorder != null)
+            recorder.recordMarker(END_TRANS);
+          System.out.println("Remote client " + recID + " has left");
+          return false;     // time to finish reading
+        }
+        else if ((val < 0) || (val >= NUM_PARTS)) {
+          System.out.println("Cam " + recID + " sent an unknown part index: " + val);
+          return false;
+        }
+        else {
+          partIdx = val;
+          state = READ_LEN;
+        }
       }
+      else {    // READ_LEN
+        if (val == 0) {    // no data in this part
+          System.out.println("Part " + partIdx + " has no data");
+          return false;
+        }
+        else if ((val < 0) || (val > MAX_PART_LEN)) {
+          System.out.println("Cam " + recID + " sent a bad length for part " +
+                                                          partIdx + ": " + val);
+          return false;
+        }
+        partLen = val;
+        partBytes = takeBuffer(partLen);
+        partPos = 0;
+        state = READ_DATA;
+      }
+    }
+  }  // end of parse()
 
-      // Close this connection, (not the overall server socket)
-      System.out.println("Cam receiver " + recID + " terminating");
-      camPanel.setImage(null, 0);
-      camsViewer.releaseCam(recID);    
-              // release the CamViewerPanel so it can be used with another receiver
-      sock.close();
-    } 
-    catch(IOException ioe)
-    {System.out.println(ioe); }
 
-    System.out.println("Execution End");
-    isFinished = true;
-  } // end of run()
 
+  private void storePart()
+  {
+    if (recorder != null)
+      recorder.recordPart(partIdx, partBytes, partLen);
+    synchronized(this) {
+      byte[] oldBytes = latestParts[partIdx];
+      latestParts[partIdx] = partBytes;
+      latestLens[partIdx] = partLen;
+      releaseBuffer(partIdx, oldBytes);
+    }
+    partBytes = null;
+    changedMask |= (1 << partIdx);
+    numPartsUpdated++;
+    updateBytes += 8 + partLen;
+  }  // end of storePart()
 
 
-  private boolean updateParts(DataInputStream dis, BufferedImage[] imParts)
-  /* Update the imParts array with updated parts until an END_UPDATE 
-     message is received, then return true. The global numPartsUpdated
-     is also set.
 
-     If readMessage() returns END_TRANS or -1 then the client has disconnected,
-     so return false.
-  */
+  private void endUpdate()
+  /* pass the changed parts to a decoder, if this receiver has a panel, and
+     record the update's statistics */
   {
-    numPartsUpdated = 0;
-    while (numPartsUpdated < imParts.length) {
-      int res = readMessage(dis, imParts);
-      if (res == END_UPDATE)
-        break;
-      else if ((res == END_TRANS) || (res == -1))
-        return false;
-      numPartsUpdated++;
+    boolean isDropped = false;
+    synchronized(this) {
+      if ((camPanel != null) && (changedMask != 0)) {
+        isDropped = (pendingMask != 0);   // the previous update hasn't been shown
+        queueParts(changedMask, numPartsUpdated);
+      }
     }
-    return true;
-  }  // end of updateParts()
+    camsViewer.recordUpdate(updateBytes + 4, isDropped);
+    changedMask = 0;
+    numPartsUpdated = 0;
+    updateBytes = 0;
+  }  // end of endUpdate()
 
 
 
-  private int readMessage(DataInputStream dis, BufferedImage[] imParts)
-  /*  The message format is:
-             <part index> <byte array length>  <image data bytes ...>
-        or    END_UPDATE
-        or    END_TRANS
-      If the ID is END_UPDATE then it means that this round of updates is finished.
-      If the ID is END_TRANS then it means that this client is closing down.
+  private void queueParts(int mask, int numUpdated)
+  // called with this object's lock held
+  {
+    for (int i=0; i < NUM_PARTS; i++)
+      if ((mask & (1 << i)) != 0) {
+        byte[] oldBytes = pendingParts[i];   // replaced before it was decoded
+        pendingParts[i] = latestParts[i];
+        pendingLens[i] = latestLens[i];
+        releaseBuffer(i, oldBytes);
+      }
+    pendingMask |= mask;
+    pendingNumUpdated = numUpdated;
+    if (!isDecoding) {
+      isDecoding = true;
+      decoders.execute(decodeTask);
+    }
+  }  // end of queueParts()
+
+
 
-      This method returns the part's index of an updated part, or END_UPDATE,
-      END_TRANS, or -1 for an error (such as a socket read error).
+  private void decodeUpdates()
+  /* Run by a decoder thread: decode the pending parts into the canvas,
+     and ask the CamViewerPanel to redraw them. Repeat until no more parts
+     are pending, so only one decoder at a time works on this receiver.
   */
   {
-    try {
-      int idx = dis.readInt();
-      if (idx == END_UPDATE)
-        return END_UPDATE;     // no more parts to update on this round
-      else if (idx == END_TRANS) {
-        System.out.println("Remote client has left");
-        return END_TRANS;     // time to finish reading
+    TileDecoder decoder = tileDecoders.get();
+    while (true) {
+      int mask, numUpdated;
+      synchronized(this) {
+        if ((pendingMask == 0) || (camPanel == null)) {
+          isDecoding = false;
+          return;
+        }
+        mask = pendingMask;
+        numUpdated = pendingNumUpdated;
+        for (int i=0; i < NUM_PARTS; i++) {
+          decodeParts[i] = pendingParts[i];    // the decoder now uses these buffers
+          decodeLens[i] = pendingLens[i];
+          pendingParts[i] = null;
+        }
+        pendingMask = 0;
       }
 
-      int len = dis.readInt();
-      if (len == 0) {    // no data in this part
-        System.out.println("Part " + idx + " has no data");
-        return -1;   // no data read
+      int drawnMask = 0;
+      for (int i=0; i < NUM_PARTS; i++)
+        if (((mask & (1 << i)) != 0) && drawPart(decoder, i))
+          drawnMask |= (1 << i);
+
+      synchronized(this) {
+        for (int i=0; i < NUM_PARTS; i++) {
+          byte[] bytes = decodeParts[i];
+          decodeParts[i] = null;
+          releaseBuffer(i, bytes);
+        }
+        if ((camPanel != null) && (drawnMask != 0))   // not closed while decoding
+          showParts(drawnMask, numUpdated);
       }
-      else {    // read in the image data
-        byte[] imBytes = new byte[len];
-        dis.readFully(imBytes);
-        imParts[idx] = ImageUtils.bytesToIm(idx, imBytes);
-        return idx;   // data read for idx part
+    }
+  }  // end of decodeUpdates()
+
+
+
+  private boolean drawPart(TileDecoder decoder, int i)
+  /* decode part i straight into its place in the canvas, which is made
+     when the size of the parts is first known */
+  {
+    if (!decoder.setInput(decodeParts[i], decodeLens[i])) {
+      System.out.println("Conversion of part " + i + " to an image failed");
+      return false;
+    }
+    int w = decoder.getWidth();
+    int h = decoder.getHeight();
+    if ((canvas == null) || (w != partWidth) || (h != partHeight)) {
+      if (canvas != null)
+        System.out.println("Cam " + recID + " has changed its part size");
+      partWidth = w;
+      partHeight = h;
+      canvas = new BufferedImage(w*NUM_SEPS, h*NUM_SEPS, BufferedImage.TYPE_3BYTE_BGR);
+            // the usual type of a decoded JPEG, so parts can be decoded into it
+      synchronized(this) {
+        isCanvasShown = false;
       }
     }
-    catch (InterruptedIOException iioe)
-    { System.out.println("Remote client connection timed out during read");
-      return -1;   // time to finish
+    if (!decoder.decodeInto(canvas, (i%NUM_SEPS)*w, (i/NUM_SEPS)*h)) {
+      System.out.println("Conversion of part " + i + " to an image failed");
+      return false;
     }
-    catch(IOException e)
-    { System.out.println("Client socket read error");  
-      return -1;   // time to finish
+    return true;
+  }  // end of drawPart()
+
+
+
+  private void showParts(int mask, int numUpdated)
+  /* show the canvas in the panel the first time, and after that only redraw
+     the changed parts; called with this object's lock held */
+  {
+    if (!isCanvasShown) {
+      camPanel.setImage(canvas, numUpdated);
+      isCanvasShown = true;
+    }
+    else {
+      for (int i=0; i < NUM_PARTS; i++)
+        if ((mask & (1 << i)) != 0)
+          camPanel.repaintArea(numUpdated, (i%NUM_SEPS)*partWidth, (i/NUM_SEPS)*partHeight,
+                                           partWidth, partHeight);
+    }
+  }  // end of showParts()
+
+
+
+  // ------------------------ part buffers --------------------------
+
+
+  private synchronized byte[] takeBuffer(int len)
+  /* return a free buffer that can hold len bytes. If there isn't one then
+     make one, and drop a free buffer (which is too small), so the number
+     of buffers stays the same. */
+  {
+    for (int i = freeBufs.size()-1; i >= 0; i--)
+      if (freeBufs.get(i).length >= len)
+        return freeBufs.remove(i);
+
+    if (!freeBufs.isEmpty())
+      freeBufs.remove(freeBufs.size()-1);
+    return new byte[ ((len + BUF_ROUNDING - 1)/BUF_ROUNDING) * BUF_ROUNDING ];
+  }  // end of takeBuffer()
+
+
+
+  private void releaseBuffer(int i, byte[] bytes)
+  /* bytes is no longer used for one purpose by part i; if it isn't
+     used for any other, then it is free. Called with this object's lock held. */
+  {
+    if ((bytes != null) && (bytes != latestParts[i]) &&
+        (bytes != pendingParts[i]) && (bytes != decodeParts[i]))
+      freeBufs.add(bytes);
+  }  // end of releaseBuffer()
+
+
+
+  public void setPanel(int idx, CamViewerPanel cp)
+  /* give this receiver a panel, and show the latest version
+     of every part received so far */
+  {
+    panelIdx = idx;
+    synchronized(this) {
+      camPanel = cp;
+      isCanvasShown = false;
+      int mask = 0;
+      for (int i=0; i < NUM_PARTS; i++)
+        if (latestParts[i] != null)
+          mask |= (1 << i);
+      if (mask != 0)
+        queueParts(mask, Integer.bitCount(mask));
     }
-  }  // end of readMessage()
+  }  // end of setPanel()
 
 
 
-  public void closeDown()
-  /* Terminate run() and wait for it to finish.
-     This stops the application from exiting until everything
-     has finished. */
-  { 
-    isRunning = false;
-    while (!isFinished) {
-      try {
-        Thread.sleep(DELAY);
-      } 
-      catch (Exception ex) {}
+  public void close()
+  // close this connection, (not the overall server socket)
+  {
+    System.out.println("Cam receiver " + recID + " terminating");
+    synchronized(this) {
+      if (camPanel != null)
+        camPanel.setImage(null, 0);
+      camPanel = null;    // stops the decoder from using the panel
+      pendingMask = 0;
+    }
+    try {
+      chan.close();
     }
-  } // end of closeDown()
+    catch(IOException e) {}
+    if (recorder != null)
+      recorder.close();
+  }  // end of close()
+
+
+
+  public int getID()
+  {  return recID;  }
+
+  public int getPanelIdx()
+  {  return panelIdx;  }
 
+  public long getLastReadTime()
+  {  return lastReadTime;  }
 
 } // end of CamReceiver class
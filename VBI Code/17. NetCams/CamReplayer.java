@@ -0,0 +1,353 @@
+
+// CamReplayer.java
+
+/* Sends recordings made by CamsViewer (see StreamRecorder) back to a
+   CamsViewer, so the viewer's throughput can be measured with the
+   same input every time, without cameras or CamReader clients.
+
+   Each recording is replayed over its own connection, by its own thread.
+   The messages can be sent at their original speed, faster or slower
+   (e.g. a speed of 4 is four times faster), or as fast as possible
+   (a speed of 0). A replay can start part way through a recording,
+   at the first update after a given number of seconds, which is found
+   with the recording's index. If the recording has no index (because it
+   wasn't closed properly), the index is rebuilt by reading the records.
+
+   When a replay has finished, its number of updates, bytes, elapsed time,
+   and how far it fell behind its timetable (because the viewer wasn't
+   reading fast enough) are printed, along with totals for all the replays.
+
+   Usage:
+      > java CamReplayer [-h <host>] [-s <speed>] [-t <start secs>] [-n <loops>]
+                         <recording file> ...
+        e.g.
+      > java CamReplayer -s 0 -n 5 recs/cam0.rec recs/cam1.rec
+*/
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+
+
+public class CamReplayer implements Runnable
+{
+  private static final int PORT = 4444;   // port where CamsViewer is listening
+
+  // special message IDs
+  private static final int END_UPDATE = -98;
+  private static final int END_TRANS = -99;
+
+  private static final int BUF_SIZE = 65536;
+
+  private String fnm;
+  private String host;
+  private double speed;       // 0 means as fast as possible
+  private double startSecs;
+  private int numLoops;
+
+  private long[] indexTimes;       // ns
+  private long[] indexPositions;
+  private int numEntries;
+  private long recordsEnd;         // file position after the last record
+
+  // results
+  private int numUpdates = 0;
+  private long numBytes = 0;
+  private double elapsedSecs = 0;
+  private double maxLag = 0;       // ms behind the timetable
+  private boolean isOK = false;
+
+
+
+  public CamReplayer(String fnm, String host, double speed, double startSecs, int numLoops)
+  {
+    this.fnm = fnm;
+    this.host = host;
+    this.speed = speed;
+    this.startSecs = startSecs;
+    this.numLoops = numLoops;
+  }  // end of CamReplayer()
+
+
+
+  public void run()
+  {
+    try {
+      RandomAccessFile raf = new RandomAccessFile(fnm, "r");
+      if (raf.readInt() != StreamRecorder.MAGIC) {
+        System.out.println(fnm + " is not a recording");
+        raf.close();
+        return;
+      }
+      if (raf.readInt() != StreamRecorder.VERSION) {
+        System.out.println(fnm + " is a recording with an unknown version");
+        raf.close();
+        return;
+      }
+      if (!loadIndex(raf))
+        buildIndex(raf);
+      raf.close();
+      if (numEntries == 0) {
+        System.out.println(fnm + " has no updates");
+        return;
+      }
+
+      int startEntry = findEntry((long)(startSecs*1000000000L));
+      replay(startEntry);
+      isOK = true;
+    }
+    catch(IOException e)
+    {  System.out.println("Problem replaying " + fnm + ": " + e);  }
+  }  // end of run()
+
+
+
+  private boolean loadIndex(RandomAccessFile raf) throws IOException
+  // read the index using the footer; returns false if there isn't one
+  {
+    long len = raf.length();
+    if (len < StreamRecorder.HEADER_SIZE + StreamRecorder.FOOTER_SIZE)
+      return false;
+    raf.seek(len - StreamRecorder.FOOTER_SIZE);
+    long indexPos = raf.readLong();
+    if (raf.readInt() != StreamRecorder.INDEX_MAGIC)
+      return false;
+
+    raf.seek(indexPos);
+    DataInputStream dis = new DataInputStream( new BufferedInputStream(
+                                        new FileInputStream(raf.getFD()), BUF_SIZE));
+    numEntries = dis.readInt();
+    indexTimes = new long[numEntries];
+    indexPositions = new long[numEntries];
+    for (int i = 0; i < numEntries; i++) {
+      indexTimes[i] = dis.readLong();
+      indexPositions[i] = dis.readLong();
+    }
+    recordsEnd = indexPos;
+    return true;
+  }  // end of loadIndex()
+
+
+
+  private void buildIndex(RandomAccessFile raf) throws IOException
+  /* read through the records, noting where each update starts; stop at
+     the end of the file, or at a record that was only partly written */
+  {
+    System.out.println(fnm + " has no index; rebuilding it");
+    ArrayList<long[]> entries = new ArrayList<long[]>();
+    raf.seek(StreamRecorder.HEADER_SIZE);
+    DataInputStream dis = new DataInputStream( new BufferedInputStream(
+                                        new FileInputStream(raf.getFD()), BUF_SIZE));
+    long pos = StreamRecorder.HEADER_SIZE;
+    long fileLen = raf.length();
+    boolean isUpdateStart = true;
+    recordsEnd = pos;
+    try {
+      while (pos + 12 <= fileLen) {
+        long time = dis.readLong();
+        int idx = dis.readInt();
+        long recLen = 12;
+        if (idx >= 0) {
+          int len = dis.readInt();
+          if ((len <= 0) || (pos + 16 + len > fileLen))
+            break;    // a partly written record
+          dis.skipBytes(len);
+          recLen = 16 + len;
+        }
+        if (isUpdateStart && (idx != END_TRANS))
+          entries.add( new long[] {time, pos});
+        isUpdateStart = (idx == END_UPDATE);
+        pos += recLen;
+        recordsEnd = pos;
+      }
+    }
+    catch(EOFException e) {}
+
+    numEntries = entries.size();
+    indexTimes = new long[numEntries];
+    indexPositions = new long[numEntries];
+    for (int i = 0; i < numEntries; i++) {
+      indexTimes[i] = entries.get(i)[0];
+      indexPositions[i] = entries.get(i)[1];
+    }
+  }  // end of buildIndex()
+
+
+
+  private int findEntry(long time)
+  // binary search for the first update starting at or after time
+  {
+    int lo = 0;
+    int hi = numEntries;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (indexTimes[mid] < time)
+        lo = mid + 1;
+      else
+        hi = mid;
+    }
+    return Math.min(lo, numEntries-1);
+  }  // end of findEntry()
+
+
+
+  private void replay(int startEntry) throws IOException
+  /* send the records from the start entry to the end, numLoops times,
+     keeping to the timetable given by their times and the speed */
+  {
+    Socket sock = new Socket(host, PORT);
+    sock.setTcpNoDelay(true);
+    DataOutputStream dos = new DataOutputStream( new BufferedOutputStream(
+                                           sock.getOutputStream(), BUF_SIZE));
+    byte[] data = new byte[BUF_SIZE];
+    long replayStart = System.nanoTime();
+
+    for (int loop = 0; loop < numLoops; loop++) {
+      RandomAccessFile raf = new RandomAccessFile(fnm, "r");
+      raf.seek(indexPositions[startEntry]);
+      DataInputStream dis = new DataInputStream( new BufferedInputStream(
+                                        new FileInputStream(raf.getFD()), BUF_SIZE));
+      long pos = indexPositions[startEntry];
+      long firstTime = indexTimes[startEntry];
+      long loopStart = System.nanoTime();
+
+      while (pos < recordsEnd) {
+        long time = dis.readLong() - firstTime;
+        int idx = dis.readInt();
+        if (speed > 0)
+          waitUntil(loopStart + (long)(time/speed), dos);
+
+        if (idx == END_TRANS) {     // only sent at the end of the last loop
+          pos = recordsEnd;
+          break;
+        }
+        dos.writeInt(idx);
+        pos += 12;
+        numBytes += 4;
+        if (idx == END_UPDATE) {
+          dos.flush();     // the client sends each update as it's made
+          numUpdates++;
+        }
+        else {
+          int len = dis.readInt();
+          if (len > data.length)
+            data = new byte[len];
+          dis.readFully(data, 0, len);
+          dos.writeInt(len);
+          dos.write(data, 0, len);
+          pos += 4 + len;
+          numBytes += 4 + len;
+        }
+      }
+      raf.close();
+    }
+
+    dos.writeInt(END_TRANS);   // tell CamsViewer that this client is finishing
+    dos.flush();
+    elapsedSecs = (System.nanoTime() - replayStart)/1000000000.0;
+    sock.close();
+  }  // end of replay()
+
+
+
+  private void waitUntil(long targetTime, DataOutputStream dos) throws IOException
+  // wait until the target time (in ns), recording how late we are already
+  {
+    long wait = targetTime - System.nanoTime();
+    if (wait <= 0) {
+      double lag = -wait/1000000.0;
+      if (lag > maxLag)
+        maxLag = lag;
+      return;
+    }
+    dos.flush();
+    try {
+      Thread.sleep(wait/1000000, (int)(wait%1000000));
+    }
+    catch(InterruptedException e) {}
+  }  // end of waitUntil()
+
+
+
+  public void printResults()
+  {
+    if (!isOK)
+      return;
+    System.out.printf("%s: %d updates, %.2f MB in %.2f s (%.1f updates/s, %.2f MB/s); max lag %.1f ms\n",
+                      fnm, numUpdates, numBytes/(1024.0*1024), elapsedSecs,
+                      numUpdates/elapsedSecs, numBytes/(1024.0*1024*elapsedSecs), maxLag);
+  }  // end of printResults()
+
+
+  public int getNumUpdates()
+  {  return numUpdates;  }
+
+  public long getNumBytes()
+  {  return numBytes;  }
+
+
+
+  // ------------------------------------------------------------
+
+  public static void main(String[] args)
+  {
+    String host = "localhost";
+    double speed = 1;
+    double startSecs = 0;
+    int numLoops = 1;
+    ArrayList<String> fnms = new ArrayList<String>();
+
+    try {
+      for (int i = 0; i < args.length; i++) {
+        if (args[i].equals("-h"))
+          host = args[++i];
+        else if (args[i].equals("-s"))
+          speed = Double.parseDouble(args[++i]);
+        else if (args[i].equals("-t"))
+          startSecs = Double.parseDouble(args[++i]);
+        else if (args[i].equals("-n"))
+          numLoops = Integer.parseInt(args[++i]);
+        else
+          fnms.add(args[i]);
+      }
+    }
+    catch(Exception e)
+    {  fnms.clear();  }
+
+    if (fnms.isEmpty()) {
+      System.out.println("Usage: java CamReplayer [-h <host>] [-s <speed>] [-t <start secs>] [-n <loops>]");
+      System.out.println("                        <recording file> ...");
+      System.out.println("   speed 1 is the original speed, 2 is twice as fast, 0 is as fast as possible");
+      return;
+    }
+
+    System.out.println("Replaying " + fnms.size() + " recordings to " + host + ":" + PORT +
+                       ((speed > 0) ? " at speed " + speed : " as fast as possible"));
+    CamReplayer[] replayers = new CamReplayer[fnms.size()];
+    Thread[] threads = new Thread[fnms.size()];
+    long startTime = System.nanoTime();
+    for (int i = 0; i < replayers.length; i++) {
+      replayers[i] = new CamReplayer(fnms.get(i), host, speed, startSecs, numLoops);
+      threads[i] = new Thread(replayers[i], "Replay " + fnms.get(i));
+      threads[i].start();
+    }
+
+    int totalUpdates = 0;
+    long totalBytes = 0;
+    for (int i = 0; i < replayers.length; i++) {
+      try {
+        threads[i].join();
+      }
+      catch(InterruptedException e) {}
+      replayers[i].printResults();
+      totalUpdates += replayers[i].getNumUpdates();
+      totalBytes += replayers[i].getNumBytes();
+    }
+    double secs = (System.nanoTime() - startTime)/1000000000.0;
+    System.out.printf("Total: %d updates, %.2f MB in %.2f s (%.1f updates/s, %.2f MB/s)\n",
+                      totalUpdates, totalBytes/(1024.0*1024), secs,
+                      totalUpdates/secs, totalBytes/(1024.0*1024*secs));
+  }  // end of main()
+
+}  // end of CamReplayer class
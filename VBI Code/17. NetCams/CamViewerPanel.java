@@ -15,6 +15,7 @@ class CamViewerPanel extends JPanel
 {
   private static final int PANEL_WIDTH = 320;
   private static final int PANEL_HEIGHT = 240;
+  private static final int MSG_HEIGHT = 30;   // strip at the bottom holding the message
 
 
   private BufferedImage image = null;
@@ -36,16 +37,35 @@ class CamViewerPanel extends JPanel
 
   public void setImage(BufferedImage im, int num)
   // called from CamReceiver object that's currently using this panel
-  {  image = im;  
+  {  image = im;
      numParts = num;
      repaint();
   }
 
 
+  public void repaintArea(int num, int x, int y, int w, int h)
+  /* called from a CamReceiver which has changed the (x,y,w,h) area of
+     the image in place; only that area and the message are redrawn */
+  {
+    numParts = num;
+    BufferedImage im = image;
+    if (im == null)
+      return;
+    int xOffset = (PANEL_WIDTH - im.getWidth())/2;
+    int yOffset = (PANEL_HEIGHT - im.getHeight())/2;
+    repaint(xOffset + x, yOffset + y, w, h);
+    repaint(0, PANEL_HEIGHT - MSG_HEIGHT, PANEL_WIDTH, MSG_HEIGHT);
+  }  // end of repaintArea()
+
+
   public void paintComponent(Graphics g)
   { 
     g.setFont(msgFont);
     if (image != null) {    // center the image
+      if ((image.getWidth() < PANEL_WIDTH) || (image.getHeight() < PANEL_HEIGHT)) {
+        g.setColor(Color.WHITE);    // a scaled-down image doesn't cover the panel
+        g.fillRect(0, 0, PANEL_WIDTH, PANEL_HEIGHT);
+      }
       int x = (int)(PANEL_WIDTH - image.getWidth())/2;
       int y = (int)(PANEL_HEIGHT - image.getHeight())/2;
       g.drawImage(image, x, y, null);   // draw the snap
@@ -1,16 +1,38 @@
-
 // CamsViewer.java
 // Andrew Davison, September 2012, ad@fivedots.coe.psu.ac.th
 
-/* A threaded server which spawns a CamReceiver thread to deal with 
-   each CamReader client that connects to it. Each receiver is paired 
-   with a CamViewerPanel
-   which displays the latest image received from the client.
-
-   At one time there can be at most NUM_PANELS receivers and panels. 
-   If a client terminates a connection, then the receiver terminates, and
-   its panel can be used for another client when it connects. The new client
-   is matched to a newly invoked CamReceiver, but the old CamPanel is reused.
+/* A server which accepts connections from CamReader clients, and creates
+   a CamReceiver for each one. All the clients are served by a single
+   thread using a non-blocking Selector, so the server can handle hundreds
+   of clients without needing a thread (and its stack) for each one.
+
+   Each CamReceiver holds the state of its client's connection, and parses
+   the client's messages as their bytes arrive. Receivers which have a
+   CamViewerPanel pass their finished updates to a small pool of decoder
+   threads, which rebuild the image and display it in the panel.
+
+   There are numPanels panels (NUM_PANELS by default), and at most
+   maxClients clients (MAX_CLIENTS by default). Clients without a panel
+   are still read, so they don't block, and wait in a queue for one.
+   If a client terminates a connection, or sends nothing for CLIENT_TIMEOUT
+   ms, then its receiver is closed and its panel is given to the client
+   that has been waiting longest.
+
+   If a connection can't be accepted (e.g. because the process has run out
+   of file descriptors), the problem is reported, and accepting is paused
+   for ACCEPT_PAUSE ms while the connected clients are still served.
+
+   A client over the maxClients limit is sent a REFUSED message, and its
+   connection is closed. This is the only thing the viewer ever sends, so
+   a client can tell that it was refused even if it has already sent some
+   data (a CamReader client ignores it).
+
+   With the -r option, each client's messages are recorded in
+   <dir>/cam<ID>.rec by a StreamRecorder, so they can be sent again
+   later by CamReplayer.
+
+   Usage:
+      > java CamsViewer [ -r <dir> ] [ <no. of panels> [ <max no. of clients> ] ]
 */
 
 
@@ -20,53 +42,96 @@ import javax.swing.*;
 
 import java.io.*;
 import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 
 
 public class CamsViewer extends JFrame implements Runnable
 {
-  private static final int PORT = 4444; 
+  private static final int PORT = 4444;
   private static final int NUM_PANELS = 3;
+  private static final int MAX_CLIENTS = 500;
+  private static final int PANELS_PER_ROW = 4;
+  private static final int BACKLOG = 256;    // connections waiting to be accepted
+
+  private static final int REFUSED = -97;   // message sent to a refused client
+
+  private static final int SELECT_TIMEOUT = 1000;   // ms
+  private static final int CLIENT_TIMEOUT = 5000;   // ms without data before a client is closed
+  private static final int STATS_PERIOD = 10000;    // ms between statistics reports
+  private static final int ACCEPT_PAUSE = 1000;     // ms without accepting after an accept fails
+
+  private static final int DELAY = 100;  // ms, time waiting for finish
 
 
-  private CamReceiver[] receivers;  // receives image parts from a CamReader client
+  private int numPanels, maxClients;
+  private String recDir;    // where the clients are recorded, or null
 
   private CamViewerPanel[] camsPan;    /* each one displays the reconstituted image
-                                       for a matching CamReceiver */
+                                          for a matching CamReceiver */
+  private CamReceiver[] panelOwners;   // the receiver using each panel, or null
 
-  private boolean[] usedCams;       // which cam panels are currently in use?
+  private ArrayList<CamReceiver> receivers = new ArrayList<CamReceiver>();
+                                       // all the connected receivers
+  private LinkedList<CamReceiver> waitingCams = new LinkedList<CamReceiver>();
+                                       // receivers without a panel, oldest first
+  private int nextID = 0;
 
+  private Selector selector;
+  private ExecutorService decoders;    // decode and join the image parts
 
+  private volatile boolean isRunning;
+  private volatile boolean isFinished = false;
 
-  public CamsViewer()
+  // statistics, only used by the server thread
+  private long statsStartTime;
+  private long numBytes = 0;
+  private int numUpdates = 0, numDropped = 0;
+  private int numAccepted = 0, numRefused = 0, numTimedOut = 0, numAcceptFails = 0;
+  private int prevNumEvents = 0;    // accepted, refused, ... at the last report
+
+
+
+  public CamsViewer(int numPanels, int maxClients, String recDir)
   {
     super("Remote Cams Viewer");
-    Container c = getContentPane();
-    c.setLayout( new BoxLayout(c, BoxLayout.X_AXIS));   
-          // the panels are laid out across the screen
+    this.numPanels = numPanels;
+    this.maxClients = maxClients;
+    this.recDir = recDir;
 
-    camsPan = new CamViewerPanel[NUM_PANELS];
-    usedCams = new boolean[NUM_PANELS];
-    receivers = new CamReceiver[NUM_PANELS];
+    Container c = getContentPane();
+    c.setLayout( new GridLayout(0, Math.min(numPanels, PANELS_PER_ROW)));
+          // the panels are laid out across the screen, in rows
 
-    for (int i=0; i < NUM_PANELS; i++) {
+    camsPan = new CamViewerPanel[numPanels];
+    panelOwners = new CamReceiver[numPanels];
+    for (int i=0; i < numPanels; i++) {
       camsPan[i] = new CamViewerPanel(); // the reconstructed images appear in these panels
-      usedCams[i] = false;    // all the panels are available (i.e. not in use) at the start
+      panelOwners[i] = null;     // all the panels are available (i.e. not in use) at the start
       c.add( camsPan[i]);
     }
 
+    decoders = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                                            new ThreadFactory() {
+      public Thread newThread(Runnable r)
+      { Thread t = new Thread(r, "Cam decoder");
+        t.setDaemon(true);     // don't stop the application from exiting
+        return t;
+      }
+    });
+
     addWindowListener( new WindowAdapter() {
       public void windowClosing(WindowEvent e)
-      { for(CamReceiver cr : receivers)
-          if (cr != null)
-            cr.closeDown();    // stop receiving images from CamReader clients
+      { closeDown();    // stop receiving images from CamReader clients
         System.exit(0);
       }
     });
 
     setResizable(false);
-    pack();  
+    pack();
 
     // position this window at the bottom middle of the screen
     Dimension scrSize = Toolkit.getDefaultToolkit().getScreenSize();
@@ -76,45 +141,88 @@ public class CamsViewer extends JFrame implements Runnable
 
     setVisible(true);
 
-    new Thread(this).start();   // start waiting for client connections
+    new Thread(this, "Cams server").start();   // start waiting for client connections
   } // end of CamsViewer()
 
 
 
   public void run()
-  /* wait for a client to contact the server, then pass it onto a CamReceiver
-     object if there's a free cam Panel available for displaying the received
-     images */
+  /* Accept clients, and read from them as their data arrives, all in
+     this thread. Every second, close the clients that have gone quiet. */
   {
-    Socket sock;
     try {
-      ServerSocket servsock = new ServerSocket(PORT);
+      selector = Selector.open();
+      ServerSocketChannel serverChan = ServerSocketChannel.open();
+      serverChan.socket().setReuseAddress(true);
+      serverChan.socket().bind( new InetSocketAddress(PORT), BACKLOG);
+      serverChan.configureBlocking(false);
+      SelectionKey serverKey = serverChan.register(selector, SelectionKey.OP_ACCEPT);
+      SocketChannel.open().close();
+          /* the JDK needs a spare file descriptor the first time it closes a
+             channel, so do that now, rather than when the descriptors run out */
       printHostInfo();
-      while (true) {
-        System.out.println("Waiting for a cam connection...");
-	    sock = servsock.accept();
-      
-        // if there's a free cam panel then pass it to a new receiver for the client
-        int camIdx = grabCam();
-        if (camIdx != -1) {
-          receivers[camIdx] = new CamReceiver(sock, camIdx, camsPan[camIdx], this);
-          System.out.println("--assigned new cam to panel " + camIdx);
+      System.out.println("Waiting for cam connections...");
+
+      long lastCheckTime = System.currentTimeMillis();
+      long resumeAcceptTime = -1;   // when to accept again after a failure; -1 when accepting
+      statsStartTime = lastCheckTime;
+      isRunning = true;
+      while (isRunning) {
+        selector.select(SELECT_TIMEOUT);
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+          SelectionKey key = it.next();
+          it.remove();
+          if (!key.isValid())
+            continue;
+          if (key.isAcceptable()) {
+            try {
+              acceptCam(serverChan);
+            }
+            catch (IOException e)
+            { System.out.println("Could not accept a cam: " + e +
+                                 "; pausing for " + ACCEPT_PAUSE + " ms");
+              numAcceptFails++;
+              serverKey.interestOps(0);   // stop accepting for a while
+              resumeAcceptTime = System.currentTimeMillis() + ACCEPT_PAUSE;
+            }
+          }
+          else if (key.isReadable()) {
+            CamReceiver cr = (CamReceiver) key.attachment();
+            if (!cr.read())     // the client has finished, or failed
+              closeCam(cr);
+          }
+        }
+
+        long currTime = System.currentTimeMillis();
+        if ((resumeAcceptTime != -1) && (currTime >= resumeAcceptTime)) {
+          serverKey.interestOps(SelectionKey.OP_ACCEPT);
+          resumeAcceptTime = -1;
         }
-        else {
-          System.out.println("Not enough panels to accept a new cam");
-          sock.close();
+        if (currTime - lastCheckTime >= SELECT_TIMEOUT) {
+          closeIdleCams(currTime);
+          lastCheckTime = currTime;
         }
+        if (currTime - statsStartTime >= STATS_PERIOD)
+          reportStats(currTime);
       }
+
+      // close all the connections, and the server
+      while (!receivers.isEmpty())
+        closeCam(receivers.get(receivers.size()-1));
+      serverChan.close();
+      selector.close();
     }
     catch (IOException e)
-    {  System.out.println("CamsViewer network problem");  
+    {  System.out.println("CamsViewer network problem: " + e);
        System.exit(0);
     }
+    isFinished = true;
   } // of run()
 
 
 
-  private void printHostInfo() 
+  private void printHostInfo()
   /* print the server's IP address and port, which is useful when invoking
      CamReader clients on other machines */
   {
@@ -122,41 +230,227 @@ public class CamsViewer extends JFrame implements Runnable
       InetAddress localAddr = InetAddress.getLocalHost();
       System.out.println("Viewer's IP address: " + localAddr.getHostAddress());
       System.out.println("Port: " + PORT);
-    } 
-    catch (UnknownHostException e) 
+    }
+    catch (UnknownHostException e)
     {  System.out.println("Could not lookup host information"); }
   }  // end of printHostInfo()
 
 
 
-  public synchronized int grabCam()
-  // return the index of a free CamPanel, or -1
+  private void acceptCam(ServerSocketChannel serverChan) throws IOException
+  /* accept a new client, and give it a receiver. The receiver gets a
+     panel if there's a free one, otherwise it waits for one */
   {
-    for (int i=0; i < NUM_PANELS; i++)
-      if (!usedCams[i]) {
-        usedCams[i] = true;
-        return i;
+    SocketChannel chan = serverChan.accept();
+    if (chan == null)   // the client has gone already
+      return;
+    try {
+      addCam(chan);
+    }
+    catch (IOException e)
+    {  chan.close();    // don't leak the connection
+       throw e;
+    }
+  }  // end of acceptCam()
+
+
+
+  private void addCam(SocketChannel chan) throws IOException
+  // create a receiver for the new client, unless there are too many clients
+  {
+    if (receivers.size() >= maxClients) {
+      System.out.println("Already have " + maxClients + " cams; refusing a new one");
+      numRefused++;
+      sendRefusal(chan);
+      chan.close();
+      return;
+    }
+
+    chan.configureBlocking(false);
+    chan.socket().setTcpNoDelay(true);
+    int id = nextID++;
+    StreamRecorder recorder = null;
+    if (recDir != null)
+      recorder = new StreamRecorder(recDir + File.separator + "cam" + id + ".rec");
+    CamReceiver cr = new CamReceiver(chan, id, this, decoders, recorder);
+    chan.register(selector, SelectionKey.OP_READ, cr);
+    receivers.add(cr);
+    numAccepted++;
+
+    int camIdx = grabCam();
+    if (camIdx != -1) {
+      panelOwners[camIdx] = cr;
+      cr.setPanel(camIdx, camsPan[camIdx]);
+      System.out.println("--assigned cam " + cr.getID() + " to panel " + camIdx);
+    }
+    else
+      waitingCams.add(cr);
+  }  // end of addCam()
+
+
+
+  private void sendRefusal(SocketChannel chan)
+  /* tell the client it has been refused; the channel is still blocking,
+     but the message fits in its empty send buffer, so this doesn't wait */
+  {
+    ByteBuffer buf = ByteBuffer.allocate(4);
+    buf.putInt(REFUSED);
+    buf.flip();
+    try {
+      chan.write(buf);
+    }
+    catch (IOException e) {}    // the client has gone already
+  }  // end of sendRefusal()
+
+
+
+  private void closeCam(CamReceiver cr)
+  // close the receiver, and pass its panel to the longest waiting receiver
+  {
+    cr.close();
+    receivers.remove(cr);
+
+    int camIdx = cr.getPanelIdx();
+    if (camIdx == -1)
+      waitingCams.remove(cr);
+    else {
+      releaseCam(camIdx);
+      if (!waitingCams.isEmpty()) {
+        CamReceiver next = waitingCams.removeFirst();
+        camIdx = grabCam();
+        panelOwners[camIdx] = next;
+        next.setPanel(camIdx, camsPan[camIdx]);
+        System.out.println("--assigned cam " + next.getID() + " to panel " + camIdx);
       }
+    }
+  }  // end of closeCam()
+
+
+
+  private void closeIdleCams(long currTime)
+  // close the receivers whose clients have sent nothing for CLIENT_TIMEOUT ms
+  {
+    ArrayList<CamReceiver> idleCams = new ArrayList<CamReceiver>();
+    for (CamReceiver cr : receivers)
+      if (currTime - cr.getLastReadTime() > CLIENT_TIMEOUT)
+        idleCams.add(cr);
+
+    for (CamReceiver cr : idleCams) {
+      System.out.println("Cam " + cr.getID() + " connection timed out");
+      numTimedOut++;
+      closeCam(cr);
+    }
+  }  // end of closeIdleCams()
+
+
+
+  private int grabCam()
+  /* return the index of a free CamPanel, or -1.
+     Only called from the server thread, so no synchronization is needed. */
+  {
+    for (int i=0; i < numPanels; i++)
+      if (panelOwners[i] == null)
+        return i;
     return -1;
   }  // end of grabCam()
 
 
 
-  public synchronized void releaseCam(int idx)
-  /* Release the CamPanel with the specified index.
-     This method is called from a terminating CamReceiver object 
-    (from a separate thread, which is why it is synchronized).
-  */
-  { if ((idx >= 0) && (idx < NUM_PANELS)) {
-      usedCams[idx] = false;
-      receivers[idx] = null;
-    }
+  private void releaseCam(int idx)
+  // release the CamPanel with the specified index
+  { if ((idx >= 0) && (idx < numPanels))
+      panelOwners[idx] = null;
   }  // end of releaseCam()
 
 
+
+  // ------------------------- statistics ----------------------
+
+
+  public void recordUpdate(int updateBytes, boolean isDropped)
+  /* called by a receiver at the end of each update (from the server thread);
+     isDropped is true if the previous update hadn't been displayed yet */
+  {
+    numBytes += updateBytes;
+    numUpdates++;
+    if (isDropped)
+      numDropped++;
+  }  // end of recordUpdate()
+
+
+
+  private void reportStats(long currTime)
+  // only print the statistics if there are cams, or something has happened
+  {
+    int numEvents = numAccepted + numRefused + numTimedOut + numAcceptFails;
+    if (!receivers.isEmpty() || (numUpdates > 0) || (numEvents != prevNumEvents)) {
+      double secs = (currTime - statsStartTime)/1000.0;
+      System.out.printf("%d cams (%d waiting); %.1f updates/s, %.1f KB/s, %d dropped; " +
+                        "%d accepted, %d refused, %d timed out, %d accept failures\n",
+                        receivers.size(), waitingCams.size(), numUpdates/secs,
+                        numBytes/(1024*secs), numDropped,
+                        numAccepted, numRefused, numTimedOut, numAcceptFails);
+    }
+    prevNumEvents = numEvents;
+    statsStartTime = currTime;
+    numBytes = 0;
+    numUpdates = 0;
+    numDropped = 0;
+  }  // end of reportStats()
+
+
+
+  public void closeDown()
+  /* Stop the server thread, and wait for it to close the connections.
+     This stops the application from exiting until everything
+     has finished. */
+  {
+    if (!isRunning)
+      return;
+    isRunning = false;
+    selector.wakeup();
+    while (!isFinished) {
+      try {
+        Thread.sleep(DELAY);
+      }
+      catch (Exception ex) {}
+    }
+  } // end of closeDown()
+
+
   // ----------------------------------------------
 
   public static void main( String args[] )
-  {  new CamsViewer();  }
+  {
+    int numPanels = NUM_PANELS;
+    int maxClients = MAX_CLIENTS;
+    String recDir = null;
+    int argIdx = 0;
+    try {
+      if ((args.length >= 2) && args[0].equals("-r")) {
+        recDir = args[1];
+        argIdx = 2;
+      }
+      if (args.length >= argIdx+1)
+        numPanels = Integer.parseInt(args[argIdx]);
+      if (args.length >= argIdx+2)
+        maxClients = Integer.parseInt(args[argIdx+1]);
+    }
+    catch(NumberFormatException e)
+    { System.out.println("Usage: java CamsViewer [ -r <dir> ] [ <no. of panels> [ <max no. of clients> ] ]");
+      return;
+    }
+    if (numPanels < 1)
+      numPanels = 1;
+
+    if (recDir != null) {
+      File dir = new File(recDir);
+      if (!dir.isDirectory() && !dir.mkdirs()) {
+        System.out.println("Could not create the recording directory " + recDir);
+        return;
+      }
+    }
+    new CamsViewer(numPanels, maxClients, recDir);
+  }  // end of main()
 
 } // end of CamsViewer
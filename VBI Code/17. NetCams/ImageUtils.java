@@ -15,9 +15,6 @@ import java.util.*;
 
 public class ImageUtils
 {
-  private static final int SCALE_BRIGHTNESS = 10;   // reduces brightness size
-
-
   private ImageUtils()
   {}
 
@@ -72,135 +69,31 @@ public class ImageUtils
 
 
 
-  public static byte[] imToBytes(int idx, BufferedImage im)
-  // convert the BufferedImage into a byte array
-  {
-    byte[] imBytes = null;
-    try {
-      ByteArrayOutputStream baos = new ByteArrayOutputStream();
-      ImageIO.write(im, "jpg", baos);
-      baos.flush();
-      
-      imBytes = baos.toByteArray();
-      baos.close();
-    }
-    catch(IOException e)
-    {  System.out.println("Could not convert part " + idx + " to bytes");  }
-
-    return imBytes;
-  }  // end of imToBytes
-
-
-
-  public static int getAvgBrightness(BufferedImage image) 
-  /* returns average brightness of the gray-version of the image
-     Based on getAverageBrightness() code described in 
-        http://mindmeat.blogspot.com/2008/07/java-image-comparison.html
-  */
-  {
-    BufferedImage im = toGray(image);
-    Raster r = im.getData();     //  rectangular array of pixels
-    int rWidth = r.getWidth();
-    int rHeight = r.getHeight();
-    int minX = r.getMinX();
-    int minY = r.getMinY();
-
-    // sum grayscales
-    int total = 0;
-    for (int y = 0; y < rHeight; y++) {
-      for (int x = 0; x < rWidth; x++)
-        total += r.getSample(minX+x, minY+y, 0);   // band == 0 for grayscale
-    }
-    return (int)(total / ((rWidth/SCALE_BRIGHTNESS) * 
-                          (rHeight/SCALE_BRIGHTNESS)) );
-  }  // end of getAvgBrightness()
-
-
-
-  public static BufferedImage toGray(BufferedImage im)
-  // convert a (colored) image to grayscale
-  {
-    BufferedImage grayIm = new BufferedImage(im.getWidth(), im.getHeight(),  
-                                                          BufferedImage.TYPE_BYTE_GRAY);  
-    Graphics g = grayIm.getGraphics();  
-    g.drawImage(im, 0, 0, null);  
-    g.dispose();  
-    return grayIm;
-  }  // end of toGray()
-
-
-
-  public static BufferedImage bytesToIm(int idx, byte[] imBytes)
-  // convert byte array to a BufferedImage
-  {
-    BufferedImage im = null;
-    try {
-      InputStream in = new ByteArrayInputStream(imBytes);
-      im = ImageIO.read(in);
-    }
-    catch(IOException e)
-    {  System.out.println("Conversion of part " + idx + " to an image failed");  }
-    return im;
-  }  // end of bytesToIm()
-
-
-
-  public static BufferedImage join(BufferedImage[] imParts, int divs)
-  /* combine all the subimages in imParts into a single image.
-     The parts are numbered row-by-row, top-to-bottom, when they are
-     divs row and divs columns. I assume that all the image parts have
-     the same dimensions as the first one in the array.
-  */
+  public static BufferedImage scale(BufferedImage im, double scale)
+  // return a scaled version of the image
   {
-    if (imParts.length == 0) {
-      System.out.println("No parts to combine");
-      return null;
-    }
-
-    if (imParts[0] == null) {
-      System.out.println("Image part is empty");
-      return null;
-    }
-
-    int partWidth = imParts[0].getWidth();
-    int partHeight = imParts[0].getHeight();
-    if ((partWidth == 0) || (partHeight == 0)) {
-      System.out.println("Error in image part dimensions");
+    if(im == null)
       return null;
-    }
 
-    BufferedImage im = new BufferedImage( partWidth*divs, partHeight*divs,
-                                          BufferedImage.TYPE_INT_RGB);
-    Graphics g = im.getGraphics();
-    for (int i=0; i < imParts.length; i++) {
-      if (imParts[i] == null)
-        System.out.println("No data found for part " + i);
-      else {
-        int xCoord = (i%divs)*partWidth;
-        int yCoord = (i/divs)*partHeight;
-        g.drawImage(imParts[i], xCoord, yCoord, null);
-      }
-    }
-    g.dispose();
-
-    return im;
-  }  // end of join()
+    if (scale == 1)  // no change
+      return im;
 
+    int newWidth = (int) Math.round(im.getWidth()*scale);
+    int newHeight = (int) Math.round(im.getHeight()*scale);
+    return scale(im, newWidth, newHeight);
+  }  // end of scale()
 
 
 
-  public static BufferedImage scale(BufferedImage im, double scale)
-  // return a scaled version of the image
+  public static BufferedImage scale(BufferedImage im, int newWidth, int newHeight)
+  // return a version of the image scaled to newWidth x newHeight
   {
     if(im == null)
       return null;
 
-    if (scale == 1)  // no change
+    if ((newWidth == im.getWidth()) && (newHeight == im.getHeight()))  // no change
       return im;
 
-    int newWidth = (int) Math.round(im.getWidth()*scale);
-    int newHeight = (int) Math.round(im.getHeight()*scale);
-
     BufferedImage result = new BufferedImage(newWidth, newHeight, BufferedImage.TYPE_INT_ARGB);
 
     Graphics2D g2d = result.createGraphics();
@@ -0,0 +1,174 @@
+
+// RateController.java
+
+/* Chooses the JPEG quality, change threshold, and capture scale used by
+   CamReaderPanel, so the client sends no more than a target number of
+   bytes per second, and backs off when the link to CamsViewer is congested.
+
+   CamReaderPanel calls update() after each snap with the bytes it sent,
+   and the time it spent writing them to the socket. A write which takes a
+   long time means the socket's buffer is full, because the link (or the
+   viewer) isn't keeping up.
+
+   Every CONTROL_PERIOD ms the byte rate (smoothed, so one key frame
+   doesn't count for too much) and the stall fraction (the fraction of
+   the time spent blocked in writes) are compared with the target.
+
+   The settings are a ladder of levels, from the panel's own settings
+   at level 0 down to a much smaller stream:
+
+      level:       0     1     2     3     4     5     6
+      quality:    x1   x.8   x.6  x.45  x.45  x.33  x.33
+      threshold:  x1    x1 x1.25  x1.5    x2  x2.5    x3
+      scale:       1     1     1     1   .75   .75    .5
+
+   so the quality drops first, then small changes stop being sent, and
+   only then is the image made smaller (which also means a key frame).
+
+   If the rate is over the target, or the writes stalled for more than
+   MAX_STALL of the time, the level goes up one. If the rate is well under
+   the target, and the writes hardly stalled, for UPGRADE_PERIODS periods
+   in a row, the level comes down one. A level which was too much isn't
+   tried again for RETRY_PERIODS periods, so the settings don't keep
+   swapping between two levels.
+
+   A target of 0 means there's no byte rate target, and only congestion
+   is avoided.
+*/
+
+
+
+public class RateController
+{
+  private static final int CONTROL_PERIOD = 1000;    // ms between decisions
+
+  private static final double MAX_STALL = 0.25;   // stall fraction meaning congestion
+  private static final double MIN_STALL = 0.05;   // stall fraction low enough to upgrade
+  private static final double TOLERANCE = 0.1;    // allowed fraction over the target
+  private static final double UPGRADE_FRACTION = 0.6;   // rate fraction of target to upgrade
+  private static final int UPGRADE_PERIODS = 3;
+  private static final int RETRY_PERIODS = 10;
+  private static final double RATE_WEIGHT = 0.5;   // weight of the latest period in the rate
+
+  // the levels
+  private static final double[] QUALITY_FACTORS = {1, 0.8, 0.6, 0.45, 0.45, 0.33, 0.33};
+  private static final double[] THRESHOLD_FACTORS = {1, 1, 1.25, 1.5, 2, 2.5, 3};
+  private static final double[] SCALES = {1, 1, 1, 1, 0.75, 0.75, 0.5};
+  private static final int NUM_LEVELS = SCALES.length;
+
+  private double targetRate;     // bytes/sec; 0 for no target
+  private float baseQuality;
+  private int baseThreshold;
+  private int level = 0;
+
+  // measurements for the current period
+  private long periodStart;       // ns
+  private long periodBytes = 0;
+  private long periodWriteTime = 0;    // ns
+
+  // results of the last period
+  private double rate = 0;          // bytes/sec
+  private double stallFraction = 0;
+  private int numGoodPeriods = 0;   // in a row, good enough to upgrade
+
+  private int[] failAges = new int[NUM_LEVELS];   // periods since each level was too much
+
+
+
+  public RateController(double targetRate, float baseQuality, int baseThreshold)
+  {
+    this.targetRate = targetRate;
+    this.baseQuality = baseQuality;
+    this.baseThreshold = baseThreshold;
+    for (int i = 0; i < NUM_LEVELS; i++)
+      failAges[i] = RETRY_PERIODS;    // none have failed yet
+    periodStart = System.nanoTime();
+  }  // end of RateController()
+
+
+
+  public boolean update(int bytes, long writeTime)
+  /* record the bytes sent for a snap, and the ns spent writing them;
+     returns true if the settings have changed */
+  {
+    periodBytes += bytes;
+    periodWriteTime += writeTime;
+    long now = System.nanoTime();
+    long elapsed = now - periodStart;
+    if (elapsed < CONTROL_PERIOD*1000000L)
+      return false;
+
+    double periodRate = periodBytes*1000000000.0/elapsed;
+    rate = (rate == 0) ? periodRate : RATE_WEIGHT*periodRate + (1-RATE_WEIGHT)*rate;
+    stallFraction = ((double)periodWriteTime)/elapsed;
+    periodStart = now;
+    periodBytes = 0;
+    periodWriteTime = 0;
+
+    for (int i = 0; i < NUM_LEVELS; i++)
+      failAges[i]++;
+    return chooseLevel();
+  }  // end of update()
+
+
+
+  private boolean chooseLevel()
+  // move up or down a level, depending on the last period's measurements
+  {
+    boolean isCongested = (stallFraction > MAX_STALL);
+    boolean isOverTarget = (targetRate > 0) && (rate > targetRate*(1 + TOLERANCE));
+    if (isCongested || isOverTarget) {
+      numGoodPeriods = 0;
+      failAges[level] = 0;
+      if (level < NUM_LEVELS-1) {
+        level++;
+        return true;
+      }
+      return false;
+    }
+
+    boolean isUnderTarget = (targetRate == 0) || (rate < targetRate*UPGRADE_FRACTION);
+    if (!isUnderTarget || (stallFraction > MIN_STALL) || (level == 0)) {
+      numGoodPeriods = 0;
+      return false;
+    }
+    numGoodPeriods++;
+    if ((numGoodPeriods < UPGRADE_PERIODS) || (failAges[level-1] < RETRY_PERIODS))
+      return false;
+
+    numGoodPeriods = 0;
+    level--;
+    return true;
+  }  // end of chooseLevel()
+
+
+
+  public int getLevel()
+  {  return level;  }
+
+  public float getQuality()
+  {  return (float)(baseQuality*QUALITY_FACTORS[level]);  }
+
+  public int getThreshold()
+  {  return (int) Math.round(baseThreshold*THRESHOLD_FACTORS[level]);  }
+
+  public double getScale()
+  // the capture scale, relative to the panel's own scaling
+  {  return SCALES[level];  }
+
+  public static double[] getScales()
+  // the capture scales of all the levels
+  {  return SCALES.clone();  }
+
+  public double getRate()
+  // smoothed bytes/sec
+  {  return rate;  }
+
+  public double getStallFraction()
+  // fraction of the last period spent blocked in writes
+  {  return stallFraction;  }
+
+  public double getTargetRate()
+  {  return targetRate;  }
+
+}  // end of RateController class
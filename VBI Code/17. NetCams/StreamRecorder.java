@@ -0,0 +1,179 @@
+
+// StreamRecorder.java
+
+/* Records the messages sent by a CamReader client to a file, so they
+   can be sent to CamsViewer again later by CamReplayer.
+
+   The file is written sequentially (append-only):
+
+      header:   MAGIC, VERSION, the recording's start time (ms since 1970)
+      records:  <time> <part index> <length> <image data bytes ...>
+          or    <time> END_UPDATE
+          or    <time> END_TRANS
+      index:    <no. of entries>, then a <time> <file position> pair for
+                the start of each update
+      footer:   <index position> INDEX_MAGIC
+
+   The times are longs, in ns since the start of the recording, and
+   everything else is an int, except for the image bytes.
+
+   The index is only written by close(), so a recording that wasn't
+   closed properly has no footer; CamReplayer then rebuilds the index by
+   reading through the records.
+
+   If a write fails, recording stops, but the client is still served.
+*/
+
+import java.io.*;
+
+
+
+public class StreamRecorder
+{
+  public static final int MAGIC = 0x4e435243;         // "NCRC"
+  public static final int INDEX_MAGIC = 0x4e434958;   // "NCIX"
+  public static final int VERSION = 1;
+
+  public static final int HEADER_SIZE = 4 + 4 + 8;
+  public static final int FOOTER_SIZE = 8 + 4;
+
+  // special message IDs
+  private static final int END_UPDATE = -98;
+  private static final int END_TRANS = -99;
+
+  private static final int BUF_SIZE = 65536;
+
+  private String fnm;
+  private DataOutputStream out = null;
+  private long filePos = 0;      // where the next record will be written
+  private long startTime;        // ns
+  private boolean isUpdateStart = true;   // is the next record the start of an update?
+
+  // the index of update starts
+  private long[] indexTimes = new long[1024];
+  private long[] indexPositions = new long[1024];
+  private int numEntries = 0;
+
+
+
+  public StreamRecorder(String fnm)
+  {
+    this.fnm = fnm;
+    startTime = System.nanoTime();
+    try {
+      out = new DataOutputStream( new BufferedOutputStream(
+                                    new FileOutputStream(fnm), BUF_SIZE));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(System.currentTimeMillis());
+      filePos = HEADER_SIZE;
+      System.out.println("Recording to " + fnm);
+    }
+    catch(IOException e)
+    { System.out.println("Could not start recording to " + fnm);
+      out = null;
+    }
+  }  // end of StreamRecorder()
+
+
+
+  public void recordPart(int idx, byte[] bytes, int len)
+  // record a part message, with len bytes of image data
+  {
+    if (out == null)
+      return;
+    try {
+      long time = startRecord();
+      out.writeLong(time);
+      out.writeInt(idx);
+      out.writeInt(len);
+      out.write(bytes, 0, len);
+      filePos += 8 + 4 + 4 + len;
+    }
+    catch(IOException e)
+    {  stopRecording();  }
+  }  // end of recordPart()
+
+
+
+  public void recordMarker(int id)
+  // record an END_UPDATE or END_TRANS message
+  {
+    if (out == null)
+      return;
+    try {
+      long time;
+      if (id == END_TRANS)    // not the start of an update
+        time = System.nanoTime() - startTime;
+      else
+        time = startRecord();
+      out.writeLong(time);
+      out.writeInt(id);
+      filePos += 8 + 4;
+      if (id == END_UPDATE)
+        isUpdateStart = true;
+    }
+    catch(IOException e)
+    {  stopRecording();  }
+  }  // end of recordMarker()
+
+
+
+  private long startRecord()
+  // return the time of the new record, adding it to the index if it starts an update
+  {
+    long time = System.nanoTime() - startTime;
+    if (isUpdateStart) {
+      if (numEntries == indexTimes.length) {    // make the index bigger
+        long[] times = new long[numEntries*2];
+        long[] positions = new long[numEntries*2];
+        System.arraycopy(indexTimes, 0, times, 0, numEntries);
+        System.arraycopy(indexPositions, 0, positions, 0, numEntries);
+        indexTimes = times;
+        indexPositions = positions;
+      }
+      indexTimes[numEntries] = time;
+      indexPositions[numEntries] = filePos;
+      numEntries++;
+      isUpdateStart = false;
+    }
+    return time;
+  }  // end of startRecord()
+
+
+
+  private void stopRecording()
+  {
+    System.out.println("Problem writing to " + fnm + "; recording stopped");
+    try {
+      out.close();
+    }
+    catch(IOException e) {}
+    out = null;
+  }  // end of stopRecording()
+
+
+
+  public void close()
+  // write the index and footer, and close the file
+  {
+    if (out == null)
+      return;
+    try {
+      long indexPos = filePos;
+      out.writeInt(numEntries);
+      for (int i = 0; i < numEntries; i++) {
+        out.writeLong(indexTimes[i]);
+        out.writeLong(indexPositions[i]);
+      }
+      out.writeLong(indexPos);
+      out.writeInt(INDEX_MAGIC);
+      out.close();
+      System.out.println("Recorded " + numEntries + " updates in " + fnm);
+    }
+    catch(IOException e)
+    {  System.out.println("Could not finish recording to " + fnm);  }
+    out = null;
+  }  // end of close()
+
+}  // end of StreamRecorder class
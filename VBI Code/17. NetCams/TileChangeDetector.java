@@ -0,0 +1,223 @@
+
+// TileChangeDetector.java
+
+/* Decides which parts (tiles) of an image have changed enough to be sent
+   again, for CamReaderPanel.
+
+   The image is divided into numSeps*numSeps tiles, numbered row-by-row
+   as in ImageUtils.split(). Every step-th pixel along every step-th row
+   is sampled, and its gray level is compared with the same sample in the
+   version of its tile that was last sent. The sum of absolute differences
+   (SAD) for each tile is collected in a single pass over the image's
+   raster, and a tile has changed if its mean difference per sample is
+   more than threshold (gray levels, 0-255).
+
+   Comparing with the last *sent* version, rather than the previous frame,
+   means that a slow change will eventually be sent, and small frame-to-frame
+   noise won't be.
+
+   Every keyFramePeriod frames all the tiles are sent (a key frame), so a
+   receiver which missed some parts, or joined late, will get a complete
+   image. The first frame is always a key frame.
+*/
+
+import java.awt.image.*;
+import java.util.*;
+
+
+
+public class TileChangeDetector
+{
+  private int numSeps;       // tiles per row and column
+  private int threshold;     // mean gray level difference for a changed tile
+  private int step;          // sample spacing, in pixels
+  private int keyFramePeriod;   // frames between key frames; 0 for none after the first
+
+  // sampling data for the current image size
+  private int width = -1, height = -1;
+  private int numSampCols, numSampRows;
+  private int[] colTiles;    // the tile column of each sample column
+  private int[] rowTiles;    // the tile row of each sample row
+  private int[] tileCounts;  // number of samples in each tile
+  private byte[] refSamples;    // gray levels of the tiles when they were last sent
+  private byte[] currSamples;   // gray levels of the current image
+  private int[] rowPixels;      // for images without a simple raster
+
+  private long[] tileSADs;
+  private boolean[] changed;    // the result
+  private int frameCount = 0;
+  private boolean isKeyFrame = false;
+  private long lastTime = 0;    // ns
+
+
+
+  public TileChangeDetector(int numSeps, int threshold, int step, int keyFramePeriod)
+  {
+    this.numSeps = numSeps;
+    this.threshold = threshold;
+    this.step = Math.max(1, step);
+    this.keyFramePeriod = keyFramePeriod;
+
+    tileSADs = new long[numSeps*numSeps];
+    tileCounts = new int[numSeps*numSeps];
+    changed = new boolean[numSeps*numSeps];
+  }  // end of TileChangeDetector()
+
+
+
+  public boolean[] findChanged(BufferedImage im)
+  /* return an array saying which of the image's tiles have changed
+     enough to be sent; those tiles' samples become the new reference.
+     The array is reused by the next call. */
+  {
+    long startTime = System.nanoTime();
+    if ((im.getWidth() != width) || (im.getHeight() != height)) {
+      initSamples(im.getWidth(), im.getHeight());
+      frameCount = 0;     // so this is a key frame
+    }
+
+    Arrays.fill(tileSADs, 0);
+    sampleImage(im);
+
+    isKeyFrame = (frameCount == 0) ||
+                 ((keyFramePeriod > 0) && (frameCount % keyFramePeriod == 0));
+    for (int t = 0; t < changed.length; t++)
+      changed[t] = isKeyFrame || (tileSADs[t] > ((long)threshold)*tileCounts[t]);
+
+    updateReference();
+    frameCount++;
+    lastTime = System.nanoTime() - startTime;
+    return changed;
+  }  // end of findChanged()
+
+
+
+  private void initSamples(int w, int h)
+  {
+    width = w;
+    height = h;
+    numSampCols = (width + step - 1)/step;
+    numSampRows = (height + step - 1)/step;
+    int tileWidth = Math.max(1, width/numSeps);
+    int tileHeight = Math.max(1, height/numSeps);
+
+    colTiles = new int[numSampCols];
+    for (int sx = 0; sx < numSampCols; sx++)
+      colTiles[sx] = Math.min(numSeps-1, (sx*step)/tileWidth);
+    rowTiles = new int[numSampRows];
+    for (int sy = 0; sy < numSampRows; sy++)
+      rowTiles[sy] = Math.min(numSeps-1, (sy*step)/tileHeight);
+
+    Arrays.fill(tileCounts, 0);
+    for (int sy = 0; sy < numSampRows; sy++)
+      for (int sx = 0; sx < numSampCols; sx++)
+        tileCounts[ rowTiles[sy]*numSeps + colTiles[sx] ]++;
+
+    refSamples = new byte[numSampCols*numSampRows];
+    currSamples = new byte[numSampCols*numSampRows];
+    rowPixels = new int[width];
+  }  // end of initSamples()
+
+
+
+  private void sampleImage(BufferedImage im)
+  /* store the gray level of each sample in currSamples, and add its
+     difference from the reference to its tile's SAD. The gray level is
+     (r + 2g + b)/4, which is close enough to the usual weights. */
+  {
+    int type = im.getType();
+    WritableRaster raster = im.getRaster();
+    boolean isWhole = (raster.getParent() == null);    // not a subimage
+
+    if (isWhole && ((type == BufferedImage.TYPE_INT_RGB) ||
+                    (type == BufferedImage.TYPE_INT_ARGB) ||
+                    (type == BufferedImage.TYPE_INT_ARGB_PRE))) {
+      int[] pixels = ((DataBufferInt) raster.getDataBuffer()).getData();
+      int scanWidth = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+      int i = 0;
+      for (int sy = 0; sy < numSampRows; sy++) {
+        int rowStart = sy*step*scanWidth;
+        int tileRow = rowTiles[sy]*numSeps;
+        for (int sx = 0; sx < numSampCols; sx++) {
+          int p = pixels[rowStart + sx*step];
+          int gray = (((p >> 16) & 0xff) + 2*((p >> 8) & 0xff) + (p & 0xff)) >> 2;
+          currSamples[i] = (byte) gray;
+          tileSADs[tileRow + colTiles[sx]] += Math.abs(gray - (refSamples[i] & 0xff));
+          i++;
+        }
+      }
+    }
+    else if (isWhole && (type == BufferedImage.TYPE_3BYTE_BGR)) {
+      byte[] pixels = ((DataBufferByte) raster.getDataBuffer()).getData();
+      int scanWidth = ((ComponentSampleModel) raster.getSampleModel()).getScanlineStride();
+      int i = 0;
+      for (int sy = 0; sy < numSampRows; sy++) {
+        int rowStart = sy*step*scanWidth;
+        int tileRow = rowTiles[sy]*numSeps;
+        for (int sx = 0; sx < numSampCols; sx++) {
+          int pos = rowStart + sx*step*3;    // blue, green, red
+          int gray = ((pixels[pos] & 0xff) + 2*(pixels[pos+1] & 0xff) + (pixels[pos+2] & 0xff)) >> 2;
+          currSamples[i] = (byte) gray;
+          tileSADs[tileRow + colTiles[sx]] += Math.abs(gray - (refSamples[i] & 0xff));
+          i++;
+        }
+      }
+    }
+    else {    // any other type of image, one row at a time
+      int i = 0;
+      for (int sy = 0; sy < numSampRows; sy++) {
+        im.getRGB(0, sy*step, width, 1, rowPixels, 0, width);
+        int tileRow = rowTiles[sy]*numSeps;
+        for (int sx = 0; sx < numSampCols; sx++) {
+          int p = rowPixels[sx*step];
+          int gray = (((p >> 16) & 0xff) + 2*((p >> 8) & 0xff) + (p & 0xff)) >> 2;
+          currSamples[i] = (byte) gray;
+          tileSADs[tileRow + colTiles[sx]] += Math.abs(gray - (refSamples[i] & 0xff));
+          i++;
+        }
+      }
+    }
+  }  // end of sampleImage()
+
+
+
+  private void updateReference()
+  // copy the samples of the changed tiles into the reference, a run at a time
+  {
+    for (int sy = 0; sy < numSampRows; sy++) {
+      int tileRow = rowTiles[sy]*numSeps;
+      int rowStart = sy*numSampCols;
+      int sx = 0;
+      while (sx < numSampCols) {
+        int col = colTiles[sx];
+        int runEnd = sx;
+        while ((runEnd < numSampCols) && (colTiles[runEnd] == col))
+          runEnd++;
+        if (changed[tileRow + col])
+          System.arraycopy(currSamples, rowStart + sx, refSamples, rowStart + sx, runEnd - sx);
+        sx = runEnd;
+      }
+    }
+  }  // end of updateReference()
+
+
+
+  public void forceKeyFrame()
+  // make the next frame a key frame
+  {  frameCount = 0;  }
+
+  public boolean isKeyFrame()
+  // was the last frame a key frame?
+  {  return isKeyFrame;  }
+
+  public long getLastTime()
+  // ns taken by the last findChanged()
+  {  return lastTime;  }
+
+  public int getThreshold()
+  {  return threshold;  }
+
+  public void setThreshold(int t)
+  {  threshold = Math.max(0, t);  }
+
+}  // end of TileChangeDetector class
@@ -0,0 +1,152 @@
+
+// TileDecoder.java
+
+/* Decodes JPEG image parts straight into their place in a larger image,
+   reusing one ImageReader, read parameters object, and input stream,
+   instead of creating them all (and a new image) for every part as
+   ImageIO.read() does.
+
+   A TileDecoder isn't thread-safe, so CamReceiver gives each decoder
+   thread its own.
+*/
+
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.util.*;
+import javax.imageio.*;
+import javax.imageio.stream.*;
+
+
+
+public class TileDecoder
+{
+  private ImageReader reader;
+  private ImageReadParam param;
+  private BytesInputStream input = new BytesInputStream();
+  private int width, height;    // of the current input
+
+
+
+  public TileDecoder()
+  {
+    Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName("jpeg");
+    if (!readers.hasNext()) {
+      System.out.println("No JPEG reader available");
+      System.exit(1);
+    }
+    reader = readers.next();
+    param = reader.getDefaultReadParam();
+  }  // end of TileDecoder()
+
+
+
+  public boolean setInput(byte[] data, int len)
+  /* use the first len bytes of data as the next JPEG to decode, and
+     read its dimensions; returns false if they can't be read */
+  {
+    input.setBytes(data, len);
+    reader.setInput(input, true, true);
+    try {
+      width = reader.getWidth(0);
+      height = reader.getHeight(0);
+      return true;
+    }
+    catch(IOException e)
+    {  return false;  }
+  }  // end of setInput()
+
+
+  public int getWidth()
+  {  return width;  }
+
+  public int getHeight()
+  {  return height;  }
+
+
+
+  public boolean decodeInto(BufferedImage im, int x, int y)
+  /* decode the input so its top-left corner is at (x,y) in im. If the
+     JPEG can't be decoded straight into im's raster (e.g. because it
+     has a different number of bands) then decode it to a new image and
+     draw that instead. Returns false if the input can't be decoded. */
+  {
+    param.setDestination(im);
+    param.setDestinationOffset( new Point(x, y));
+    try {
+      reader.read(0, param);
+      return true;
+    }
+    catch(Exception e) {}   // try again without the destination
+    finally {
+      param.setDestination(null);
+    }
+
+    input.setBytes(input.getBytes(), input.getLength());   // back to the start
+    reader.setInput(input, true, true);
+    try {
+      BufferedImage part = reader.read(0);
+      Graphics g = im.getGraphics();
+      g.drawImage(part, x, y, null);
+      g.dispose();
+      return true;
+    }
+    catch(Exception e)
+    {  return false;  }
+  }  // end of decodeInto()
+
+
+
+  // ------------------------------------------------------------
+
+  private static class BytesInputStream extends ImageInputStreamImpl
+  // an ImageInputStream over part of a byte array, which can be reset with new bytes
+  {
+    private byte[] bytes;
+    private int length;
+
+
+    public void setBytes(byte[] bytes, int length)
+    {
+      this.bytes = bytes;
+      this.length = length;
+      streamPos = 0;
+      flushedPos = 0;
+      bitOffset = 0;
+    }  // end of setBytes()
+
+
+    public byte[] getBytes()
+    {  return bytes;  }
+
+    public int getLength()
+    {  return length;  }
+
+
+    public int read()
+    {
+      bitOffset = 0;
+      if (streamPos >= length)
+        return -1;
+      return bytes[(int)streamPos++] & 0xff;
+    }  // end of read()
+
+
+    public int read(byte[] b, int off, int len)
+    {
+      bitOffset = 0;
+      if (streamPos >= length)
+        return -1;
+      int n = (int) Math.min(len, length - streamPos);
+      System.arraycopy(bytes, (int)streamPos, b, off, n);
+      streamPos += n;
+      return n;
+    }  // end of read()
+
+
+    public long length()
+    {  return length;  }
+
+  }  // end of BytesInputStream class
+
+}  // end of TileDecoder class
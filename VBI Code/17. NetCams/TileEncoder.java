@@ -0,0 +1,309 @@
+
+// TileEncoder.java
+
+/* Encodes the changed parts of an image as JPEGs for CamReaderPanel,
+   spreading the parts over a small pool of worker threads.
+
+   Each worker thread keeps its own JPEG ImageWriter and write parameters
+   (with the current quality), instead of ImageIO.write() looking up and
+   creating a writer for every part. Each part has its own output buffer,
+   which is reused and only grows when a part's JPEG is bigger than any
+   before, and its own RGB copy of the part (the JPEG writer won't encode
+   the alpha channel of the ARGB images made by ImageUtils.scale()).
+
+   After encode() returns, getBytes(i) and getLength(i) give part i's JPEG;
+   they stay valid until the next encode().
+*/
+
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import javax.imageio.*;
+import javax.imageio.stream.*;
+
+
+
+public class TileEncoder
+{
+  private int numThreads;
+  private ExecutorService executor = null;   // not used with one thread
+  private volatile float quality;      // 0 (low) to 1 (high)
+
+  private int numParts;
+  private BytesOutputStream[] outputs;     // the JPEG data for each part
+  private BufferedImage[] rgbParts;        // RGB copies of the parts
+  private Graphics2D[] rgbGraphics;
+  private BufferedImage[] currParts;       // the parts being encoded
+  private Runnable[] encodeTasks;
+
+  private ThreadLocal<JpegWriter> writers = new ThreadLocal<JpegWriter>() {
+    protected JpegWriter initialValue()
+    {  return new JpegWriter();  }
+  };
+
+
+
+  public TileEncoder(int numParts, int numThreads, float quality)
+  {
+    this.numParts = numParts;
+    this.numThreads = Math.max(1, Math.min(numThreads, numParts));
+    this.quality = quality;
+
+    outputs = new BytesOutputStream[numParts];
+    rgbParts = new BufferedImage[numParts];
+    rgbGraphics = new Graphics2D[numParts];
+    currParts = new BufferedImage[numParts];
+    encodeTasks = new Runnable[numParts];
+    for (int i = 0; i < numParts; i++) {
+      outputs[i] = new BytesOutputStream();
+      final int idx = i;
+      encodeTasks[i] = new Runnable() {
+        public void run()
+        {  encodePart(idx);  }
+      };
+    }
+
+    if (this.numThreads > 1)
+      executor = Executors.newFixedThreadPool(this.numThreads, new ThreadFactory() {
+        public Thread newThread(Runnable r)
+        { Thread t = new Thread(r, "TileEncoder");
+          t.setDaemon(true);     // don't stop the application from exiting
+          return t;
+        }
+      });
+  }  // end of TileEncoder()
+
+
+
+  public void encode(BufferedImage[] parts, boolean[] isChanged)
+  // encode the changed parts, in parallel if there's more than one thread
+  {
+    ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+    for (int i = 0; i < numParts; i++) {
+      outputs[i].reset();
+      if (!isChanged[i])
+        continue;
+      currParts[i] = parts[i];
+      if (executor == null)
+        encodePart(i);
+      else
+        futures.add( executor.submit(encodeTasks[i]));
+    }
+
+    try {
+      for (Future<?> f : futures)
+        f.get();
+    }
+    catch (Exception e)
+    {  System.out.println("Part encoding failed: " + e);  }
+
+    for (int i = 0; i < numParts; i++)
+      currParts[i] = null;
+  }  // end of encode()
+
+
+
+  private void encodePart(int i)
+  // run by a worker thread (or the caller, if there's only one thread)
+  {
+    BufferedImage im = toRGB(i, currParts[i]);
+    if (!writers.get().write(im, outputs[i], quality)) {
+      System.out.println("Could not convert part " + i + " to bytes");
+      outputs[i].reset();
+    }
+  }  // end of encodePart()
+
+
+
+  private BufferedImage toRGB(int i, BufferedImage part)
+  /* return an image without an alpha channel for the part, copying it
+     into the part's reused RGB image if necessary */
+  {
+    int type = part.getType();
+    if ((type == BufferedImage.TYPE_3BYTE_BGR) || (type == BufferedImage.TYPE_INT_RGB))
+      return part;
+
+    int w = part.getWidth();
+    int h = part.getHeight();
+    if ((rgbParts[i] == null) || (rgbParts[i].getWidth() != w) ||
+        (rgbParts[i].getHeight() != h)) {
+      if (rgbGraphics[i] != null)
+        rgbGraphics[i].dispose();
+      rgbParts[i] = new BufferedImage(w, h, BufferedImage.TYPE_3BYTE_BGR);
+      rgbGraphics[i] = rgbParts[i].createGraphics();
+    }
+    rgbGraphics[i].drawImage(part, 0, 0, null);
+    return rgbParts[i];
+  }  // end of toRGB()
+
+
+
+  public byte[] getBytes(int i)
+  {  return outputs[i].getBytes();  }
+
+  public int getLength(int i)
+  // the length of part i's JPEG, or 0 if it wasn't encoded
+  {  return outputs[i].getLength();  }
+
+
+  public float getQuality()
+  {  return quality;  }
+
+  public void setQuality(float q)
+  // used from the next encode()
+  {  quality = Math.max(0.05f, Math.min(1.0f, q));  }
+
+  public int getNumThreads()
+  {  return numThreads;  }
+
+
+
+  // ------------------------------------------------------------
+
+  private static class JpegWriter
+  /* a JPEG ImageWriter and its parameters, for one thread. The image
+     metadata is made once for each image type, rather than by the writer
+     for each part. */
+  {
+    private ImageWriter writer;
+    private ImageWriteParam param;
+    private float currQuality = -1;
+    private IIOImage iioImage = new IIOImage(new BufferedImage(1, 1, BufferedImage.TYPE_3BYTE_BGR),
+                                             null, null);
+    private int metaType = -1;    // the image type of the metadata
+
+
+    public JpegWriter()
+    {
+      Iterator<ImageWriter> it = ImageIO.getImageWritersByFormatName("jpeg");
+      if (!it.hasNext()) {
+        System.out.println("No JPEG writer available");
+        System.exit(1);
+      }
+      writer = it.next();
+      param = writer.getDefaultWriteParam();
+      param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+    }  // end of JpegWriter()
+
+
+    public boolean write(BufferedImage im, BytesOutputStream out, float quality)
+    {
+      if (quality != currQuality) {
+        param.setCompressionQuality(quality);
+        currQuality = quality;
+      }
+      if (im.getType() != metaType) {
+        iioImage.setMetadata( writer.getDefaultImageMetadata(
+                    ImageTypeSpecifier.createFromRenderedImage(im), param));
+        metaType = im.getType();
+      }
+      iioImage.setRenderedImage(im);
+      try {
+        writer.setOutput(out);
+        writer.write(null, iioImage, param);
+        return true;
+      }
+      catch(Exception e)
+      {  return false;  }
+      finally {
+        writer.setOutput(null);
+      }
+    }  // end of write()
+
+  }  // end of JpegWriter class
+
+
+
+  private static class BytesOutputStream extends ImageOutputStreamImpl
+  /* an ImageOutputStream into a byte array which grows as needed, and
+     is kept between uses */
+  {
+    private byte[] bytes = new byte[4096];
+    private int length = 0;
+
+
+    public void reset()
+    {
+      length = 0;
+      streamPos = 0;
+      flushedPos = 0;
+      bitOffset = 0;
+    }  // end of reset()
+
+
+    public byte[] getBytes()
+    {  return bytes;  }
+
+    public int getLength()
+    {  return length;  }
+
+
+    private void ensureCapacity(long size)
+    {
+      if (size > bytes.length)
+        bytes = Arrays.copyOf(bytes, (int) Math.max(size, 2L*bytes.length));
+    }
+
+
+    public void write(int b)
+    {
+      flushPendingBits();
+      ensureCapacity(streamPos + 1);
+      bytes[(int)streamPos++] = (byte) b;
+      if (streamPos > length)
+        length = (int) streamPos;
+    }  // end of write()
+
+
+    public void write(byte[] b, int off, int len)
+    {
+      flushPendingBits();
+      ensureCapacity(streamPos + len);
+      System.arraycopy(b, off, bytes, (int)streamPos, len);
+      streamPos += len;
+      if (streamPos > length)
+        length = (int) streamPos;
+    }  // end of write()
+
+
+    private void flushPendingBits()
+    // write out any bits left by writeBits()
+    {
+      if (bitOffset != 0) {
+        try {
+          super.flushBits();
+        }
+        catch(IOException e) {}
+      }
+    }  // end of flushPendingBits()
+
+
+    public int read()
+    {
+      bitOffset = 0;
+      if (streamPos >= length)
+        return -1;
+      return bytes[(int)streamPos++] & 0xff;
+    }  // end of read()
+
+
+    public int read(byte[] b, int off, int len)
+    {
+      bitOffset = 0;
+      if (streamPos >= length)
+        return -1;
+      int n = (int) Math.min(len, length - streamPos);
+      System.arraycopy(bytes, (int)streamPos, b, off, n);
+      streamPos += n;
+      return n;
+    }  // end of read()
+
+
+    public long length()
+    {  return length;  }
+
+  }  // end of BytesOutputStream class
+
+}  // end of TileEncoder class
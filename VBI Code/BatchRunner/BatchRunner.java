@@ -0,0 +1,233 @@
+
+// BatchRunner.java
+
+/* Runs one of the book's detectors over a folder of images or a video
+   file, without a camera or a display, so that the detectors can be
+   measured and compared on a headless machine.
+
+   The detectors are:
+      motion       JCVMotionDetector    ("04. MotionDetection")
+      colorrect    ColorRectDetector    ("05. blobsDrums\BlobsDrumming")
+      hand         HandDetector         ("06. HandDetector")
+      fingerprint  FingerUtils          ("08. FPTemplates")
+      face         Haar face detection  (as in "09. Face Tracking")
+      grid         GridVisualizer       ("13. SudokuOCR")
+      qr           QRCodex              ("14. QRExec")
+
+   Each one is wrapped by a FrameDetector. The frames come from a
+   FrameSource, and are given to the detector one at a time, in order,
+   since most of the detectors remember things from earlier frames.
+   The results for each frame are written by a ResultWriter as CSV
+   (the default) or as JSON lines.
+
+   When all the frames are done, the throughput (frames/sec, overall and
+   for the detector alone), the number of frames where something was found,
+   and the 50th, 90th, 99th percentile and maximum detection times are
+   printed. The first frame's detector initialization isn't included
+   in the detection times.
+
+   Usage:
+     > java BatchRunner [-c <config>] [-o <output file>] [-j] [-n <max frames>]
+                        <detector> <image folder or video file>
+       e.g.
+     > java BatchRunner -c redHSV.txt -o red.csv colorrect frames/
+     > java BatchRunner -j -n 500 face clip.avi
+*/
+
+import java.util.*;
+
+import static com.googlecode.javacv.cpp.opencv_core.*;
+
+
+
+public class BatchRunner
+{
+  private static final String[] DETECTOR_NAMES =
+               {"motion", "colorrect", "hand", "fingerprint", "face", "grid", "qr"};
+
+  private long[] readTimes = new long[1024];     // ns
+  private long[] detectTimes = new long[1024];
+  private int numFrames = 0;
+  private int numFound = 0;
+  private long initTime = 0;
+
+
+
+  public BatchRunner(String detName, String srcName, String config,
+                     String outFnm, boolean isJSON, int maxFrames)
+  {
+    FrameDetector detector = makeDetector(detName);
+    if (detector == null) {
+      System.out.println("Unknown detector: " + detName);
+      return;
+    }
+
+    FrameSource source = new FrameSource(srcName);
+    if (!source.isOpen())
+      return;
+
+    if (outFnm == null)
+      outFnm = detName + (isJSON ? ".json" : ".csv");
+    ResultWriter writer = new ResultWriter(outFnm, isJSON, detector.getFields());
+    if (!writer.isOpen()) {
+      source.close();
+      return;
+    }
+
+    System.out.println("Running the " + detName + " detector...");
+    long startTime = System.nanoTime();
+    runDetector(detector, source, config, writer, maxFrames);
+    long totalTime = System.nanoTime() - startTime;
+
+    detector.close();
+    source.close();
+    writer.close();
+    System.out.println("Results written to " + outFnm);
+    reportStats(totalTime);
+  }  // end of BatchRunner()
+
+
+
+  public static FrameDetector makeDetector(String name)
+  // the detector's FrameDetector, or null if the name is unknown (also used by GoldenCheck)
+  {
+    if (name.equals("motion"))
+      return new MotionFrameDetector();
+    else if (name.equals("colorrect"))
+      return new ColorRectFrameDetector();
+    else if (name.equals("hand"))
+      return new HandFrameDetector();
+    else if (name.equals("fingerprint"))
+      return new FingerPrintFrameDetector();
+    else if (name.equals("face"))
+      return new FaceFrameDetector();
+    else if (name.equals("grid"))
+      return new GridFrameDetector();
+    else if (name.equals("qr"))
+      return new QRFrameDetector();
+    return null;
+  }  // end of makeDetector()
+
+
+
+  private void runDetector(FrameDetector detector, FrameSource source, String config,
+                           ResultWriter writer, int maxFrames)
+  // give each frame to the detector, and write its results
+  {
+    while ((maxFrames <= 0) || (numFrames < maxFrames)) {
+      long startTime = System.nanoTime();
+      IplImage frame = source.next();
+      if (frame == null)
+        break;
+      long readTime = System.nanoTime() - startTime;
+
+      if (numFrames == 0) {
+        startTime = System.nanoTime();
+        detector.init(frame, config);
+        initTime = System.nanoTime() - startTime;
+      }
+
+      startTime = System.nanoTime();
+      Object[] vals = detector.detect(frame);
+      long detectTime = System.nanoTime() - startTime;
+
+      if (Boolean.TRUE.equals(vals[0]))
+        numFound++;
+      writer.write(numFrames, source.getLabel(), readTime, detectTime, vals);
+      storeTimes(readTime, detectTime);
+    }
+  }  // end of runDetector()
+
+
+
+  private void storeTimes(long readTime, long detectTime)
+  {
+    if (numFrames == detectTimes.length) {    // make the arrays bigger
+      readTimes = Arrays.copyOf(readTimes, numFrames*2);
+      detectTimes = Arrays.copyOf(detectTimes, numFrames*2);
+    }
+    readTimes[numFrames] = readTime;
+    detectTimes[numFrames] = detectTime;
+    numFrames++;
+  }  // end of storeTimes()
+
+
+
+  private void reportStats(long totalTime)
+  {
+    if (numFrames == 0) {
+      System.out.println("No frames were processed");
+      return;
+    }
+    long totalRead = 0;
+    long totalDetect = 0;
+    for (int i = 0; i < numFrames; i++) {
+      totalRead += readTimes[i];
+      totalDetect += detectTimes[i];
+    }
+
+    double secs = totalTime/1000000000.0;
+    System.out.printf("Processed %d frames in %.3f secs: %.1f frames/sec\n",
+                          numFrames, secs, numFrames/secs);
+    System.out.printf("Detector alone: %.1f frames/sec; initialization %.2f ms; mean read time %.2f ms\n",
+                          numFrames/(totalDetect/1000000000.0), initTime/1000000.0,
+                          totalRead/(numFrames*1000000.0));
+    System.out.printf("Found something in %d frames (%.1f%%)\n",
+                          numFound, (100.0*numFound)/numFrames);
+
+    long[] sorted = Arrays.copyOf(detectTimes, numFrames);
+    Arrays.sort(sorted);
+    System.out.printf("Detection times (ms): p50 %.2f; p90 %.2f; p99 %.2f; max %.2f\n",
+                          percentile(sorted, 50), percentile(sorted, 90),
+                          percentile(sorted, 99), sorted[sorted.length-1]/1000000.0);
+  }  // end of reportStats()
+
+
+  private double percentile(long[] sorted, int perc)
+  // nearest-rank percentile of the sorted times, in milliseconds
+  {
+    int idx = (int) Math.ceil(perc/100.0 * sorted.length) - 1;
+    idx = Math.max(0, Math.min(idx, sorted.length-1));
+    return sorted[idx]/1000000.0;
+  }
+
+
+
+  // ------------------------------------------------
+
+  public static void main(String args[])
+  {
+    String config = null;
+    String outFnm = null;
+    boolean isJSON = false;
+    int maxFrames = 0;
+    ArrayList<String> names = new ArrayList<String>();
+
+    try {
+      for (int i = 0; i < args.length; i++) {
+        if (args[i].equals("-c"))
+          config = args[++i];
+        else if (args[i].equals("-o"))
+          outFnm = args[++i];
+        else if (args[i].equals("-j"))
+          isJSON = true;
+        else if (args[i].equals("-n"))
+          maxFrames = Integer.parseInt(args[++i]);
+        else
+          names.add(args[i]);
+      }
+    }
+    catch (Exception e)
+    {  names.clear();  }
+
+    if (names.size() != 2) {
+      System.out.println("Usage: java BatchRunner [-c <config>] [-o <output file>] [-j] [-n <max frames>]");
+      System.out.println("                        <detector> <image folder or video file>");
+      System.out.println("   detectors: " + Arrays.toString(DETECTOR_NAMES));
+      System.out.println("   -j writes JSON lines instead of CSV");
+      return;
+    }
+    new BatchRunner(names.get(0), names.get(1), config, outFnm, isJSON, maxFrames);
+  }  // end of main()
+
+}  // end of BatchRunner class
@@ -0,0 +1,88 @@
+
+// ColorRectFrameDetector.java
+
+/* A FrameDetector for ColorRectDetector (from "05. blobsDrums\BlobsDrumming").
+
+   The config is the name of an HSV ranges file, in the same format as
+   redHSV.txt and blueHSV.txt:
+       hue: <lower> <upper>
+       sat: <lower> <upper>
+       val: <lower> <upper>
+
+   The results are the center and angle of the largest box of that
+   colour in the frame.
+*/
+
+import java.io.*;
+import java.awt.*;
+
+import static com.googlecode.javacv.cpp.opencv_core.*;
+
+
+
+public class ColorRectFrameDetector implements FrameDetector
+{
+  private static final String[] FIELDS = {"found", "centerX", "centerY", "angle"};
+
+  private ColorRectDetector detector;
+
+
+
+  public String[] getFields()
+  {  return FIELDS;  }
+
+
+  public void init(IplImage firstFrame, String config)
+  {
+    if (config == null) {
+      System.out.println("The colorrect detector needs an HSV ranges file (use -c)");
+      System.exit(1);
+    }
+    detector = new ColorRectDetector(firstFrame.width(), firstFrame.height());
+    readHSVRanges(config);
+  }  // end of init()
+
+
+
+  private void readHSVRanges(String fnm)
+  // read three lines for the lower/upper HSV ranges
+  {
+    try {
+      BufferedReader in = new BufferedReader(new FileReader(fnm));
+      int[] vals = extractInts(in.readLine());
+      detector.setHueRange(vals[0], vals[1]);
+      vals = extractInts(in.readLine());
+      detector.setSatRange(vals[0], vals[1]);
+      vals = extractInts(in.readLine());
+      detector.setBriRange(vals[0], vals[1]);
+      in.close();
+      System.out.println("Read HSV ranges from " + fnm);
+    }
+    catch (Exception e)
+    { System.out.println("Could not read HSV ranges from " + fnm);
+      System.exit(1);
+    }
+  }  // end of readHSVRanges()
+
+
+  private int[] extractInts(String line)
+  // format of line  <word>: lower upper
+  {
+    String[] toks = line.trim().split("\\s+");
+    return new int[] { Integer.parseInt(toks[1]), Integer.parseInt(toks[2]) };
+  }
+
+
+
+  public Object[] detect(IplImage frame)
+  {
+    if (!detector.findRect(frame))
+      return new Object[] { false, null, null, null };
+    Point center = detector.getCenter();
+    return new Object[] { true, center.x, center.y, detector.getAngle() };
+  }  // end of detect()
+
+
+  public void close() {}
+
+}  // end of ColorRectFrameDetector class
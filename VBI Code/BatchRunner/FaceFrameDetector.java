@@ -0,0 +1,87 @@
+
+// FaceFrameDetector.java
+
+/* A FrameDetector for Haar face detection, done in the same way as
+   FacePanel in "09. Face Tracking": the frame is converted to grayscale,
+   reduced in size by IM_SCALE and equalized, and then searched for the
+   single biggest face.
+
+   The config is the name of the Haar cascade file
+   (haarcascade_frontalface_alt.xml by default). The results are the
+   face's rectangle, scaled back to the size of the frame.
+
+   Unlike FacePanel, the grayscale images are created once and reused
+   for every frame.
+*/
+
+import com.googlecode.javacv.cpp.*;
+
+import static com.googlecode.javacv.cpp.opencv_core.*;
+import static com.googlecode.javacv.cpp.opencv_imgproc.*;
+import static com.googlecode.javacv.cpp.opencv_objdetect.*;
+
+
+
+public class FaceFrameDetector implements FrameDetector
+{
+  private static final int IM_SCALE = 4;
+
+  private static final String FACE_CASCADE_FNM = "haarcascade_frontalface_alt.xml";
+
+  private static final String[] FIELDS = {"found", "x", "y", "width", "height"};
+
+  private CvHaarClassifierCascade classifier;
+  private CvMemStorage storage;
+  private IplImage grayImg, smallImg;
+
+
+
+  public String[] getFields()
+  {  return FIELDS;  }
+
+
+  public void init(IplImage firstFrame, String config)
+  {
+    String cascadeFnm = (config == null) ? FACE_CASCADE_FNM : config;
+    classifier = new CvHaarClassifierCascade(cvLoad(cascadeFnm));
+    if (classifier.isNull()) {
+      System.out.println("Could not load the classifier file: " + cascadeFnm);
+      System.exit(1);
+    }
+    storage = CvMemStorage.create();
+
+    grayImg = IplImage.create(firstFrame.width(), firstFrame.height(), IPL_DEPTH_8U, 1);
+    smallImg = IplImage.create(firstFrame.width()/IM_SCALE,
+                               firstFrame.height()/IM_SCALE, IPL_DEPTH_8U, 1);
+  }  // end of init()
+
+
+
+  public Object[] detect(IplImage frame)
+  {
+    cvCvtColor(frame, grayImg, CV_BGR2GRAY);
+    cvResize(grayImg, smallImg, CV_INTER_LINEAR);
+    cvEqualizeHist(smallImg, smallImg);
+
+    CvSeq faces = cvHaarDetectObjects(smallImg, classifier, storage, 1.1, 1,
+                              CV_HAAR_DO_ROUGH_SEARCH | CV_HAAR_FIND_BIGGEST_OBJECT);
+    Object[] vals;
+    if (faces.total() == 0)
+      vals = new Object[] { false, null, null, null, null };
+    else {
+      CvRect r = new CvRect(cvGetSeqElem(faces, 0));
+      vals = new Object[] { true, r.x()*IM_SCALE, r.y()*IM_SCALE,
+                            r.width()*IM_SCALE, r.height()*IM_SCALE };
+    }
+    cvClearMemStorage(storage);
+    return vals;
+  }  // end of detect()
+
+
+  public void close()
+  {
+    cvReleaseImage(grayImg);
+    cvReleaseImage(smallImg);
+  }
+
+}  // end of FaceFrameDetector class
@@ -0,0 +1,53 @@
+
+// FingerPrintFrameDetector.java
+
+/* A FrameDetector for FingerUtils (from "08. FPTemplates").
+
+   Each frame is binarized and its fingerprint template built, as
+   FingerPrint does. The results are the print's core (the template's
+   origin), and its number of ridge ends and bifurcations. "found" is
+   true when the template has at least one minutia.
+*/
+
+import java.awt.image.*;
+
+import static com.googlecode.javacv.cpp.opencv_core.*;
+
+
+
+public class FingerPrintFrameDetector implements FrameDetector
+{
+  private static final String[] FIELDS = {"found", "coreX", "coreY", "numEnds", "numSplits"};
+
+
+
+  public String[] getFields()
+  {  return FIELDS;  }
+
+
+  public void init(IplImage firstFrame, String config) {}
+
+
+  public Object[] detect(IplImage frame)
+  {
+    BufferedImage im = frame.getBufferedImage();
+    byte[][] skel = FingerUtils.binarize(im);
+    double[] tmplt = FingerUtils.buildTemplate(skel, im.getWidth(), im.getHeight());
+
+    // count the "number-of-ends" fields, as in FingerPrint
+    int numEnds = 0;
+    int numSplits = 0;
+    for (int i = 7; i < tmplt[0]; i = i+6) {
+      if (tmplt[i+4] > 1)
+        numSplits++;
+      else if (tmplt[i+4] == 1)
+        numEnds++;
+    }
+    return new Object[] { (numEnds + numSplits > 0), (int)tmplt[1], (int)tmplt[2],
+                          numEnds, numSplits };
+  }  // end of detect()
+
+
+  public void close() {}
+
+}  // end of FingerPrintFrameDetector class
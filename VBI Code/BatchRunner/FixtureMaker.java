@@ -0,0 +1,226 @@
+
+// FixtureMaker.java
+
+/* Draws the synthetic images used by GoldenCheck, in fixtures/:
+
+     motion/     eight frames of a white square moving right by 10 pixels
+                 a frame across a black background
+     colorrect/  a red box at 30 degrees (with a red speck too small to
+                 count), a red box at 135 degrees, and a blue box
+     grid/       a square Sudoku grid, a grid seen in perspective, and a
+                 small square which is too small to be a grid
+     hand/       a dark glove with four pointed fingers and a thumb, and
+                 an empty background
+
+   The shapes are drawn without anti-aliasing, so the images are the same
+   every time they're made. The golden values in each directory's
+   golden.csv were recorded with "GoldenCheck -r", and checked against
+   the positions used here, so any change to the drawing must be followed
+   by recording them again.
+
+   Usage:
+     > java FixtureMaker            // writes into fixtures/
+*/
+
+import java.awt.*;
+import java.awt.geom.*;
+import java.awt.image.*;
+import java.io.*;
+import javax.imageio.*;
+
+
+
+public class FixtureMaker
+{
+  private static final String FIXTURES_DIR = "fixtures";
+
+  private static final Color RED = Color.getHSBColor(330/360.0f, 0.9f, 0.8f);
+                         // OpenCV HSV (165, 229, 204), inside redHSV.txt's ranges
+  private static final Color BLUE = Color.getHSBColor(240/360.0f, 0.9f, 0.8f);
+  private static final Color GLOVE = new Color(20, 10, 35);
+                         // OpenCV HSV (132, 181, 35), inside gloveHSV.txt's ranges
+
+
+
+  public FixtureMaker(String dirName)
+  {
+    makeMotion(dirName + "/motion");
+    makeColorRects(dirName + "/colorrect");
+    makeGrids(dirName + "/grid");
+    makeHands(dirName + "/hand");
+  }  // end of FixtureMaker()
+
+
+
+  private void makeMotion(String dir)
+  // a 40x40 square, starting at (60,100), moving 10 pixels right each frame
+  {
+    for (int i = 0; i < 8; i++) {
+      BufferedImage im = new BufferedImage(320, 240, BufferedImage.TYPE_3BYTE_BGR);
+      Graphics2D g2 = startDrawing(im, Color.BLACK);
+      g2.setColor(Color.WHITE);
+      g2.fillRect(60 + 10*i, 100, 40, 40);
+      save(im, g2, dir, "frame" + i + ".png");
+    }
+  }  // end of makeMotion()
+
+
+
+  private void makeColorRects(String dir)
+  {
+    BufferedImage im = new BufferedImage(640, 480, BufferedImage.TYPE_3BYTE_BGR);
+    Graphics2D g2 = startDrawing(im, new Color(190, 190, 190));
+    g2.setColor(RED);
+    fillBox(g2, 320, 240, 160, 80, 30);
+    g2.fillRect(560, 40, 20, 20);     // smaller than SMALLEST_BOX
+    save(im, g2, dir, "box1.png");
+
+    g2 = startDrawing(im, new Color(190, 190, 190));
+    g2.setColor(RED);
+    fillBox(g2, 200, 300, 120, 60, 135);
+    save(im, g2, dir, "box2.png");
+
+    g2 = startDrawing(im, new Color(190, 190, 190));
+    g2.setColor(BLUE);
+    fillBox(g2, 320, 240, 160, 80, 30);
+    save(im, g2, dir, "box3.png");
+  }  // end of makeColorRects()
+
+
+  private void fillBox(Graphics2D g2, int xc, int yc, int len, int width, int angle)
+  // a box centered on (xc,yc), with its long side at angle degrees (counter-clockwise)
+  {
+    AffineTransform at = new AffineTransform();
+    at.translate(xc, yc);
+    at.rotate( -Math.toRadians(angle));    // y runs down the screen
+    g2.fill( at.createTransformedShape(
+                    new Rectangle2D.Double(-len/2.0, -width/2.0, len, width)));
+  }  // end of fillBox()
+
+
+
+  private void makeGrids(String dir)
+  {
+    BufferedImage im = new BufferedImage(640, 480, BufferedImage.TYPE_3BYTE_BGR);
+    Graphics2D g2 = startDrawing(im, Color.WHITE);
+    drawGrid(g2, new Point(120, 40), new Point(520, 40), new Point(520, 440), new Point(120, 440));
+    save(im, g2, dir, "grid1.png");
+
+    g2 = startDrawing(im, Color.WHITE);
+    drawGrid(g2, new Point(100, 60), new Point(540, 30), new Point(560, 450), new Point(80, 420));
+    save(im, g2, dir, "grid2.png");
+
+    g2 = startDrawing(im, Color.WHITE);
+    drawGrid(g2, new Point(270, 190), new Point(370, 190), new Point(370, 290), new Point(270, 290));
+    save(im, g2, dir, "grid3.png");
+  }  // end of makeGrids()
+
+
+  private void drawGrid(Graphics2D g2, Point tl, Point tr, Point br, Point bl)
+  /* a 9x9 grid with a thick border, whose outside edge is the four corners,
+     and thin lines between the cells */
+  {
+    g2.setColor(Color.BLACK);
+    g2.fill( quad(tl, tr, br, bl, 0));
+    g2.setColor(Color.WHITE);
+    g2.fill( quad(tl, tr, br, bl, 0.02));     // leaves the border
+
+    g2.setColor(Color.BLACK);
+    g2.setStroke( new BasicStroke(2));
+    for (int i = 1; i < 9; i++) {
+      double t = i/9.0;
+      g2.draw( new Line2D.Double(lerp(tl, tr, t), lerp(bl, br, t)));
+      g2.draw( new Line2D.Double(lerp(tl, bl, t), lerp(tr, br, t)));
+    }
+  }  // end of drawGrid()
+
+
+  private Path2D quad(Point tl, Point tr, Point br, Point bl, double inset)
+  // the quadrilateral, with each corner moved inset of the way to the opposite one
+  {
+    Point2D p0 = lerp(tl, br, inset);
+    Point2D p1 = lerp(tr, bl, inset);
+    Point2D p2 = lerp(br, tl, inset);
+    Point2D p3 = lerp(bl, tr, inset);
+    Path2D path = new Path2D.Double();
+    path.moveTo(p0.getX(), p0.getY());
+    path.lineTo(p1.getX(), p1.getY());
+    path.lineTo(p2.getX(), p2.getY());
+    path.lineTo(p3.getX(), p3.getY());
+    path.closePath();
+    return path;
+  }  // end of quad()
+
+
+  private Point2D lerp(Point2D p1, Point2D p2, double t)
+  {  return new Point2D.Double(p1.getX() + t*(p2.getX()-p1.getX()),
+                               p1.getY() + t*(p2.getY()-p1.getY()));  }
+
+
+
+  private void makeHands(String dir)
+  {
+    BufferedImage im = new BufferedImage(640, 480, BufferedImage.TYPE_3BYTE_BGR);
+    Graphics2D g2 = startDrawing(im, new Color(210, 210, 200));
+    g2.setColor(GLOVE);
+    g2.fill( handShape());
+    save(im, g2, dir, "hand1.png");
+
+    g2 = startDrawing(im, new Color(210, 210, 200));
+    save(im, g2, dir, "hand2.png");
+  }  // end of makeHands()
+
+
+  public static Area handShape()
+  /* a palm and wrist running off the bottom of the image, four pointed
+     fingers with their tips at (265,160), (305,140), (345,150), (385,175),
+     and a thumb pointing up and left, with its tip at (170,280) */
+  {
+    Area hand = new Area( new Rectangle(240, 260, 165, 160));    // palm
+    hand.add( new Area( new Rectangle(260, 420, 125, 60)));      // wrist
+
+    int[] tipXs = {265, 305, 345, 385};
+    int[] tipYs = {160, 140, 150, 175};
+    for (int i = 0; i < tipXs.length; i++)
+      hand.add( new Area( new Polygon( new int[] {tipXs[i]-17, tipXs[i], tipXs[i]+17},
+                                       new int[] {262, tipYs[i], 262}, 3)));
+
+    hand.add( new Area( new Polygon( new int[] {242, 170, 242},
+                                     new int[] {300, 280, 365}, 3)));    // thumb
+    return hand;
+  }  // end of handShape()
+
+
+
+  private Graphics2D startDrawing(BufferedImage im, Color bg)
+  {
+    Graphics2D g2 = im.createGraphics();
+    g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+    g2.setColor(bg);
+    g2.fillRect(0, 0, im.getWidth(), im.getHeight());
+    return g2;
+  }  // end of startDrawing()
+
+
+
+  private void save(BufferedImage im, Graphics2D g2, String dir, String fnm)
+  {
+    g2.dispose();
+    new File(dir).mkdirs();
+    File f = new File(dir, fnm);
+    try {
+      ImageIO.write(im, "png", f);
+      System.out.println("Wrote " + f);
+    }
+    catch (IOException e)
+    {  System.out.println("Could not write " + f);  }
+  }  // end of save()
+
+
+
+  // ------------------------------------------------
+
+  public static void main(String args[])
+  {  new FixtureMaker(FIXTURES_DIR);  }
+
+}  // end of FixtureMaker class
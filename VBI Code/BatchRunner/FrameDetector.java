@@ -0,0 +1,36 @@
+
+// FrameDetector.java
+
+/* The interface between BatchRunner and one of the book's detectors.
+
+   A FrameDetector wraps a detector so it can be given frames from a
+   FrameSource, without a camera or a panel. Its results for each frame
+   are returned as an array of values, one for each field name, which
+   ResultWriter writes as a CSV line or a JSON object.
+
+   The first field is always "found", a Boolean saying whether the
+   detector found anything in the frame. A null value means the field has
+   no value for that frame (e.g. the center of a hand that wasn't found).
+
+   The detectors are stateful, so a FrameDetector is only used by one
+   thread, and sees the frames in order.
+*/
+
+import static com.googlecode.javacv.cpp.opencv_core.*;
+
+
+
+public interface FrameDetector
+{
+  public String[] getFields();
+  // the names of the values returned by detect(), starting with "found"
+
+  public void init(IplImage firstFrame, String config);
+  /* called before the first frame is detected, with the optional config
+     string from the command line (e.g. an HSV ranges file) */
+
+  public Object[] detect(IplImage frame);
+  // the results for this frame; the frame may be changed by the detector
+
+  public void close();
+}  // end of FrameDetector interface
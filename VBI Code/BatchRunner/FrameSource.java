@@ -0,0 +1,202 @@
+
+// FrameSource.java
+
+/* Supplies BatchRunner with frames, one at a time, from a folder of
+   images or from a video file.
+
+   A folder's images (.png, .jpg, .jpeg, .bmp, .pgm, .ppm, .tif) are read in
+   the sorted order of their file names, and each one is released when the
+   next one is read. A video is read with FFmpegFrameGrabber, so any
+   format that FFmpeg understands can be used.
+
+   Every frame is the same size as the first one, since the detectors
+   create their images when they're initialized. Any frame of a different
+   size is resized into a reused image.
+
+   A frame returned by next() is only valid until the next call to next().
+*/
+
+import java.io.*;
+import java.util.*;
+
+import com.googlecode.javacv.*;
+
+import static com.googlecode.javacv.cpp.opencv_core.*;
+import static com.googlecode.javacv.cpp.opencv_imgproc.*;
+import static com.googlecode.javacv.cpp.opencv_highgui.*;
+
+
+
+public class FrameSource
+{
+  private static final String[] IMAGE_EXTS =
+                  {".png", ".jpg", ".jpeg", ".bmp", ".pgm", ".ppm", ".tif", ".tiff"};
+
+  private String name;
+
+  // for a folder
+  private File[] files = null;
+  private int fileIdx = 0;
+  private IplImage loadedIm = null;   // the last image read from a file
+
+  // for a video
+  private FrameGrabber grabber = null;
+
+  private int width = -1, height = -1;     // of the first frame
+  private IplImage sizedIm = null;    // for frames which need resizing
+  private String label = "";          // of the current frame
+  private boolean isOpen = false;
+
+
+
+  public FrameSource(String name)
+  {
+    this.name = name;
+    File f = new File(name);
+    if (f.isDirectory())
+      openFolder(f);
+    else if (f.exists())
+      openVideo(name);
+    else
+      System.out.println(name + " is not a folder or a video file");
+  }  // end of FrameSource()
+
+
+
+  private void openFolder(File dir)
+  {
+    ArrayList<File> images = new ArrayList<File>();
+    File[] entries = dir.listFiles();
+    if (entries != null) {
+      for (File f : entries)
+        if (f.isFile() && isImage(f.getName()))
+          images.add(f);
+    }
+    if (images.isEmpty()) {
+      System.out.println("No images found in " + dir);
+      return;
+    }
+    Collections.sort(images);
+    files = images.toArray(new File[images.size()]);
+    System.out.println("Reading " + files.length + " images from " + dir);
+    isOpen = true;
+  }  // end of openFolder()
+
+
+  private boolean isImage(String fnm)
+  {
+    String nm = fnm.toLowerCase();
+    for (String ext : IMAGE_EXTS)
+      if (nm.endsWith(ext))
+        return true;
+    return false;
+  }  // end of isImage()
+
+
+
+  private void openVideo(String fnm)
+  {
+    grabber = new FFmpegFrameGrabber(fnm);
+    try {
+      grabber.start();
+      System.out.println("Reading frames from " + fnm);
+      isOpen = true;
+    }
+    catch (Exception e)
+    { System.out.println("Could not open video " + fnm + ": " + e);
+      grabber = null;
+    }
+  }  // end of openVideo()
+
+
+
+  public boolean isOpen()
+  {  return isOpen;  }
+
+
+
+  public IplImage next()
+  // return the next frame, or null when there are no more
+  {
+    if (!isOpen)
+      return null;
+    IplImage im = (grabber != null) ? grabFrame() : loadFrame();
+    if (im == null)
+      return null;
+
+    if (width == -1) {     // the first frame sets the size
+      width = im.width();
+      height = im.height();
+    }
+    else if ((im.width() != width) || (im.height() != height)) {
+      if (sizedIm == null)
+        sizedIm = IplImage.create(width, height, IPL_DEPTH_8U, 3);
+      cvResize(im, sizedIm, CV_INTER_LINEAR);
+      im = sizedIm;
+    }
+    return im;
+  }  // end of next()
+
+
+
+  private IplImage loadFrame()
+  // load the next image file as a color image, skipping unreadable ones
+  {
+    if (loadedIm != null) {
+      cvReleaseImage(loadedIm);
+      loadedIm = null;
+    }
+    while (fileIdx < files.length) {
+      File f = files[fileIdx++];
+      loadedIm = cvLoadImage(f.getPath(), CV_LOAD_IMAGE_COLOR);
+      if (loadedIm != null) {
+        label = f.getName();
+        return loadedIm;
+      }
+      System.out.println("Could not read " + f + "; skipping it");
+    }
+    return null;
+  }  // end of loadFrame()
+
+
+
+  private IplImage grabFrame()
+  {
+    try {
+      IplImage im = grabber.grab();
+      if (im != null)
+        label = "" + (grabber.getTimestamp()/1000);    // ms into the video
+      return im;
+    }
+    catch (Exception e)
+    { System.out.println("Problem reading " + name + ": " + e);
+      return null;
+    }
+  }  // end of grabFrame()
+
+
+
+  public String getLabel()
+  // the current frame's file name, or its time (in ms) in the video
+  {  return label;  }
+
+
+
+  public void close()
+  {
+    if (loadedIm != null) {
+      cvReleaseImage(loadedIm);
+      loadedIm = null;
+    }
+    if (grabber != null) {
+      try {
+        grabber.stop();
+        grabber.release();
+      }
+      catch (Exception e) {}
+      grabber = null;
+    }
+    isOpen = false;
+  }  // end of close()
+
+}  // end of FrameSource class
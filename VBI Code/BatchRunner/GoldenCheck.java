@@ -0,0 +1,472 @@
+
+// GoldenCheck.java
+
+/* Checks the detectors' results for the fixture images in fixtures/
+   against golden values, so that changes to the detectors (e.g. to make
+   them faster) can't silently change what they find. It needs no webcam
+   or display, so can be run on a headless machine, and it exits with
+   status 1 if any result doesn't match, so it can be run as part of a build.
+
+   Each subdirectory of fixtures/ is a suite, with its images (read in file
+   name order by FrameSource, as in BatchRunner) and a golden.csv file:
+
+       # detector colorrect
+       # config redHSV.txt          (optional; relative to the suite directory)
+       # tolerance 3
+       source,found,centerX,centerY,angle
+       box1.png,true,320,240,30
+       ...
+
+   The header names the image file column ("source") and the detector
+   fields which are checked; not every field has to be. A golden value can be:
+       *              not checked
+       (empty)        the field must have no value
+       a number       the result must be within the tolerance of it
+       lo..hi         the result must be a number between lo and hi
+       x:y x:y ...    a list of points; the result must have the same number,
+                      in the same order, each within the tolerance
+       ~x:y x:y ...   a set of points; every point in the result must be within
+                      the tolerance of a different one of these points
+       anything else  the result must be the same string
+   Values can't contain commas.
+
+   The images and golden values are made by FixtureMaker. When a detector's
+   results are meant to change, the golden values can be recorded again
+   from the current results with -r, which keeps the "*" values, but
+   replaces ranges and point sets by the exact results.
+
+   Usage:
+     > java GoldenCheck                // check every suite in fixtures/
+     > java GoldenCheck -r hand        // record new golden values for fixtures/hand/
+*/
+
+import java.io.*;
+import java.util.*;
+
+import static com.googlecode.javacv.cpp.opencv_core.*;
+
+
+
+public class GoldenCheck
+{
+  private static final String FIXTURES_DIR = "fixtures";
+  private static final String GOLDEN_FNM = "golden.csv";
+
+  private static final String SOURCE_FIELD = "source";
+
+  private int numFrames = 0;
+  private int numFailures = 0;
+
+
+
+  public GoldenCheck(String[] suiteNames, boolean isRecording)
+  {
+    File[] dirs = findSuites(suiteNames);
+    if (dirs.length == 0) {
+      System.out.println("No fixture suites found in " + FIXTURES_DIR);
+      numFailures++;
+      return;
+    }
+
+    for (File dir : dirs)
+      runSuite(dir, isRecording);
+
+    if (isRecording)
+      System.out.println("Recorded golden values for " + numFrames + " frames");
+    else if (numFailures == 0)
+      System.out.println("All " + numFrames + " frames in " + dirs.length +
+                                        " suites match their golden values");
+    else
+      System.out.println(numFailures + " mismatches in " + numFrames + " frames");
+  }  // end of GoldenCheck()
+
+
+
+  private File[] findSuites(String[] suiteNames)
+  // the named suites, or all the fixtures subdirectories with golden files
+  {
+    ArrayList<File> dirs = new ArrayList<File>();
+    if (suiteNames.length > 0) {
+      for (String nm : suiteNames)
+        dirs.add( new File(FIXTURES_DIR, nm));
+    }
+    else {
+      File[] entries = new File(FIXTURES_DIR).listFiles();
+      if (entries != null) {
+        for (File f : entries)
+          if (new File(f, GOLDEN_FNM).exists())
+            dirs.add(f);
+      }
+      Collections.sort(dirs);
+    }
+    return dirs.toArray(new File[dirs.size()]);
+  }  // end of findSuites()
+
+
+
+  public boolean isOK()
+  {  return (numFailures == 0);  }
+
+
+
+  // ------------------- running a suite -------------------------
+
+
+  private void runSuite(File dir, boolean isRecording)
+  {
+    String suite = dir.getName();
+    Golden golden = new Golden(new File(dir, GOLDEN_FNM));
+    if (!golden.isOK()) {
+      numFailures++;
+      return;
+    }
+
+    FrameDetector detector = BatchRunner.makeDetector(golden.detName);
+    if (detector == null) {
+      System.out.println(suite + ": unknown detector " + golden.detName);
+      numFailures++;
+      return;
+    }
+    int[] fieldIdxs = findFields(suite, golden.fields, detector.getFields());
+    if (fieldIdxs == null)
+      return;
+
+    FrameSource source = new FrameSource(dir.getPath());
+    if (!source.isOpen()) {
+      numFailures++;
+      return;
+    }
+    String config = (golden.config == null) ? null :
+                                      new File(dir, golden.config).getPath();
+
+    int suiteFailures = numFailures;
+    HashSet<String> seen = new HashSet<String>();
+    IplImage frame;
+    while ((frame = source.next()) != null) {
+      if (seen.isEmpty())
+        detector.init(frame, config);
+      Object[] vals = detector.detect(frame);
+      String label = source.getLabel();
+      seen.add(label);
+      numFrames++;
+
+      String[] expected = golden.rows.get(label);
+      if (isRecording)
+        golden.rows.put(label, record(expected, vals, fieldIdxs));
+      else if (expected == null)
+        fail(suite, label, "no golden values");
+      else
+        compare(suite, label, expected, vals, golden.fields, fieldIdxs, golden.tolerance);
+    }
+    detector.close();
+    source.close();
+
+    if (isRecording) {
+      golden.rows.keySet().retainAll(seen);
+      golden.save();
+      return;
+    }
+    for (String label : golden.rows.keySet())
+      if (!seen.contains(label))
+        fail(suite, label, "image missing");
+    int suiteMismatches = numFailures - suiteFailures;
+    System.out.println(suite + ": " + seen.size() + " frames, " +
+                ((suiteMismatches == 0) ? "OK" : suiteMismatches + " mismatches"));
+  }  // end of runSuite()
+
+
+
+  private int[] findFields(String suite, String[] goldenFields, String[] detFields)
+  // the index of each golden field in the detector's results
+  {
+    int[] idxs = new int[goldenFields.length];
+    for (int i = 0; i < goldenFields.length; i++) {
+      idxs[i] = Arrays.asList(detFields).indexOf(goldenFields[i]);
+      if (idxs[i] == -1) {
+        System.out.println(suite + ": the detector has no field called " + goldenFields[i]);
+        numFailures++;
+        return null;
+      }
+    }
+    return idxs;
+  }  // end of findFields()
+
+
+
+  private void compare(String suite, String label, String[] expected, Object[] vals,
+                       String[] fields, int[] fieldIdxs, double tolerance)
+  {
+    for (int i = 0; i < fieldIdxs.length; i++) {
+      String actual = (vals[fieldIdxs[i]] == null) ? "" : vals[fieldIdxs[i]].toString();
+      if (!matches(expected[i], actual, tolerance))
+        fail(suite, label, fields[i] + ": expected \"" + expected[i] +
+                                     "\" (tolerance " + tolerance + "), got \"" + actual + "\"");
+    }
+  }  // end of compare()
+
+
+  private String[] record(String[] expected, Object[] vals, int[] fieldIdxs)
+  // the current results, keeping any "*" golden values
+  {
+    String[] row = new String[fieldIdxs.length];
+    for (int i = 0; i < fieldIdxs.length; i++) {
+      if ((expected != null) && expected[i].equals("*"))
+        row[i] = "*";
+      else
+        row[i] = (vals[fieldIdxs[i]] == null) ? "" : vals[fieldIdxs[i]].toString();
+    }
+    return row;
+  }  // end of record()
+
+
+  private void fail(String suite, String label, String msg)
+  {
+    System.out.println("  " + suite + "/" + label + ": " + msg);
+    numFailures++;
+  }
+
+
+
+  // ------------------- comparing values -------------------------
+
+
+  private boolean matches(String expected, String actual, double tol)
+  {
+    if (expected.equals("*"))
+      return true;
+    if (expected.length() == 0)
+      return (actual.length() == 0);
+    if (expected.startsWith("~"))
+      return matchesPointSet(expected.substring(1), actual, tol);
+    if (expected.contains(".."))
+      return inRange(expected, actual);
+    if (expected.contains(":"))
+      return matchesPoints(expected, actual, tol);
+
+    try {
+      return (Math.abs(Double.parseDouble(actual) - Double.parseDouble(expected)) <= tol);
+    }
+    catch (NumberFormatException e)
+    {  return expected.equals(actual);  }
+  }  // end of matches()
+
+
+
+  private boolean inRange(String range, String actual)
+  // is actual a number in the range "lo..hi"?
+  {
+    int pos = range.indexOf("..");
+    try {
+      double lo = Double.parseDouble( range.substring(0, pos));
+      double hi = Double.parseDouble( range.substring(pos+2));
+      double val = Double.parseDouble(actual);
+      return ((val >= lo) && (val <= hi));
+    }
+    catch (NumberFormatException e)
+    {  return false;  }
+  }  // end of inRange()
+
+
+
+  private boolean matchesPoints(String expected, String actual, double tol)
+  // the same number of points, in the same order, each within the tolerance
+  {
+    double[][] expPts = parsePoints(expected);
+    double[][] actPts = parsePoints(actual);
+    if ((expPts == null) || (actPts == null) || (expPts.length != actPts.length))
+      return false;
+    for (int i = 0; i < expPts.length; i++)
+      if (!isNear(expPts[i], actPts[i], tol))
+        return false;
+    return true;
+  }  // end of matchesPoints()
+
+
+
+  private boolean matchesPointSet(String expected, String actual, double tol)
+  // every actual point is near a different expected point
+  {
+    double[][] expPts = parsePoints(expected);
+    double[][] actPts = parsePoints(actual);
+    if ((expPts == null) || (actPts == null) || (actPts.length > expPts.length))
+      return false;
+
+    boolean[] used = new boolean[expPts.length];
+    for (double[] pt : actPts) {
+      int nearest = -1;
+      double nearestDist = Double.MAX_VALUE;
+      for (int i = 0; i < expPts.length; i++) {
+        if (used[i] || !isNear(expPts[i], pt, tol))
+          continue;
+        double dist = Math.hypot(expPts[i][0]-pt[0], expPts[i][1]-pt[1]);
+        if (dist < nearestDist) {
+          nearest = i;
+          nearestDist = dist;
+        }
+      }
+      if (nearest == -1)
+        return false;
+      used[nearest] = true;
+    }
+    return true;
+  }  // end of matchesPointSet()
+
+
+
+  private double[][] parsePoints(String s)
+  // "x:y x:y ..." as an array of (x,y) pairs, or null if it's not points
+  {
+    s = s.trim();
+    if (s.length() == 0)
+      return new double[0][];
+    String[] toks = s.split("\\s+");
+    double[][] pts = new double[toks.length][];
+    try {
+      for (int i = 0; i < toks.length; i++) {
+        String[] xy = toks[i].split(":");
+        if (xy.length != 2)
+          return null;
+        pts[i] = new double[] { Double.parseDouble(xy[0]), Double.parseDouble(xy[1]) };
+      }
+    }
+    catch (NumberFormatException e)
+    {  return null;  }
+    return pts;
+  }  // end of parsePoints()
+
+
+  private boolean isNear(double[] p1, double[] p2, double tol)
+  {  return ((Math.abs(p1[0]-p2[0]) <= tol) && (Math.abs(p1[1]-p2[1]) <= tol));  }
+
+
+
+  // ------------------------------------------------------------
+
+  private static class Golden
+  // the contents of a suite's golden file
+  {
+    File file;
+    ArrayList<String> comments = new ArrayList<String>();
+    String detName = null;
+    String config = null;
+    double tolerance = 0;
+    String[] fields = null;      // not including the source column
+    LinkedHashMap<String, String[]> rows = new LinkedHashMap<String, String[]>();
+                                        // image file name --> golden values
+
+
+    public Golden(File file)
+    {
+      this.file = file;
+      try {
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        String line;
+        while ((line = in.readLine()) != null) {
+          line = line.trim();
+          if (line.length() == 0)
+            continue;
+          if (line.startsWith("#"))
+            readComment(line);
+          else if (fields == null)
+            readHeader(line);
+          else
+            readRow(line);
+        }
+        in.close();
+      }
+      catch (Exception e)
+      { System.out.println("Could not read " + file + ": " + e);
+        fields = null;
+      }
+    }  // end of Golden()
+
+
+    private void readComment(String line)
+    {
+      comments.add(line);
+      String[] toks = line.substring(1).trim().split("\\s+", 2);
+      if (toks.length < 2)
+        return;
+      if (toks[0].equals("detector"))
+        detName = toks[1];
+      else if (toks[0].equals("config"))
+        config = toks[1];
+      else if (toks[0].equals("tolerance"))
+        tolerance = Double.parseDouble(toks[1]);
+    }  // end of readComment()
+
+
+    private void readHeader(String line) throws IOException
+    {
+      String[] toks = line.split(",", -1);
+      if (!toks[0].equals(SOURCE_FIELD))
+        throw new IOException("the first column must be " + SOURCE_FIELD);
+      fields = Arrays.copyOfRange(toks, 1, toks.length);
+    }
+
+
+    private void readRow(String line) throws IOException
+    {
+      String[] toks = line.split(",", -1);
+      if (toks.length != fields.length + 1)
+        throw new IOException("wrong number of values in \"" + line + "\"");
+      rows.put(toks[0], Arrays.copyOfRange(toks, 1, toks.length));
+    }
+
+
+    public boolean isOK()
+    {
+      if ((fields != null) && (detName == null))
+        System.out.println(file + " doesn't name a detector");
+      return ((fields != null) && (detName != null));
+    }
+
+
+    public void save()
+    // write the comments, header, and rows back to the file
+    {
+      try {
+        PrintWriter out = new PrintWriter( new BufferedWriter( new FileWriter(file)));
+        for (String c : comments)
+          out.println(c);
+        StringBuilder sb = new StringBuilder(SOURCE_FIELD);
+        for (String f : fields)
+          sb.append(',').append(f);
+        out.println(sb);
+        for (Map.Entry<String, String[]> row : rows.entrySet()) {
+          sb = new StringBuilder(row.getKey());
+          for (String v : row.getValue())
+            sb.append(',').append(v);
+          out.println(sb);
+        }
+        out.close();
+        System.out.println("Wrote " + file);
+      }
+      catch (IOException e)
+      {  System.out.println("Could not write " + file);  }
+    }  // end of save()
+
+  }  // end of Golden class
+
+
+
+  // ------------------------------------------------
+
+  public static void main(String args[])
+  {
+    boolean isRecording = false;
+    ArrayList<String> suiteNames = new ArrayList<String>();
+    for (String arg : args) {
+      if (arg.equals("-r"))
+        isRecording = true;
+      else
+        suiteNames.add(arg);
+    }
+
+    GoldenCheck checker = new GoldenCheck(
+                   suiteNames.toArray(new String[suiteNames.size()]), isRecording);
+    if (!checker.isOK())
+      System.exit(1);
+  }  // end of main()
+
+}  // end of GoldenCheck class
@@ -0,0 +1,53 @@
+
+// GridFrameDetector.java
+
+/* A FrameDetector for GridVisualizer (from "13. SudokuOCR"), which
+   finds the outline of a Sudoku grid. The visualizer is created without
+   its progress window.
+
+   The result is the grid's four corners, in clockwise order, as "x:y" pairs
+   separated by spaces.
+*/
+
+import java.awt.*;
+
+import static com.googlecode.javacv.cpp.opencv_core.*;
+
+
+
+public class GridFrameDetector implements FrameDetector
+{
+  private static final String[] FIELDS = {"found", "corners"};
+
+  private GridVisualizer visualizer;
+
+
+
+  public String[] getFields()
+  {  return FIELDS;  }
+
+
+  public void init(IplImage firstFrame, String config)
+  {  visualizer = new GridVisualizer(false);  }
+
+
+  public Object[] detect(IplImage frame)
+  {
+    Point[] pts = visualizer.findOutline(frame);
+    if (pts == null)
+      return new Object[] { false, null };
+
+    StringBuilder sb = new StringBuilder();
+    for (Point pt : pts) {
+      if (sb.length() > 0)
+        sb.append(' ');
+      sb.append(pt.x).append(':').append(pt.y);
+    }
+    return new Object[] { true, sb.toString() };
+  }  // end of detect()
+
+
+  public void close()
+  {  visualizer.close();  }
+
+}  // end of GridFrameDetector class
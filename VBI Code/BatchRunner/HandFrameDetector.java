@@ -0,0 +1,70 @@
+
+// HandFrameDetector.java
+
+/* A FrameDetector for HandDetector (from "06. HandDetector").
+
+   The config is the name of the glove's HSV ranges file (gloveHSV.txt
+   by default). The results are the hand's center-of-gravity (COG), the
+   angle of its contour axis, the number of finger tips, the tips' coordinates
+   (as "x:y" pairs separated by spaces), and the names of the fingers.
+*/
+
+import java.awt.*;
+import java.util.*;
+
+import static com.googlecode.javacv.cpp.opencv_core.*;
+
+
+
+public class HandFrameDetector implements FrameDetector
+{
+  private static final String HSV_FNM = "gloveHSV.txt";
+
+  private static final String[] FIELDS =
+            {"found", "cogX", "cogY", "angle", "numTips", "tips", "fingers"};
+
+  private HandDetector detector;
+
+
+
+  public String[] getFields()
+  {  return FIELDS;  }
+
+
+  public void init(IplImage firstFrame, String config)
+  {
+    String hsvFnm = (config == null) ? HSV_FNM : config;
+    detector = new HandDetector(hsvFnm, firstFrame.width(), firstFrame.height());
+  }
+
+
+  public Object[] detect(IplImage frame)
+  {
+    detector.update(frame);
+    if (!detector.isHandFound())
+      return new Object[] { false, null, null, null, 0, "", "" };
+
+    ArrayList<Point> tips = detector.getFingerTips();
+    StringBuilder tipsSB = new StringBuilder();
+    for (Point pt : tips) {
+      if (tipsSB.length() > 0)
+        tipsSB.append(' ');
+      tipsSB.append(pt.x).append(':').append(pt.y);
+    }
+
+    StringBuilder namesSB = new StringBuilder();
+    for (FingerName nm : detector.getNamedFingers()) {
+      if (namesSB.length() > 0)
+        namesSB.append(' ');
+      namesSB.append(nm);
+    }
+
+    Point cog = detector.getCOG();
+    return new Object[] { true, cog.x, cog.y, detector.getContourAxisAngle(),
+                          tips.size(), tipsSB.toString(), namesSB.toString() };
+  }  // end of detect()
+
+
+  public void close() {}
+
+}  // end of HandFrameDetector class
@@ -0,0 +1,52 @@
+
+// MotionFrameDetector.java
+
+/* A FrameDetector for JCVMotionDetector (from "04. MotionDetection").
+
+   Each frame is compared with the one before it. The results are the
+   number of moving (white) pixels in the difference image, and the
+   detector's smoothed center-of-gravity (COG) of the movement. "found" is
+   true when the COG exists.
+*/
+
+import java.awt.*;
+
+import static com.googlecode.javacv.cpp.opencv_core.*;
+
+
+
+public class MotionFrameDetector implements FrameDetector
+{
+  private static final String[] FIELDS = {"found", "movingPixels", "cogX", "cogY"};
+
+  private JCVMotionDetector detector;
+
+
+
+  public String[] getFields()
+  {  return FIELDS;  }
+
+
+  public void init(IplImage firstFrame, String config)
+  // the detector smooths the frame it's given, so give it a copy
+  {
+    IplImage im = cvCloneImage(firstFrame);
+    detector = new JCVMotionDetector(im);
+    cvReleaseImage(im);
+  }  // end of init()
+
+
+  public Object[] detect(IplImage frame)
+  {
+    detector.calcMove(frame);
+    int numPixels = cvCountNonZero(detector.getDiffImg());
+    Point cog = detector.getCOG();
+    if (cog == null)
+      return new Object[] { false, numPixels, null, null };
+    return new Object[] { true, numPixels, cog.x, cog.y };
+  }  // end of detect()
+
+
+  public void close() {}
+
+}  // end of MotionFrameDetector class
@@ -0,0 +1,62 @@
+
+// QRFrameDetector.java
+
+/* A FrameDetector for QRCodex (from "14. QRExec").
+
+   As in QRBatch, each frame is decoded quickly first, and only decoded
+   again with TRY_HARDER if that fails; a config of "fast" skips the
+   second pass. The results are which pass found the QR code, its
+   format, and its message.
+*/
+
+import java.util.*;
+import java.awt.image.*;
+
+import com.google.zxing.*;
+import com.google.zxing.qrcode.*;
+
+import static com.googlecode.javacv.cpp.opencv_core.*;
+
+
+
+public class QRFrameDetector implements FrameDetector
+{
+  private static final String[] FIELDS = {"found", "pass", "format", "message"};
+
+  private QRCodeReader reader;
+  private Hashtable<DecodeHintType, Object> fastHints, hardHints;
+  private boolean useHardPass = true;
+
+
+
+  public String[] getFields()
+  {  return FIELDS;  }
+
+
+  public void init(IplImage firstFrame, String config)
+  {
+    reader = new QRCodeReader();
+    fastHints = QRCodex.makeHints(false);
+    hardHints = QRCodex.makeHints(true);
+    useHardPass = !"fast".equals(config);
+  }  // end of init()
+
+
+  public Object[] detect(IplImage frame)
+  {
+    BufferedImage im = frame.getBufferedImage();
+    String pass = "fast";
+    Result res = QRCodex.decode(im, reader, fastHints);
+    if ((res == null) && useHardPass) {
+      res = QRCodex.decode(im, reader, hardHints);
+      pass = "hard";
+    }
+    if (res == null)
+      return new Object[] { false, null, null, null };
+    return new Object[] { true, pass, res.getBarcodeFormat().toString(), res.getText() };
+  }  // end of detect()
+
+
+  public void close() {}
+
+}  // end of QRFrameDetector class
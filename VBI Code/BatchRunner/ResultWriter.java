@@ -0,0 +1,168 @@
+
+// ResultWriter.java
+
+/* Writes BatchRunner's per-frame results to a file, as CSV with a
+   header line, or as JSON lines (one JSON object per frame).
+
+   Every line starts with the frame number, the frame's label (its file
+   name, or its time in ms in a video), the time spent reading the frame
+   and the time spent in the detector (both in ms), followed by the
+   detector's own fields. A null field value is written as an empty
+   CSV field or a JSON null.
+*/
+
+import java.io.*;
+import java.util.Locale;
+
+
+
+public class ResultWriter
+{
+  private static final String[] FRAME_FIELDS = {"frame", "source", "read_ms", "detect_ms"};
+
+  private PrintWriter out = null;
+  private boolean isJSON;
+  private String[] fields;     // the detector's field names
+
+
+
+  public ResultWriter(String fnm, boolean isJSON, String[] fields)
+  {
+    this.isJSON = isJSON;
+    this.fields = fields;
+    try {
+      out = new PrintWriter( new BufferedWriter( new FileWriter(fnm)));
+    }
+    catch (IOException e)
+    { System.out.println("Could not write results to " + fnm);
+      return;
+    }
+
+    if (!isJSON) {     // write the CSV header
+      StringBuilder sb = new StringBuilder();
+      for (String f : FRAME_FIELDS)
+        sb.append(f).append(',');
+      for (int i = 0; i < fields.length; i++) {
+        if (i > 0)
+          sb.append(',');
+        sb.append(fields[i]);
+      }
+      out.println(sb);
+    }
+  }  // end of ResultWriter()
+
+
+
+  public boolean isOpen()
+  {  return (out != null);  }
+
+
+
+  public void write(int frameNo, String label, long readTime, long detectTime, Object[] vals)
+  // write one frame's results; the times are in ns
+  {
+    if (out == null)
+      return;
+    Object[] frameVals = { frameNo, label, toMs(readTime), toMs(detectTime) };
+    if (isJSON)
+      out.println( toJSON(frameVals, vals));
+    else
+      out.println( toCSV(frameVals, vals));
+  }  // end of write()
+
+
+  private String toMs(long time)
+  // always with a '.' decimal point, whatever the default locale
+  {  return String.format(Locale.ROOT, "%.3f", time/1000000.0);  }
+
+
+
+  private String toCSV(Object[] frameVals, Object[] vals)
+  {
+    StringBuilder sb = new StringBuilder();
+    for (Object v : frameVals)
+      sb.append( csvField(v)).append(',');
+    for (int i = 0; i < fields.length; i++) {
+      if (i > 0)
+        sb.append(',');
+      sb.append( csvField(vals[i]));
+    }
+    return sb.toString();
+  }  // end of toCSV()
+
+
+  private String csvField(Object v)
+  // quote the value if it contains a comma, quote, or line break
+  {
+    if (v == null)
+      return "";
+    String s = v.toString();
+    if ((s.indexOf(',') == -1) && (s.indexOf('"') == -1) &&
+        (s.indexOf('\n') == -1) && (s.indexOf('\r') == -1))
+      return s;
+    return "\"" + s.replace("\"", "\"\"") + "\"";
+  }  // end of csvField()
+
+
+
+  private String toJSON(Object[] frameVals, Object[] vals)
+  {
+    StringBuilder sb = new StringBuilder("{");
+    for (int i = 0; i < FRAME_FIELDS.length; i++) {
+      jsonField(sb, FRAME_FIELDS[i], frameVals[i], (i == 1));   // only the label is a string
+      sb.append(", ");
+    }
+    for (int i = 0; i < fields.length; i++) {
+      if (i > 0)
+        sb.append(", ");
+      jsonField(sb, fields[i], vals[i], (vals[i] instanceof String));
+    }
+    return sb.append('}').toString();
+  }  // end of toJSON()
+
+
+  private void jsonField(StringBuilder sb, String name, Object v, boolean isString)
+  {
+    sb.append('"').append(name).append("\": ");
+    if (v == null)
+      sb.append("null");
+    else if (isString)
+      sb.append( jsonString(v.toString()));
+    else
+      sb.append(v);    // a number or a Boolean
+  }  // end of jsonField()
+
+
+  private String jsonString(String s)
+  // quote the string, escaping quotes, backslashes, and control characters
+  {
+    StringBuilder sb = new StringBuilder("\"");
+    for (int i = 0; i < s.length(); i++) {
+      char ch = s.charAt(i);
+      if ((ch == '"') || (ch == '\\'))
+        sb.append('\\').append(ch);
+      else if (ch == '\n')
+        sb.append("\\n");
+      else if (ch == '\r')
+        sb.append("\\r");
+      else if (ch == '\t')
+        sb.append("\\t");
+      else if (ch < ' ')
+        sb.append( String.format("\\u%04x", (int)ch));
+      else
+        sb.append(ch);
+    }
+    return sb.append('"').toString();
+  }  // end of jsonString()
+
+
+
+  public void close()
+  {
+    if (out != null) {
+      out.close();
+      out = null;
+    }
+  }  // end of close()
+
+}  // end of ResultWriter class
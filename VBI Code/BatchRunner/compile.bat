@@ -0,0 +1,7 @@
+@echo off
+echo Compiling %* with ZXing, JavaCV, and OpenCV...
+
+rem the detectors are compiled from their chapter directories into this one
+javac -cp "../14. QRExec/javase/javase.jar;../14. QRExec/core/core.jar;d:\javacv-bin\javacv.jar;d:\javacv-bin\javacpp.jar;d:\javacv-bin\javacv-windows-x86.jar;." -sourcepath ".;../04. MotionDetection;../05. blobsDrums/BlobsDrumming;../06. HandDetector;../08. FPTemplates;../13. SudokuOCR;../14. QRExec" -d . %*
+
+echo Finished.
@@ -0,0 +1,6 @@
+@echo off
+echo Executing %* with ZXing, JavaCV, and OpenCV...
+
+java -cp "../14. QRExec/javase/javase.jar;../14. QRExec/core/core.jar;d:\javacv-bin\javacv.jar;d:\javacv-bin\javacpp.jar;d:\javacv-bin\javacv-windows-x86.jar;." -Djava.library.path="C:\opencv\build\x86\mingw\bin;." %*
+
+echo Finished.
@@ -5,21 +5,17 @@
  */
 package com.face;
 
-import java.awt.Graphics;
-import java.awt.Image;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import javax.imageio.ImageIO;
 import static jdk.nashorn.internal.objects.NativeDebug.getClass;
 import org.opencv.core.Core;
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfByte;
 import org.opencv.core.MatOfRect;
 import org.opencv.core.Point;
 import org.opencv.core.Rect;
 import org.opencv.core.Scalar;
+import org.opencv.core.Size;
 import org.opencv.highgui.Highgui;
 import org.opencv.highgui.VideoCapture;
+import org.opencv.imgproc.Imgproc;
 import org.opencv.objdetect.CascadeClassifier;
 
 /**
@@ -32,11 +28,22 @@ public class FaceDetection extends javax.swing.JFrame {
     int count = 0;
     VideoCapture webSource = null;
     Mat frame = new Mat();
-    MatOfByte mem = new MatOfByte();
     //CascadeClassifier faceDetector = new CascadeClassifier(getClass().getResource("haarcascade_frontalface_alt.xml").getPath().substring(1));
     CascadeClassifier faceDetector = new CascadeClassifier("/lbpcascade_frontalface.xml");
     MatOfRect faceDetections = new MatOfRect();    
 
+    // faces are detected in a gray copy of the frame, which can be made detectScale times smaller
+    // and equalized; the settings can be changed with -Dface.detectScale=2 etc. in the VM options.
+    // The defaults find the same faces as detecting in the full colour frame on the sample images
+    double detectScale = readDetectScale();
+    boolean equalize = Boolean.parseBoolean(System.getProperty("face.equalize", "false"));
+    double scaleFactor = Double.parseDouble(System.getProperty("face.scaleFactor", "1.1"));
+    int minNeighbors = Integer.parseInt(System.getProperty("face.minNeighbors", "3"));
+    int minFaceSize = Integer.parseInt(System.getProperty("face.minSize", "50"));    // in frame pixels; 0 means no limit
+    int maxFaceSize = Integer.parseInt(System.getProperty("face.maxSize", "0"));    // 0 means no limit
+    Mat grayFrame = new Mat();
+    Mat smallFrame = new Mat();
+
     class FaceThread implements Runnable {
         
         protected volatile boolean runnable = false;
@@ -48,23 +55,18 @@ public class FaceDetection extends javax.swing.JFrame {
                     if (webSource.grab()) {
                         try {
                             webSource.read(frame);
-                            Graphics g = Canvas.getGraphics();
-                            faceDetector.detectMultiScale(frame, faceDetections);
-                            System.out.println(String.format("Detected %s faces.", faceDetections.toArray().length));
-                            for (Rect rect : faceDetections.toArray()) {
+                            Rect[] faces = detectFaces(frame);
+                            System.out.println(String.format("Detected %s faces.", faces.length));
+                            for (Rect rect : faces) {
                                 System.out.println("ttt");
                                 Core.rectangle(frame, new Point(rect.x, rect.y), new Point(rect.x + rect.width, rect.y + rect.height),
                                         new Scalar(0, 255, 0));
                             }
-                            Highgui.imencode(".bmp", frame, mem);
-                            Image im = ImageIO.read(new ByteArrayInputStream(mem.toArray()));
-                            BufferedImage buff = (BufferedImage) im;
-                            if (g.drawImage(buff, 0, 0, getWidth(), getHeight() - 150, 0, 0, buff.getWidth(), buff.getHeight(), null)) {
-                                if (runnable == false) {
-                                    Highgui.imwrite("cam.jpg", frame);
-                                    System.out.println("Paused and Picture taken ..... ");
-                                    this.wait();
-                                }
+                            Canvas.showMat(frame);    // copied into the panel's image, then repainted
+                            if (runnable == false) {
+                                Highgui.imwrite("cam.jpg", frame);
+                                System.out.println("Paused and Picture taken ..... ");
+                                this.wait();
                             }
                         } catch (Exception ex) {
                             //
@@ -75,6 +77,51 @@ public class FaceDetection extends javax.swing.JFrame {
         }
     }
 
+    /**
+     * Reads face.detectScale. A scale which isn't more than 0 would
+     * divide by zero or flip the image, so 1 (no shrinking) is used instead.
+     */
+    static double readDetectScale() {
+        double scale = Double.parseDouble(System.getProperty("face.detectScale", "1"));
+        if (!(scale > 0)) {
+            System.out.println("face.detectScale must be more than 0; using 1");
+            scale = 1;
+        }
+        return scale;
+    }
+
+    /**
+     * Finds the faces in a gray copy of the frame, made detectScale times
+     * smaller (if detectScale isn't 1) and equalized (if equalize is set),
+     * so the cascade has fewer pixels and window sizes to scan. The Mats
+     * are reused for every frame. The rectangles are scaled back to the
+     * frame's size.
+     */
+    Rect[] detectFaces(Mat frame) {
+        Imgproc.cvtColor(frame, grayFrame, Imgproc.COLOR_BGR2GRAY);
+        Mat detectFrame = grayFrame;
+        if (detectScale != 1) {
+            Imgproc.resize(grayFrame, smallFrame, new Size(), 1 / detectScale, 1 / detectScale, Imgproc.INTER_AREA);
+            detectFrame = smallFrame;
+        }
+        if (equalize) {
+            Imgproc.equalizeHist(detectFrame, detectFrame);
+        }
+
+        Size minSize = new Size(minFaceSize / detectScale, minFaceSize / detectScale);
+        Size maxSize = (maxFaceSize > 0) ? new Size(maxFaceSize / detectScale, maxFaceSize / detectScale) : new Size();
+        faceDetector.detectMultiScale(detectFrame, faceDetections, scaleFactor, minNeighbors, 0, minSize, maxSize);
+
+        Rect[] faces = faceDetections.toArray();
+        for (Rect rect : faces) {
+            rect.x = (int) Math.round(rect.x * detectScale);
+            rect.y = (int) Math.round(rect.y * detectScale);
+            rect.width = (int) Math.round(rect.width * detectScale);
+            rect.height = (int) Math.round(rect.height * detectScale);
+        }
+        return faces;
+    }
+
 /////////
     /**
      * Creates new form FaceDetection
@@ -97,7 +144,7 @@ public class FaceDetection extends javax.swing.JFrame {
         jPanel1 = new javax.swing.JPanel();
         jPanel3 = new javax.swing.JPanel();
         jLabel1 = new javax.swing.JLabel();
-        Canvas = new javax.swing.JPanel();
+        Canvas = new com.face.MatPanel();
         Start = new javax.swing.JButton();
         Pause = new javax.swing.JButton();
         jPanel2 = new javax.swing.JPanel();
@@ -284,7 +331,7 @@ public class FaceDetection extends javax.swing.JFrame {
         });
     }
     // Variables declaration - do not modify//GEN-BEGIN:variables
-    private javax.swing.JPanel Canvas;
+    private com.face.MatPanel Canvas;
     private javax.swing.JButton Pause;
     private javax.swing.JButton Start;
     private javax.swing.JLabel jLabel1;
@@ -0,0 +1,76 @@
+package com.face;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import javax.swing.JPanel;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * A panel that shows the latest frame read from a VideoCapture.
+ *
+ * The frame's bytes are copied straight into the pixel array of a reused
+ * BufferedImage, so showing a frame costs one copy. There is no encoding
+ * and no decoding. The panel paints itself in paintComponent(), on the
+ * event dispatch thread.
+ *
+ * The capture thread fills the back image while the front image is
+ * painted. The two are swapped under a lock, so a frame is never painted
+ * while it is half copied.
+ */
+public class MatPanel extends JPanel {
+
+    private final Object imageLock = new Object();
+    private BufferedImage front = null;    // the image being painted
+    private BufferedImage back = null;     // the image being filled by showMat()
+
+    /**
+     * Copies the frame into the back image, swaps it to the front and asks
+     * for a repaint. It is called by the capture thread.
+     */
+    public void showMat(Mat frame) {
+        back = toBufferedImage(frame, back);
+        synchronized (imageLock) {
+            BufferedImage im = front;
+            front = back;
+            back = im;
+        }
+        repaint();
+    }
+
+    /**
+     * Copies an 8-bit gray or BGR Mat into im. A new image is made only if
+     * im is null or doesn't match the Mat's size and type.
+     */
+    public static BufferedImage toBufferedImage(Mat m, BufferedImage im) {
+        if (m.depth() != CvType.CV_8U) {
+            throw new IllegalArgumentException("Only 8-bit images can be shown");
+        }
+        int type;
+        if (m.channels() == 1) {
+            type = BufferedImage.TYPE_BYTE_GRAY;
+        } else if (m.channels() == 3) {
+            type = BufferedImage.TYPE_3BYTE_BGR;     // the same byte order as OpenCV
+        } else {
+            throw new IllegalArgumentException("Can't show an image with " + m.channels() + " channels");
+        }
+
+        if ((im == null) || (im.getWidth() != m.cols()) || (im.getHeight() != m.rows()) || (im.getType() != type)) {
+            im = new BufferedImage(m.cols(), m.rows(), type);
+        }
+        byte[] pixels = ((DataBufferByte) im.getRaster().getDataBuffer()).getData();
+        m.get(0, 0, pixels);
+        return im;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        synchronized (imageLock) {
+            if (front != null) {
+                g.drawImage(front, 0, 0, getWidth(), getHeight(), null);
+            }
+        }
+    }
+}